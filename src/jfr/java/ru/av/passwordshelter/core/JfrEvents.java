@@ -0,0 +1,58 @@
+package ru.av.passwordshelter.core;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+final class JfrEvents implements Instrumentation.Events {
+
+    @Override
+    public Object beginOperation(String operation) {
+        OperationEvent event = new OperationEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.operation = operation;
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public Object beginPhase(String operation, Phase phase) {
+        PhaseEvent event = new PhaseEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.operation = operation;
+        event.phase = phase.name();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void commit(Object event) {
+        ((Event) event).commit();
+    }
+
+    @Name("ru.av.passwordshelter.Operation")
+    @Label("Vault Operation")
+    @Category("Password Shelter")
+    static class OperationEvent extends Event {
+
+        @Label("Operation")
+        String operation;
+    }
+
+    @Name("ru.av.passwordshelter.Phase")
+    @Label("Vault Operation Phase")
+    @Category("Password Shelter")
+    static class PhaseEvent extends Event {
+
+        @Label("Operation")
+        String operation;
+
+        @Label("Phase")
+        String phase;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,139 @@
+package ru.av.passwordshelter.agent;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.av.passwordshelter.core.CryptException;
+import ru.av.passwordshelter.core.JsonManager;
+import ru.av.passwordshelter.core.KeyDerivation;
+import ru.av.passwordshelter.core.ManagerException;
+import ru.av.passwordshelter.core.Operation;
+import ru.av.passwordshelter.core.Session;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@Fork(1)
+public class StartupBenchmark {
+
+    private static final String MASTER_PASSWORD = "benchmark master password";
+    private static final int ENTRIES = 1000;
+
+    @Param({"jar", "cds", "native"})
+    private String launcher;
+
+    private Path home;
+    private Session session;
+    private Agent agent;
+    private List<String> command;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, CryptException, ManagerException {
+        home = Files.createTempDirectory("startup-benchmark");
+        command = command(launcher);
+        JsonManager manager = new JsonManager(home.resolve("vault").toString());
+        manager.setKeyDerivation(KeyDerivation.pbkdf2Sha256(1000));
+        manager.createFile(MASTER_PASSWORD);
+        List<Operation> operations = new ArrayList<>();
+        for (int i = 0; i < ENTRIES; i++) {
+            operations.add(Operation.add("source" + i % 50, "account" + i, "password" + i));
+        }
+        manager.apply(operations, MASTER_PASSWORD);
+        session = manager.unlock(MASTER_PASSWORD);
+        agent = new Agent(session, home.resolve(".password_shelter").resolve("agent"));
+        agent.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        agent.stop();
+        session.close();
+        delete(home.toFile());
+    }
+
+    @Benchmark
+    public String sources() throws IOException, InterruptedException {
+        return firstLine("sources");
+    }
+
+    @Benchmark
+    public String password() throws IOException, InterruptedException {
+        return firstLine("password", "source1", "account1");
+    }
+
+    private String firstLine(String... arguments) throws IOException, InterruptedException {
+        List<String> process = new ArrayList<>(command);
+        process.addAll(Arrays.asList(arguments));
+        Process started = new ProcessBuilder(process).redirectErrorStream(true).start();
+        String line;
+        try (BufferedReader output = new BufferedReader(new InputStreamReader(started.getInputStream(), StandardCharsets.UTF_8))) {
+            line = output.readLine();
+        }
+        if (started.waitFor() != 0 || line == null) {
+            throw new IllegalStateException("Command " + process + " failed: " + line);
+        }
+        return line;
+    }
+
+    private List<String> command(String launcher) {
+        Path jar = artifact("passwordshelter.jar", "build/libs/passwordshelter-1.0.jar");
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        String userHome = "-Duser.home=" + home;
+        switch (launcher) {
+            case "jar":
+                return new ArrayList<>(Arrays.asList(java, userHome, "-jar", jar.toString(), "client"));
+            case "cds":
+                Path archive = artifact("passwordshelter.jsa", "build/libs/passwordshelter.jsa");
+                return new ArrayList<>(Arrays.asList(java, "-XX:SharedArchiveFile=" + archive, "-XX:TieredStopAtLevel=1",
+                        "-XX:+UseSerialGC", userHome, "-jar", jar.toString(), "client"));
+            case "native":
+                Path binary = artifact("passwordshelter.native", "build/native/passwordshelter");
+                return new ArrayList<>(Arrays.asList(binary.toString(), userHome, "client"));
+            default:
+                throw new IllegalArgumentException("Unknown launcher: " + launcher);
+        }
+    }
+
+    private static Path artifact(String property, String defaultPath) {
+        Path path = Paths.get(System.getProperty(property, defaultPath));
+        if (!Files.exists(path)) {
+            throw new IllegalStateException(path + " is missing, build it first or point -D" + property + " to it");
+        }
+        return path;
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
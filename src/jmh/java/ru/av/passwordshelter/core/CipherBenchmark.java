@@ -0,0 +1,75 @@
+package ru.av.passwordshelter.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CipherBenchmark {
+
+    private static final int WARM_UP_CALLS = 20000;
+
+    @Param({"cbc", "gcm"})
+    private String cipher;
+
+    @Param({"1048576", "4194304", "16777216"})
+    private int size;
+
+    private CryptKey key;
+    private byte[] bytes;
+    private byte[] encrypted;
+
+    @Setup
+    public void setUp() throws CryptException {
+        byte[] salt = VaultHeader.create().getSalt();
+        Crypt crypt = "gcm".equals(cipher) ? new AESGCM() : new AES256();
+        try (Secret password = Secret.of("benchmark master password")) {
+            key = crypt.deriveKey(password, salt, KeyDerivation.pbkdf2Sha256(1000));
+        }
+        bytes = new byte[size];
+        new Random(42).nextBytes(bytes);
+        encrypted = key.encrypt(bytes);
+        warmUp();
+    }
+
+    @TearDown
+    public void tearDown() {
+        key.wipe();
+    }
+
+    private void warmUp() throws CryptException {
+        // A few multi-MB calls never reach the call count at which C2 compiles the AES and GHASH intrinsics,
+        // so the cipher is first run on small blocks the way a vault with many records would run it
+        byte[] block = new byte[1024];
+        for (int i = 0; i < WARM_UP_CALLS; i++) {
+            key.decrypt(key.encrypt(block));
+        }
+    }
+
+    @Benchmark
+    public byte[] encrypt() throws CryptException {
+        return key.encrypt(bytes);
+    }
+
+    @Benchmark
+    public byte[] decrypt() throws CryptException {
+        return key.decrypt(encrypted);
+    }
+}
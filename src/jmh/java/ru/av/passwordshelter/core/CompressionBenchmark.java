@@ -0,0 +1,119 @@
+package ru.av.passwordshelter.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgs = {"-Xms2g", "-Xmx2g"})
+public class CompressionBenchmark {
+
+    private static final String MASTER_PASSWORD = "benchmark master password";
+    private static final String[] DOMAINS = {"github.com", "mail.google.com", "amazon.com", "news.ycombinator.com"};
+
+    @Param({"1000", "100000", "1000000"})
+    private int entries;
+
+    @Param({"0", "1", "6"})
+    private int level;
+
+    private Path directory;
+    private JsonManager manager;
+    private Session session;
+    private byte[] index;
+    private byte[] compressed;
+    private int counter = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, CryptException, ManagerException {
+        directory = Files.createTempDirectory("compression-benchmark");
+        String filename = directory.resolve("vault").toString();
+        manager = new JsonManager(filename);
+        manager.setCompressionLevel(level);
+        manager.setCompressionThreshold(0);
+        manager.setKeyDerivation(KeyDerivation.pbkdf2Sha256(1000));
+        manager.createFile(MASTER_PASSWORD);
+        List<Operation> operations = new ArrayList<>(entries);
+        for (int i = 0; i < entries; i++) {
+            operations.add(Operation.add(source(i), account(i), "password" + i));
+        }
+        manager.apply(operations, MASTER_PASSWORD);
+        session = manager.unlock(MASTER_PASSWORD);
+        Vault vault = new Vault();
+        for (int i = 0; i < entries; i++) {
+            Journal.apply(vault, Journal.ADD, source(i), account(i), new byte[32]);
+        }
+        index = vault.toIndex();
+        compressed = Deflate.compress(index, level);
+        System.out.printf("%n%d entries, level %d: file %d bytes, index %d -> %d bytes%n",
+                entries, level, new File(filename).length(), index.length, compressed.length);
+    }
+
+    @TearDown(Level.Iteration)
+    public void awaitCompaction() {
+        manager.awaitCompaction();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        session.close();
+        File[] files = directory.toFile().listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.toFile().delete();
+    }
+
+    @Benchmark
+    public byte[] compress() {
+        return Deflate.compress(index, level);
+    }
+
+    @Benchmark
+    public byte[] decompress() throws ManagerException {
+        return Deflate.decompress(compressed);
+    }
+
+    @Benchmark
+    public List<String> getSourceList() throws IOException, CryptException, ManagerException {
+        return session.getSourceList();
+    }
+
+    @Benchmark
+    public List<OperationResult> apply() throws IOException, CryptException, ManagerException {
+        return session.apply(Collections.singletonList(Operation.change(source(0), account(0), "password" + counter++)));
+    }
+
+    private static String source(int index) {
+        return "source" + index / 100;
+    }
+
+    private static String account(int index) {
+        return "user" + index + "@" + DOMAINS[index % DOMAINS.length];
+    }
+}
@@ -0,0 +1,99 @@
+package ru.av.passwordshelter.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CryptBenchmark {
+
+    private static final String PASSWORD = "benchmark master password";
+
+    @Param({"16", "1024", "1048576"})
+    private int size;
+
+    private AES256 crypt;
+    private CryptKey key;
+    private String content;
+    private String encrypted;
+    private byte[] bytes;
+    private byte[] encryptedBytes;
+    private byte[] encryptedStream;
+
+    @Setup
+    public void setUp() throws IOException, CryptException {
+        crypt = new AES256();
+        key = crypt.deriveKey(PASSWORD);
+        Random random = new Random(42);
+        StringBuilder builder = new StringBuilder(size);
+        for (int i = 0; i < size; i++) {
+            builder.append((char) ('a' + random.nextInt(26)));
+        }
+        content = builder.toString();
+        encrypted = crypt.encrypt(content, PASSWORD);
+        bytes = new byte[size];
+        random.nextBytes(bytes);
+        encryptedBytes = key.encrypt(bytes);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        crypt.encrypt(new ByteArrayInputStream(bytes), output, PASSWORD);
+        encryptedStream = output.toByteArray();
+    }
+
+    @Benchmark
+    public String encrypt() throws CryptException {
+        return crypt.encrypt(content, PASSWORD);
+    }
+
+    @Benchmark
+    public String decrypt() throws CryptException {
+        return crypt.decrypt(encrypted, PASSWORD);
+    }
+
+    @Benchmark
+    public CryptKey deriveKey() throws CryptException {
+        return crypt.deriveKey(PASSWORD);
+    }
+
+    @Benchmark
+    public byte[] keyEncrypt() throws CryptException {
+        return key.encrypt(bytes);
+    }
+
+    @Benchmark
+    public byte[] keyDecrypt() throws CryptException {
+        return key.decrypt(encryptedBytes);
+    }
+
+    @Benchmark
+    public byte[] streamEncrypt() throws IOException, CryptException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream(size + 1024);
+        crypt.encrypt(new ByteArrayInputStream(bytes), output, PASSWORD);
+        return output.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] streamDecrypt() throws IOException, CryptException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream(size);
+        crypt.decrypt(new ByteArrayInputStream(encryptedStream), output, PASSWORD);
+        return output.toByteArray();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,102 @@
+package ru.av.passwordshelter.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FileWorkerBenchmark {
+
+    @Param({"PLAIN", "ATOMIC", "FSYNC", "FSYNC_DIRECTORY"})
+    private TextFileWorker.Durability durability;
+
+    @Param({"1024", "1048576"})
+    private int size;
+
+    private Path directory;
+    private String filename;
+    private byte[] content;
+    private String text;
+    private byte[] entry;
+    private TextFileWorker fileWorker;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("file-worker-benchmark");
+        filename = directory.resolve("vault").toString();
+        Random random = new Random(42);
+        content = new byte[size];
+        random.nextBytes(content);
+        StringBuilder builder = new StringBuilder(size);
+        for (int i = 0; i < size; i++) {
+            builder.append((char) ('a' + random.nextInt(26)));
+        }
+        text = builder.toString();
+        entry = new byte[100];
+        random.nextBytes(entry);
+        fileWorker = new TextFileWorker(durability);
+    }
+
+    @Setup(Level.Iteration)
+    public void resetFile() throws IOException {
+        fileWorker.write(content, filename);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        File[] files = directory.toFile().listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.toFile().delete();
+    }
+
+    @Benchmark
+    public void write() throws IOException {
+        fileWorker.write(content, filename);
+    }
+
+    @Benchmark
+    public void append() throws IOException {
+        fileWorker.append(entry, filename);
+    }
+
+    @Benchmark
+    public void writeText() throws IOException {
+        fileWorker.write(text, filename);
+    }
+
+    @Benchmark
+    public String readText() throws IOException {
+        return fileWorker.read(filename);
+    }
+
+    @Benchmark
+    public byte[] readBytes() throws IOException {
+        return fileWorker.readBytes(filename);
+    }
+}
\ No newline at end of file
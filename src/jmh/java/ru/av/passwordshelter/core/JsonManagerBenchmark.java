@@ -0,0 +1,197 @@
+package ru.av.passwordshelter.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgs = {"-Xms2g", "-Xmx2g"})
+public class JsonManagerBenchmark {
+
+    private static final String MASTER_PASSWORD = "benchmark master password";
+    private static final String OTHER_MASTER_PASSWORD = "other benchmark master password";
+    private static final int ACCOUNTS_PER_SOURCE = 100;
+    private static final int BATCH_SIZE = 100;
+
+    @Param({"10", "1000", "100000", "1000000"})
+    private int entries;
+
+    private Path directory;
+    private JsonManager manager;
+    private Session session;
+    private String masterPassword = MASTER_PASSWORD;
+    private String source;
+    private String account;
+    private int counter = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, CryptException, ManagerException {
+        directory = Files.createTempDirectory("manager-benchmark");
+        manager = new JsonManager(directory.resolve("vault").toString());
+        manager.createFile(MASTER_PASSWORD);
+        manager.importEntries(new GeneratedEntries(entries), null, MASTER_PASSWORD);
+        int middle = entries / 2;
+        source = source(middle);
+        account = account(middle);
+        session = manager.unlock(MASTER_PASSWORD);
+    }
+
+    @TearDown(Level.Iteration)
+    public void awaitCompaction() {
+        manager.awaitCompaction();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        session.close();
+        File[] files = directory.toFile().listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.toFile().delete();
+    }
+
+    @Benchmark
+    public Session unlock() throws IOException, CryptException, ManagerException {
+        try (Session unlocked = manager.unlock(MASTER_PASSWORD)) {
+            return unlocked;
+        }
+    }
+
+    @Benchmark
+    public List<String> getSourceList() throws IOException, CryptException, ManagerException {
+        return session.getSourceList();
+    }
+
+    @Benchmark
+    public Map<String, List<String>> getAllAccountsMap() throws IOException, CryptException, ManagerException {
+        return session.getAllAccountsMap();
+    }
+
+    @Benchmark
+    public List<String> getAccountList() throws IOException, CryptException, ManagerException {
+        return session.getAccountList(source);
+    }
+
+    @Benchmark
+    public String getPassword() throws IOException, CryptException, ManagerException {
+        return session.getPassword(source, account);
+    }
+
+    @Benchmark
+    public int getSecret() throws IOException, CryptException, ManagerException {
+        try (Secret secret = session.getSecret(source, account)) {
+            return secret.length();
+        }
+    }
+
+    @Benchmark
+    public List<SearchResult> search() throws IOException, CryptException, ManagerException {
+        return session.search(account, 10);
+    }
+
+    @Benchmark
+    public long getRevision()throws IOException, CryptException, ManagerException {
+        return session.getRevision();
+    }
+
+    @Benchmark
+    public void addAndDelete() throws IOException, CryptException, ManagerException {
+        session.add("benchmark", "account", "password");
+        session.delete("benchmark", "account");
+    }
+
+    @Benchmark
+    public void changePassword() throws IOException, CryptException, ManagerException {
+        session.changePassword(source, account, "password" + counter++);
+    }
+
+    @Benchmark
+    public List<OperationResult> apply() throws IOException, CryptException, ManagerException {
+        List<Operation> operations = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            operations.add(Operation.change(source(i % entries), account(i % entries), "password" + counter++));
+        }
+        return session.apply(operations);
+    }
+
+    @Benchmark
+    public long exportEntries() throws IOException, CryptException, ManagerException {
+        return session.exportEntries(new DiscardingEntries(), null);
+    }
+
+    @Benchmark
+    public void changeMasterPassword() throws IOException, CryptException, ManagerException {
+        String newMasterPassword = masterPassword.equals(MASTER_PASSWORD) ? OTHER_MASTER_PASSWORD : MASTER_PASSWORD;
+        manager.changeMasterPassword(masterPassword, newMasterPassword);
+        masterPassword = newMasterPassword;
+    }
+
+    private static String source(int index) {
+        return "source" + index / ACCOUNTS_PER_SOURCE;
+    }
+
+    private static String account(int index) {
+        return "account" + index % ACCOUNTS_PER_SOURCE;
+    }
+
+    private static class GeneratedEntries implements EntryReader {
+
+        private final int entries;
+        private int index = 0;
+
+        GeneratedEntries(int entries) {
+            this.entries = entries;
+        }
+
+        @Override
+        public Operation next() {
+            if (index == entries) {
+                return null;
+            }
+            Operation operation = Operation.add(source(index), account(index), "password" + index);
+            index++;
+            return operation;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static class DiscardingEntries implements EntryWriter {
+
+        @Override
+        public void write(String source, String account, String password) {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,348 @@
+package ru.av.passwordshelter.agent;
+
+import ru.av.passwordshelter.core.CryptException;
+import ru.av.passwordshelter.core.JsonManager;
+import ru.av.passwordshelter.core.Manager;
+import ru.av.passwordshelter.core.ManagerException;
+import ru.av.passwordshelter.core.SearchResult;
+import ru.av.passwordshelter.core.Secret;
+import ru.av.passwordshelter.core.Session;
+import ru.av.passwordshelter.core.StoreManager;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class Agent {
+
+    private static final int TOKEN_LENGTH = 32;
+    private static final long START_TIMEOUT = 10_000;
+    private static final int HANDSHAKE_TIMEOUT = 5_000;
+    private static final int SEARCH_LIMIT = 20;
+    private static final int MAX_PASSWORD_LENGTH = 4096;
+
+    private final Session session;
+    private final Path agentFile;
+    private final String token;
+    private final ExecutorService workers = Executors.newCachedThreadPool(r -> daemon(r, "agent-connection"));
+    private final ScheduledExecutorService watcher = Executors.newSingleThreadScheduledExecutor(r -> daemon(r, "agent-lock-watcher"));
+    private ServerSocket serverSocket;
+    private volatile boolean stopped = false;
+
+    public Agent(Session session, Path agentFile) {
+        this.session = session;
+        this.agentFile = agentFile;
+        byte[] bytes = new byte[TOKEN_LENGTH];
+        new SecureRandom().nextBytes(bytes);
+        StringBuilder hex = new StringBuilder();
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        this.token = hex.toString();
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: Agent <filename> [idle-minutes]");
+            System.exit(2);
+        }
+        long idleMinutes = args.length == 2 ? Long.parseLong(args[1]) : 15;
+        Manager manager;
+        if (StoreManager.isStore(args[0])) {
+            StoreManager store = new StoreManager(args[0]);
+            store.setIdleTimeout(idleMinutes, TimeUnit.MINUTES);
+            manager = store;
+        } else {
+            JsonManager json = new JsonManager(args[0]);
+            json.setIdleTimeout(idleMinutes, TimeUnit.MINUTES);
+            manager = json;
+        }
+        Session session;
+        try (Secret masterPassword = readLine(System.in)) {
+            session = manager.unlock(masterPassword);
+        } catch (CryptException | ManagerException e) {
+            System.err.println("Wrong master password!");
+            System.exit(1);
+            return;
+        }
+        Agent agent = new Agent(session, AgentProtocol.defaultFile());
+        agent.start();
+        agent.await();
+    }
+
+    public static void startProcess(String filename, Secret masterPassword, long idleMinutes) throws IOException, AgentException {
+        Path agentFile = AgentProtocol.defaultFile();
+        Path log = agentFile.resolveSibling("agent.log");
+        Files.createDirectories(log.getParent());
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), Agent.class.getName(),
+                filename, String.valueOf(idleMinutes))
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.appendTo(log.toFile()))
+                .start();
+        try (OutputStream output = process.getOutputStream()) {
+            masterPassword.writeTo(output);
+            output.write('\n');
+        }
+        long deadline = System.currentTimeMillis() + START_TIMEOUT;
+        while (System.currentTimeMillis() < deadline) {
+            if (!process.isAlive()) {
+                throw new AgentException("Agent exited, see " + log);
+            }
+            try (AgentClient client = AgentClient.connect(agentFile)) {
+                if (client.call("revision").size() == 1) {
+                    return;
+                }
+            } catch (IOException | AgentException e) {
+                // not listening yet, or an older agent is still shutting down
+            }
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        process.destroy();
+        throw new AgentException("Agent did not start in time");
+    }
+
+    public synchronized void start() throws IOException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        writeAgentFile();
+        watcher.scheduleWithFixedDelay(() -> {
+            if (session.isLocked()) {
+                stop();
+            }
+        }, 1, 1, TimeUnit.SECONDS);
+        workers.execute(this::acceptLoop);
+    }
+
+    public void await() {
+        try {
+            watcher.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public synchronized void stop() {
+        if (stopped) {
+            return;
+        }
+        stopped = true;
+        session.lock();
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            // the socket is going away anyway
+        }
+        try {
+            List<String> lines = Files.readAllLines(agentFile, StandardCharsets.UTF_8);
+            if (lines.size() > 1 && lines.get(1).equals(token)) {
+                Files.delete(agentFile);
+            }
+        } catch (IOException e) {
+            // another agent replaced the file or it was removed by hand
+        }
+        workers.shutdownNow();
+        watcher.shutdown();
+    }
+
+    private void acceptLoop() {
+        while (!stopped) {
+            try {
+                Socket socket = serverSocket.accept();
+                workers.execute(() -> serve(socket));
+            } catch (IOException e) {
+                if (!stopped) {
+                    stop();
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (Socket connection = socket;
+             DataInputStream input = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+             DataOutputStream output = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()))) {
+            connection.setTcpNoDelay(true);
+            connection.setSoTimeout(HANDSHAKE_TIMEOUT);
+            if (!MessageDigest.isEqual(token.getBytes(StandardCharsets.UTF_8), input.readUTF().getBytes(StandardCharsets.UTF_8))) {
+                respond(output, AgentProtocol.ERROR, Collections.singletonList("Wrong agent token"));
+                return;
+            }
+            connection.setSoTimeout(0);
+            respond(output, AgentProtocol.OK, Collections.emptyList());
+            while (!stopped) {
+                List<String> command;
+                try {
+                    command = AgentProtocol.readStrings(input);
+                } catch (EOFException e) {
+                    return;
+                }
+                try {
+                    respond(output, AgentProtocol.OK, handle(command));
+                } catch (AgentException | ManagerException e) {
+                    respond(output, AgentProtocol.ERROR, Collections.singletonList(e.getMessage()));
+                } catch (CryptException e) {
+                    respond(output, AgentProtocol.ERROR, Collections.singletonList("Agent is locked"));
+                    stop();
+                }
+            }
+        } catch (IOException e) {
+            // the client went away
+        }
+    }
+
+    private List<String> handle(List<String> command) throws IOException, CryptException, ManagerException, AgentException {
+        if (command.isEmpty()) {
+            throw new AgentException("Empty command");
+        }
+        switch (command.get(0)) {
+            case "sources":
+                checkArguments(command, 0);
+                return session.getSourceList();
+            case "all-accounts":
+                checkArguments(command, 0);
+                List<String> pairs = new ArrayList<>();
+                for (Map.Entry<String, List<String>> source : session.getAllAccountsMap().entrySet()) {
+                    for (String account : source.getValue()) {
+                        pairs.add(source.getKey());
+                        pairs.add(account);
+                    }
+                }
+                return pairs;
+            case "accounts":
+                checkArguments(command, 1);
+                return session.getAccountList(command.get(1));
+            case "password":
+                checkArguments(command, 2);
+                return Collections.singletonList(session.getPassword(command.get(1), command.get(2)));
+            case "add":
+                checkArguments(command, 3);
+                session.add(command.get(1), command.get(2), command.get(3));
+                return Collections.emptyList();
+            case "change":
+                checkArguments(command, 3);
+                session.changePassword(command.get(1), command.get(2), command.get(3));
+                return Collections.emptyList();
+            case "delete":
+                checkArguments(command, 2);
+                session.delete(command.get(1), command.get(2));
+                return Collections.emptyList();
+            case "search":
+                checkArguments(command, 1);
+                List<String> found = new ArrayList<>();
+                for (SearchResult result : session.search(command.get(1), SEARCH_LIMIT)) {
+                    found.add(result.getSource());
+                    found.add(result.getAccount());
+                }
+                return found;
+            case "revision":
+                checkArguments(command, 0);
+                return Collections.singletonList(String.valueOf(session.getRevision()));
+            case "stop":
+                checkArguments(command, 0);
+                workers.execute(this::stop);
+                return Collections.emptyList();
+            default:
+                throw new AgentException("Unknown command: " + command.get(0));
+        }
+    }
+
+    private static Secret readLine(InputStream input) throws IOException {
+        byte[] line = new byte[MAX_PASSWORD_LENGTH];
+        int length = 0;
+        try {
+            int b;
+            while ((b = input.read()) != -1 && b != '\n') {
+                if (length == line.length) {
+                    throw new IOException("Master password is too long");
+                }
+                line[length++] = (byte) b;
+            }
+            if (length > 0 && line[length - 1] == '\r') {
+                length--;
+            }
+            return Secret.of(line, 0, length);
+        } finally {
+            Arrays.fill(line, (byte) 0);
+        }
+    }
+
+    private static void checkArguments(List<String> command, int count) throws AgentException {
+        if (command.size() != count + 1) {
+            throw new AgentException("Command " + command.get(0) + " takes " + count + " arguments");
+        }
+    }
+
+    private static void respond(DataOutputStream output, int status, List<String> strings) throws IOException {
+        output.writeByte(status);
+        AgentProtocol.writeStrings(output, strings);
+        output.flush();
+    }
+
+    private void writeAgentFile() throws IOException {
+        Path directory = agentFile.toAbsolutePath().getParent();
+        boolean posix = FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+        if (!Files.exists(directory)) {
+            if (posix) {
+                Files.createDirectories(directory, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+            } else {
+                Files.createDirectories(directory);
+            }
+        }
+        Path tmp = Files.createTempFile(directory, "agent", ".tmp");
+        try {
+            if (posix) {
+                Files.setPosixFilePermissions(tmp, PosixFilePermissions.fromString("rw-------"));
+            }
+            Files.write(tmp, (getPort() + "\n" + token + "\n").getBytes(StandardCharsets.UTF_8));
+            try {
+                Files.move(tmp, agentFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, agentFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static Thread daemon(Runnable runnable, String name) {
+        Thread thread = Executors.defaultThreadFactory().newThread(runnable);
+        thread.setName(name);
+        thread.setDaemon(true);
+        return thread;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,121 @@
+package ru.av.passwordshelter.agent;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+public class AgentClient implements Closeable {
+
+    private final Socket socket;
+    private final DataInputStream input;
+    private final DataOutputStream output;
+
+    private AgentClient(Socket socket) throws IOException {
+        this.socket = socket;
+        this.socket.setTcpNoDelay(true);
+        this.input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        this.output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    }
+
+    public static AgentClient connect() throws IOException, AgentException {
+        return connect(AgentProtocol.defaultFile());
+    }
+
+    public static AgentClient connect(Path agentFile) throws IOException, AgentException {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(agentFile, StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            throw new AgentException("Agent is not running");
+        }
+        if (lines.size() < 2) {
+            throw new AgentException("Wrong agent file: " + agentFile);
+        }
+        int port;
+        try {
+            port = Integer.parseInt(lines.get(0).trim());
+        } catch (NumberFormatException e) {
+            throw new AgentException("Wrong agent file: " + agentFile);
+        }
+        if (port <= 0 || port > 65535) {
+            throw new AgentException("Wrong agent file: " + agentFile);
+        }
+        AgentClient client = new AgentClient(new Socket(InetAddress.getLoopbackAddress(), port));
+        try {
+            client.output.writeUTF(lines.get(1).trim());
+            client.output.flush();
+            client.readResponse();
+        } catch (IOException | AgentException e) {
+            client.close();
+            throw e;
+        }
+        return client;
+    }
+
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            System.err.println("Usage: AgentClient <command> [arguments]");
+            System.exit(2);
+        }
+        List<String> command = Arrays.asList(args);
+        try (AgentClient client = connect()) {
+            if (("add".equals(args[0]) || "change".equals(args[0])) && args.length == 3) {
+                String password = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)).readLine();
+                command = Arrays.asList(args[0], args[1], args[2], password == null ? "" : password);
+            }
+            List<String> result = client.call(command);
+            if ("all-accounts".equals(args[0]) || "search".equals(args[0])) {
+                for (int i = 0; i + 1 < result.size(); i += 2) {
+                    System.out.println(result.get(i) + "\t" + result.get(i + 1));
+                }
+            } else {
+                for (String line : result) {
+                    System.out.println(line);
+                }
+            }
+        } catch (AgentException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        } catch (IOException e) {
+            System.err.println("Agent is not available!");
+            System.exit(1);
+        }
+    }
+
+    public List<String> call(String... command) throws IOException, AgentException {
+        return call(Arrays.asList(command));
+    }
+
+    public List<String> call(List<String> command) throws IOException, AgentException {
+        AgentProtocol.writeStrings(output, command);
+        output.flush();
+        return readResponse();
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    private List<String> readResponse() throws IOException, AgentException {
+        int status = input.readUnsignedByte();
+        List<String> strings = AgentProtocol.readStrings(input);
+        if (status != AgentProtocol.OK) {
+            throw new AgentException(strings.isEmpty() ? "Agent error" : strings.get(0));
+        }
+        return strings;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,8 @@
+package ru.av.passwordshelter.agent;
+
+public class AgentException extends Exception {
+
+    AgentException(String message) {
+        super(message);
+    }
+}
\ No newline at end of file
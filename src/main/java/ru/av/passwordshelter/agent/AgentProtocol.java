@@ -0,0 +1,42 @@
+package ru.av.passwordshelter.agent;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+class AgentProtocol {
+
+    static final int OK = 0;
+    static final int ERROR = 1;
+    static final int MAX_STRINGS = 1 << 20;
+
+    private AgentProtocol() {
+    }
+
+    static Path defaultFile() {
+        return Paths.get(System.getProperty("user.home"), ".password_shelter", "agent");
+    }
+
+    static void writeStrings(DataOutputStream output, List<String> strings) throws IOException {
+        output.writeInt(strings.size());
+        for (String string : strings) {
+            output.writeUTF(string);
+        }
+    }
+
+    static List<String> readStrings(DataInputStream input) throws IOException {
+        int count = input.readInt();
+        if (count < 0 || count > MAX_STRINGS) {
+            throw new IOException("Wrong string count: " + count);
+        }
+        List<String> strings = new ArrayList<>(Math.min(count, 1024));
+        for (int i = 0; i < count; i++) {
+            strings.add(input.readUTF());
+        }
+        return strings;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,40 @@
+package ru.av.passwordshelter.console;
+
+import ru.av.passwordshelter.core.Secret;
+
+import java.awt.HeadlessException;
+import java.awt.Toolkit;
+import java.awt.datatransfer.StringSelection;
+import java.io.IOException;
+import java.util.Arrays;
+
+class AwtClipboardSink implements ClipboardSink {
+
+    @Override
+    public void copy(Secret text) throws IOException {
+        char[] chars = text.toChars();
+        try {
+            setContents(new String(chars));
+        } finally {
+            Arrays.fill(chars, '\0');
+        }
+    }
+
+    @Override
+    public void clear() throws IOException {
+        setContents("");
+    }
+
+    @Override
+    public String getName() {
+        return "awt";
+    }
+
+    private static void setContents(String text) throws IOException {
+        try {
+            Toolkit.getDefaultToolkit().getSystemClipboard().setContents(new StringSelection(text), null);
+        } catch (HeadlessException | IllegalStateException e) {
+            throw new IOException("System clipboard is not available", e);
+        }
+    }
+}
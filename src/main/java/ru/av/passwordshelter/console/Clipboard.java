@@ -0,0 +1,142 @@
+package ru.av.passwordshelter.console;
+
+import ru.av.passwordshelter.core.Secret;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+class Clipboard {
+
+    static final long DEFAULT_CLEAR_SECONDS = 30;
+
+    private final ScheduledThreadPoolExecutor scheduler;
+    private ClipboardSink sink;
+    private long clearSeconds;
+    private ScheduledFuture<?> pendingClear;
+    private long generation;
+
+    Clipboard(ClipboardSink sink, long clearSeconds) {
+        this.sink = sink;
+        this.clearSeconds = clearSeconds;
+        this.scheduler = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = Executors.defaultThreadFactory().newThread(r);
+            thread.setName("clipboard-clear");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler.setRemoveOnCancelPolicy(true);
+    }
+
+    static ClipboardSink detect(Map<String, String> env, boolean terminal, PrintStream stdout) {
+        String path = env.get("PATH");
+        String os = System.getProperty("os.name", "");
+        boolean desktop = os.startsWith("Windows") || os.startsWith("Mac");
+        boolean osc52 = terminal && env.containsKey("TERM") && !env.get("TERM").equals("dumb");
+        if (env.containsKey("WAYLAND_DISPLAY") && CommandClipboardSink.onPath("wl-copy", path)) {
+            return CommandClipboardSink.wlCopy();
+        }
+        if (env.containsKey("DISPLAY") && CommandClipboardSink.onPath("xclip", path)) {
+            return CommandClipboardSink.xclip();
+        }
+        if (osc52 && (env.containsKey("SSH_TTY") || env.containsKey("SSH_CONNECTION"))) {
+            return new Osc52ClipboardSink(stdout, env.containsKey("TMUX"));
+        }
+        if (desktop || env.containsKey("DISPLAY") || env.containsKey("WAYLAND_DISPLAY")) {
+            return new AwtClipboardSink();
+        }
+        if (osc52) {
+            return new Osc52ClipboardSink(stdout, env.containsKey("TMUX"));
+        }
+        // stdout may be a pipe or a log, so the password goes there only when it is asked for
+        return new NoClipboardSink();
+    }
+
+    static ClipboardSink sink(String name, String file, Map<String, String> env, boolean terminal, PrintStream stdout) {
+        switch (name) {
+            case "auto":
+                return detect(env, terminal, stdout);
+            case "osc52":
+                return new Osc52ClipboardSink(stdout, env.containsKey("TMUX"));
+            case "wl-copy":
+                return CommandClipboardSink.wlCopy();
+            case "xclip":
+                return CommandClipboardSink.xclip();
+            case "awt":
+                return new AwtClipboardSink();
+            case "stdout":
+                return StreamClipboardSink.stdout(stdout);
+            case "file":
+                return file == null ? null : StreamClipboardSink.file(Paths.get(file));
+            default:
+                return null;
+        }
+    }
+
+    synchronized ClipboardSink getSink() {
+        return sink;
+    }
+
+    synchronized void setSink(ClipboardSink sink) throws IOException {
+        clearPending();
+        this.sink = sink;
+    }
+
+    synchronized long getClearSeconds() {
+        return clearSeconds;
+    }
+
+    synchronized void setClearSeconds(long clearSeconds) {
+        if (clearSeconds < 0) {
+            throw new IllegalArgumentException("Clear timeout must not be negative: " + clearSeconds);
+        }
+        this.clearSeconds = clearSeconds;
+    }
+
+    synchronized boolean copy(Secret text) throws IOException {
+        if (pendingClear != null) {
+            pendingClear.cancel(false);
+            pendingClear = null;
+        }
+        long copied = ++generation;
+        sink.copy(text);
+        if (clearSeconds == 0 || !sink.isClearable()) {
+            return false;
+        }
+        pendingClear = scheduler.schedule(() -> clear(copied), clearSeconds, TimeUnit.SECONDS);
+        return true;
+    }
+
+    synchronized void clear() throws IOException {
+        if (pendingClear != null) {
+            pendingClear.cancel(false);
+            pendingClear = null;
+        }
+        sink.clear();
+    }
+
+    synchronized void clearPending() throws IOException {
+        if (pendingClear != null) {
+            pendingClear.cancel(false);
+            pendingClear = null;
+            sink.clear();
+        }
+    }
+
+    private synchronized void clear(long copied) {
+        if (copied != generation || pendingClear == null) {
+            return;
+        }
+        pendingClear = null;
+        try {
+            sink.clear();
+        } catch (IOException e) {
+            // nothing to report to from the timer thread, the next copy overwrites the clipboard anyway
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package ru.av.passwordshelter.console;
+
+import ru.av.passwordshelter.core.Secret;
+
+import java.io.IOException;
+
+interface ClipboardSink {
+
+    void copy(Secret text) throws IOException;
+
+    void clear() throws IOException;
+
+    String getName();
+
+    default boolean isClearable() {
+        return true;
+    }
+}
@@ -0,0 +1,93 @@
+package ru.av.passwordshelter.console;
+
+import ru.av.passwordshelter.core.Secret;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+class CommandClipboardSink implements ClipboardSink {
+
+    private static final long TIMEOUT_SECONDS = 5;
+
+    private final String name;
+    private final List<String> copyCommand;
+    private final List<String> clearCommand;
+
+    CommandClipboardSink(String name, List<String> copyCommand, List<String> clearCommand) {
+        this.name = name;
+        this.copyCommand = copyCommand;
+        this.clearCommand = clearCommand;
+    }
+
+    static CommandClipboardSink wlCopy() {
+        return new CommandClipboardSink("wl-copy", Arrays.asList("wl-copy"), Arrays.asList("wl-copy", "--clear"));
+    }
+
+    static CommandClipboardSink xclip() {
+        return new CommandClipboardSink("xclip", Arrays.asList("xclip", "-selection", "clipboard"), null);
+    }
+
+    static boolean onPath(String command, String path) {
+        if (path == null) {
+            return false;
+        }
+        for (String directory : path.split(File.pathSeparator)) {
+            if (!directory.isEmpty() && new File(directory, command).canExecute()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void copy(Secret text) throws IOException {
+        run(copyCommand, text);
+    }
+
+    @Override
+    public void clear() throws IOException {
+        if (clearCommand != null) {
+            run(clearCommand, null);
+        } else {
+            try (Secret empty = Secret.of(new char[0])) {
+                run(copyCommand, empty);
+            }
+        }
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    private void run(List<String> command, Secret input) throws IOException {
+        // the tools fork a child that keeps serving the selection, so the pipes are not ours to drain
+        Process process = new ProcessBuilder(command)
+                .redirectOutput(ProcessBuilder.Redirect.INHERIT)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        try (OutputStream stdin = process.getOutputStream()) {
+            if (input != null) {
+                input.writeTo(stdin);
+            }
+        }
+        try {
+            if (!process.waitFor(TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                process.destroy();
+                throw new IOException(name + " did not finish in " + TIMEOUT_SECONDS + " seconds");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            process.destroy();
+            throw new InterruptedIOException(name + " was interrupted");
+        }
+        if (process.exitValue() != 0) {
+            throw new IOException(name + " failed with exit code " + process.exitValue());
+        }
+    }
+}
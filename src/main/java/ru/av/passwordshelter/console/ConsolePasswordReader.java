@@ -1,18 +1,27 @@
 package ru.av.passwordshelter.console;
 
+import ru.av.passwordshelter.core.Secret;
+
 import java.io.Console;
+import java.util.Arrays;
 import java.util.Scanner;
 
 class ConsolePasswordReader {
 
-    String readPassword() {
+    Secret readSecret() {
         Console console = System.console();
         if (console != null) {
-            char[] pass = System.console().readPassword("%s", "").clone();
-            return new String(pass);
+            char[] pass = console.readPassword("%s", "");
+            try {
+                return Secret.of(pass == null ? new char[0] : pass);
+            } finally {
+                if (pass != null) {
+                    Arrays.fill(pass, '\0');
+                }
+            }
         } else {
             System.out.print("(VISIBLE) ");
-            return new Scanner(System.in).nextLine();
+            return Secret.of(new Scanner(System.in).nextLine());
         }
     }
-}
\ No newline at end of file
+}
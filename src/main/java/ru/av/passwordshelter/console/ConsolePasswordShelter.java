@@ -1,16 +1,42 @@
 package ru.av.passwordshelter.console;
 
+import ru.av.passwordshelter.agent.Agent;
+import ru.av.passwordshelter.agent.AgentClient;
+import ru.av.passwordshelter.agent.AgentException;
 import ru.av.passwordshelter.core.AES256;
-import ru.av.passwordshelter.core.Crypt;
 import ru.av.passwordshelter.core.CryptException;
+import ru.av.passwordshelter.core.CsvEntryReader;
+import ru.av.passwordshelter.core.CsvEntryWriter;
+import ru.av.passwordshelter.core.EntryReader;
+import ru.av.passwordshelter.core.EntryWriter;
+import ru.av.passwordshelter.core.Federation;
 import ru.av.passwordshelter.core.FileWorker;
+import ru.av.passwordshelter.core.JsonEntryReader;
+import ru.av.passwordshelter.core.JsonEntryWriter;
 import ru.av.passwordshelter.core.JsonManager;
+import ru.av.passwordshelter.core.KeyDerivation;
+import ru.av.passwordshelter.core.LatencyHistogram;
+import ru.av.passwordshelter.core.Manager;
 import ru.av.passwordshelter.core.ManagerException;
+import ru.av.passwordshelter.core.Metrics;
+import ru.av.passwordshelter.core.SearchResult;
+import ru.av.passwordshelter.core.Secret;
+import ru.av.passwordshelter.core.Session;
+import ru.av.passwordshelter.core.StoreManager;
 import ru.av.passwordshelter.core.TextFileWorker;
-import java.awt.Toolkit;
-import java.awt.datatransfer.StringSelection;
+import java.io.BufferedInputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
@@ -18,10 +44,18 @@ import java.util.Scanner;
 public class ConsolePasswordShelter {
 
     private static String filename = null;
-    private static Crypt crypt = new AES256();
+    private static AES256 crypt = null;
+    private static Clipboard clipboard = null;
+    private static KeyDerivation keyDerivation = KeyDerivation.DEFAULT;
     private static FileWorker fileWorker = new TextFileWorker();
+    private static Federation federation = new Federation();
 
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("client")) {
+            AgentClient.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        Metrics.setEnabled(true);
         if (args.length == 1) {
             select(args);
         }
@@ -49,30 +83,51 @@ public class ConsolePasswordShelter {
                     case "select":
                         select(args);
                         break;
+                    case "mount":
+                        mount(args);
+                        break;
+                    case "unmount":
+                        unmount(args);
+                        break;
+                    case "calibrate":
+                        calibrate(args);
+                        break;
+                    case "stats":
+                        stats(args);
+                        break;
+                    case "clipboard":
+                        clipboard(args);
+                        break;
                     case "help":
                         help();
                         break;
                     case "exit":
+                        clearClipboard();
                         System.out.println("Bye");
                         System.exit(0);
                         break;
                     case "sources":
-                        if (fileSet()) {
+                        if (fileSet() || mounted()) {
                             sources(args);
                             break;
                         }
                     case "all-accounts":
-                        if (fileSet()) {
+                        if (fileSet() || mounted()) {
                             allAccounts(args);
                             break;
                         }
                     case "accounts":
-                        if (fileSet()) {
+                        if (fileSet() || mounted()) {
                             accounts(args);
                             break;
                         }
+                    case "search":
+                        if (fileSet() || mounted()) {
+                            search(args);
+                            break;
+                        }
                     case "password":
-                        if (fileSet()) {
+                        if (fileSet() || mounted()) {
                             password(args);
                             break;
                         }
@@ -96,6 +151,26 @@ public class ConsolePasswordShelter {
                             changeMaster(args);
                             break;
                         }
+                    case "import":
+                        if (fileSet()) {
+                            importEntries(args);
+                            break;
+                        }
+                    case "export":
+                        if (fileSet()) {
+                            exportEntries(args);
+                            break;
+                        }
+                    case "agent":
+                        if (fileSet()) {
+                            agent(args);
+                            break;
+                        }
+                    case "migrate":
+                        if (fileSet()) {
+                            migrate(args);
+                            break;
+                        }
                     case "":
                         break;
                     default:
@@ -110,6 +185,36 @@ public class ConsolePasswordShelter {
         return filename != null;
     }
 
+    private static boolean mounted() {
+        return !federation.isEmpty();
+    }
+
+    private static AES256 crypt() {
+        if (crypt == null) {
+            crypt = new AES256();
+        }
+        return crypt;
+    }
+
+    private static Clipboard clipboard() {
+        if (clipboard == null) {
+            clipboard = new Clipboard(Clipboard.detect(System.getenv(), System.console() != null, System.out),
+                    Clipboard.DEFAULT_CLEAR_SECONDS);
+        }
+        return clipboard;
+    }
+
+    private static Manager manager(String filename) {
+        if (StoreManager.isStore(filename)) {
+            StoreManager manager = new StoreManager(filename);
+            manager.setKeyDerivation(keyDerivation);
+            return manager;
+        }
+        JsonManager manager = new JsonManager(filename);
+        manager.setKeyDerivation(keyDerivation);
+        return manager;
+    }
+
     private static void help() {
         final String FORMAT = "%-20s%-25s%s%n";
         System.out.println("----------------------------------------------------------------------");
@@ -120,23 +225,38 @@ public class ConsolePasswordShelter {
         } else {
             System.out.println("Select file or create new.");
         }
+        if (mounted()) {
+            System.out.println("Mounted: " + String.join(", ", federation.getNames()));
+        }
         System.out.println("----------------------------------------------------------------------");
         System.out.printf(FORMAT, "COMMAND", "OPTIONS", "DESCRIPTION");
         System.out.println("----------------------------------------------------------------------");
-        System.out.printf(FORMAT, "create", "[filename]", "- creates file");
+        System.out.printf(FORMAT, "create", "[filename] [json|store]", "- creates file");
         System.out.printf(FORMAT, "encrypt", "[input] [output]", "- encrypts input file and writes it to output");
         System.out.printf(FORMAT, "decrypt", "[input] [output]", "- decrypts input file and writes it to output");
         System.out.printf(FORMAT, "select", "[filename]", "- selects existent file");
-        if (filename != null) {
+        System.out.printf(FORMAT, "mount", "[name] [filename] ...", "- unlocks vaults for sources, search and password");
+        System.out.printf(FORMAT, "unmount", "[name]", "- locks mounted vault or all of them");
+        System.out.printf(FORMAT, "calibrate", "[ms] [pbkdf2|scrypt]", "- tunes key derivation for new master passwords");
+        if (fileSet() || mounted()) {
             System.out.printf(FORMAT, "sources", "", "- shows source list");
             System.out.printf(FORMAT, "all-accounts", "", "- shows all accounts map");
             System.out.printf(FORMAT, "accounts", "[source]", "- shows account list");
+            System.out.printf(FORMAT, "search", "[query]", "- finds accounts by source or account name");
             System.out.printf(FORMAT, "password", "[source] [account]", "- copies password to clipboard");
+        }
+        if (fileSet()) {
             System.out.printf(FORMAT, "add", "[source] [account]", "- adds new account");
             System.out.printf(FORMAT, "change", "[source] [account]", "- changes account password");
             System.out.printf(FORMAT, "delete", "[source] [account]", "- deletes account");
             System.out.printf(FORMAT, "change-master", "", "- changes master password");
+            System.out.printf(FORMAT, "import", "[input] [csv|json]", "- imports accounts from file");
+            System.out.printf(FORMAT, "export", "[output] [csv|json]", "- exports accounts to encrypted file");
+            System.out.printf(FORMAT, "agent", "[idle-minutes]", "- starts background agent for 'client' mode");
+            System.out.printf(FORMAT, "migrate", "[output]", "- copies vault to key-value store file");
         }
+        System.out.printf(FORMAT, "clipboard", "[sink] [clear-seconds]", "- selects where 'password' copies to");
+        System.out.printf(FORMAT, "stats", "[reset]", "- shows operation timings");
         System.out.printf(FORMAT, "help", "", "- shows this help");
         System.out.printf(FORMAT, "exit", "", "- exit");
         System.out.println("----------------------------------------------------------------------");
@@ -160,6 +280,7 @@ public class ConsolePasswordShelter {
 
     private static void create(String... args) {
         String tmp;
+        boolean store = false;
         switch (args.length) {
             case 0:
                 System.out.print("Filename: ");
@@ -168,6 +289,14 @@ public class ConsolePasswordShelter {
             case 1:
                 tmp = args[0];
                 break;
+            case 2:
+                tmp = args[0];
+                if (!args[1].equals("json") && !args[1].equals("store")) {
+                    wrongCommandError();
+                    return;
+                }
+                store = args[1].equals("store");
+                break;
             default:
                 wrongCommandError();
                 return;
@@ -176,22 +305,28 @@ public class ConsolePasswordShelter {
             System.out.println("Do not use spaces in filename.");
             return;
         }
+        Secret masterPassword = readNewSecret("Enter master password: ", "Repeat master password: ");
+        if (masterPassword == null) {
+            return;
+        }
         try {
-            System.out.print("Enter master password: ");
-            String masterPassword1 = new ConsolePasswordReader().readPassword();
-            System.out.print("Repeat master password: ");
-            String masterPassword2 = new ConsolePasswordReader().readPassword();
-            if (masterPassword1.equals(masterPassword2)) {
-                new JsonManager(tmp).createFile(masterPassword1);
-                filename = tmp;
-                System.out.println("File \"" + filename + "\" was created");
+            if (store) {
+                StoreManager manager = new StoreManager(tmp);
+                manager.setKeyDerivation(keyDerivation);
+                manager.createFile(masterPassword);
             } else {
-                System.out.println("Passwords do not match!");
+                JsonManager manager = new JsonManager(tmp);
+                manager.setKeyDerivation(keyDerivation);
+                manager.createFile(masterPassword);
             }
+            filename = tmp;
+            System.out.println("File \"" + filename + "\" was created");
         } catch (IOException e) {
             System.out.println("Wrong filename!");
         } catch (CryptException e) {
             System.out.println("Wrong master password!");
+        } finally {
+            masterPassword.wipe();
         }
     }
 
@@ -217,21 +352,19 @@ public class ConsolePasswordShelter {
             System.out.println("Do not use spaces in filename.");
             return;
         }
+        Secret password = readNewSecret("Enter password: ", "Repeat password: ");
+        if (password == null) {
+            return;
+        }
         try {
-            System.out.print("Enter password: ");
-            String password1 = new ConsolePasswordReader().readPassword();
-            System.out.print("Repeat password: ");
-            String password2 = new ConsolePasswordReader().readPassword();
-            if (password1.equals(password2)) {
-                fileWorker.write(crypt.encrypt(fileWorker.read(input), password1), output);
-                System.out.println("File \"" + input + "\" was encrypted and wrote to \"" + output + "\".");
-            } else {
-                System.out.println("Passwords do not match!");
-            }
+            cryptFile(input, output, password, true);
+            System.out.println("File \"" + input + "\" was encrypted and wrote to \"" + output + "\".");
         } catch (IOException e) {
             System.out.println("Read / write error!");
         } catch (CryptException e) {
             System.out.println("Wrong password!");
+        } finally {
+            password.wipe();
         }
     }
 
@@ -257,21 +390,40 @@ public class ConsolePasswordShelter {
             System.out.println("Do not use spaces in filename.");
             return;
         }
+        Secret password = readNewSecret("Enter password: ", "Repeat password: ");
+        if (password == null) {
+            return;
+        }
         try {
-            System.out.print("Enter password: ");
-            String password1 = new ConsolePasswordReader().readPassword();
-            System.out.print("Repeat password: ");
-            String password2 = new ConsolePasswordReader().readPassword();
-            if (password1.equals(password2)) {
-                fileWorker.write(crypt.decrypt(fileWorker.read(input), password1), output);
-                System.out.println("File \"" + input + "\" was encrypted and wrote to \"" + output + "\".");
-            } else {
-                System.out.println("Passwords do not match!");
-            }
+            cryptFile(input, output, password, false);
+            System.out.println("File \"" + input + "\" was decrypted and wrote to \"" + output + "\".");
         } catch (IOException e) {
             System.out.println("Read / write error!");
         } catch (CryptException e) {
             System.out.println("Wrong password!");
+        } finally {
+            password.wipe();
+        }
+    }
+
+    private static void cryptFile(String input, String output, Secret password, boolean encrypt) throws IOException, CryptException {
+        String tmp = output + ".tmp";
+        try {
+            try (InputStream in = fileWorker.openInput(input); OutputStream out = fileWorker.openOutput(tmp)) {
+                if (encrypt) {
+                    crypt().encrypt(in, out, password);
+                } else {
+                    crypt().decrypt(in, out, password);
+                }
+            }
+            fileWorker.move(tmp, output);
+        } catch (IOException | CryptException | RuntimeException e) {
+            try {
+                fileWorker.delete(tmp);
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
         }
     }
 
@@ -301,15 +453,94 @@ public class ConsolePasswordShelter {
         System.out.println("Filename was selected");
     }
 
+    private static void mount(String... args) {
+        if (args.length == 0) {
+            List<String> names = federation.getNames();
+            System.out.println(names.isEmpty() ? "No mounted vaults" : String.join("\n", names));
+            return;
+        }
+        if (args.length % 2 != 0) {
+            wrongCommandError();
+            return;
+        }
+        Map<String, Manager> managers = new LinkedHashMap<>();
+        for (int i = 0; i < args.length; i += 2) {
+            if (args[i].contains(Character.toString(Federation.SEPARATOR))) {
+                System.out.println("Do not use '" + Federation.SEPARATOR + "' in vault names!");
+                return;
+            }
+            if (!fileWorker.exists(args[i + 1])) {
+                System.out.println("File \"" + args[i + 1] + "\" does not exist!");
+                return;
+            }
+            managers.put(args[i], manager(args[i + 1]));
+        }
+        Map<String, Secret> masterPasswords = new LinkedHashMap<>();
+        try {
+            for (String name : managers.keySet()) {
+                System.out.print("Master password for " + name + ": ");
+                masterPasswords.put(name, new ConsolePasswordReader().readSecret());
+            }
+            Map<String, Exception> failures = federation.mount(managers, masterPasswords);
+            List<String> mounted = new ArrayList<>(managers.keySet());
+            mounted.removeAll(failures.keySet());
+            failures.forEach((name, e) -> {
+                if (e instanceof CryptException) {
+                    System.out.println(name + ": Wrong master password!");
+                } else if (e instanceof IOException) {
+                    System.out.println(name + ": File access problems!");
+                } else {
+                    System.out.println(name + ": Wrong file structure!");
+                }
+            });
+            if (!mounted.isEmpty()) {
+                System.out.println("Mounted: " + String.join(", ", mounted));
+            }
+        } finally {
+            masterPasswords.values().forEach(Secret::wipe);
+        }
+    }
+
+    private static void unmount(String... args) {
+        switch (args.length) {
+            case 0:
+                federation.close();
+                System.out.println("All vaults were unmounted");
+                break;
+            case 1:
+                if (!federation.getNames().contains(args[0])) {
+                    System.out.println("Vault \"" + args[0] + "\" is not mounted!");
+                    return;
+                }
+                federation.unmount(args[0]);
+                System.out.println("Vault was unmounted");
+                break;
+            default:
+                wrongCommandError();
+        }
+    }
+
     private static void sources(String... args) {
         if (args.length != 0) {
             wrongCommandError();
             return;
         }
+        if (mounted()) {
+            try {
+                federation.getSourceList().forEach(System.out::println);
+            } catch (IOException e) {
+                System.out.println("File access problems!");
+            } catch (CryptException e) {
+                System.out.println("Wrong master password!");
+            } catch (ManagerException e) {
+                System.out.println("Wrong file structure!");
+            }
+            return;
+        }
         System.out.print("Master password: ");
-        String masterPassword = new ConsolePasswordReader().readPassword();
-        try {
-            List<String> sources = new JsonManager(filename).getSourceList(masterPassword);
+        try (Secret masterPassword = new ConsolePasswordReader().readSecret();
+             Session session = manager(filename).unlock(masterPassword)) {
+            List<String> sources = session.getSourceList();
             sources.forEach(System.out::println);
         } catch (IOException e) {
             System.out.println("File access problems!");
@@ -325,10 +556,25 @@ public class ConsolePasswordShelter {
             wrongCommandError();
             return;
         }
+        if (mounted()) {
+            try {
+                federation.getAllAccountsMap().forEach((k, v) -> {
+                    System.out.println(k + ": ");
+                    v.forEach(a -> System.out.println("    " + a));
+                });
+            } catch (IOException e) {
+                System.out.println("File access problems!");
+            } catch (CryptException e) {
+                System.out.println("Wrong master password!");
+            } catch (ManagerException e) {
+                System.out.println("Wrong file structure!");
+            }
+            return;
+        }
         System.out.print("Master password: ");
-        String masterPassword = new ConsolePasswordReader().readPassword();
-        try {
-            Map<String, List<String>> map = new JsonManager(filename).getAllAccountsMap(masterPassword);
+        try (Secret masterPassword = new ConsolePasswordReader().readSecret();
+             Session session = manager(filename).unlock(masterPassword)) {
+            Map<String, List<String>> map = session.getAllAccountsMap();
             map.forEach((k, v) -> {
                 System.out.println(k + ": ");
                 v.forEach(a -> {
@@ -362,10 +608,22 @@ public class ConsolePasswordShelter {
             System.out.println("Do not use spaces in sources.");
             return;
         }
-        try {
-            System.out.print("Master password: ");
-            String masterPassword = new ConsolePasswordReader().readPassword();
-            List<String> accounts = new JsonManager(filename).getAccountList(source, masterPassword);
+        if (mounted()) {
+            try {
+                federation.getAccountList(source).forEach(System.out::println);
+            } catch (IOException e) {
+                System.out.println("File access problems!");
+            } catch (CryptException e) {
+                System.out.println("Wrong master password!");
+            } catch (ManagerException e) {
+                System.out.println(e.getMessage());
+            }
+            return;
+        }
+        System.out.print("Master password: ");
+        try (Secret masterPassword = new ConsolePasswordReader().readSecret();
+             Session session = manager(filename).unlock(masterPassword)) {
+            List<String> accounts = session.getAccountList(source);
             accounts.forEach(System.out::println);
         } catch (IOException e) {
             System.out.println("File access problems!");
@@ -376,6 +634,47 @@ public class ConsolePasswordShelter {
         }
     }
 
+    private static void search(String... args) {
+        String query;
+        if (args.length == 0) {
+            System.out.print("Query: ");
+            query = new Scanner(System.in).nextLine();
+        } else {
+            query = String.join(" ", args);
+        }
+        if (mounted()) {
+            try {
+                List<SearchResult> results = federation.search(query, 20);
+                if (results.isEmpty()) {
+                    System.out.println("Nothing found");
+                }
+                results.forEach(r -> System.out.println(r.getSource() + "    " + r.getAccount()));
+            } catch (IOException e) {
+                System.out.println("File access problems!");
+            } catch (CryptException e) {
+                System.out.println("Wrong master password!");
+            } catch (ManagerException e) {
+                System.out.println("Wrong file structure!");
+            }
+            return;
+        }
+        System.out.print("Master password: ");
+        try (Secret masterPassword = new ConsolePasswordReader().readSecret();
+             Session session = manager(filename).unlock(masterPassword)) {
+            List<SearchResult> results = session.search(query, 20);
+            if (results.isEmpty()) {
+                System.out.println("Nothing found");
+            }
+            results.forEach(r -> System.out.println(r.getSource() + "    " + r.getAccount()));
+        } catch (IOException e) {
+            System.out.println("File access problems!");
+        } catch (CryptException e) {
+            System.out.println("Wrong master password!");
+        } catch (ManagerException e) {
+            System.out.println("Wrong file structure!");
+        }
+    }
+
     private static void password(String... args) {
         String source;
         String account;
@@ -402,12 +701,23 @@ public class ConsolePasswordShelter {
             System.out.println("Do not use spaces in accounts.");
             return;
         }
-        try {
-            System.out.print("Master password: ");
-            String masterPassword = new ConsolePasswordReader().readPassword();
-            String password = new JsonManager(filename).getPassword(source, account, masterPassword);
-            Toolkit.getDefaultToolkit().getSystemClipboard().setContents(new StringSelection(password), null);
-            System.out.println("Password was copied to clipboard");
+        if (mounted()) {
+            try (Secret password = federation.getSecret(source, account)) {
+                copyToClipboard(password);
+            } catch (IOException e) {
+                System.out.println("File access problems!");
+            } catch (CryptException e) {
+                System.out.println("Wrong master password!");
+            } catch (ManagerException e) {
+                System.out.println(e.getMessage());
+            }
+            return;
+        }
+        System.out.print("Master password: ");
+        try (Secret masterPassword = new ConsolePasswordReader().readSecret();
+             Session session = manager(filename).unlock(masterPassword);
+             Secret password = session.getSecret(source, account)) {
+            copyToClipboard(password);
         } catch (IOException e) {
             System.out.println("File access problems!");
         } catch (CryptException e) {
@@ -417,6 +727,29 @@ public class ConsolePasswordShelter {
         }
     }
 
+    private static void copyToClipboard(Secret password) {
+        try {
+            if (clipboard().copy(password)) {
+                System.out.println("Password was copied to " + clipboard().getSink().getName()
+                        + ", it is cleared in " + clipboard().getClearSeconds() + " seconds");
+            } else {
+                System.out.println("Password was copied to " + clipboard().getSink().getName());
+            }
+        } catch (IOException e) {
+            System.out.println("Clipboard problems: " + e.getMessage());
+        }
+    }
+
+    private static void clearClipboard() {
+        if (clipboard != null) {
+            try {
+                clipboard.clearPending();
+            } catch (IOException e) {
+                System.out.println("Clipboard problems: " + e.getMessage());
+            }
+        }
+    }
+
     private static void add(String... args) {
         String source;
         String account;
@@ -443,18 +776,14 @@ public class ConsolePasswordShelter {
             System.out.println("Do not use spaces in accounts.");
             return;
         }
-        System.out.print("Enter account password: ");
-        String password1 = new ConsolePasswordReader().readPassword();
-        System.out.print("Repeat account password: ");
-        String password2 = new ConsolePasswordReader().readPassword();
-        if (!password1.equals(password2)) {
-            System.out.println("Passwords do not match!");
+        Secret password = readNewSecret("Enter account password: ", "Repeat account password: ");
+        if (password == null) {
             return;
         }
         System.out.print("Master password: ");
-        String masterPassword = new ConsolePasswordReader().readPassword();
-        try {
-            new JsonManager(filename).add(source, account, password1, masterPassword);
+        try (Secret masterPassword = new ConsolePasswordReader().readSecret();
+             Session session = manager(filename).unlock(masterPassword)) {
+            session.add(source, account, password);
             System.out.println("New account was added");
         } catch (IOException e) {
             System.out.println("File access problems!");
@@ -462,6 +791,8 @@ public class ConsolePasswordShelter {
             System.out.println("Wrong master password!");
         } catch (ManagerException e) {
             System.out.println("Account already exists!");
+        } finally {
+            password.wipe();
         }
     }
 
@@ -491,18 +822,14 @@ public class ConsolePasswordShelter {
             System.out.println("Do not use spaces in accounts.");
             return;
         }
-        System.out.print("Enter new password: ");
-        String password1 = new ConsolePasswordReader().readPassword();
-        System.out.print("Repeat new password: ");
-        String password2 = new ConsolePasswordReader().readPassword();
-        if (!password1.equals(password2)) {
-            System.out.println("Passwords do not match!");
+        Secret password = readNewSecret("Enter new password: ", "Repeat new password: ");
+        if (password == null) {
             return;
         }
         System.out.print("Master password: ");
-        String masterPassword = new ConsolePasswordReader().readPassword();
-        try {
-            new JsonManager(filename).changePassword(source, account, password1, masterPassword);
+        try (Secret masterPassword = new ConsolePasswordReader().readSecret();
+             Session session = manager(filename).unlock(masterPassword)) {
+            session.changePassword(source, account, password);
             System.out.println("Password was changed");
         } catch (IOException e) {
             System.out.println("File access problems!");
@@ -510,6 +837,8 @@ public class ConsolePasswordShelter {
             System.out.println("Wrong master password!");
         } catch (ManagerException e) {
             System.out.println("No record!");
+        } finally {
+            password.wipe();
         }
     }
 
@@ -540,9 +869,9 @@ public class ConsolePasswordShelter {
             return;
         }
         System.out.print("Master password: ");
-        String masterPassword = new ConsolePasswordReader().readPassword();
-        try {
-            new JsonManager(filename).delete(source, account, masterPassword);
+        try (Secret masterPassword = new ConsolePasswordReader().readSecret();
+             Session session = manager(filename).unlock(masterPassword)) {
+            session.delete(source, account);
             System.out.println("Account was deleted");
         } catch (IOException e) {
             System.out.println("File access problems!");
@@ -559,22 +888,348 @@ public class ConsolePasswordShelter {
             return;
         }
         System.out.print("Old master password: ");
-        String oldMasterPassword = new ConsolePasswordReader().readPassword();
-        System.out.print("Enter new master password: ");
-        String newMasterPassword1 = new ConsolePasswordReader().readPassword();
-        System.out.print("Repeat new master password: ");
-        String newMasterPassword2 = new ConsolePasswordReader().readPassword();
-        if (!newMasterPassword1.equals(newMasterPassword2)) {
-            System.out.println("Passwords do not match!");
+        Secret oldMasterPassword = new ConsolePasswordReader().readSecret();
+        Secret newMasterPassword = readNewSecret("Enter new master password: ", "Repeat new master password: ");
+        if (newMasterPassword == null) {
+            oldMasterPassword.wipe();
             return;
         }
         try {
-            new JsonManager(filename).changeMasterPassword(oldMasterPassword, newMasterPassword1);
+            manager(filename).changeMasterPassword(oldMasterPassword, newMasterPassword, ConsolePasswordShelter::progress);
+            System.out.println();
             System.out.println("Master password was changed");
         } catch (IOException e) {
             System.out.println("File access problems!");
         } catch (CryptException e) {
             System.out.println("Wrong master password!");
+        } catch (ManagerException e) {
+            System.out.println("Wrong file structure!");
+        } finally {
+            oldMasterPassword.wipe();
+            newMasterPassword.wipe();
+        }
+    }
+
+    private static void calibrate(String... args) {
+        long targetMillis = 250;
+        KeyDerivation.Algorithm algorithm = KeyDerivation.Algorithm.PBKDF2_SHA256;
+        try {
+            if (args.length > 2) {
+                wrongCommandError();
+                return;
+            }
+            if (args.length > 0) {
+                targetMillis = Long.parseLong(args[0]);
+            }
+            if (args.length > 1) {
+                switch (args[1]) {
+                    case "pbkdf2":
+                        break;
+                    case "scrypt":
+                        algorithm = KeyDerivation.Algorithm.SCRYPT;
+                        break;
+                    default:
+                        wrongCommandError();
+                        return;
+                }
+            }
+        } catch (NumberFormatException e) {
+            wrongCommandError();
+            return;
+        }
+        try {
+            System.out.println("Measuring key derivation, target " + targetMillis + " ms...");
+            KeyDerivation calibrated = KeyDerivation.calibrate(algorithm, targetMillis);
+            keyDerivation = calibrated;
+            crypt().setKeyDerivation(calibrated);
+            System.out.printf("Selected %s, unlock takes %.0f ms%n", calibrated, calibrated.measure() / 1_000_000.0);
+            System.out.println("Used by 'create', 'change-master' and 'export' until exit");
+        } catch (CryptException | IllegalArgumentException e) {
+            System.out.println("Calibration failed: " + e.getMessage());
+        }
+    }
+
+    private static void clipboard(String... args) {
+        if (args.length == 1 && args[0].equals("clear")) {
+            try {
+                clipboard().clear();
+                System.out.println("Clipboard was cleared");
+            } catch (IOException e) {
+                System.out.println("Clipboard problems: " + e.getMessage());
+            }
+            return;
+        }
+        if (args.length > 0) {
+            String file = args[0].equals("file") && args.length > 1 ? args[1] : null;
+            int next = file == null ? 1 : 2;
+            ClipboardSink sink = Clipboard.sink(args[0], file, System.getenv(), System.console() != null, System.out);
+            if (sink == null || args.length > next + 1) {
+                wrongCommandError();
+                return;
+            }
+            long clearSeconds = clipboard().getClearSeconds();
+            if (args.length == next + 1) {
+                try {
+                    clearSeconds = Long.parseLong(args[next]);
+                } catch (NumberFormatException e) {
+                    wrongCommandError();
+                    return;
+                }
+                if (clearSeconds < 0) {
+                    wrongCommandError();
+                    return;
+                }
+            }
+            try {
+                clipboard().setSink(sink);
+            } catch (IOException e) {
+                System.out.println("Clipboard problems: " + e.getMessage());
+            }
+            clipboard().setClearSeconds(clearSeconds);
+        }
+        ClipboardSink sink = clipboard().getSink();
+        if (sink.isClearable() && clipboard().getClearSeconds() > 0) {
+            System.out.println("Clipboard: " + sink.getName() + ", cleared after " + clipboard().getClearSeconds() + " seconds");
+        } else {
+            System.out.println("Clipboard: " + sink.getName() + ", never cleared");
+        }
+    }
+
+    private static void stats(String... args) {
+        if (args.length == 1 && args[0].equals("reset")) {
+            Metrics.getRegistry().reset();
+            System.out.println("Statistics were reset");
+            return;
+        }
+        if (args.length != 0) {
+            wrongCommandError();
+            return;
+        }
+        Map<String, LatencyHistogram> histograms = Metrics.getRegistry().getHistograms();
+        if (histograms.isEmpty()) {
+            System.out.println("No operations yet");
+            return;
+        }
+        final String FORMAT = "%-36s%10s%12s%12s%12s%n";
+        System.out.printf(FORMAT, "OPERATION", "COUNT", "P50, ms", "P99, ms", "MAX, ms");
+        histograms.forEach((name, histogram) -> System.out.printf(FORMAT, name.contains(".") ? "  " + name : name,
+                histogram.getCount(), millis(histogram.percentile(50)), millis(histogram.percentile(99)), millis(histogram.getMaxNanos())));
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.3f", nanos / 1_000_000.0);
+    }
+
+    private static void agent(String... args) {
+        long idleMinutes;
+        switch (args.length) {
+            case 0:
+                idleMinutes = 15;
+                break;
+            case 1:
+                try {
+                    idleMinutes = Long.parseLong(args[0]);
+                } catch (NumberFormatException e) {
+                    wrongCommandError();
+                    return;
+                }
+                break;
+            default:
+                wrongCommandError();
+                return;
+        }
+        try (AgentClient client = AgentClient.connect()) {
+            client.call("revision");
+            System.out.println("Agent is already running");
+            return;
+        } catch (IOException | AgentException e) {
+            // no live agent, start a new one
+        }
+        System.out.print("Master password: ");
+        try (Secret masterPassword = new ConsolePasswordReader().readSecret()) {
+            manager(filename).unlock(masterPassword).close();
+            Agent.startProcess(new File(filename).getAbsolutePath(), masterPassword, idleMinutes);
+            System.out.println("Agent was started, it locks after " + idleMinutes + " idle minutes");
+        } catch (IOException e) {
+            System.out.println("File access problems!");
+        } catch (CryptException e) {
+            System.out.println("Wrong master password!");
+        } catch (ManagerException e) {
+            System.out.println("Wrong file structure!");
+        } catch (AgentException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    private static void migrate(String... args) {
+        String output;
+        switch (args.length) {
+            case 0:
+                System.out.print("Output filename: ");
+                output = new Scanner(System.in).nextLine();
+                break;
+            case 1:
+                output = args[0];
+                break;
+            default:
+                wrongCommandError();
+                return;
+        }
+        if (output.contains(" ")) {
+            System.out.println("Do not use spaces in filename.");
+            return;
+        }
+        if (StoreManager.isStore(filename)) {
+            System.out.println("File \"" + filename + "\" is already a key-value store!");
+            return;
+        }
+        if (fileWorker.exists(output)) {
+            System.out.println("File \"" + output + "\" already exists!");
+            return;
+        }
+        System.out.print("Master password: ");
+        try (Secret masterPassword = new ConsolePasswordReader().readSecret();
+             Session session = manager(filename).unlock(masterPassword)) {
+            StoreManager store = new StoreManager(output);
+            store.setKeyDerivation(keyDerivation);
+            long count = store.migrate(session, masterPassword, ConsolePasswordShelter::progress);
+            System.out.println();
+            System.out.println(count + " accounts were migrated to \"" + output + "\", use 'select " + output + "' to switch to it");
+        } catch (IOException e) {
+            System.out.println("File access problems!");
+        } catch (CryptException e) {
+            System.out.println("Wrong master password!");
+        } catch (ManagerException e) {
+            System.out.println("Wrong file structure!");
+        }
+    }
+
+    private static void importEntries(String... args) {
+        String input;
+        String format;
+        switch (args.length) {
+            case 0:
+                System.out.print("Input filename: ");
+                input = new Scanner(System.in).nextLine();
+                format = formatOf(input);
+                break;
+            case 1:
+                input = args[0];
+                format = formatOf(input);
+                break;
+            case 2:
+                input = args[0];
+                format = args[1];
+                break;
+            default:
+                wrongCommandError();
+                return;
+        }
+        if (!"csv".equals(format) && !"json".equals(format)) {
+            System.out.println("Unknown format, use csv or json.");
+            return;
+        }
+        System.out.print("Master password: ");
+        try (Secret masterPassword = new ConsolePasswordReader().readSecret();
+             Session session = manager(filename).unlock(masterPassword);
+             InputStream in = new BufferedInputStream(fileWorker.openInput(input))) {
+            InputStream plain = in;
+            if (crypt().isEncrypted(in)) {
+                System.out.print("Export password: ");
+                try (Secret password = new ConsolePasswordReader().readSecret()) {
+                    plain = crypt().decryptingStream(in, password);
+                }
+            }
+            Reader reader = new InputStreamReader(plain, StandardCharsets.UTF_8);
+            EntryReader entries = "csv".equals(format) ? new CsvEntryReader(reader) : new JsonEntryReader(reader);
+            long count = session.importEntries(entries, ConsolePasswordShelter::progress);
+            System.out.println();
+            System.out.println(count + " accounts were imported from \"" + input + "\".");
+        } catch (IOException e) {
+            System.out.println(e.getCause() instanceof CryptException ? "Wrong export password!" : "Read / write error!");
+        } catch (CryptException e) {
+            System.out.println("Wrong master password!");
+        } catch (ManagerException e) {
+            System.out.println();
+            System.out.println("Nothing was imported: " + e.getMessage());
+        }
+    }
+
+    private static void exportEntries(String... args) {
+        String output;
+        String format;
+        switch (args.length) {
+            case 0:
+                System.out.print("Output filename: ");
+                output = new Scanner(System.in).nextLine();
+                format = formatOf(output);
+                break;
+            case 1:
+                output = args[0];
+                format = formatOf(output);
+                break;
+            case 2:
+                output = args[0];
+                format = args[1];
+                break;
+            default:
+                wrongCommandError();
+                return;
+        }
+        if (!"csv".equals(format) && !"json".equals(format)) {
+            System.out.println("Unknown format, use csv or json.");
+            return;
+        }
+        System.out.print("Master password: ");
+        Secret masterPassword = new ConsolePasswordReader().readSecret();
+        Secret password = readNewSecret("Enter export password: ", "Repeat export password: ");
+        if (password == null) {
+            masterPassword.wipe();
+            return;
+        }
+        try (Session session = manager(filename).unlock(masterPassword)) {
+            long count;
+            try (OutputStream out = crypt().encryptingStream(fileWorker.openOutput(output), password)) {
+                Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+                try (EntryWriter entries = "csv".equals(format) ? new CsvEntryWriter(writer) : new JsonEntryWriter(writer)) {
+                    count = session.exportEntries(entries, ConsolePasswordShelter::progress);
+                }
+            }
+            System.out.println();
+            System.out.println(count + " accounts were exported to \"" + output + "\".");
+        } catch (IOException e) {
+            System.out.println("Read / write error!");
+        } catch (CryptException e) {
+            System.out.println("Wrong master password!");
+        } catch (ManagerException e) {
+            System.out.println("Wrong file structure!");
+        } finally {
+            masterPassword.wipe();
+            password.wipe();
+        }
+    }
+
+    private static Secret readNewSecret(String prompt, String repeatPrompt) {
+        System.out.print(prompt);
+        Secret secret = new ConsolePasswordReader().readSecret();
+        System.out.print(repeatPrompt);
+        try (Secret repeated = new ConsolePasswordReader().readSecret()) {
+            if (secret.contentEquals(repeated)) {
+                return secret;
+            }
+        }
+        secret.wipe();
+        System.out.println("Passwords do not match!");
+        return null;
+    }
+
+    private static String formatOf(String filename) {
+        return filename.substring(filename.lastIndexOf('.') + 1).toLowerCase();
+    }
+
+    private static void progress(long done, long total) {
+        if (done % 1000 == 0 || done == total) {
+            System.out.print("\r" + done + (total >= 0 ? "/" + total : "") + " accounts");
         }
     }
 }
\ No newline at end of file
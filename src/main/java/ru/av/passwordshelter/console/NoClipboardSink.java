@@ -0,0 +1,27 @@
+package ru.av.passwordshelter.console;
+
+import ru.av.passwordshelter.core.Secret;
+
+import java.io.IOException;
+
+class NoClipboardSink implements ClipboardSink {
+
+    @Override
+    public void copy(Secret text) throws IOException {
+        throw new IOException("no clipboard available, use 'clipboard stdout' or 'clipboard file [path]'");
+    }
+
+    @Override
+    public void clear() {
+    }
+
+    @Override
+    public String getName() {
+        return "none";
+    }
+
+    @Override
+    public boolean isClearable() {
+        return false;
+    }
+}
@@ -0,0 +1,62 @@
+package ru.av.passwordshelter.console;
+
+import ru.av.passwordshelter.core.Secret;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+
+class Osc52ClipboardSink implements ClipboardSink {
+
+    private static final byte[] START = "\033]52;c;".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] END = "\007".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TMUX_START = "\033Ptmux;\033".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TMUX_END = "\033\\".getBytes(StandardCharsets.US_ASCII);
+
+    private final OutputStream terminal;
+    private final boolean tmux;
+
+    Osc52ClipboardSink(OutputStream terminal, boolean tmux) {
+        this.terminal = terminal;
+        this.tmux = tmux;
+    }
+
+    @Override
+    public void copy(Secret text) throws IOException {
+        byte[] bytes = text.toBytes();
+        byte[] encoded = Base64.getEncoder().encode(bytes);
+        try {
+            write(encoded);
+        } finally {
+            Arrays.fill(bytes, (byte) 0);
+            Arrays.fill(encoded, (byte) 0);
+        }
+    }
+
+    @Override
+    public void clear() throws IOException {
+        write(new byte[0]);
+    }
+
+    @Override
+    public String getName() {
+        return "osc52";
+    }
+
+    private void write(byte[] encoded) throws IOException {
+        synchronized (terminal) {
+            if (tmux) {
+                terminal.write(TMUX_START);
+            }
+            terminal.write(START);
+            terminal.write(encoded);
+            terminal.write(END);
+            if (tmux) {
+                terminal.write(TMUX_END);
+            }
+            terminal.flush();
+        }
+    }
+}
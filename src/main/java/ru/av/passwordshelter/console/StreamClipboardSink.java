@@ -0,0 +1,65 @@
+package ru.av.passwordshelter.console;
+
+import ru.av.passwordshelter.core.Secret;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+
+class StreamClipboardSink implements ClipboardSink {
+
+    private final PrintStream stdout;
+    private final Path file;
+
+    private StreamClipboardSink(PrintStream stdout, Path file) {
+        this.stdout = stdout;
+        this.file = file;
+    }
+
+    static StreamClipboardSink stdout(PrintStream stdout) {
+        return new StreamClipboardSink(stdout, null);
+    }
+
+    static StreamClipboardSink file(Path file) {
+        return new StreamClipboardSink(null, file);
+    }
+
+    @Override
+    public void copy(Secret text) throws IOException {
+        if (file == null) {
+            synchronized (stdout) {
+                text.writeTo(stdout);
+                stdout.println();
+            }
+            return;
+        }
+        Files.deleteIfExists(file);
+        if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            Files.createFile(file, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        }
+        try (OutputStream out = Files.newOutputStream(file)) {
+            text.writeTo(out);
+        }
+    }
+
+    @Override
+    public void clear() throws IOException {
+        if (file != null) {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return file == null ? "stdout" : "file " + file;
+    }
+
+    @Override
+    public boolean isClearable() {
+        return file != null;
+    }
+}
@@ -1,26 +1,235 @@
 package ru.av.passwordshelter.core;
 
-import org.springframework.security.crypto.encrypt.Encryptors;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Arrays;
 
 public class AES256 implements Crypt {
 
+    static final byte[] STREAM_MAGIC = {'P', 'S', 'E', 2};
+
+    private static final int LEGACY_STREAM_VERSION = 1;
+    private static final int KEY_LENGTH = 256;
+    private static final int SALT_LENGTH = 16;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
     private String salt = "b89f5ea2987e8e54";
+    private KeyDerivation keyDerivation = KeyDerivation.DEFAULT;
+
+    public void setKeyDerivation(KeyDerivation keyDerivation) {
+        this.keyDerivation = keyDerivation;
+    }
 
     @Override
     public String encrypt(String content, String password) throws CryptException {
+        CryptKey key = deriveKey(password);
         try {
-            return Encryptors.text(password, salt).encrypt(content);
-        } catch (Exception e) {
-            throw new CryptException(e);
+            return key.encrypt(content);
+        } finally {
+            key.wipe();
         }
     }
 
     @Override
     public String decrypt(String content, String password) throws CryptException {
+        CryptKey key = deriveKey(password);
+        try {
+            return key.decrypt(content);
+        } finally {
+            key.wipe();
+        }
+    }
+
+    @Override
+    public CryptKey deriveKey(String password) throws CryptException {
+        return deriveKey(password, Hex.decode(salt), KeyDerivation.LEGACY);
+    }
+
+    @Override
+    public CryptKey deriveKey(String password, byte[] salt, int iterations) throws CryptException {
+        return deriveKey(password, salt, KeyDerivation.pbkdf2Sha1(iterations));
+    }
+
+    @Override
+    public CryptKey deriveKey(String password, byte[] salt, KeyDerivation keyDerivation) throws CryptException {
+        return new AES256Key(keyDerivation.derive(password, salt, KEY_LENGTH / 8));
+    }
+
+    @Override
+    public CryptKey deriveKey(Secret password) throws CryptException {
+        return deriveKey(password, Hex.decode(salt), KeyDerivation.LEGACY);
+    }
+
+    @Override
+    public CryptKey deriveKey(Secret password, byte[] salt, KeyDerivation keyDerivation) throws CryptException {
+        return new AES256Key(keyDerivation.derive(password, salt, KEY_LENGTH / 8));
+    }
+
+    @Override
+    public void encrypt(InputStream input, OutputStream output, String password) throws IOException, CryptException {
+        try (Secret secret = Secret.of(password)) {
+            encrypt(input, output, secret);
+        }
+    }
+
+    @Override
+    public void encrypt(InputStream input, OutputStream output, Secret password) throws IOException, CryptException {
+        byte[] noncePrefix = AES256Stream.newNoncePrefix();
+        byte[] keyBytes = writeStreamHeader(output, noncePrefix, password);
+        try {
+            AES256Stream.encrypt(input, output, keyBytes, noncePrefix);
+        } finally {
+            Arrays.fill(keyBytes, (byte) 0);
+        }
+    }
+
+    @Override
+    public void decrypt(InputStream input, OutputStream output, String password) throws IOException, CryptException {
+        try (Secret secret = Secret.of(password)) {
+            decrypt(input, output, secret);
+        }
+    }
+
+    @Override
+    public void decrypt(InputStream input, OutputStream output, Secret password) throws IOException, CryptException {
+        byte[] magic = new byte[STREAM_MAGIC.length];
+        int length = AES256Stream.readFully(input, magic, magic.length);
+        if (!isStreamMagic(magic, length)) {
+            decryptText(magic, length, input, output, password);
+            return;
+        }
+        byte[] noncePrefix = new byte[AES256Stream.NONCE_PREFIX_LENGTH];
+        byte[] keyBytes = readStreamHeader(input, magic[magic.length - 1], noncePrefix, password);
+        try {
+            AES256Stream.decrypt(input, output, keyBytes, noncePrefix);
+        } finally {
+            Arrays.fill(keyBytes, (byte) 0);
+        }
+    }
+
+    @Override
+    public OutputStream encryptingStream(OutputStream output, String password) throws IOException, CryptException {
+        try (Secret secret = Secret.of(password)) {
+            return encryptingStream(output, secret);
+        }
+    }
+
+    @Override
+    public OutputStream encryptingStream(OutputStream output, Secret password) throws IOException, CryptException {
+        byte[] noncePrefix = AES256Stream.newNoncePrefix();
+        byte[] keyBytes = writeStreamHeader(output, noncePrefix, password);
+        try {
+            return AES256Stream.encryptingStream(output, keyBytes, noncePrefix);
+        } finally {
+            Arrays.fill(keyBytes, (byte) 0);
+        }
+    }
+
+    @Override
+    public InputStream decryptingStream(InputStream input, String password) throws IOException, CryptException {
+        try (Secret secret = Secret.of(password)) {
+            return decryptingStream(input, secret);
+        }
+    }
+
+    @Override
+    public InputStream decryptingStream(InputStream input, Secret password) throws IOException, CryptException {
+        byte[] magic = new byte[STREAM_MAGIC.length];
+        if (!isStreamMagic(magic, AES256Stream.readFully(input, magic, magic.length))) {
+            throw new CryptException("Not an encrypted stream");
+        }
+        byte[] noncePrefix = new byte[AES256Stream.NONCE_PREFIX_LENGTH];
+        byte[] keyBytes = readStreamHeader(input, magic[magic.length - 1], noncePrefix, password);
+        try {
+            return AES256Stream.decryptingStream(input, keyBytes, noncePrefix);
+        } finally {
+            Arrays.fill(keyBytes, (byte) 0);
+        }
+    }
+
+    @Override
+    public boolean isEncrypted(InputStream input) throws IOException {
+        byte[] magic = new byte[STREAM_MAGIC.length];
+        input.mark(magic.length);
+        int length = AES256Stream.readFully(input, magic, magic.length);
+        input.reset();
+        return isStreamMagic(magic, length);
+    }
+
+    private static boolean isStreamMagic(byte[] magic, int length) {
+        if (length < magic.length) {
+            return false;
+        }
+        for (int i = 0; i < magic.length - 1; i++) {
+            if (magic[i] != STREAM_MAGIC[i]) {
+                return false;
+            }
+        }
+        int version = magic[magic.length - 1];
+        return version == LEGACY_STREAM_VERSION || version == STREAM_MAGIC[STREAM_MAGIC.length - 1];
+    }
+
+    private byte[] writeStreamHeader(OutputStream output, byte[] noncePrefix, Secret password) throws IOException, CryptException {
+        KeyDerivation streamKeyDerivation = keyDerivation;
+        byte[] streamSalt = new byte[SALT_LENGTH];
+        RANDOM.nextBytes(streamSalt);
+        byte[] keyBytes = streamKeyDerivation.derive(password, streamSalt, KEY_LENGTH / 8);
+        try {
+            DataOutputStream data = new DataOutputStream(output);
+            data.write(STREAM_MAGIC);
+            data.writeByte(streamKeyDerivation.getId());
+            data.writeInt(streamKeyDerivation.getParameters());
+            data.write(streamSalt);
+            data.write(noncePrefix);
+        } catch (IOException e) {
+            Arrays.fill(keyBytes, (byte) 0);
+            throw e;
+        }
+        return keyBytes;
+    }
+
+    private static byte[] readStreamHeader(InputStream input, int version, byte[] noncePrefix, Secret password) throws IOException, CryptException {
+        KeyDerivation streamKeyDerivation = KeyDerivation.LEGACY;
+        if (version != LEGACY_STREAM_VERSION) {
+            byte[] kdf = new byte[5];
+            if (AES256Stream.readFully(input, kdf, kdf.length) < kdf.length) {
+                throw new CryptException("Encrypted stream is truncated");
+            }
+            try {
+                streamKeyDerivation = KeyDerivation.of(kdf[0] & 0xff, new DataInputStream(new ByteArrayInputStream(kdf, 1, 4)).readInt());
+            } catch (ManagerException e) {
+                throw new CryptException(e.getMessage());
+            }
+        }
+        byte[] streamSalt = new byte[SALT_LENGTH];
+        if (AES256Stream.readFully(input, streamSalt, streamSalt.length) < streamSalt.length
+                || AES256Stream.readFully(input, noncePrefix, noncePrefix.length) < noncePrefix.length) {
+            throw new CryptException("Encrypted stream is truncated");
+        }
+        return streamKeyDerivation.derive(password, streamSalt, KEY_LENGTH / 8);
+    }
+
+    private void decryptText(byte[] head, int headLength, InputStream input, OutputStream output, Secret password) throws IOException, CryptException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        content.write(head, 0, headLength);
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+            content.write(buffer, 0, read);
+        }
+        CryptKey key = new AES256Key(KeyDerivation.LEGACY.derive(password, Hex.decode(salt), KEY_LENGTH / 8));
         try {
-            return Encryptors.text(password, salt).decrypt(content);
-        } catch (Exception e) {
-            throw new CryptException(e);
+            output.write(key.decrypt(new String(content.toByteArray(), StandardCharsets.UTF_8)).getBytes(StandardCharsets.UTF_8));
+        } finally {
+            key.wipe();
         }
+        output.flush();
     }
 }
\ No newline at end of file
@@ -0,0 +1,151 @@
+package ru.av.passwordshelter.core;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import javax.security.auth.DestroyFailedException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+class AES256Key implements CryptKey {
+
+    private static final int IV_LENGTH = 16;
+    private static final String TRANSFORMATION = "AES/CBC/PKCS5Padding";
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final IvParameterSpec SCRUB_IV = new IvParameterSpec(new byte[IV_LENGTH]);
+
+    private final KeyCiphers encryptors = new KeyCiphers(TRANSFORMATION, SCRUB_IV);
+    private final KeyCiphers decryptors = new KeyCiphers(TRANSFORMATION, SCRUB_IV);
+    private byte[] keyBytes;
+    private volatile SecretKeySpec key;
+
+    AES256Key(byte[] keyBytes) throws CryptException {
+        this.keyBytes = keyBytes;
+        this.key = new SecretKeySpec(keyBytes, "AES");
+        try {
+            encryptors.get();
+            decryptors.get();
+        } catch (Exception e) {
+            throw new CryptException(e);
+        }
+    }
+
+    @Override
+    public String encrypt(String content) throws CryptException {
+        return new String(Hex.encode(encrypt(content.getBytes(StandardCharsets.UTF_8))));
+    }
+
+    @Override
+    public String decrypt(String content) throws CryptException {
+        byte[] bytes;
+        try {
+            bytes = Hex.decode(content);
+        } catch (Exception e) {
+            throw new CryptException(e);
+        }
+        return new String(decrypt(bytes), StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public byte[] encrypt(byte[] content) throws CryptException {
+        try {
+            byte[] iv = new byte[IV_LENGTH];
+            RANDOM.nextBytes(iv);
+            Cipher encryptor = encryptors.get();
+            synchronized (encryptor) {
+                encryptor.init(Cipher.ENCRYPT_MODE, checkNotWiped(), new IvParameterSpec(iv));
+                byte[] result = Arrays.copyOf(iv, IV_LENGTH + encryptor.getOutputSize(content.length));
+                int length = encryptor.doFinal(content, 0, content.length, result, IV_LENGTH);
+                return IV_LENGTH + length == result.length ? result : Arrays.copyOf(result, IV_LENGTH + length);
+            }
+        } catch (CryptException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new CryptException(e);
+        }
+    }
+
+    @Override
+    public byte[] decrypt(byte[] content) throws CryptException {
+        try {
+            Cipher decryptor = decryptors.get();
+            synchronized (decryptor) {
+                decryptor.init(Cipher.DECRYPT_MODE, checkNotWiped(), new IvParameterSpec(content, 0, IV_LENGTH));
+                return decryptor.doFinal(content, IV_LENGTH, content.length - IV_LENGTH);
+            }
+        } catch (CryptException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new CryptException(e);
+        }
+    }
+
+    @Override
+    public byte[] encrypt(Secret content) throws CryptException {
+        try {
+            ByteBuffer plain = content.buffer();
+            byte[] iv = new byte[IV_LENGTH];
+            RANDOM.nextBytes(iv);
+            Cipher encryptor = encryptors.get();
+            synchronized (encryptor) {
+                encryptor.init(Cipher.ENCRYPT_MODE, checkNotWiped(), new IvParameterSpec(iv));
+                byte[] result = Arrays.copyOf(iv, IV_LENGTH + encryptor.getOutputSize(plain.remaining()));
+                int length = encryptor.doFinal(plain, ByteBuffer.wrap(result, IV_LENGTH, result.length - IV_LENGTH));
+                return IV_LENGTH + length == result.length ? result : Arrays.copyOf(result, IV_LENGTH + length);
+            }
+        } catch (CryptException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new CryptException(e);
+        }
+    }
+
+    @Override
+    public Secret decryptSecret(byte[] content) throws CryptException {
+        ByteBuffer plain = null;
+        try {
+            Cipher decryptor = decryptors.get();
+            synchronized (decryptor) {
+                decryptor.init(Cipher.DECRYPT_MODE, checkNotWiped(), new IvParameterSpec(content, 0, IV_LENGTH));
+                plain = ByteBuffer.allocateDirect(decryptor.getOutputSize(content.length - IV_LENGTH));
+                decryptor.doFinal(ByteBuffer.wrap(content, IV_LENGTH, content.length - IV_LENGTH), plain);
+            }
+            plain.flip();
+            return new Secret(plain);
+        } catch (Exception e) {
+            if (plain != null) {
+                new Secret(plain).wipe();
+            }
+            throw e instanceof CryptException ? (CryptException) e : new CryptException(e);
+        }
+    }
+
+    @Override
+    public synchronized void wipe() {
+        SecretKeySpec current = key;
+        key = null;
+        if (keyBytes != null) {
+            Arrays.fill(keyBytes, (byte) 0);
+        }
+        keyBytes = null;
+        if (current != null) {
+            try {
+                current.destroy();
+            } catch (DestroyFailedException e) {
+                // not every JDK can destroy the copy SecretKeySpec keeps, dropping it is all that is left
+            }
+        }
+        encryptors.wipe();
+        decryptors.wipe();
+    }
+
+    private SecretKeySpec checkNotWiped() throws CryptException {
+        SecretKeySpec current = key;
+        if (current == null) {
+            throw new CryptException("Key was wiped");
+        }
+        return current;
+    }
+}
\ No newline at end of file
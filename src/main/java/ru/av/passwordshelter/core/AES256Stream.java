@@ -0,0 +1,253 @@
+package ru.av.passwordshelter.core;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.SecureRandom;
+
+class AES256Stream {
+
+    static final int CHUNK_SIZE = 64 * 1024;
+    static final int NONCE_PREFIX_LENGTH = 8;
+
+    private static final int TAG_LENGTH = 16;
+    private static final int CHUNK_HEADER_LENGTH = 5;
+    private static final byte LAST_CHUNK = 1;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final SecretKeySpec key;
+    private final byte[] noncePrefix;
+    private final Cipher cipher;
+    private final byte[] header = new byte[CHUNK_HEADER_LENGTH];
+    private final byte[] plain = new byte[CHUNK_SIZE];
+    private final byte[] encrypted = new byte[CHUNK_SIZE + TAG_LENGTH];
+    private int counter = 0;
+
+    private AES256Stream(byte[] keyBytes, byte[] noncePrefix) throws CryptException {
+        this.key = new SecretKeySpec(keyBytes, "AES");
+        this.noncePrefix = noncePrefix;
+        try {
+            this.cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        } catch (Exception e) {
+            throw new CryptException(e);
+        }
+    }
+
+    static byte[] newNoncePrefix() {
+        byte[] noncePrefix = new byte[NONCE_PREFIX_LENGTH];
+        RANDOM.nextBytes(noncePrefix);
+        return noncePrefix;
+    }
+
+    static OutputStream encryptingStream(OutputStream output, byte[] keyBytes, byte[] noncePrefix) throws CryptException {
+        return new AES256Stream(keyBytes, noncePrefix).new EncryptingOutputStream(output);
+    }
+
+    static InputStream decryptingStream(InputStream input, byte[] keyBytes, byte[] noncePrefix) throws CryptException {
+        return new AES256Stream(keyBytes, noncePrefix).new DecryptingInputStream(input);
+    }
+
+    static void encrypt(InputStream input, OutputStream output, byte[] keyBytes, byte[] noncePrefix) throws IOException, CryptException {
+        EncryptingOutputStream encrypting = new AES256Stream(keyBytes, noncePrefix).new EncryptingOutputStream(output);
+        try {
+            copy(input, encrypting);
+            encrypting.finish();
+        } catch (IOException e) {
+            throw unwrap(e);
+        }
+    }
+
+    static void decrypt(InputStream input, OutputStream output, byte[] keyBytes, byte[] noncePrefix) throws IOException, CryptException {
+        try {
+            copy(new AES256Stream(keyBytes, noncePrefix).new DecryptingInputStream(input), output);
+        } catch (IOException e) {
+            throw unwrap(e);
+        }
+        output.flush();
+    }
+
+    static int readFully(InputStream input, byte[] buffer, int length) throws IOException {
+        int total = 0;
+        while (total < length) {
+            int read = input.read(buffer, total, length - total);
+            if (read == -1) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+
+    private void writeChunk(OutputStream output, int length, boolean last) throws IOException {
+        byte flag = last ? LAST_CHUNK : 0;
+        int encryptedLength;
+        try {
+            init(Cipher.ENCRYPT_MODE, flag);
+            encryptedLength = cipher.doFinal(plain, 0, length, encrypted, 0);
+        } catch (Exception e) {
+            throw new IOException(new CryptException(e));
+        }
+        header[0] = flag;
+        writeInt(header, 1, encryptedLength);
+        output.write(header);
+        output.write(encrypted, 0, encryptedLength);
+    }
+
+    private int readChunk(InputStream input) throws IOException {
+        if (readFully(input, header, header.length) < header.length) {
+            throw new IOException(new CryptException("Encrypted stream is truncated"));
+        }
+        int encryptedLength = readInt(header, 1);
+        if (encryptedLength < TAG_LENGTH || encryptedLength > encrypted.length) {
+            throw new IOException(new CryptException("Wrong chunk length: " + encryptedLength));
+        }
+        if (readFully(input, encrypted, encryptedLength) < encryptedLength) {
+            throw new IOException(new CryptException("Encrypted stream is truncated"));
+        }
+        try {
+            init(Cipher.DECRYPT_MODE, header[0]);
+            return cipher.doFinal(encrypted, 0, encryptedLength, plain, 0);
+        } catch (Exception e) {
+            throw new IOException(new CryptException(e));
+        }
+    }
+
+    private void init(int mode, byte flag) throws Exception {
+        byte[] iv = new byte[NONCE_PREFIX_LENGTH + 4];
+        System.arraycopy(noncePrefix, 0, iv, 0, NONCE_PREFIX_LENGTH);
+        writeInt(iv, NONCE_PREFIX_LENGTH, counter++);
+        cipher.init(mode, key, new GCMParameterSpec(TAG_LENGTH * 8, iv));
+        cipher.updateAAD(new byte[]{flag});
+    }
+
+    private static void copy(InputStream input, OutputStream output) throws IOException {
+        byte[] buffer = new byte[CHUNK_SIZE];
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+            output.write(buffer, 0, read);
+        }
+    }
+
+    private static IOException unwrap(IOException e) throws CryptException {
+        if (e.getCause() instanceof CryptException) {
+            throw (CryptException) e.getCause();
+        }
+        return e;
+    }
+
+    private static void writeInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) (value >>> 24);
+        buffer[offset + 1] = (byte) (value >>> 16);
+        buffer[offset + 2] = (byte) (value >>> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+
+    private static int readInt(byte[] buffer, int offset) {
+        return ((buffer[offset] & 0xff) << 24) | ((buffer[offset + 1] & 0xff) << 16)
+                | ((buffer[offset + 2] & 0xff) << 8) | (buffer[offset + 3] & 0xff);
+    }
+
+    private class EncryptingOutputStream extends OutputStream {
+
+        private final OutputStream output;
+        private int position = 0;
+        private boolean finished = false;
+
+        EncryptingOutputStream(OutputStream output) {
+            this.output = output;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (finished) {
+                throw new IOException("Stream is closed");
+            }
+            while (len > 0) {
+                if (position == plain.length) {
+                    writeChunk(output, position, false);
+                    position = 0;
+                }
+                int length = Math.min(len, plain.length - position);
+                System.arraycopy(b, off, plain, position, length);
+                position += length;
+                off += length;
+                len -= length;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            output.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                finish();
+            } finally {
+                output.close();
+            }
+        }
+
+        void finish() throws IOException {
+            if (!finished) {
+                finished = true;
+                writeChunk(output, position, true);
+                output.flush();
+            }
+        }
+    }
+
+    private class DecryptingInputStream extends InputStream {
+
+        private final InputStream input;
+        private int position = 0;
+        private int length = 0;
+        private boolean last = false;
+
+        DecryptingInputStream(InputStream input) {
+            this.input = input;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (position == length) {
+                if (last) {
+                    return -1;
+                }
+                length = readChunk(input);
+                position = 0;
+                last = header[0] == LAST_CHUNK;
+                if (last && input.read() != -1) {
+                    throw new IOException(new CryptException("Unexpected data after the last chunk"));
+                }
+            }
+            int read = Math.min(len, length - position);
+            System.arraycopy(plain, position, b, off, read);
+            position += read;
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            input.close();
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,109 @@
+package ru.av.passwordshelter.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+public class AESGCM implements Crypt {
+
+    private static final int KEY_LENGTH = 256;
+
+    private final AES256 streams = new AES256();
+
+    public void setKeyDerivation(KeyDerivation keyDerivation) {
+        streams.setKeyDerivation(keyDerivation);
+    }
+
+    @Override
+    public String encrypt(String content, String password) throws CryptException {
+        throw unsalted();
+    }
+
+    @Override
+    public String decrypt(String content, String password) throws CryptException {
+        throw unsalted();
+    }
+
+    @Override
+    public CryptKey deriveKey(String password) throws CryptException {
+        throw unsalted();
+    }
+
+    @Override
+    public CryptKey deriveKey(String password, byte[] salt, int iterations) throws CryptException {
+        return deriveKey(password, salt, KeyDerivation.pbkdf2Sha1(iterations));
+    }
+
+    @Override
+    public CryptKey deriveKey(String password, byte[] salt, KeyDerivation keyDerivation) throws CryptException {
+        return new AESGCMKey(keyDerivation.derive(password, salt, KEY_LENGTH / 8));
+    }
+
+    @Override
+    public CryptKey deriveKey(Secret password) throws CryptException {
+        throw unsalted();
+    }
+
+    @Override
+    public CryptKey deriveKey(Secret password, byte[] salt, KeyDerivation keyDerivation) throws CryptException {
+        return new AESGCMKey(keyDerivation.derive(password, salt, KEY_LENGTH / 8));
+    }
+
+    @Override
+    public void encrypt(InputStream input, OutputStream output, String password) throws IOException, CryptException {
+        streams.encrypt(input, output, password);
+    }
+
+    @Override
+    public void decrypt(InputStream input, OutputStream output, String password) throws IOException, CryptException {
+        try (Secret secret = Secret.of(password)) {
+            decrypt(input, output, secret);
+        }
+    }
+
+    @Override
+    public OutputStream encryptingStream(OutputStream output, String password) throws IOException, CryptException {
+        return streams.encryptingStream(output, password);
+    }
+
+    @Override
+    public InputStream decryptingStream(InputStream input, String password) throws IOException, CryptException {
+        return streams.decryptingStream(input, password);
+    }
+
+    @Override
+    public void encrypt(InputStream input, OutputStream output, Secret password) throws IOException, CryptException {
+        streams.encrypt(input, output, password);
+    }
+
+    @Override
+    public void decrypt(InputStream input, OutputStream output, Secret password) throws IOException, CryptException {
+        // Unlike AES256 there is no fallback to the CBC text format, only salted chunked streams are read
+        InputStream plain = streams.decryptingStream(input, password);
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = plain.read(buffer)) != -1) {
+            output.write(buffer, 0, read);
+        }
+        output.flush();
+    }
+
+    @Override
+    public OutputStream encryptingStream(OutputStream output, Secret password) throws IOException, CryptException {
+        return streams.encryptingStream(output, password);
+    }
+
+    @Override
+    public InputStream decryptingStream(InputStream input, Secret password) throws IOException, CryptException {
+        return streams.decryptingStream(input, password);
+    }
+
+    @Override
+    public boolean isEncrypted(InputStream input) throws IOException {
+        return streams.isEncrypted(input);
+    }
+
+    private static CryptException unsalted() {
+        return new CryptException("AES-GCM keys are derived only with a salt and key derivation");
+    }
+}
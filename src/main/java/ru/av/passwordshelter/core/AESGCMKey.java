@@ -0,0 +1,152 @@
+package ru.av.passwordshelter.core;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import javax.security.auth.DestroyFailedException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+class AESGCMKey implements CryptKey {
+
+    private static final int NONCE_LENGTH = 12;
+    private static final int TAG_LENGTH = 128;
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final KeyCiphers ciphers = new KeyCiphers(TRANSFORMATION, new GCMParameterSpec(TAG_LENGTH, new byte[NONCE_LENGTH]));
+    private byte[] keyBytes;
+    private volatile SecretKeySpec key;
+
+    AESGCMKey(byte[] keyBytes) throws CryptException {
+        this.keyBytes = keyBytes;
+        this.key = new SecretKeySpec(keyBytes, "AES");
+        try {
+            ciphers.get();
+        } catch (Exception e) {
+            throw new CryptException(e);
+        }
+    }
+
+    @Override
+    public String encrypt(String content) throws CryptException {
+        return new String(Hex.encode(encrypt(content.getBytes(StandardCharsets.UTF_8))));
+    }
+
+    @Override
+    public String decrypt(String content) throws CryptException {
+        byte[] bytes;
+        try {
+            bytes = Hex.decode(content);
+        } catch (Exception e) {
+            throw new CryptException(e);
+        }
+        return new String(decrypt(bytes), StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public byte[] encrypt(byte[] content) throws CryptException {
+        return encrypt(ByteBuffer.wrap(content));
+    }
+
+    @Override
+    public byte[] decrypt(byte[] content) throws CryptException {
+        checkLength(content);
+        try {
+            Cipher decryptor = ciphers.get();
+            synchronized (decryptor) {
+                initDecryptor(decryptor, content);
+                byte[] plain = new byte[decryptor.getOutputSize(content.length - NONCE_LENGTH)];
+                int length = decryptor.doFinal(ByteBuffer.wrap(content, NONCE_LENGTH, content.length - NONCE_LENGTH), ByteBuffer.wrap(plain));
+                return length == plain.length ? plain : Arrays.copyOf(plain, length);
+            }
+        } catch (CryptException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new CryptException(e);
+        }
+    }
+
+    @Override
+    public byte[] encrypt(Secret content) throws CryptException {
+        return encrypt(content.buffer());
+    }
+
+    @Override
+    public Secret decryptSecret(byte[] content) throws CryptException {
+        checkLength(content);
+        ByteBuffer plain = null;
+        try {
+            Cipher decryptor = ciphers.get();
+            synchronized (decryptor) {
+                initDecryptor(decryptor, content);
+                plain = ByteBuffer.allocateDirect(decryptor.getOutputSize(content.length - NONCE_LENGTH));
+                decryptor.doFinal(ByteBuffer.wrap(content, NONCE_LENGTH, content.length - NONCE_LENGTH), plain);
+            }
+            plain.flip();
+            return new Secret(plain);
+        } catch (Exception e) {
+            if (plain != null) {
+                new Secret(plain).wipe();
+            }
+            throw e instanceof CryptException ? (CryptException) e : new CryptException(e);
+        }
+    }
+
+    @Override
+    public synchronized void wipe() {
+        SecretKeySpec current = key;
+        key = null;
+        if (keyBytes != null) {
+            Arrays.fill(keyBytes, (byte) 0);
+        }
+        keyBytes = null;
+        if (current != null) {
+            try {
+                current.destroy();
+            } catch (DestroyFailedException e) {
+                // not every JDK can destroy the copy SecretKeySpec keeps, dropping it is all that is left
+            }
+        }
+        ciphers.wipe();
+    }
+
+    private byte[] encrypt(ByteBuffer plain) throws CryptException {
+        try {
+            byte[] nonce = new byte[NONCE_LENGTH];
+            RANDOM.nextBytes(nonce);
+            Cipher encryptor = ciphers.get();
+            synchronized (encryptor) {
+                encryptor.init(Cipher.ENCRYPT_MODE, checkNotWiped(), new GCMParameterSpec(TAG_LENGTH, nonce));
+                byte[] result = Arrays.copyOf(nonce, NONCE_LENGTH + encryptor.getOutputSize(plain.remaining()));
+                int length = encryptor.doFinal(plain, ByteBuffer.wrap(result, NONCE_LENGTH, result.length - NONCE_LENGTH));
+                return NONCE_LENGTH + length == result.length ? result : Arrays.copyOf(result, NONCE_LENGTH + length);
+            }
+        } catch (CryptException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new CryptException(e);
+        }
+    }
+
+    private void initDecryptor(Cipher decryptor, byte[] content) throws CryptException, GeneralSecurityException {
+        decryptor.init(Cipher.DECRYPT_MODE, checkNotWiped(), new GCMParameterSpec(TAG_LENGTH, content, 0, NONCE_LENGTH));
+    }
+
+    private static void checkLength(byte[] content) throws CryptException {
+        if (content.length < NONCE_LENGTH + TAG_LENGTH / 8) {
+            throw new CryptException("Encrypted content is truncated");
+        }
+    }
+
+    private SecretKeySpec checkNotWiped() throws CryptException {
+        SecretKeySpec current = key;
+        if (current == null) {
+            throw new CryptException("Key was wiped");
+        }
+        return current;
+    }
+}
@@ -0,0 +1,136 @@
+package ru.av.passwordshelter.core;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+public class AsyncManager implements AutoCloseable {
+
+    private final Manager manager;
+    private final Executor ioExecutor;
+    private final Executor cpuExecutor;
+    private final boolean ownExecutors;
+
+    public AsyncManager(Manager manager) {
+        this(manager, createIoExecutor(), createCpuExecutor(), true);
+    }
+
+    public AsyncManager(Manager manager, Executor ioExecutor, Executor cpuExecutor) {
+        this(manager, ioExecutor, cpuExecutor, false);
+    }
+
+    private AsyncManager(Manager manager, Executor ioExecutor, Executor cpuExecutor, boolean ownExecutors) {
+        this.manager = manager;
+        this.ioExecutor = ioExecutor;
+        this.cpuExecutor = cpuExecutor;
+        this.ownExecutors = ownExecutors;
+    }
+
+    public CompletableFuture<Void> createFile(Secret masterPassword) {
+        Secret password = copy(masterPassword);
+        return submit(cpuExecutor, () -> {
+            try {
+                manager.createFile(password);
+                return null;
+            } finally {
+                password.wipe();
+            }
+        });
+    }
+
+    public CompletableFuture<AsyncSession> unlock(Secret masterPassword) {
+        Secret password = copy(masterPassword);
+        return submit(cpuExecutor, () -> {
+            try {
+                return new AsyncSession(manager.unlock(password), ioExecutor, cpuExecutor);
+            } finally {
+                password.wipe();
+            }
+        });
+    }
+
+    public CompletableFuture<Void> changeMasterPassword(Secret oldMasterPassword, Secret newMasterPassword, ProgressListener listener) {
+        Secret oldPassword = copy(oldMasterPassword);
+        Secret newPassword = copy(newMasterPassword);
+        return submit(cpuExecutor, () -> {
+            try {
+                manager.changeMasterPassword(oldPassword, newPassword, listener);
+                return null;
+            } finally {
+                oldPassword.wipe();
+                newPassword.wipe();
+            }
+        });
+    }
+
+    @Override
+    public void close() {
+        if (ownExecutors) {
+            ((ExecutorService) ioExecutor).shutdown();
+            ((ExecutorService) cpuExecutor).shutdown();
+        }
+    }
+
+    static <T> CompletableFuture<T> submit(Executor executor, Task<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        execute(executor, future, task);
+        return future;
+    }
+
+    static <T> void execute(Executor executor, CompletableFuture<T> future, Task<T> task) {
+        try {
+            executor.execute(() -> {
+                try {
+                    future.complete(task.run());
+                } catch (IOException | CryptException | ManagerException | RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+    }
+
+    static Secret copy(Secret secret) {
+        byte[] bytes = secret.toBytes();
+        try {
+            return Secret.of(bytes, 0, bytes.length);
+        } finally {
+            Arrays.fill(bytes, (byte) 0);
+        }
+    }
+
+    private static ExecutorService createIoExecutor() {
+        try {
+            // virtual threads are final since Java 21, the source level is older
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return Executors.newCachedThreadPool(daemon("vault-io"));
+        }
+    }
+
+    private static ExecutorService createCpuExecutor() {
+        return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), daemon("vault-crypt"));
+    }
+
+    private static ThreadFactory daemon(String name) {
+        return r -> {
+            Thread thread = Executors.defaultThreadFactory().newThread(r);
+            thread.setName(name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    interface Task<T> {
+
+        T run() throws IOException, CryptException, ManagerException;
+    }
+}
@@ -0,0 +1,148 @@
+package ru.av.passwordshelter.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+public class AsyncSession implements AutoCloseable {
+
+    private final Session session;
+    private final Executor ioExecutor;
+    private final Executor cpuExecutor;
+    private final Map<List<Object>, CompletableFuture<?>> pendingReads = new HashMap<>();
+
+    AsyncSession(Session session, Executor ioExecutor, Executor cpuExecutor) {
+        this.session = session;
+        this.ioExecutor = ioExecutor;
+        this.cpuExecutor = cpuExecutor;
+    }
+
+    public CompletableFuture<List<String>> getSourceList() {
+        return read(Arrays.asList("getSourceList"), session::getSourceList, ArrayList::new);
+    }
+
+    public CompletableFuture<Map<String, List<String>>> getAllAccountsMap() {
+        return read(Arrays.asList("getAllAccountsMap"), session::getAllAccountsMap, accounts -> {
+            Map<String, List<String>> copy = new LinkedHashMap<>();
+            accounts.forEach((source, list) -> copy.put(source, new ArrayList<>(list)));
+            return copy;
+        });
+    }
+
+    public CompletableFuture<List<String>> getAccountList(String source) {
+        return read(Arrays.asList("getAccountList", source), () -> session.getAccountList(source), ArrayList::new);
+    }
+
+    public CompletableFuture<String> getPassword(String source, String account) {
+        return read(Arrays.asList("getPassword", source, account), () -> session.getPassword(source, account), Function.identity());
+    }
+
+    public CompletableFuture<Secret> getSecret(String source, String account) {
+        return AsyncManager.submit(cpuExecutor, () -> session.getSecret(source, account));
+    }
+
+    public CompletableFuture<Long> getRevision() {
+        return read(Arrays.asList("getRevision"), session::getRevision, Function.identity());
+    }
+
+    public CompletableFuture<List<SearchResult>> search(String query, int limit) {
+        return read(Arrays.asList("search", query, limit), () -> session.search(query, limit), ArrayList::new);
+    }
+
+    public CompletableFuture<Void> add(String source, String account, Secret password) {
+        Secret copy = AsyncManager.copy(password);
+        return AsyncManager.submit(cpuExecutor, () -> {
+            try {
+                session.add(source, account, copy);
+                return null;
+            } finally {
+                copy.wipe();
+            }
+        });
+    }
+
+    public CompletableFuture<Void> changePassword(String source, String account, Secret newPassword) {
+        Secret copy = AsyncManager.copy(newPassword);
+        return AsyncManager.submit(cpuExecutor, () -> {
+            try {
+                session.changePassword(source, account, copy);
+                return null;
+            } finally {
+                copy.wipe();
+            }
+        });
+    }
+
+    public CompletableFuture<Void> delete(String source, String account) {
+        return AsyncManager.submit(cpuExecutor, () -> {
+            session.delete(source, account);
+            return null;
+        });
+    }
+
+    public CompletableFuture<List<OperationResult>> apply(List<Operation> operations) {
+        return AsyncManager.submit(cpuExecutor, () -> session.apply(operations));
+    }
+
+    public CompletableFuture<List<OperationResult>> apply(List<Operation> operations, long expectedRevision) {
+        return AsyncManager.submit(cpuExecutor, () -> session.apply(operations, expectedRevision));
+    }
+
+    public boolean isLocked() {
+        return session.isLocked();
+    }
+
+    // Locking only wipes the key, so it does not queue behind record decryption on the bounded pool
+    public CompletableFuture<Void> lock() {
+        CompletableFuture<Void> future = AsyncManager.submit(ioExecutor, () -> {
+            session.lock();
+            return null;
+        });
+        if (future.isCompletedExceptionally()) {
+            // the executor is shut down, the key must not outlive it
+            session.lock();
+            return CompletableFuture.completedFuture(null);
+        }
+        return future;
+    }
+
+    @Override
+    public void close() {
+        lock();
+    }
+
+    // A read joins an identical one only while that one still waits for a thread. Once it has
+    // started reading the file, later callers start a new read, so nobody gets a vault older
+    // than the moment they asked and every caller of one read sees the same version.
+    private <T> CompletableFuture<T> read(List<Object> key, AsyncManager.Task<T> task, Function<T, T> copy) {
+        CompletableFuture<T> shared;
+        synchronized (pendingReads) {
+            @SuppressWarnings("unchecked")
+            CompletableFuture<T> pending = (CompletableFuture<T>) pendingReads.get(key);
+            if (pending != null) {
+                return pending.thenApply(copy);
+            }
+            shared = new CompletableFuture<>();
+            pendingReads.put(key, shared);
+        }
+        CompletableFuture<T> flight = shared;
+        AsyncManager.execute(cpuExecutor, flight, () -> {
+            synchronized (pendingReads) {
+                pendingReads.remove(key, flight);
+            }
+            return task.run();
+        });
+        if (flight.isDone()) {
+            synchronized (pendingReads) {
+                pendingReads.remove(key, flight);
+            }
+        }
+        return flight.thenApply(copy);
+    }
+}
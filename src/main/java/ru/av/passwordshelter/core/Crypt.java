@@ -1,8 +1,40 @@
 package ru.av.passwordshelter.core;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
 public interface Crypt {
 
     String encrypt(String content, String password) throws CryptException;
 
     String decrypt(String content, String password) throws CryptException;
+
+    CryptKey deriveKey(String password) throws CryptException;
+
+    CryptKey deriveKey(String password, byte[] salt, int iterations) throws CryptException;
+
+    CryptKey deriveKey(String password, byte[] salt, KeyDerivation keyDerivation) throws CryptException;
+
+    CryptKey deriveKey(Secret password) throws CryptException;
+
+    CryptKey deriveKey(Secret password, byte[] salt, KeyDerivation keyDerivation) throws CryptException;
+
+    void encrypt(InputStream input, OutputStream output, String password) throws IOException, CryptException;
+
+    void decrypt(InputStream input, OutputStream output, String password) throws IOException, CryptException;
+
+    OutputStream encryptingStream(OutputStream output, String password) throws IOException, CryptException;
+
+    InputStream decryptingStream(InputStream input, String password) throws IOException, CryptException;
+
+    void encrypt(InputStream input, OutputStream output, Secret password) throws IOException, CryptException;
+
+    void decrypt(InputStream input, OutputStream output, Secret password) throws IOException, CryptException;
+
+    OutputStream encryptingStream(OutputStream output, Secret password) throws IOException, CryptException;
+
+    InputStream decryptingStream(InputStream input, Secret password) throws IOException, CryptException;
+
+    boolean isEncrypted(InputStream input) throws IOException;
 }
\ No newline at end of file
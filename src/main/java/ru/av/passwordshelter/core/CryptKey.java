@@ -0,0 +1,18 @@
+package ru.av.passwordshelter.core;
+
+public interface CryptKey {
+
+    String encrypt(String content) throws CryptException;
+
+    String decrypt(String content) throws CryptException;
+
+    byte[] encrypt(byte[] content) throws CryptException;
+
+    byte[] decrypt(byte[] content) throws CryptException;
+
+    byte[] encrypt(Secret content) throws CryptException;
+
+    Secret decryptSecret(byte[] content) throws CryptException;
+
+    void wipe();
+}
\ No newline at end of file
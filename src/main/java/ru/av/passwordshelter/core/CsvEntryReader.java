@@ -0,0 +1,81 @@
+package ru.av.passwordshelter.core;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class CsvEntryReader implements EntryReader {
+
+    private static final List<String> HEADER = Arrays.asList("source", "account", "password");
+
+    private final Reader reader;
+    private long row = 0;
+
+    public CsvEntryReader(Reader reader) {
+        this.reader = reader instanceof BufferedReader ? reader : new BufferedReader(reader);
+    }
+
+    @Override
+    public Operation next() throws IOException, ManagerException {
+        List<String> fields;
+        while ((fields = readRow()) != null) {
+            if (row == 1 && HEADER.equals(fields)) {
+                continue;
+            }
+            if (fields.size() == 1 && fields.get(0).isEmpty()) {
+                continue;
+            }
+            if (fields.size() != HEADER.size()) {
+                throw new ManagerException("Row " + row + ": expected " + HEADER.size() + " fields, found " + fields.size());
+            }
+            return Operation.add(fields.get(0), fields.get(1), fields.get(2));
+        }
+        return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private List<String> readRow() throws IOException, ManagerException {
+        int c = reader.read();
+        if (c == -1) {
+            return null;
+        }
+        row++;
+        List<String> fields = new ArrayList<>(HEADER.size());
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        while (true) {
+            if (quoted) {
+                if (c == -1) {
+                    throw new ManagerException("Row " + row + ": unterminated quoted field");
+                }
+                if (c == '"') {
+                    c = reader.read();
+                    if (c != '"') {
+                        quoted = false;
+                        continue;
+                    }
+                }
+                field.append((char) c);
+            } else if (c == '"' && field.length() == 0) {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else if (c == '\n' || c == -1) {
+                break;
+            } else if (c != '\r') {
+                field.append((char) c);
+            }
+            c = reader.read();
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,45 @@
+package ru.av.passwordshelter.core;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+public class CsvEntryWriter implements EntryWriter {
+
+    private final Writer writer;
+
+    public CsvEntryWriter(Writer writer) throws IOException {
+        this.writer = writer instanceof BufferedWriter ? writer : new BufferedWriter(writer);
+        this.writer.write("source,account,password\n");
+    }
+
+    @Override
+    public void write(String source, String account, String password) throws IOException {
+        writeField(source);
+        writer.write(',');
+        writeField(account);
+        writer.write(',');
+        writeField(password);
+        writer.write('\n');
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+
+    private void writeField(String value) throws IOException {
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            writer.write(value);
+            return;
+        }
+        writer.write('"');
+        writer.write(value.replace("\"", "\"\""));
+        writer.write('"');
+    }
+}
\ No newline at end of file
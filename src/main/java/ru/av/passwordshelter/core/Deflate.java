@@ -0,0 +1,74 @@
+package ru.av.passwordshelter.core;
+
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+final class Deflate {
+
+    private static final int LENGTH_PREFIX = 4;
+    private static final int MAX_RATIO = 1032;
+
+    private Deflate() {
+    }
+
+    static byte[] compress(byte[] content, int level) {
+        Deflater deflater = new Deflater(level);
+        try {
+            deflater.setInput(content);
+            deflater.finish();
+            byte[] result = new byte[LENGTH_PREFIX + content.length / 4 + 64];
+            writeInt(result, content.length);
+            int position = LENGTH_PREFIX;
+            while (!deflater.finished()) {
+                if (position == result.length) {
+                    result = Arrays.copyOf(result, (int) Math.min(Integer.MAX_VALUE - 8, result.length * 2L));
+                }
+                position += deflater.deflate(result, position, result.length - position);
+            }
+            return position == result.length ? result : Arrays.copyOf(result, position);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    static byte[] decompress(byte[] content) throws ManagerException {
+        if (content.length < LENGTH_PREFIX) {
+            throw new ManagerException("Compressed index is truncated");
+        }
+        int length = (content[0] & 0xff) << 24 | (content[1] & 0xff) << 16 | (content[2] & 0xff) << 8 | content[3] & 0xff;
+        if (length < 0 || length > (long) (content.length - LENGTH_PREFIX) * MAX_RATIO) {
+            throw new ManagerException("Wrong uncompressed index length: " + length);
+        }
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(content, LENGTH_PREFIX, content.length - LENGTH_PREFIX);
+            byte[] result = new byte[length];
+            byte[] overflow = new byte[1];
+            int position = 0;
+            while (!inflater.finished()) {
+                int inflated = position < length ? inflater.inflate(result, position, length - position) : inflater.inflate(overflow);
+                if (position == length && inflated > 0 || inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new ManagerException("Compressed index is corrupted");
+                }
+                position += inflated;
+            }
+            if (position != length || inflater.getRemaining() != 0) {
+                throw new ManagerException("Compressed index is corrupted");
+            }
+            return result;
+        } catch (DataFormatException e) {
+            throw new ManagerException(e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static void writeInt(byte[] bytes, int value) {
+        bytes[0] = (byte) (value >>> 24);
+        bytes[1] = (byte) (value >>> 16);
+        bytes[2] = (byte) (value >>> 8);
+        bytes[3] = (byte) value;
+    }
+}
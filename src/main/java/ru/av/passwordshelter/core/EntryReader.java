@@ -0,0 +1,9 @@
+package ru.av.passwordshelter.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+public interface EntryReader extends Closeable {
+
+    Operation next() throws IOException, ManagerException;
+}
\ No newline at end of file
@@ -0,0 +1,9 @@
+package ru.av.passwordshelter.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+public interface EntryWriter extends Closeable {
+
+    void write(String source, String account, String password) throws IOException;
+}
\ No newline at end of file
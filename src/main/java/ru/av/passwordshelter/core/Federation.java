@@ -0,0 +1,268 @@
+package ru.av.passwordshelter.core;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class Federation implements AutoCloseable {
+
+    public static final char SEPARATOR = '/';
+
+    private static final ExecutorService WORKERS = createWorkers();
+
+    private final Map<String, Session> sessions = new TreeMap<>();
+
+    public Map<String, Exception> mount(Map<String, Manager> managers, Map<String, Secret> masterPasswords) {
+        for (String name : managers.keySet()) {
+            checkName(name);
+        }
+        Map<String, Future<Session>> unlocks = new LinkedHashMap<>();
+        for (Map.Entry<String, Manager> vault : managers.entrySet()) {
+            Secret masterPassword = masterPasswords.get(vault.getKey());
+            unlocks.put(vault.getKey(), WORKERS.submit(() -> open(vault.getValue(), masterPassword)));
+        }
+        Map<String, Exception> failures = new TreeMap<>();
+        for (Map.Entry<String, Future<Session>> unlock : unlocks.entrySet()) {
+            try {
+                Session session = await(unlock.getValue());
+                Session previous;
+                synchronized (this) {
+                    previous = sessions.put(unlock.getKey(), session);
+                }
+                if (previous != null) {
+                    previous.lock();
+                }
+            } catch (IOException | CryptException | ManagerException | RuntimeException e) {
+                failures.put(unlock.getKey(), e);
+            }
+        }
+        return failures;
+    }
+
+    public void unmount(String name) {
+        Session session;
+        synchronized (this) {
+            session = sessions.remove(name);
+        }
+        if (session != null) {
+            session.lock();
+        }
+    }
+
+    public synchronized List<String> getNames() {
+        return new ArrayList<>(sessions.keySet());
+    }
+
+    public synchronized boolean isEmpty() {
+        return sessions.isEmpty();
+    }
+
+    public List<String> getSourceList() throws IOException, CryptException, ManagerException {
+        List<String> sources = new ArrayList<>();
+        for (Map.Entry<String, List<String>> vault : fanOut(Session::getSourceList).entrySet()) {
+            for (String source : vault.getValue()) {
+                sources.add(vault.getKey() + SEPARATOR + source);
+            }
+        }
+        return sources;
+    }
+
+    public Map<String, List<String>> getAllAccountsMap() throws IOException, CryptException, ManagerException {
+        Map<String, List<String>> accounts = new LinkedHashMap<>();
+        for (Map.Entry<String, Map<String, List<String>>> vault : fanOut(Session::getAllAccountsMap).entrySet()) {
+            for (Map.Entry<String, List<String>> source : vault.getValue().entrySet()) {
+                accounts.put(vault.getKey() + SEPARATOR + source.getKey(), source.getValue());
+            }
+        }
+        return accounts;
+    }
+
+    public List<SearchResult> search(String query, int limit) throws IOException, CryptException, ManagerException {
+        List<SearchResult> results = new ArrayList<>();
+        for (Map.Entry<String, List<SearchResult>> vault : fanOut(session -> session.search(query, limit)).entrySet()) {
+            for (SearchResult result : vault.getValue()) {
+                results.add(new SearchResult(vault.getKey() + SEPARATOR + result.getSource(), result.getAccount(),
+                        result.getMatch(), result.getScore()));
+            }
+        }
+        results.sort((a, b) -> Integer.compare(b.getScore(), a.getScore()));
+        return results.size() > limit ? new ArrayList<>(results.subList(0, limit)) : results;
+    }
+
+    public List<String> getAccountList(String source) throws IOException, CryptException, ManagerException {
+        return find(source, Session::getAccountList, Discard.none());
+    }
+
+    public String getPassword(String source, String account) throws IOException, CryptException, ManagerException {
+        return find(source, (session, local) -> session.getPassword(local, account), Discard.none());
+    }
+
+    public Secret getSecret(String source, String account) throws IOException, CryptException, ManagerException {
+        return find(source, (session, local) -> session.getSecret(local, account), Secret::wipe);
+    }
+
+    @Override
+    public void close() {
+        List<Session> mounted;
+        synchronized (this) {
+            mounted = new ArrayList<>(sessions.values());
+            sessions.clear();
+        }
+        for (Session session : mounted) {
+            session.lock();
+        }
+    }
+
+    private <T> T find(String source, FindQuery<T> query, Discard<T> discard) throws IOException, CryptException, ManagerException {
+        int separator = source.indexOf(SEPARATOR);
+        if (separator > 0) {
+            Session session;
+            synchronized (this) {
+                session = sessions.get(source.substring(0, separator));
+            }
+            if (session != null) {
+                return query.run(session, source.substring(separator + 1));
+            }
+        }
+        Map<String, Future<T>> pending = submit(session -> query.run(session, source));
+        Map<String, T> found = new LinkedHashMap<>();
+        List<Future<T>> unread = new ArrayList<>(pending.values());
+        try {
+            for (Map.Entry<String, Future<T>> vault : pending.entrySet()) {
+                unread.remove(vault.getValue());
+                try {
+                    found.put(vault.getKey(), await(vault.getValue()));
+                } catch (ManagerException e) {
+                    // the source or account is not in this vault
+                } catch (IOException | CryptException e) {
+                    e.addSuppressed(new Exception("Vault " + vault.getKey()));
+                    throw e;
+                }
+            }
+            if (found.isEmpty()) {
+                throw new ManagerException("No record in mounted vaults");
+            }
+            if (found.size() > 1) {
+                throw new ManagerException("Record is in several vaults, prefix the source with one of " + new ArrayList<>(found.keySet()));
+            }
+            T result = found.values().iterator().next();
+            found.clear();
+            return result;
+        } finally {
+            for (T value : found.values()) {
+                discard.run(value);
+            }
+            // a cancelled task still finishes and its result would be lost unwiped, so wait for it instead
+            for (Future<T> future : unread) {
+                try {
+                    discard.run(await(future));
+                } catch (IOException | CryptException | ManagerException | RuntimeException e) {
+                    // nothing to discard
+                }
+            }
+        }
+    }
+
+    private <T> Map<String, T> fanOut(Query<T> query) throws IOException, CryptException, ManagerException {
+        Map<String, T> results = new LinkedHashMap<>();
+        for (Map.Entry<String, Future<T>> vault : submit(query).entrySet()) {
+            try {
+                results.put(vault.getKey(), await(vault.getValue()));
+            } catch (IOException | CryptException | ManagerException e) {
+                e.addSuppressed(new Exception("Vault " + vault.getKey()));
+                throw e;
+            }
+        }
+        return results;
+    }
+
+    private <T> Map<String, Future<T>> submit(Query<T> query) {
+        Map<String, Session> mounted;
+        synchronized (this) {
+            mounted = new LinkedHashMap<>(sessions);
+        }
+        Map<String, Future<T>> pending = new LinkedHashMap<>();
+        for (Map.Entry<String, Session> vault : mounted.entrySet()) {
+            pending.put(vault.getKey(), WORKERS.submit(() -> query.run(vault.getValue())));
+        }
+        return pending;
+    }
+
+    private static Session open(Manager manager, Secret masterPassword) throws IOException, CryptException, ManagerException {
+        Session session = manager.unlock(masterPassword);
+        try {
+            session.getSourceList();
+            return session;
+        } catch (IOException | CryptException | ManagerException | RuntimeException e) {
+            session.lock();
+            throw e;
+        }
+    }
+
+    private static <T> T await(Future<T> future) throws IOException, CryptException, ManagerException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof CryptException) {
+                throw (CryptException) cause;
+            }
+            if (cause instanceof ManagerException) {
+                throw (ManagerException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    private static void checkName(String name) {
+        if (name.isEmpty() || name.indexOf(SEPARATOR) >= 0 || name.contains(" ")) {
+            throw new IllegalArgumentException("Vault name must be non-empty without spaces and '" + SEPARATOR + "': " + name);
+        }
+    }
+
+    private static ExecutorService createWorkers() {
+        return Executors.newCachedThreadPool(r -> {
+            Thread thread = Executors.defaultThreadFactory().newThread(r);
+            thread.setName("federation-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private interface Query<T> {
+
+        T run(Session session) throws IOException, CryptException, ManagerException;
+    }
+
+    private interface FindQuery<T> {
+
+        T run(Session session, String source) throws IOException, CryptException, ManagerException;
+    }
+
+    private interface Discard<T> {
+
+        void run(T value);
+
+        static <T> Discard<T> none() {
+            return value -> {
+            };
+        }
+    }
+}
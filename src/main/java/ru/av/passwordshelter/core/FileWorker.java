@@ -1,10 +1,22 @@
 package ru.av.passwordshelter.core;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 
 public interface FileWorker {
 
     String read(String filename)throws IOException;
     void write(String content, String filename) throws IOException;
+    byte[] readBytes(String filename) throws IOException;
+    void write(byte[] content, String filename) throws IOException;
+    void append(byte[] content, String filename) throws IOException;
+    void truncate(String filename, long length) throws IOException;
+    void move(String source, String target) throws IOException;
+    void delete(String filename) throws IOException;
     boolean exists(String filename);
+    InputStream openInput(String filename) throws IOException;
+    OutputStream openOutput(String filename) throws IOException;
+    Closeable lock(String filename, boolean shared) throws IOException;
 }
\ No newline at end of file
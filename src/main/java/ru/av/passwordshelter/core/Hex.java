@@ -0,0 +1,37 @@
+package ru.av.passwordshelter.core;
+
+final class Hex {
+
+    private static final char[] DIGITS = "0123456789abcdef".toCharArray();
+
+    private Hex() {
+    }
+
+    static char[] encode(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[2 * i] = DIGITS[bytes[i] >>> 4 & 0xf];
+            chars[2 * i + 1] = DIGITS[bytes[i] & 0xf];
+        }
+        return chars;
+    }
+
+    static byte[] decode(CharSequence chars) {
+        if (chars.length() % 2 != 0) {
+            throw new IllegalArgumentException("Hex-encoded string must have an even number of characters");
+        }
+        byte[] bytes = new byte[chars.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) (digit(chars.charAt(2 * i)) << 4 | digit(chars.charAt(2 * i + 1)));
+        }
+        return bytes;
+    }
+
+    private static int digit(char c) {
+        int digit = Character.digit(c, 16);
+        if (digit < 0) {
+            throw new IllegalArgumentException("Illegal hexadecimal character " + c);
+        }
+        return digit;
+    }
+}
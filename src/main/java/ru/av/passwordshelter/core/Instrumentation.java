@@ -0,0 +1,76 @@
+package ru.av.passwordshelter.core;
+
+final class Instrumentation {
+
+    interface Timer extends AutoCloseable {
+
+        @Override
+        void close();
+    }
+
+    interface Events {
+
+        Object beginOperation(String operation);
+
+        Object beginPhase(String operation, Phase phase);
+
+        void commit(Object event);
+    }
+
+    static final Timer NOOP = () -> {
+    };
+
+    private static final String NO_OPERATION = "other";
+    private static final ThreadLocal<String> OPERATION = new ThreadLocal<>();
+    private static final Events JFR = jfrEvents();
+
+    private Instrumentation() {
+    }
+
+    static Timer operation(String operation) {
+        if (!Metrics.isEnabled()) {
+            return NOOP;
+        }
+        String previous = OPERATION.get();
+        OPERATION.set(operation);
+        Object event = JFR != null ? JFR.beginOperation(operation) : null;
+        long start = System.nanoTime();
+        return () -> {
+            long nanos = System.nanoTime() - start;
+            if (previous == null) {
+                OPERATION.remove();
+            } else {
+                OPERATION.set(previous);
+            }
+            Metrics.getRegistry().record(operation, null, nanos);
+            if (event != null) {
+                JFR.commit(event);
+            }
+        };
+    }
+
+    static Timer phase(Phase phase) {
+        if (!Metrics.isEnabled()) {
+            return NOOP;
+        }
+        String current = OPERATION.get();
+        String operation = current == null ? NO_OPERATION : current;
+        Object event = JFR != null ? JFR.beginPhase(operation, phase) : null;
+        long start = System.nanoTime();
+        return () -> {
+            Metrics.getRegistry().record(operation, phase, System.nanoTime() - start);
+            if (event != null) {
+                JFR.commit(event);
+            }
+        };
+    }
+
+    private static Events jfrEvents() {
+        try {
+            Class.forName("jdk.jfr.Event", false, Instrumentation.class.getClassLoader());
+            return (Events) Class.forName("ru.av.passwordshelter.core.JfrEvents").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,129 @@
+package ru.av.passwordshelter.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+class Journal {
+
+    static final int ADD = 1;
+    static final int CHANGE = 2;
+    static final int DELETE = 3;
+
+    private static final int MAX_ENTRY_LENGTH = 16 * 1024 * 1024;
+    private static final int READ_CHUNK = 64 * 1024;
+
+    private long length = 0;
+    private boolean complete = true;
+
+    static Journal read(InputStream input, Vault vault, CryptKey key) throws IOException, CryptException, ManagerException {
+        Journal journal = new Journal();
+        DataInputStream data = new DataInputStream(input);
+        byte[] frame = new byte[4];
+        while (true) {
+            int read = AES256Stream.readFully(data, frame, frame.length);
+            if (read == 0) {
+                return journal;
+            }
+            int entryLength = read < frame.length ? -1 : new DataInputStream(new ByteArrayInputStream(frame)).readInt();
+            byte[] entry = entryLength < 0 || entryLength > MAX_ENTRY_LENGTH ? null : readEntry(data, entryLength);
+            if (entry == null) {
+                journal.complete = false;
+                return journal;
+            }
+            journal.apply(key.decrypt(entry), vault);
+            vault.setRevision(vault.getRevision() + 1);
+            journal.length += frame.length + entryLength;
+        }
+    }
+
+    static byte[] entry(int operation, String source, String account, byte[] record, CryptKey key) throws CryptException {
+        ByteArrayOutputStream plain = new ByteArrayOutputStream();
+        try (DataOutputStream data = new DataOutputStream(plain)) {
+            data.writeByte(operation);
+            data.writeUTF(source);
+            data.writeUTF(account);
+            if (operation != DELETE) {
+                data.writeInt(record.length);
+                data.write(record);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] encrypted = key.encrypt(plain.toByteArray());
+        ByteArrayOutputStream entry = new ByteArrayOutputStream(4 + encrypted.length);
+        try (DataOutputStream data = new DataOutputStream(entry)) {
+            data.writeInt(encrypted.length);
+            data.write(encrypted);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return entry.toByteArray();
+    }
+
+    long getLength() {
+        return length;
+    }
+
+    boolean isComplete() {
+        return complete;
+    }
+
+    static void apply(Vault vault, int operation, String source, String account, byte[] record) throws ManagerException {
+        switch (operation) {
+            case ADD:
+                vault.add(source, account, record);
+                break;
+            case CHANGE:
+                vault.change(source, account, record);
+                break;
+            case DELETE:
+                vault.delete(source, account);
+                break;
+            default:
+                throw new ManagerException("Unknown journal operation: " + operation);
+        }
+    }
+
+    private void apply(byte[] entry, Vault vault) throws ManagerException {
+        try (DataInputStream data = new DataInputStream(new ByteArrayInputStream(entry))) {
+            int operation = data.readUnsignedByte();
+            String source = data.readUTF();
+            String account = data.readUTF();
+            apply(vault, operation, source, account, operation == DELETE ? null : readRecord(data));
+        } catch (IOException e) {
+            throw new ManagerException(e);
+        }
+    }
+
+    // a flipped bit in a length must not allocate more than the file or the entry holds
+    private static byte[] readEntry(InputStream input, int length) throws IOException {
+        byte[] entry = new byte[Math.min(length, READ_CHUNK)];
+        int position = 0;
+        while (position < length) {
+            if (position == entry.length) {
+                entry = Arrays.copyOf(entry, (int) Math.min(length, entry.length * 2L));
+            }
+            int read = input.read(entry, position, entry.length - position);
+            if (read == -1) {
+                return null;
+            }
+            position += read;
+        }
+        return entry;
+    }
+
+    private static byte[] readRecord(DataInputStream data) throws IOException, ManagerException {
+        int length = data.readInt();
+        if (length < 0 || length > data.available()) {
+            throw new ManagerException("Wrong journal record length: " + length);
+        }
+        byte[] record = new byte[length];
+        data.readFully(record);
+        return record;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,105 @@
+package ru.av.passwordshelter.core;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import java.io.IOException;
+import java.io.Reader;
+
+public class JsonEntryReader implements EntryReader {
+
+    private enum State {
+        START,
+        SOURCE,
+        ACCOUNT,
+        END
+    }
+
+    private final Reader reader;
+    private final JSONTokener tokener;
+    private State state = State.START;
+    private String source;
+
+    public JsonEntryReader(Reader reader) {
+        this.reader = reader;
+        this.tokener = new JSONTokener(reader);
+    }
+
+    @Override
+    public Operation next() throws ManagerException {
+        try {
+            while (true) {
+                switch (state) {
+                    case START:
+                        expect('{');
+                        state = closes() ? State.END : State.SOURCE;
+                        break;
+                    case SOURCE:
+                        source = nextString();
+                        expect(':');
+                        expect('{');
+                        if (closes()) {
+                            afterSource();
+                        } else {
+                            state = State.ACCOUNT;
+                        }
+                        break;
+                    case ACCOUNT:
+                        String account = nextString();
+                        expect(':');
+                        String password = nextString();
+                        char c = tokener.nextClean();
+                        if (c == '}') {
+                            afterSource();
+                        } else if (c != ',') {
+                            throw tokener.syntaxError("Expected ',' or '}'");
+                        }
+                        return Operation.add(source, account, password);
+                    default:
+                        return null;
+                }
+            }
+        } catch (JSONException e) {
+            throw new ManagerException(e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private void afterSource() throws JSONException {
+        char c = tokener.nextClean();
+        if (c == ',') {
+            state = State.SOURCE;
+        } else if (c == '}') {
+            state = State.END;
+        } else {
+            throw tokener.syntaxError("Expected ',' or '}'");
+        }
+    }
+
+    private boolean closes() throws JSONException {
+        if (tokener.nextClean() == '}') {
+            return true;
+        }
+        tokener.back();
+        return false;
+    }
+
+    private void expect(char expected) throws JSONException {
+        if (tokener.nextClean() != expected) {
+            throw tokener.syntaxError("Expected '" + expected + "'");
+        }
+    }
+
+    private String nextString() throws JSONException {
+        Object value = tokener.nextValue();
+        if (value instanceof JSONObject || value instanceof JSONArray || value == JSONObject.NULL) {
+            throw tokener.syntaxError("Expected a string");
+        }
+        return value.toString();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,45 @@
+package ru.av.passwordshelter.core;
+
+import org.json.JSONObject;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+public class JsonEntryWriter implements EntryWriter {
+
+    private final Writer writer;
+    private String source = null;
+    private boolean closed = false;
+
+    public JsonEntryWriter(Writer writer) {
+        this.writer = writer instanceof BufferedWriter ? writer : new BufferedWriter(writer);
+    }
+
+    @Override
+    public void write(String source, String account, String password) throws IOException {
+        if (this.source == null) {
+            writer.write("{\n  " + JSONObject.quote(source) + ": {\n    ");
+        } else if (!this.source.equals(source)) {
+            writer.write("\n  },\n  " + JSONObject.quote(source) + ": {\n    ");
+        } else {
+            writer.write(",\n    ");
+        }
+        writer.write(JSONObject.quote(account));
+        writer.write(": ");
+        writer.write(JSONObject.quote(password));
+        this.source = source;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            writer.write(source == null ? "{}\n" : "\n  }\n}\n");
+        } finally {
+            writer.close();
+        }
+    }
+}
\ No newline at end of file
@@ -1,159 +1,905 @@
 package ru.av.passwordshelter.core;
 
-import org.json.JSONObject;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.Deflater;
 
+@SuppressWarnings("try")
 public class JsonManager implements Manager {
 
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int READ_AHEAD_LIMIT = 16 * 1024 * 1024;
+    private static final String LOCK_SUFFIX = ".lock";
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final ExecutorService COMPACTOR = createCompactor();
+
+    private final VaultLock vaultLock;
     private String filename = null;
-    private Crypt crypt = new AES256();
+    private Crypt crypt = new AESGCM();
+    private Crypt legacyCrypt = new AES256();
     private FileWorker fileWorker = new TextFileWorker();
+    private long idleTimeout = TimeUnit.MINUTES.toMillis(5);
+    private long compactionThreshold = 64 * 1024;
+    private int rotationChunkSize = 10000;
+    private int compressionLevel = Deflater.BEST_SPEED;
+    private int compressionThreshold = 64 * 1024;
+    private KeyDerivation keyDerivation = KeyDerivation.DEFAULT;
+    private volatile Future<?> compaction;
 
     public JsonManager(String filename) {
         this.filename = filename;
+        this.vaultLock = VaultLock.of(filename);
+    }
+
+    public void setIdleTimeout(long idleTimeout, TimeUnit unit) {
+        this.idleTimeout = unit.toMillis(idleTimeout);
+    }
+
+    public void setCompactionThreshold(long compactionThreshold) {
+        this.compactionThreshold = compactionThreshold;
+    }
+
+    public void setKeyDerivation(KeyDerivation keyDerivation) {
+        this.keyDerivation = keyDerivation;
+    }
+
+    public void setCompressionLevel(int compressionLevel) {
+        if (compressionLevel < Deflater.DEFAULT_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Compression level must be between -1 and 9: " + compressionLevel);
+        }
+        this.compressionLevel = compressionLevel;
+    }
+
+    public void setCompressionThreshold(int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
     }
 
     @Override
     public void createFile(String masterPassword) throws IOException, CryptException {
-        if (fileWorker.exists(filename)) {
-            throw new IOException("File \"" + filename + "\" already exists!");
+        try (Secret secret = Secret.of(masterPassword)) {
+            createFile(secret);
         }
-        fileWorker.write(crypt.encrypt("{}", masterPassword), filename);
     }
 
     @Override
-    public void changeMasterPassword(String oldMasterPassword, String newMasterPassword) throws IOException, CryptException{
-        fileWorker.write(crypt.encrypt(crypt.decrypt(fileWorker.read(filename), oldMasterPassword), newMasterPassword), filename);
+    public void createFile(Secret masterPassword) throws IOException, CryptException {
+        try (Instrumentation.Timer timer = Instrumentation.operation("createFile")) {
+            if (fileWorker.exists(filename)) {
+                throw new IOException("File \"" + filename + "\" already exists!");
+            }
+            VaultHeader header = VaultHeader.create(keyDerivation);
+            CryptKey key = deriveKey(masterPassword, header);
+            try (Closeable lock = writeLock()) {
+                if (fileWorker.exists(filename)) {
+                    throw new IOException("File \"" + filename + "\" already exists!");
+                }
+                save(new Vault(), header, key);
+            } finally {
+                key.wipe();
+            }
+        }
     }
 
     @Override
-    public List<String> getSourceList(String masterPassword) throws IOException, CryptException, ManagerException {
-        String content = crypt.decrypt(fileWorker.read(filename), masterPassword);
-        List<String> sources = new ArrayList<>();
+    public void changeMasterPassword(String oldMasterPassword, String newMasterPassword) throws IOException, CryptException, ManagerException {
+        changeMasterPassword(oldMasterPassword, newMasterPassword, null);
+    }
+
+    @Override
+    public void changeMasterPassword(String oldMasterPassword, String newMasterPassword, ProgressListener listener) throws IOException, CryptException, ManagerException {
+        try (Secret oldSecret = Secret.of(oldMasterPassword); Secret newSecret = Secret.of(newMasterPassword)) {
+            changeMasterPassword(oldSecret, newSecret, listener);
+        }
+    }
+
+    @Override
+    public void changeMasterPassword(Secret oldMasterPassword, Secret newMasterPassword, ProgressListener listener) throws IOException, CryptException, ManagerException {
+        try (Instrumentation.Timer timer = Instrumentation.operation("changeMasterPassword");
+             JsonSession session = openSession(oldMasterPassword); Closeable lock = writeLock()) {
+            session.withKey(oldKey -> {
+                Vault vault;
+                try (InputStream input = fileWorker.openInput(filename)) {
+                    vault = readIndex(input, session.header(), oldKey);
+                    readJournal(input, vault, oldKey);
+                }
+                List<Vault.Record> records = vault.records();
+                int[] lengths = new int[records.size()];
+                String rotationFilename = filename + Rotation.SUFFIX;
+                VaultHeader header = null;
+                CryptKey key = null;
+                int done = 0;
+                try {
+                    if (fileWorker.exists(rotationFilename)) {
+                        try (InputStream input = fileWorker.openInput(rotationFilename)) {
+                            VaultHeader stored = VaultHeader.read(input);
+                            if (stored != null && stored.getRevision() == vault.getRevision()) {
+                                CryptKey storedKey = deriveKey(newMasterPassword, stored);
+                                Rotation rotation = Rotation.read(input, stored, storedKey, lengths);
+                                if (rotation == null) {
+                                    storedKey.wipe();
+                                } else {
+                                    header = stored;
+                                    key = storedKey;
+                                    done = rotation.getRecords();
+                                    if (!rotation.isComplete()) {
+                                        fileWorker.truncate(rotationFilename, rotation.getLength());
+                                    }
+                                }
+                            }
+                        }
+                    }
+                    if (key == null) {
+                        header = VaultHeader.create(keyDerivation).withRevision(vault.getRevision());
+                        key = deriveKey(newMasterPassword, header);
+                        fileWorker.write(Rotation.start(header, key), rotationFilename);
+                    }
+                    if (listener != null && done > 0) {
+                        listener.progress(done, records.size());
+                    }
+                    reencrypt(records, done, lengths, oldKey, key, rotationFilename, listener);
+                    byte[] plainIndex;
+                    try (Instrumentation.Timer serialize = Instrumentation.phase(Phase.SERIALIZE)) {
+                        plainIndex = vault.toIndex(lengths);
+                    }
+                    byte[] content = compress(plainIndex);
+                    byte[] index;
+                    try (Instrumentation.Timer encrypt = Instrumentation.phase(Phase.ENCRYPT)) {
+                        index = key.encrypt(content);
+                    }
+                    String rotatedFilename = rotationFilename + TMP_SUFFIX;
+                    try (Instrumentation.Timer write = Instrumentation.phase(Phase.WRITE)) {
+                        try (InputStream input = fileWorker.openInput(rotationFilename);
+                             DataOutputStream data = new DataOutputStream(new BufferedOutputStream(fileWorker.openOutput(rotatedFilename), BUFFER_SIZE))) {
+                            data.write(header.withRevision(vault.getRevision() + 1).withCompression(compression(plainIndex, content)).toBytes());
+                            data.writeInt(index.length);
+                            data.write(index);
+                            Rotation.copyRecords(input, records.size(), data);
+                        }
+                        fileWorker.move(rotatedFilename, filename);
+                    }
+                    fileWorker.delete(rotationFilename);
+                } finally {
+                    if (key != null) {
+                        key.wipe();
+                    }
+                }
+                return null;
+            });
+        }
+    }
+
+    @Override
+    public Session unlock(String masterPassword) throws IOException, CryptException, ManagerException {
+        try (Secret secret = Secret.of(masterPassword)) {
+            return unlock(secret);
+        }
+    }
+
+    @Override
+    public Session unlock(Secret masterPassword) throws IOException, CryptException, ManagerException {
+        try (Instrumentation.Timer timer = Instrumentation.operation("unlock")) {
+            return openSession(masterPassword);
+        }
+    }
+
+    private JsonSession openSession(Secret masterPassword) throws IOException, CryptException, ManagerException {
+        VaultHeader header;
+        try (Closeable lock = readLock(); InputStream input = fileWorker.openInput(filename);
+             Instrumentation.Timer timer = Instrumentation.phase(Phase.READ)) {
+            header = VaultHeader.read(input);
+        }
+        if (header == null) {
+            return upgradeText(masterPassword);
+        }
+        CryptKey key = deriveKey(masterPassword, header);
         try {
-            Iterator keys = new JSONObject(content).sortedKeys();
-            while (keys.hasNext()) {
-                sources.add(keys.next().toString());
+            if (header.getVersion() < VaultHeader.VERSION) {
+                header = upgrade(header, key);
             }
-            return sources;
-        } catch (Exception e) {
-            throw new ManagerException(e);
+        } catch (IOException | CryptException | ManagerException e) {
+            key.wipe();
+            throw e;
+        }
+        return new JsonSession(this, header, key, idleTimeout);
+    }
+
+    @Override
+    public List<String> getSourceList(String masterPassword) throws IOException, CryptException, ManagerException {
+        try (Session session = unlock(masterPassword)) {
+            return session.getSourceList();
         }
     }
 
     @Override
     public Map<String, List<String>> getAllAccountsMap(String masterPassword) throws IOException, CryptException, ManagerException {
-        String content = crypt.decrypt(fileWorker.read(filename), masterPassword);
-        Map<String, List<String>> map = new TreeMap<>();
-        try {
-            Iterator sourceIterator = new JSONObject(content).sortedKeys();
-            while (sourceIterator.hasNext()) {
-                String source = sourceIterator.next().toString();
-                ArrayList<String> accounts = new ArrayList<>();
-                Iterator accountIterator = new JSONObject(content).getJSONObject(source).sortedKeys();
-                while (accountIterator.hasNext()) {
-                    accounts.add(accountIterator.next().toString());
-                }
-                map.put(source, accounts);
-            }
-            return map;
-        } catch (Exception e) {
-            throw new ManagerException(e);
+        try (Session session = unlock(masterPassword)) {
+            return session.getAllAccountsMap();
         }
     }
 
     @Override
     public List<String> getAccountList(String source, String masterPassword) throws IOException, CryptException, ManagerException {
-        String content = crypt.decrypt(fileWorker.read(filename), masterPassword);
-        List<String> accounts = new ArrayList<>();
-        try {
-            Iterator keys = new JSONObject(content).getJSONObject(source).sortedKeys();
-            while (keys.hasNext()) {
-                accounts.add(keys.next().toString());
-            }
-            return accounts;
-        } catch (Exception e) {
-            throw new ManagerException(e);
+        try (Session session = unlock(masterPassword)) {
+            return session.getAccountList(source);
         }
     }
 
     @Override
     public String getPassword(String source, String account, String masterPassword) throws IOException, CryptException, ManagerException {
-        String content = crypt.decrypt(fileWorker.read(filename), masterPassword);
-        try {
-            return new JSONObject(content).getJSONObject(source).getString(account);
-        } catch (Exception e) {
-            throw new ManagerException(e);
+        try (Session session = unlock(masterPassword)) {
+            return session.getPassword(source, account);
         }
     }
 
     @Override
     public void add(String source, String account, String password, String masterPassword) throws IOException, CryptException, ManagerException {
-        String content = crypt.decrypt(fileWorker.read(filename), masterPassword);
-        try {
-            JSONObject json = new JSONObject(content);
-            if (json.has(source)) {
-                if (json.getJSONObject(source).has(account)) {
-                    throw new ManagerException("Account already exists");
-                } else {
-                    json.getJSONObject(source).put(account, password);
-                }
-            } else {
-                json.put(source, new JSONObject().put(account, password));
-            }
-            content = json.toString();
-        } catch (Exception e) {
-            throw new ManagerException(e);
+        try (Session session = unlock(masterPassword)) {
+            session.add(source, account, password);
         }
-        fileWorker.write(crypt.encrypt(content, masterPassword), filename);
     }
 
     @Override
     public void changePassword(String source, String account, String newPassword, String masterPassword) throws IOException, CryptException, ManagerException {
-        String content = crypt.decrypt(fileWorker.read(filename), masterPassword);
-        try {
-            JSONObject json = new JSONObject(content);
-            if (!json.has(source)) {
-                throw new ManagerException("Unknown source: " + source);
-            } else {
-                if (!json.getJSONObject(source).has(account)) {
-                    throw new ManagerException("Unknown account: " + account);
-                }
-                json.getJSONObject(source).put(account, newPassword);
-            }
-            content = json.toString();
-        } catch (Exception e) {
-            throw new ManagerException(e);
+        try (Session session = unlock(masterPassword)) {
+            session.changePassword(source, account, newPassword);
         }
-        fileWorker.write(crypt.encrypt(content, masterPassword), filename);
     }
 
     @Override
     public void delete(String source, String account, String masterPassword) throws IOException, CryptException, ManagerException {
-        String content = crypt.decrypt(fileWorker.read(filename), masterPassword);
+        try (Session session = unlock(masterPassword)) {
+            session.delete(source, account);
+        }
+    }
+
+    @Override
+    public List<OperationResult> apply(List<Operation> operations, String masterPassword) throws IOException, CryptException, ManagerException {
+        try (Session session = unlock(masterPassword)) {
+            return session.apply(operations);
+        }
+    }
+
+    @Override
+    public List<OperationResult> apply(List<Operation> operations, long expectedRevision, String masterPassword) throws IOException, CryptException, ManagerException {
+        try (Session session = unlock(masterPassword)) {
+            return session.apply(operations, expectedRevision);
+        }
+    }
+
+    @Override
+    public long getRevision(String masterPassword) throws IOException, CryptException, ManagerException {
+        try (Session session = unlock(masterPassword)) {
+            return session.getRevision();
+        }
+    }
+
+    @Override
+    public List<SearchResult> search(String query, int limit, String masterPassword) throws IOException, CryptException, ManagerException {
+        try (Session session = unlock(masterPassword)) {
+            return session.search(query, limit);
+        }
+    }
+
+    @Override
+    public long importEntries(EntryReader reader, ProgressListener listener, String masterPassword) throws IOException, CryptException, ManagerException {
+        try (Session session = unlock(masterPassword)) {
+            return session.importEntries(reader, listener);
+        }
+    }
+
+    @Override
+    public long exportEntries(EntryWriter writer, ProgressListener listener, String masterPassword) throws IOException, CryptException, ManagerException {
+        try (Session session = unlock(masterPassword)) {
+            return session.exportEntries(writer, listener);
+        }
+    }
+
+    List<String> getSourceList(VaultHeader header, CryptKey key) throws IOException, CryptException, ManagerException {
+        try (Instrumentation.Timer timer = Instrumentation.operation("getSourceList")) {
+            return readState(header, key).getSourceList();
+        }
+    }
+
+    Map<String, List<String>> getAllAccountsMap(VaultHeader header, CryptKey key) throws IOException, CryptException, ManagerException {
+        try (Instrumentation.Timer timer = Instrumentation.operation("getAllAccountsMap")) {
+            return readState(header, key).getAllAccountsMap();
+        }
+    }
+
+    List<String> getAccountList(String source, VaultHeader header, CryptKey key) throws IOException, CryptException, ManagerException {
+        try (Instrumentation.Timer timer = Instrumentation.operation("getAccountList")) {
+            return readState(header, key).getAccountList(source);
+        }
+    }
+
+    long getRevision(VaultHeader header, CryptKey key) throws IOException, CryptException, ManagerException {
+        try (Instrumentation.Timer timer = Instrumentation.operation("getRevision")) {
+            return readState(header, key).getRevision();
+        }
+    }
+
+    SearchIndex buildSearchIndex(VaultHeader header, CryptKey key) throws IOException, CryptException, ManagerException {
+        try (Instrumentation.Timer timer = Instrumentation.operation("buildSearchIndex")) {
+            Map<String, List<String>> accounts = readState(header, key).getAllAccountsMap();
+            try (Instrumentation.Timer index = Instrumentation.phase(Phase.PARSE)) {
+                return SearchIndex.build(accounts);
+            }
+        }
+    }
+
+    String getPassword(String source, String account, VaultHeader header, CryptKey key) throws IOException, CryptException, ManagerException {
+        try (Instrumentation.Timer timer = Instrumentation.operation("getPassword")) {
+            byte[] record = readRecord(source, account, header, key);
+            byte[] password;
+            try (Instrumentation.Timer decrypt = Instrumentation.phase(Phase.DECRYPT)) {
+                password = key.decrypt(record);
+            }
+            try {
+                return new String(password, StandardCharsets.UTF_8);
+            } finally {
+                Arrays.fill(password, (byte) 0);
+            }
+        }
+    }
+
+    Secret getSecret(String source, String account, VaultHeader header, CryptKey key) throws IOException, CryptException, ManagerException {
+        try (Instrumentation.Timer timer = Instrumentation.operation("getSecret")) {
+            byte[] record = readRecord(source, account, header, key);
+            try (Instrumentation.Timer decrypt = Instrumentation.phase(Phase.DECRYPT)) {
+                return key.decryptSecret(record);
+            }
+        }
+    }
+
+    private byte[] readRecord(String source, String account, VaultHeader header, CryptKey key) throws IOException, CryptException, ManagerException {
+        try (Closeable lock = readLock(); InputStream input = fileWorker.openInput(filename)) {
+            Vault vault = readIndex(input, header, key);
+            Vault.Record stored = vault.findRecord(source, account);
+            byte[] content = null;
+            long position = 0;
+            if (stored != null) {
+                try (Instrumentation.Timer read = Instrumentation.phase(Phase.READ)) {
+                    skip(input, stored.getOffset());
+                    content = readFully(input, stored.getLength());
+                }
+                position = (long) stored.getOffset() + stored.getLength();
+            }
+            try (Instrumentation.Timer journal = Instrumentation.phase(Phase.JOURNAL)) {
+                skip(input, vault.getRecordsLength() - position);
+                Journal.read(input, vault, key);
+            }
+            Vault.Record record = vault.getRecord(source, account);
+            return record == stored ? content : record.getContent();
+        }
+    }
+
+    void add(String source, String account, String password, VaultHeader header, CryptKey key) throws IOException, CryptException, ManagerException {
+        try (Instrumentation.Timer timer = Instrumentation.operation("add")) {
+            append(Journal.ADD, source, account, encryptPassword(password, key), header, key);
+        }
+    }
+
+    void add(String source, String account, Secret password, VaultHeader header, CryptKey key) throws IOException, CryptException, ManagerException {
+        try (Instrumentation.Timer timer = Instrumentation.operation("add")) {
+            append(Journal.ADD, source, account, encryptPassword(password, key), header, key);
+        }
+    }
+
+    void changePassword(String source, String account, String newPassword, VaultHeader header, CryptKey key) throws IOException, CryptException, ManagerException {
+        try (Instrumentation.Timer timer = Instrumentation.operation("changePassword")) {
+            append(Journal.CHANGE, source, account, encryptPassword(newPassword, key), header, key);
+        }
+    }
+
+    void changePassword(String source, String account, Secret newPassword, VaultHeader header, CryptKey key) throws IOException, CryptException, ManagerException {
+        try (Instrumentation.Timer timer = Instrumentation.operation("changePassword")) {
+            append(Journal.CHANGE, source, account, encryptPassword(newPassword, key), header, key);
+        }
+    }
+
+    void delete(String source, String account, VaultHeader header, CryptKey key) throws IOException, CryptException, ManagerException {
+        try (Instrumentation.Timer timer = Instrumentation.operation("delete")) {
+            append(Journal.DELETE, source, account, null, header, key);
+        }
+    }
+
+    List<OperationResult> apply(List<Operation> operations, long expectedRevision, VaultHeader header, CryptKey key) throws IOException, CryptException, ManagerException {
+        try (Instrumentation.Timer timer = Instrumentation.operation("apply"); Closeable lock = writeLock()) {
+            Vault vault = load(header, key);
+            if (expectedRevision >= 0 && vault.getRevision() != expectedRevision) {
+                throw new RevisionConflictException(expectedRevision, vault.getRevision());
+            }
+            List<String> errors = new ArrayList<>(operations.size());
+            boolean valid = true;
+            for (Operation operation : operations) {
+                byte[] record = encryptPassword(operation.getPassword(), key);
+                try {
+                    Journal.apply(vault, operation.getType().code(), operation.getSource(), operation.getAccount(), record);
+                    errors.add(null);
+                } catch (ManagerException e) {
+                    errors.add(e.getMessage());
+                    valid = false;
+                }
+            }
+            if (valid && !operations.isEmpty()) {
+                vault.setRevision(vault.getRevision() + 1);
+                save(vault, header, key);
+            }
+            List<OperationResult> results = new ArrayList<>(operations.size());
+            for (int i = 0; i < operations.size(); i++) {
+                String error = errors.get(i);
+                if (error == null && !valid) {
+                    error = "Not applied, another operation in the batch failed";
+                }
+                results.add(new OperationResult(operations.get(i), valid, error));
+            }
+            return results;
+        }
+    }
+
+    long importEntries(EntryReader reader, ProgressListener listener, VaultHeader header, CryptKey key) throws IOException, CryptException, ManagerException {
+        try (Instrumentation.Timer timer = Instrumentation.operation("importEntries"); Closeable lock = writeLock()) {
+            Vault vault = load(header, key);
+            long count = 0;
+            Operation operation;
+            while ((operation = reader.next()) != null) {
+                byte[] record = encryptPassword(operation.getPassword(), key);
+                try {
+                    Journal.apply(vault, operation.getType().code(), operation.getSource(), operation.getAccount(), record);
+                } catch (ManagerException e) {
+                    throw new ManagerException("Entry " + (count + 1) + " (" + operation + "): " + e.getMessage());
+                }
+                count++;
+                if (listener != null) {
+                    listener.progress(count, -1);
+                }
+            }
+            if (count > 0) {
+                vault.setRevision(vault.getRevision() + 1);
+                save(vault, header, key);
+            }
+            return count;
+        }
+    }
+
+    long exportEntries(EntryWriter writer, ProgressListener listener, VaultHeader header, CryptKey key) throws IOException, CryptException, ManagerException {
+        try (Instrumentation.Timer timer = Instrumentation.operation("exportEntries"); Closeable lock = readLock()) {
+            Vault vault;
+            try (InputStream input = fileWorker.openInput(filename)) {
+                vault = readIndex(input, header, key);
+                readJournal(input, vault, key);
+            }
+            try (InputStream input = new BufferedInputStream(fileWorker.openInput(filename), BUFFER_SIZE)) {
+                skipIndex(input);
+                long total = vault.size();
+                long count = 0;
+                long position = 0;
+                for (Map.Entry<String, List<String>> source : vault.getAllAccountsMap().entrySet()) {
+                    for (String account : source.getValue()) {
+                        Vault.Record stored = vault.getRecord(source.getKey(), account);
+                        byte[] record;
+                        if (stored.getOffset() < 0) {
+                            record = stored.getContent();
+                        } else {
+                            if (stored.getOffset() < position) {
+                                throw new ManagerException("Wrong record position");
+                            }
+                            try (Instrumentation.Timer read = Instrumentation.phase(Phase.READ)) {
+                                skip(input, stored.getOffset() - position);
+                                record = readFully(input, stored.getLength());
+                            }
+                            position = (long) stored.getOffset() + stored.getLength();
+                        }
+                        byte[] password;
+                        try (Instrumentation.Timer decrypt = Instrumentation.phase(Phase.DECRYPT)) {
+                            password = key.decrypt(record);
+                        }
+                        try {
+                            writer.write(source.getKey(), account, new String(password, StandardCharsets.UTF_8));
+                        } finally {
+                            Arrays.fill(password, (byte) 0);
+                        }
+                        count++;
+                        if (listener != null) {
+                            listener.progress(count, total);
+                        }
+                    }
+                }
+                return count;
+            }
+        }
+    }
+
+    void awaitCompaction() {
+        Future<?> pending = compaction;
+        if (pending == null) {
+            return;
+        }
         try {
-            JSONObject json = new JSONObject(content);
-            if (json.has(source)) {
-                if (json.getJSONObject(source).has(account)) {
-                    json.getJSONObject(source).remove(account);
-                    if (!json.getJSONObject(source).keys().hasNext()) {
-                        json.remove(source);
+            pending.get();
+        } catch (ExecutionException e) {
+            // the journal stays in place and the next write schedules compaction again
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void append(int operation, String source, String account, byte[] record, VaultHeader header, CryptKey key) throws IOException, CryptException, ManagerException {
+        try (Closeable lock = writeLock()) {
+            Vault vault;
+            Journal journal;
+            try (InputStream input = fileWorker.openInput(filename)) {
+                vault = readIndex(input, header, key);
+                journal = readJournal(input, vault, key);
+            }
+            Journal.apply(vault, operation, source, account, record);
+            if (!journal.isComplete()) {
+                vault = load(header, key);
+                Journal.apply(vault, operation, source, account, record);
+                vault.setRevision(vault.getRevision() + 1);
+                save(vault, header, key);
+                return;
+            }
+            byte[] entry;
+            try (Instrumentation.Timer timer = Instrumentation.phase(Phase.ENCRYPT)) {
+                entry = Journal.entry(operation, source, account, record, key);
+            }
+            try (Instrumentation.Timer timer = Instrumentation.phase(Phase.WRITE)) {
+                fileWorker.append(entry, filename);
+            }
+            if (journal.getLength() + entry.length > compactionThreshold && (compaction == null || compaction.isDone())) {
+                compaction = COMPACTOR.submit(() -> {
+                    compact(header, key);
+                    return null;
+                });
+            }
+        }
+    }
+
+    private void reencrypt(List<Vault.Record> records, int done, int[] lengths, CryptKey oldKey, CryptKey newKey,
+                           String rotationFilename, ProgressListener listener) throws IOException, CryptException, ManagerException {
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        int window = Math.max(2, pool.getParallelism() * 2);
+        ArrayDeque<Future<byte[][]>> pending = new ArrayDeque<>();
+        AtomicBoolean stopped = new AtomicBoolean();
+        try (InputStream input = new BufferedInputStream(fileWorker.openInput(filename), BUFFER_SIZE)) {
+            skipIndex(input);
+            long position = 0;
+            int next = done;
+            int written = done;
+            while (written < records.size()) {
+                if (next < records.size() && pending.size() < window) {
+                    byte[][] chunk = new byte[Math.min(rotationChunkSize, records.size() - next)][];
+                    try (Instrumentation.Timer read = Instrumentation.phase(Phase.READ)) {
+                        for (int i = 0; i < chunk.length; i++) {
+                            Vault.Record record = records.get(next + i);
+                            if (record.getOffset() < 0) {
+                                chunk[i] = record.getContent();
+                                continue;
+                            }
+                            skip(input, record.getOffset() - position);
+                            chunk[i] = readFully(input, record.getLength());
+                            position = (long) record.getOffset() + record.getLength();
+                        }
                     }
-                } else {
-                    throw new ManagerException("No such source!");
+                    pending.add(pool.submit(() -> reencrypt(chunk, oldKey, newKey, stopped)));
+                    next += chunk.length;
+                    continue;
+                }
+                byte[][] chunk = await(pending.poll());
+                for (int i = 0; i < chunk.length; i++) {
+                    lengths[written + i] = chunk[i].length;
+                }
+                try (Instrumentation.Timer write = Instrumentation.phase(Phase.WRITE)) {
+                    fileWorker.append(Rotation.chunk(chunk), rotationFilename);
+                }
+                written += chunk.length;
+                if (listener != null) {
+                    listener.progress(written, records.size());
+                }
+            }
+        } finally {
+            stopped.set(true);
+            awaitAll(pending);
+        }
+    }
+
+    private static byte[][] reencrypt(byte[][] chunk, CryptKey oldKey, CryptKey newKey, AtomicBoolean stopped) throws CryptException {
+        byte[][] result = new byte[chunk.length][];
+        for (int i = 0; i < chunk.length && !stopped.get(); i++) {
+            byte[] plain = oldKey.decrypt(chunk[i]);
+            try {
+                result[i] = newKey.encrypt(plain);
+            } finally {
+                Arrays.fill(plain, (byte) 0);
+            }
+        }
+        return result;
+    }
+
+    private static void awaitAll(ArrayDeque<Future<byte[][]>> pending) {
+        boolean interrupted = false;
+        for (Future<byte[][]> task : pending) {
+            while (true) {
+                try {
+                    task.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    break;
                 }
-            } else {
-                throw new ManagerException("No such source!");
             }
-            content = json.toString();
-        } catch (Exception e) {
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static byte[][] await(Future<byte[][]> task) throws IOException, CryptException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Master password rotation was interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof CryptException) {
+                throw (CryptException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private static void skipIndex(InputStream input) throws IOException, ManagerException {
+        if (VaultHeader.read(input) == null) {
+            throw new ManagerException("Unknown file format");
+        }
+        int length;
+        try {
+            length = new DataInputStream(input).readInt();
+        } catch (EOFException e) {
             throw new ManagerException(e);
         }
-        fileWorker.write(crypt.encrypt(content, masterPassword), filename);
+        skip(input, length);
+    }
+
+    private void compact(VaultHeader header, CryptKey key) throws IOException, CryptException, ManagerException {
+        try (Instrumentation.Timer timer = Instrumentation.operation("compact"); Closeable lock = writeLock()) {
+            save(load(header, key), header, key);
+        }
+    }
+
+    private JsonSession upgradeText(Secret masterPassword) throws IOException, CryptException, ManagerException {
+        TreeMap<String, TreeMap<String, String>> plain;
+        CryptKey legacyKey;
+        try (Instrumentation.Timer timer = Instrumentation.phase(Phase.KEY_DERIVATION)) {
+            legacyKey = legacyCrypt.deriveKey(masterPassword);
+        }
+        try {
+            plain = Vault.parseJson(legacyKey.decrypt(fileWorker.read(filename)));
+        } finally {
+            legacyKey.wipe();
+        }
+        VaultHeader header = VaultHeader.create(keyDerivation);
+        CryptKey key = deriveKey(masterPassword, header);
+        try (Closeable lock = writeLock()) {
+            save(Vault.encrypt(plain, key), header, key);
+        } catch (IOException | CryptException | ManagerException e) {
+            key.wipe();
+            throw e;
+        }
+        return new JsonSession(this, header, key, idleTimeout);
+    }
+
+    private VaultHeader upgrade(VaultHeader header, CryptKey key) throws IOException, CryptException, ManagerException {
+        VaultHeader newHeader = header.toCurrentVersion();
+        try (Closeable lock = writeLock()) {
+            if (header.getVersion() == 1) {
+                byte[] content = fileWorker.readBytes(filename);
+                byte[] payload = Arrays.copyOfRange(content, header.length(), content.length);
+                save(Vault.encrypt(Vault.parseBytes(key.decrypt(payload)), key), newHeader, key);
+            } else {
+                save(load(header, key), newHeader, key);
+            }
+        }
+        return newHeader;
+    }
+
+    private CryptKey deriveKey(Secret masterPassword, VaultHeader header) throws CryptException {
+        try (Instrumentation.Timer timer = Instrumentation.phase(Phase.KEY_DERIVATION)) {
+            Crypt headerCrypt = header.getCipher() == VaultHeader.GCM ? crypt : legacyCrypt;
+            return headerCrypt.deriveKey(masterPassword, header.getSalt(), header.getKeyDerivation());
+        }
+    }
+
+    private static byte[] encryptPassword(String password, CryptKey key) throws CryptException {
+        if (password == null) {
+            return null;
+        }
+        try (Instrumentation.Timer timer = Instrumentation.phase(Phase.ENCRYPT)) {
+            return key.encrypt(password.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static byte[] encryptPassword(Secret password, CryptKey key) throws CryptException {
+        try (Instrumentation.Timer timer = Instrumentation.phase(Phase.ENCRYPT)) {
+            return key.encrypt(password);
+        }
+    }
+
+    private Closeable readLock() throws IOException {
+        try (Instrumentation.Timer timer = Instrumentation.phase(Phase.LOCK)) {
+            return vaultLock.read(fileWorker, filename + LOCK_SUFFIX);
+        }
+    }
+
+    private Closeable writeLock() throws IOException {
+        try (Instrumentation.Timer timer = Instrumentation.phase(Phase.LOCK)) {
+            return vaultLock.write(fileWorker, filename + LOCK_SUFFIX);
+        }
+    }
+
+    private Vault readState(VaultHeader header, CryptKey key) throws IOException, CryptException, ManagerException {
+        try (Closeable lock = readLock(); InputStream input = fileWorker.openInput(filename)) {
+            Vault vault = readIndex(input, header, key);
+            readJournal(input, vault, key);
+            return vault;
+        }
+    }
+
+    private Vault readIndex(InputStream input, VaultHeader header, CryptKey key) throws IOException, CryptException, ManagerException {
+        VaultHeader fileHeader;
+        byte[] encrypted;
+        try (Instrumentation.Timer timer = Instrumentation.phase(Phase.READ)) {
+            fileHeader = VaultHeader.read(input);
+            if (fileHeader == null) {
+                throw new ManagerException("Unknown file format");
+            }
+            if (!fileHeader.sameKey(header)) {
+                throw new CryptException("Vault key was changed, unlock it again");
+            }
+            int length;
+            try {
+                length = new DataInputStream(input).readInt();
+            } catch (EOFException e) {
+                throw new ManagerException(e);
+            }
+            if (length < 0) {
+                throw new ManagerException("Wrong index length: " + length);
+            }
+            encrypted = readFully(input, length);
+        }
+        byte[] index;
+        try (Instrumentation.Timer timer = Instrumentation.phase(Phase.DECRYPT)) {
+            index = key.decrypt(encrypted);
+        }
+        if (fileHeader.getCompression() == VaultHeader.DEFLATE) {
+            try (Instrumentation.Timer timer = Instrumentation.phase(Phase.DECOMPRESS)) {
+                index = Deflate.decompress(index);
+            }
+        }
+        Vault vault;
+        try (Instrumentation.Timer timer = Instrumentation.phase(Phase.PARSE)) {
+            vault = Vault.fromIndex(index);
+        }
+        vault.setRevision(fileHeader.getRevision());
+        return vault;
+    }
+
+    private static Journal readJournal(InputStream input, Vault vault, CryptKey key) throws IOException, CryptException, ManagerException {
+        try (Instrumentation.Timer timer = Instrumentation.phase(Phase.JOURNAL)) {
+            skip(input, vault.getRecordsLength());
+            return Journal.read(input, vault, key);
+        }
+    }
+
+    private static void skip(InputStream input, long length) throws IOException, ManagerException {
+        long remaining = length;
+        while (remaining > 0) {
+            long skipped = input.skip(remaining);
+            if (skipped <= 0) {
+                throw new ManagerException("Record is out of file bounds");
+            }
+            remaining -= skipped;
+        }
+    }
+
+    private static byte[] readFully(InputStream input, int length) throws IOException, ManagerException {
+        byte[] content = new byte[Math.min(length, READ_AHEAD_LIMIT)];
+        int position = 0;
+        while (position < length) {
+            if (position == content.length) {
+                content = Arrays.copyOf(content, (int) Math.min(length, content.length * 2L));
+            }
+            int read = input.read(content, position, content.length - position);
+            if (read == -1) {
+                throw new ManagerException("Unexpected end of file");
+            }
+            position += read;
+        }
+        return content;
+    }
+
+    private Vault load(VaultHeader header, CryptKey key) throws IOException, CryptException, ManagerException {
+        try (InputStream input = new BufferedInputStream(fileWorker.openInput(filename), BUFFER_SIZE)) {
+            Vault vault = readIndex(input, header, key);
+            try (Instrumentation.Timer timer = Instrumentation.phase(Phase.READ)) {
+                vault.readRecords(input);
+            }
+            try (Instrumentation.Timer timer = Instrumentation.phase(Phase.JOURNAL)) {
+                Journal.read(input, vault, key);
+            }
+            return vault;
+        }
+    }
+
+    private void save(Vault vault, VaultHeader header, CryptKey key) throws IOException, CryptException {
+        byte[] plainIndex;
+        try (Instrumentation.Timer timer = Instrumentation.phase(Phase.SERIALIZE)) {
+            plainIndex = vault.toIndex();
+        }
+        byte[] content = compress(plainIndex);
+        byte[] index;
+        try (Instrumentation.Timer timer = Instrumentation.phase(Phase.ENCRYPT)) {
+            index = key.encrypt(content);
+        }
+        String tmpFilename = filename + TMP_SUFFIX;
+        try (Instrumentation.Timer timer = Instrumentation.phase(Phase.WRITE)) {
+            try (DataOutputStream data = new DataOutputStream(new BufferedOutputStream(fileWorker.openOutput(tmpFilename), BUFFER_SIZE))) {
+                data.write(header.withRevision(vault.getRevision()).withCompression(compression(plainIndex, content)).toBytes());
+                data.writeInt(index.length);
+                data.write(index);
+                vault.writeRecords(data);
+            } catch (IOException e) {
+                fileWorker.delete(tmpFilename);
+                throw e;
+            }
+            fileWorker.move(tmpFilename, filename);
+        }
+    }
+
+    private byte[] compress(byte[] plainIndex) {
+        if (compressionLevel == Deflater.NO_COMPRESSION || plainIndex.length < compressionThreshold) {
+            return plainIndex;
+        }
+        byte[] compressed;
+        try (Instrumentation.Timer timer = Instrumentation.phase(Phase.COMPRESS)) {
+            compressed = Deflate.compress(plainIndex, compressionLevel);
+        }
+        return compressed.length < plainIndex.length ? compressed : plainIndex;
+    }
+
+    private static int compression(byte[] plainIndex, byte[] content) {
+        return content == plainIndex ? VaultHeader.NO_COMPRESSION : VaultHeader.DEFLATE;
+    }
+
+    private static ExecutorService createCompactor() {
+        return Executors.newSingleThreadExecutor(r -> {
+            Thread thread = Executors.defaultThreadFactory().newThread(r);
+            thread.setName("vault-compaction");
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 }
\ No newline at end of file
@@ -0,0 +1,55 @@
+package ru.av.passwordshelter.core;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.ArrayList;
+import java.util.List;
+
+class KeyCiphers {
+
+    private static final SecretKeySpec SCRUB_KEY = new SecretKeySpec(new byte[32], "AES");
+
+    private final String transformation;
+    private final AlgorithmParameterSpec scrubParameters;
+    private final ThreadLocal<Cipher> ciphers = new ThreadLocal<>();
+    private final List<Cipher> created = new ArrayList<>();
+    private boolean wiped;
+
+    KeyCiphers(String transformation, AlgorithmParameterSpec scrubParameters) {
+        this.transformation = transformation;
+        this.scrubParameters = scrubParameters;
+    }
+
+    Cipher get() throws GeneralSecurityException, CryptException {
+        Cipher cipher = ciphers.get();
+        if (cipher == null) {
+            cipher = Cipher.getInstance(transformation);
+            synchronized (this) {
+                if (wiped) {
+                    throw new CryptException("Key was wiped");
+                }
+                created.add(cipher);
+            }
+            ciphers.set(cipher);
+        }
+        return cipher;
+    }
+
+    // Callers use a cipher only while holding its monitor, so re-keying waits for them. The
+    // provider keeps the key schedule of the last init, this replaces it with one of a zero key.
+    synchronized void wipe() {
+        wiped = true;
+        for (Cipher cipher : created) {
+            synchronized (cipher) {
+                try {
+                    cipher.init(Cipher.DECRYPT_MODE, SCRUB_KEY, scrubParameters);
+                } catch (GeneralSecurityException e) {
+                    // the cipher is unusable either way, it is dropped below
+                }
+            }
+        }
+        created.clear();
+    }
+}
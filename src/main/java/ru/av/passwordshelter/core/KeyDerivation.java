@@ -0,0 +1,215 @@
+package ru.av.passwordshelter.core;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.util.Arrays;
+
+public final class KeyDerivation {
+
+    public enum Algorithm {
+        PBKDF2_SHA1(1),
+        PBKDF2_SHA256(2),
+        SCRYPT(3);
+
+        private final int id;
+
+        Algorithm(int id) {
+            this.id = id;
+        }
+
+        int id() {
+            return id;
+        }
+    }
+
+    public static final KeyDerivation DEFAULT = pbkdf2Sha256(310_000);
+
+    static final KeyDerivation LEGACY = pbkdf2Sha1(1024);
+
+    private static final int MIN_ITERATIONS = 1000;
+    private static final int MAX_ITERATIONS = 10_000_000;
+    private static final int MIN_LOG_N = 10;
+    private static final int MAX_LOG_N = 24;
+    private static final int SCRYPT_R = 8;
+    private static final int SCRYPT_P = 1;
+    private static final long MAX_SCRYPT_WORK = (long) SCRYPT_R * SCRYPT_P << 22;
+    private static final int CALIBRATION_ITERATIONS = 20_000;
+    private static final int CALIBRATION_RUNS = 3;
+    private static final int CALIBRATION_ROUNDS = 3;
+    private static final byte[] CALIBRATION_SALT = new byte[16];
+
+    private final Algorithm algorithm;
+    private final int parameters;
+
+    private KeyDerivation(Algorithm algorithm, int parameters) {
+        this.algorithm = algorithm;
+        this.parameters = parameters;
+    }
+
+    public static KeyDerivation pbkdf2Sha1(int iterations) {
+        return new KeyDerivation(Algorithm.PBKDF2_SHA1, checkIterations(iterations));
+    }
+
+    public static KeyDerivation pbkdf2Sha256(int iterations) {
+        return new KeyDerivation(Algorithm.PBKDF2_SHA256, checkIterations(iterations));
+    }
+
+    public static KeyDerivation scrypt(int logN, int r, int p) {
+        if (logN < 1 || logN > MAX_LOG_N) {
+            throw new IllegalArgumentException("scrypt log2(N) must be between 1 and " + MAX_LOG_N + ": " + logN);
+        }
+        if (r < 1 || r > 0xff || p < 1 || p > 0xff) {
+            throw new IllegalArgumentException("scrypt r and p must be between 1 and 255: r=" + r + ", p=" + p);
+        }
+        return new KeyDerivation(Algorithm.SCRYPT, logN << 16 | r << 8 | p);
+    }
+
+    static KeyDerivation of(int id, int parameters) throws ManagerException {
+        try {
+            for (Algorithm algorithm : Algorithm.values()) {
+                if (algorithm.id() == id) {
+                    if (algorithm == Algorithm.SCRYPT) {
+                        int logN = parameters >>> 16;
+                        int r = parameters >>> 8 & 0xff;
+                        int p = parameters & 0xff;
+                        KeyDerivation derivation = scrypt(logN, r, p);
+                        // the header is not authenticated, so it must not make the check run out of memory or time
+                        if (scryptMemory(logN, r) > maxScryptMemory() || (long) r * p << logN > MAX_SCRYPT_WORK) {
+                            throw new ManagerException("Unsupported key derivation: " + derivation);
+                        }
+                        return derivation;
+                    }
+                    if (parameters > MAX_ITERATIONS) {
+                        throw new ManagerException("Unsupported key derivation: " + parameters + " iterations");
+                    }
+                    return new KeyDerivation(algorithm, checkIterations(parameters));
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            throw new ManagerException(e.getMessage());
+        }
+        throw new ManagerException("Unsupported key derivation: " + id);
+    }
+
+    public static KeyDerivation calibrate(Algorithm algorithm, long targetMillis) throws CryptException {
+        if (targetMillis <= 0) {
+            throw new IllegalArgumentException("Target time must be positive: " + targetMillis);
+        }
+        long targetNanos = targetMillis * 1_000_000;
+        if (algorithm == Algorithm.SCRYPT) {
+            int logN = MIN_LOG_N;
+            long nanos = scrypt(logN, SCRYPT_R, SCRYPT_P).measure();
+            while (logN < MAX_LOG_N && nanos * 2 <= targetNanos && scryptMemory(logN + 1, SCRYPT_R) <= maxScryptMemory()
+                    && (long) SCRYPT_R * SCRYPT_P << (logN + 1) <= MAX_SCRYPT_WORK) {
+                logN++;
+                nanos = scrypt(logN, SCRYPT_R, SCRYPT_P).measure();
+            }
+            return scrypt(logN, SCRYPT_R, SCRYPT_P);
+        }
+        KeyDerivation candidate = new KeyDerivation(algorithm, CALIBRATION_ITERATIONS);
+        for (int round = 0; round < CALIBRATION_ROUNDS; round++) {
+            long iterations = candidate.parameters * targetNanos / Math.max(1, candidate.measure());
+            iterations = Math.max(MIN_ITERATIONS, Math.min(MAX_ITERATIONS, iterations) / 1000 * 1000);
+            candidate = new KeyDerivation(algorithm, (int) iterations);
+        }
+        return candidate;
+    }
+
+    public long measure() throws CryptException {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < CALIBRATION_RUNS; i++) {
+            long start = System.nanoTime();
+            Arrays.fill(derive("calibration", CALIBRATION_SALT, 32), (byte) 0);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    byte[] derive(String password, byte[] salt, int length) throws CryptException {
+        return derive(password.toCharArray(), salt, length);
+    }
+
+    byte[] derive(Secret password, byte[] salt, int length) throws CryptException {
+        return derive(password.toChars(), salt, length);
+    }
+
+    private byte[] derive(char[] password, byte[] salt, int length) throws CryptException {
+        try {
+            switch (algorithm) {
+                case PBKDF2_SHA1:
+                    return pbkdf2("PBKDF2WithHmacSHA1", password, salt, parameters, length);
+                case PBKDF2_SHA256:
+                    return pbkdf2("PBKDF2WithHmacSHA256", password, salt, parameters, length);
+                default:
+                    return Scrypt.derive(password, salt, 1 << (parameters >>> 16), parameters >>> 8 & 0xff, parameters & 0xff, length);
+            }
+        } finally {
+            Arrays.fill(password, '\0');
+        }
+    }
+
+    static byte[] pbkdf2(String algorithm, char[] password, byte[] salt, int iterations, int length) throws CryptException {
+        PBEKeySpec spec = new PBEKeySpec(password, salt, iterations, length * 8);
+        try {
+            return SecretKeyFactory.getInstance(algorithm).generateSecret(spec).getEncoded();
+        } catch (Exception e) {
+            throw new CryptException(e);
+        } finally {
+            spec.clearPassword();
+            Arrays.fill(password, '\0');
+        }
+    }
+
+    public Algorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    int getId() {
+        return algorithm.id();
+    }
+
+    int getParameters() {
+        return parameters;
+    }
+
+    private static long scryptMemory(int logN, int r) {
+        return 128L * r << logN;
+    }
+
+    private static long maxScryptMemory() {
+        return Runtime.getRuntime().maxMemory() / 4;
+    }
+
+    private static int checkIterations(int iterations) {
+        if (iterations < 1) {
+            throw new IllegalArgumentException("Iterations must be positive: " + iterations);
+        }
+        return iterations;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof KeyDerivation)) {
+            return false;
+        }
+        KeyDerivation other = (KeyDerivation) o;
+        return algorithm == other.algorithm && parameters == other.parameters;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * algorithm.hashCode() + parameters;
+    }
+
+    @Override
+    public String toString() {
+        switch (algorithm) {
+            case PBKDF2_SHA1:
+                return "PBKDF2-SHA1, " + parameters + " iterations";
+            case PBKDF2_SHA256:
+                return "PBKDF2-SHA256, " + parameters + " iterations";
+            default:
+                return "scrypt, N=2^" + (parameters >>> 16) + ", r=" + (parameters >>> 8 & 0xff) + ", p=" + (parameters & 0xff);
+        }
+    }
+}
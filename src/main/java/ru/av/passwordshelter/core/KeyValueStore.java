@@ -0,0 +1,452 @@
+package ru.av.passwordshelter.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+class KeyValueStore implements Closeable {
+
+    static final byte[] MAGIC = {'P', 'S', 'K', 'V'};
+    static final int VERSION = 1;
+    static final Comparator<byte[]> ORDER = KeyValueStore::compare;
+
+    private static final int HEADER_LENGTH = MAGIC.length + 1 + 8;
+    private static final int PUT = 1;
+    private static final int DELETE = 2;
+    private static final int COMMIT = 3;
+    private static final int MAX_KEY_LENGTH = 0xff;
+    private static final int MAX_VALUE_LENGTH = 0xffffff;
+    private static final int LENGTH_BITS = 24;
+    private static final int ROW_OVERHEAD = 1 + 1 + 4;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private final Path path;
+    private final TreeMap<byte[], Long> index = new TreeMap<>(ORDER);
+    private long compactionThreshold = 1024 * 1024;
+    private FileChannel channel;
+    private long generation;
+    private long end;
+    private long liveBytes;
+
+    private KeyValueStore(Path path) {
+        this.path = path;
+    }
+
+    static void create(String filename, long generation) throws IOException {
+        try (OutputStream output = Files.newOutputStream(Paths.get(filename), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+             DataOutputStream data = new DataOutputStream(output)) {
+            writeHeader(data, generation);
+        }
+    }
+
+    static KeyValueStore open(String filename) throws IOException, ManagerException {
+        KeyValueStore store = new KeyValueStore(Paths.get(filename));
+        try {
+            store.refresh();
+        } catch (IOException | ManagerException | RuntimeException e) {
+            store.close();
+            throw e;
+        }
+        return store;
+    }
+
+    static boolean isStore(InputStream input) throws IOException {
+        byte[] magic = new byte[MAGIC.length];
+        return AES256Stream.readFully(input, magic, magic.length) == magic.length && Arrays.equals(magic, MAGIC);
+    }
+
+    void setCompactionThreshold(long compactionThreshold) {
+        this.compactionThreshold = compactionThreshold;
+    }
+
+    synchronized void refresh() throws IOException, ManagerException {
+        long current;
+        try (InputStream input = Files.newInputStream(path)) {
+            current = readHeader(input);
+        }
+        if (channel == null || current != generation || channel.size() < end) {
+            reload(current);
+        } else if (channel.size() > end) {
+            replay();
+        }
+    }
+
+    synchronized long getGeneration() {
+        return generation;
+    }
+
+    synchronized byte[] get(byte[] key) throws IOException, ManagerException {
+        Long location = index.get(key);
+        return location == null ? null : read(location);
+    }
+
+    synchronized byte[] get(byte[] key, Batch batch) throws IOException, ManagerException {
+        return batch.changes.containsKey(key) ? batch.changes.get(key) : get(key);
+    }
+
+    synchronized List<byte[]> scan(byte[] prefix) throws IOException, ManagerException {
+        List<byte[]> values = new ArrayList<>();
+        for (Map.Entry<byte[], Long> entry : index.tailMap(prefix, true).entrySet()) {
+            if (!startsWith(entry.getKey(), prefix)) {
+                break;
+            }
+            values.add(read(entry.getValue()));
+        }
+        return values;
+    }
+
+    synchronized boolean containsPrefix(byte[] prefix, Batch batch) {
+        for (byte[] key : index.tailMap(prefix, true).keySet()) {
+            if (!startsWith(key, prefix)) {
+                break;
+            }
+            if (!batch.changes.containsKey(key) || batch.changes.get(key) != null) {
+                return true;
+            }
+        }
+        for (Map.Entry<byte[], byte[]> change : batch.changes.tailMap(prefix, true).entrySet()) {
+            if (!startsWith(change.getKey(), prefix)) {
+                break;
+            }
+            if (change.getValue() != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    synchronized int count(byte[] prefix) {
+        int count = 0;
+        for (byte[] key : index.tailMap(prefix, true).keySet()) {
+            if (!startsWith(key, prefix)) {
+                break;
+            }
+            count++;
+        }
+        return count;
+    }
+
+    synchronized void commit(Batch batch) throws IOException, ManagerException {
+        if (batch.changes.isEmpty()) {
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        long[] positions = new long[batch.changes.size()];
+        try (DataOutputStream data = new DataOutputStream(bytes)) {
+            writeTransaction(data, batch.changes, positions);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+        try (FileChannel writer = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            if (writer.size() > end) {
+                writer.truncate(end);
+            }
+            long position = end;
+            while (buffer.hasRemaining()) {
+                position += writer.write(buffer, position);
+            }
+            writer.force(false);
+        }
+        int i = 0;
+        for (Map.Entry<byte[], byte[]> change : batch.changes.entrySet()) {
+            byte[] value = change.getValue();
+            update(change.getKey(), value == null ? null : location(end + positions[i], change.getKey(), value.length));
+            i++;
+        }
+        end += bytes.size();
+        batch.changes.clear();
+        long deadBytes = end - HEADER_LENGTH - liveBytes;
+        if (deadBytes > compactionThreshold && deadBytes > liveBytes) {
+            compact();
+        }
+    }
+
+    synchronized void compact() throws IOException, ManagerException {
+        Path tmp = Paths.get(path + TMP_SUFFIX);
+        try {
+            try (FileChannel writer = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                OutputStream output = Channels.newOutputStream(writer);
+                DataOutputStream data = new DataOutputStream(new BufferedOutputStream(output, BUFFER_SIZE));
+                writeHeader(data, generation + 1);
+                CRC32 crc = new CRC32();
+                DataOutputStream rows = new DataOutputStream(new CheckedOutputStream(data, crc));
+                for (Map.Entry<byte[], Long> entry : index.entrySet()) {
+                    writeRow(rows, entry.getKey(), read(entry.getValue()));
+                }
+                rows.flush();
+                writeCommit(data, index.size(), crc);
+                data.flush();
+                writer.force(true);
+            }
+            move(tmp, path);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        reload(generation + 1);
+    }
+
+    @Override
+    public synchronized void close() {
+        index.clear();
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // read-only channel, nothing was left unwritten
+            }
+            channel = null;
+        }
+    }
+
+    private void reload(long current) throws IOException, ManagerException {
+        close();
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        generation = current;
+        end = HEADER_LENGTH;
+        liveBytes = 0;
+        replay();
+    }
+
+    private void replay() throws IOException, ManagerException {
+        // the stream is not closed: closing it would close the shared read channel
+        CountingInput counting = new CountingInput(new BufferedInputStream(Channels.newInputStream(channel.position(end)), BUFFER_SIZE));
+        DataInputStream data = new DataInputStream(counting);
+        List<byte[]> keys = new ArrayList<>();
+        List<Long> locations = new ArrayList<>();
+        CRC32 crc = new CRC32();
+        try {
+            while (true) {
+                long rowStart = counting.count;
+                int type = data.readUnsignedByte();
+                if (type == COMMIT) {
+                    int rows = data.readInt();
+                    if (rows != keys.size() || data.readInt() != (int) crc.getValue()) {
+                        return;
+                    }
+                    for (int i = 0; i < keys.size(); i++) {
+                        update(keys.get(i), locations.get(i));
+                    }
+                    end += counting.count;
+                    counting.count = 0;
+                    keys.clear();
+                    locations.clear();
+                    crc.reset();
+                    continue;
+                }
+                if (type != PUT && type != DELETE) {
+                    return;
+                }
+                byte[] key = new byte[data.readUnsignedByte()];
+                data.readFully(key);
+                crc.update(type);
+                crc.update(key.length);
+                crc.update(key);
+                Long location = null;
+                if (type == PUT) {
+                    int length = data.readInt();
+                    if (length < 0 || length > MAX_VALUE_LENGTH) {
+                        return;
+                    }
+                    byte[] value = new byte[length];
+                    data.readFully(value);
+                    crc.update(length >>> 24);
+                    crc.update(length >>> 16);
+                    crc.update(length >>> 8);
+                    crc.update(length);
+                    crc.update(value);
+                    location = location(end + rowStart, key, length);
+                }
+                keys.add(key);
+                locations.add(location);
+            }
+        } catch (EOFException e) {
+            // a torn transaction at the tail is ignored and overwritten by the next commit
+        }
+    }
+
+    private void update(byte[] key, Long location) {
+        Long previous = location == null ? index.remove(key) : index.put(key, location);
+        if (previous != null) {
+            liveBytes -= rowLength(key, previous);
+        }
+        if (location != null) {
+            liveBytes += rowLength(key, location);
+        }
+    }
+
+    private byte[] read(long location) throws IOException, ManagerException {
+        long position = location >>> LENGTH_BITS;
+        ByteBuffer buffer = ByteBuffer.allocate((int) (location & MAX_VALUE_LENGTH));
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) == -1) {
+                throw new ManagerException("Record is out of file bounds");
+            }
+        }
+        return buffer.array();
+    }
+
+    private static void writeTransaction(DataOutputStream output, Map<byte[], byte[]> rows, long[] positions) throws IOException {
+        CRC32 crc = new CRC32();
+        DataOutputStream data = new DataOutputStream(new CheckedOutputStream(output, crc));
+        int i = 0;
+        for (Map.Entry<byte[], byte[]> row : rows.entrySet()) {
+            positions[i++] = data.size();
+            writeRow(data, row.getKey(), row.getValue());
+        }
+        data.flush();
+        writeCommit(output, rows.size(), crc);
+    }
+
+    private static void writeRow(DataOutputStream data, byte[] key, byte[] value) throws IOException {
+        data.writeByte(value == null ? DELETE : PUT);
+        data.writeByte(key.length);
+        data.write(key);
+        if (value != null) {
+            data.writeInt(value.length);
+            data.write(value);
+        }
+    }
+
+    private static void writeCommit(DataOutputStream data, int rows, CRC32 crc) throws IOException {
+        data.writeByte(COMMIT);
+        data.writeInt(rows);
+        data.writeInt((int) crc.getValue());
+    }
+
+    private static void writeHeader(DataOutputStream data, long generation) throws IOException {
+        data.write(MAGIC);
+        data.writeByte(VERSION);
+        data.writeLong(generation);
+    }
+
+    private static long readHeader(InputStream input) throws IOException, ManagerException {
+        if (!isStore(input)) {
+            throw new ManagerException("Unknown file format");
+        }
+        DataInputStream data = new DataInputStream(input);
+        try {
+            int version = data.readUnsignedByte();
+            if (version != VERSION) {
+                throw new ManagerException("Unsupported store version: " + version);
+            }
+            return data.readLong();
+        } catch (EOFException e) {
+            throw new ManagerException(e);
+        }
+    }
+
+    private static long location(long rowPosition, byte[] key, int length) {
+        return (rowPosition + ROW_OVERHEAD + key.length) << LENGTH_BITS | length;
+    }
+
+    private static long rowLength(byte[] key, long location) {
+        return ROW_OVERHEAD + key.length + (location & MAX_VALUE_LENGTH);
+    }
+
+    private static boolean startsWith(byte[] key, byte[] prefix) {
+        if (key.length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (key[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int compare(byte[] a, byte[] b) {
+        int length = Math.min(a.length, b.length);
+        for (int i = 0; i < length; i++) {
+            int difference = (a[i] & 0xff) - (b[i] & 0xff);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return a.length - b.length;
+    }
+
+    private static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    static class Batch {
+
+        private final TreeMap<byte[], byte[]> changes = new TreeMap<>(ORDER);
+
+        void put(byte[] key, byte[] value) throws ManagerException {
+            if (key.length == 0 || key.length > MAX_KEY_LENGTH) {
+                throw new ManagerException("Wrong key length: " + key.length);
+            }
+            if (value.length > MAX_VALUE_LENGTH) {
+                throw new ManagerException("Value is too long");
+            }
+            changes.put(key, value);
+        }
+
+        void delete(byte[] key) {
+            changes.put(key, null);
+        }
+
+        int size() {
+            return changes.size();
+        }
+    }
+
+    private static class CountingInput extends InputStream {
+
+        private final InputStream input;
+        private long count;
+
+        CountingInput(InputStream input) {
+            this.input = input;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int read = input.read();
+            if (read != -1) {
+                count++;
+            }
+            return read;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = input.read(b, off, len);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+    }
+}
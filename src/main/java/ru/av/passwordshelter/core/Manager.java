@@ -8,7 +8,17 @@ public interface Manager {
 
     void createFile(String masterPassword) throws IOException, CryptException;
 
-    void changeMasterPassword(String oldMasterPassword, String newMasterPassword) throws IOException, CryptException;
+    void createFile(Secret masterPassword) throws IOException, CryptException;
+
+    void changeMasterPassword(String oldMasterPassword, String newMasterPassword) throws IOException, CryptException, ManagerException;
+
+    void changeMasterPassword(String oldMasterPassword, String newMasterPassword, ProgressListener listener) throws IOException, CryptException, ManagerException;
+
+    void changeMasterPassword(Secret oldMasterPassword, Secret newMasterPassword, ProgressListener listener) throws IOException, CryptException, ManagerException;
+
+    Session unlock(String masterPassword) throws IOException, CryptException, ManagerException;
+
+    Session unlock(Secret masterPassword) throws IOException, CryptException, ManagerException;
 
     List<String> getSourceList(String masterPassword) throws IOException, CryptException, ManagerException;
 
@@ -23,4 +33,16 @@ public interface Manager {
     void changePassword(String source, String account, String newPassword, String masterPassword) throws IOException, CryptException, ManagerException;
 
     void delete(String source, String account, String masterPassword) throws IOException, CryptException, ManagerException;
+
+    List<OperationResult> apply(List<Operation> operations, String masterPassword) throws IOException, CryptException, ManagerException;
+
+    List<OperationResult> apply(List<Operation> operations, long expectedRevision, String masterPassword) throws IOException, CryptException, ManagerException;
+
+    long getRevision(String masterPassword) throws IOException, CryptException, ManagerException;
+
+    List<SearchResult> search(String query, int limit, String masterPassword) throws IOException, CryptException, ManagerException;
+
+    long importEntries(EntryReader reader, ProgressListener listener, String masterPassword) throws IOException, CryptException, ManagerException;
+
+    long exportEntries(EntryWriter writer, ProgressListener listener, String masterPassword) throws IOException, CryptException, ManagerException;
 }
\ No newline at end of file
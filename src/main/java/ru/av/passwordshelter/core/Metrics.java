@@ -0,0 +1,22 @@
+package ru.av.passwordshelter.core;
+
+public final class Metrics {
+
+    private static final MetricsRegistry REGISTRY = new MetricsRegistry();
+    private static volatile boolean enabled = Boolean.getBoolean("passwordshelter.metrics");
+
+    private Metrics() {
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean enabled) {
+        Metrics.enabled = enabled;
+    }
+
+    public static MetricsRegistry getRegistry() {
+        return REGISTRY;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,56 @@
+package ru.av.passwordshelter.core;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+public class MetricsRegistry {
+
+    private static final Phase[] PHASES = Phase.values();
+
+    private final ConcurrentMap<String, AtomicReferenceArray<LatencyHistogram>> operations = new ConcurrentHashMap<>();
+
+    public static String name(String operation, Phase phase) {
+        return phase == null ? operation : operation + "." + phase.name().toLowerCase();
+    }
+
+    public void record(String operation, Phase phase, long nanos) {
+        AtomicReferenceArray<LatencyHistogram> histograms = operations.get(operation);
+        if (histograms == null) {
+            histograms = operations.computeIfAbsent(operation, name -> new AtomicReferenceArray<>(PHASES.length + 1));
+        }
+        int slot = phase == null ? 0 : phase.ordinal() + 1;
+        LatencyHistogram histogram = histograms.get(slot);
+        if (histogram == null) {
+            histograms.compareAndSet(slot, null, new LatencyHistogram());
+            histogram = histograms.get(slot);
+        }
+        histogram.record(nanos);
+    }
+
+    public LatencyHistogram getHistogram(String operation, Phase phase) {
+        AtomicReferenceArray<LatencyHistogram> histograms = operations.get(operation);
+        return histograms == null ? null : histograms.get(phase == null ? 0 : phase.ordinal() + 1);
+    }
+
+    public SortedMap<String, LatencyHistogram> getHistograms() {
+        SortedMap<String, LatencyHistogram> result = new TreeMap<>();
+        for (Map.Entry<String, AtomicReferenceArray<LatencyHistogram>> operation : operations.entrySet()) {
+            for (int slot = 0; slot <= PHASES.length; slot++) {
+                LatencyHistogram histogram = operation.getValue().get(slot);
+                if (histogram != null) {
+                    result.put(name(operation.getKey(), slot == 0 ? null : PHASES[slot - 1]), histogram);
+                }
+            }
+        }
+        return Collections.unmodifiableSortedMap(result);
+    }
+
+    public void reset() {
+        operations.clear();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,67 @@
+package ru.av.passwordshelter.core;
+
+import java.util.Objects;
+
+public class Operation {
+
+    public enum Type {
+        ADD(Journal.ADD),
+        CHANGE(Journal.CHANGE),
+        DELETE(Journal.DELETE);
+
+        private final int code;
+
+        Type(int code) {
+            this.code = code;
+        }
+
+        int code() {
+            return code;
+        }
+    }
+
+    private final Type type;
+    private final String source;
+    private final String account;
+    private final String password;
+
+    private Operation(Type type, String source, String account, String password) {
+        this.type = type;
+        this.source = Objects.requireNonNull(source, "source");
+        this.account = Objects.requireNonNull(account, "account");
+        this.password = password;
+    }
+
+    public static Operation add(String source, String account, String password) {
+        return new Operation(Type.ADD, source, account, Objects.requireNonNull(password, "password"));
+    }
+
+    public static Operation change(String source, String account, String newPassword) {
+        return new Operation(Type.CHANGE, source, account, Objects.requireNonNull(newPassword, "newPassword"));
+    }
+
+    public static Operation delete(String source, String account) {
+        return new Operation(Type.DELETE, source, account, null);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public String getAccount() {
+        return account;
+    }
+
+    public String getPassword() {
+        return password;
+    }
+
+    @Override
+    public String toString() {
+        return type + " " + source + "/" + account;
+    }
+}
\ No newline at end of file
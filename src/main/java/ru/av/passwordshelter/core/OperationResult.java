@@ -0,0 +1,31 @@
+package ru.av.passwordshelter.core;
+
+public class OperationResult {
+
+    private final Operation operation;
+    private final boolean applied;
+    private final String error;
+
+    OperationResult(Operation operation, boolean applied, String error) {
+        this.operation = operation;
+        this.applied = applied;
+        this.error = error;
+    }
+
+    public Operation getOperation() {
+        return operation;
+    }
+
+    public boolean isApplied() {
+        return applied;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    @Override
+    public String toString() {
+        return operation + (applied ? ": applied" : ": " + error);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,15 @@
+package ru.av.passwordshelter.core;
+
+public enum Phase {
+    LOCK,
+    READ,
+    KEY_DERIVATION,
+    DECRYPT,
+    DECOMPRESS,
+    JOURNAL,
+    PARSE,
+    SERIALIZE,
+    COMPRESS,
+    ENCRYPT,
+    WRITE
+}
\ No newline at end of file
@@ -0,0 +1,6 @@
+package ru.av.passwordshelter.core;
+
+public interface ProgressListener {
+
+    void progress(long done, long total);
+}
\ No newline at end of file
@@ -0,0 +1,21 @@
+package ru.av.passwordshelter.core;
+
+public class RevisionConflictException extends ManagerException {
+
+    private final long expectedRevision;
+    private final long actualRevision;
+
+    RevisionConflictException(long expectedRevision, long actualRevision) {
+        super("Vault was modified: expected revision " + expectedRevision + ", found " + actualRevision);
+        this.expectedRevision = expectedRevision;
+        this.actualRevision = actualRevision;
+    }
+
+    public long getExpectedRevision() {
+        return expectedRevision;
+    }
+
+    public long getActualRevision() {
+        return actualRevision;
+    }
+}
\ No newline at end of file
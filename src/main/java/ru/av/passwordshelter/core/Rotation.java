@@ -0,0 +1,154 @@
+package ru.av.passwordshelter.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+class Rotation {
+
+    static final String SUFFIX = ".rotation";
+
+    private static final int MAX_CHECK_LENGTH = 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private long length;
+    private int records = 0;
+    private boolean complete = true;
+
+    static byte[] start(VaultHeader header, CryptKey key) throws CryptException {
+        byte[] check = key.encrypt(VaultHeader.MAGIC);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream data = new DataOutputStream(bytes)) {
+            data.write(header.toBytes());
+            data.writeInt(check.length);
+            data.write(check);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    static Rotation read(InputStream input, VaultHeader header, CryptKey key, int[] lengths) throws IOException {
+        DataInputStream data = new DataInputStream(input);
+        byte[] check = readCheck(data);
+        try {
+            if (check == null || !Arrays.equals(key.decrypt(check), VaultHeader.MAGIC)) {
+                return null;
+            }
+        } catch (CryptException e) {
+            return null;
+        }
+        Rotation rotation = new Rotation();
+        rotation.length = header.length() + 4 + check.length;
+        byte[] frame = new byte[4];
+        while (true) {
+            int read = AES256Stream.readFully(data, frame, frame.length);
+            if (read == 0) {
+                return rotation;
+            }
+            int count = read < frame.length ? -1 : new DataInputStream(new ByteArrayInputStream(frame)).readInt();
+            if (count <= 0 || count > lengths.length - rotation.records) {
+                rotation.complete = false;
+                return rotation;
+            }
+            int[] chunk = new int[count];
+            long chunkLength = 4;
+            for (int i = 0; i < count; i++) {
+                chunk[i] = readInt(data);
+                if (chunk[i] < 0 || AES256Stream.readFully(data, new byte[chunk[i]], chunk[i]) < chunk[i]) {
+                    rotation.complete = false;
+                    return rotation;
+                }
+                chunkLength += 4 + chunk[i];
+            }
+            System.arraycopy(chunk, 0, lengths, rotation.records, count);
+            rotation.records += count;
+            rotation.length += chunkLength;
+        }
+    }
+
+    static byte[] chunk(byte[][] records) {
+        int size = 4;
+        for (byte[] record : records) {
+            size += 4 + record.length;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(size);
+        try (DataOutputStream data = new DataOutputStream(bytes)) {
+            data.writeInt(records.length);
+            for (byte[] record : records) {
+                data.writeInt(record.length);
+                data.write(record);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    static void copyRecords(InputStream input, int total, OutputStream output) throws IOException, ManagerException {
+        if (VaultHeader.read(input) == null) {
+            throw new ManagerException("Unknown rotation file format");
+        }
+        DataInputStream data = new DataInputStream(input);
+        if (readCheck(data) == null) {
+            throw new ManagerException("Rotation file is truncated");
+        }
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int copied = 0;
+        while (copied < total) {
+            int count = readInt(data);
+            if (count <= 0 || count > total - copied) {
+                throw new ManagerException("Rotation file is truncated");
+            }
+            for (int i = 0; i < count; i++) {
+                int remaining = readInt(data);
+                if (remaining < 0) {
+                    throw new ManagerException("Rotation file is truncated");
+                }
+                while (remaining > 0) {
+                    int read = data.read(buffer, 0, Math.min(buffer.length, remaining));
+                    if (read == -1) {
+                        throw new ManagerException("Rotation file is truncated");
+                    }
+                    output.write(buffer, 0, read);
+                    remaining -= read;
+                }
+            }
+            copied += count;
+        }
+    }
+
+    long getLength() {
+        return length;
+    }
+
+    int getRecords() {
+        return records;
+    }
+
+    boolean isComplete() {
+        return complete;
+    }
+
+    private static byte[] readCheck(DataInputStream data) throws IOException {
+        int checkLength = readInt(data);
+        if (checkLength < 0 || checkLength > MAX_CHECK_LENGTH) {
+            return null;
+        }
+        byte[] check = new byte[checkLength];
+        return AES256Stream.readFully(data, check, checkLength) < checkLength ? null : check;
+    }
+
+    private static int readInt(DataInputStream data) throws IOException {
+        byte[] frame = new byte[4];
+        if (AES256Stream.readFully(data, frame, frame.length) < frame.length) {
+            return -1;
+        }
+        return new DataInputStream(new ByteArrayInputStream(frame)).readInt();
+    }
+}
@@ -0,0 +1,144 @@
+package ru.av.passwordshelter.core;
+
+import java.util.Arrays;
+
+final class Scrypt {
+
+    private Scrypt() {
+    }
+
+    static byte[] derive(char[] password, byte[] salt, int n, int r, int p, int length) throws CryptException {
+        if (n < 2 || (n & (n - 1)) != 0) {
+            throw new CryptException("scrypt N must be a power of 2 greater than 1: " + n);
+        }
+        byte[] blocks = KeyDerivation.pbkdf2("PBKDF2WithHmacSHA256", password.clone(), salt, 1, p * 128 * r);
+        int[] t = new int[16];
+        int[] x = new int[32 * r];
+        int[] y = new int[32 * r];
+        int[] v;
+        try {
+            v = new int[32 * r * n];
+        } catch (OutOfMemoryError e) {
+            throw new CryptException("Not enough memory for scrypt N=" + n + ", r=" + r);
+        }
+        try {
+            for (int i = 0; i < p; i++) {
+                roMix(blocks, i * 128 * r, r, n, t, x, y, v);
+            }
+            return KeyDerivation.pbkdf2("PBKDF2WithHmacSHA256", password.clone(), blocks, 1, length);
+        } finally {
+            Arrays.fill(blocks, (byte) 0);
+            Arrays.fill(t, 0);
+            Arrays.fill(x, 0);
+            Arrays.fill(y, 0);
+            Arrays.fill(v, 0);
+        }
+    }
+
+    private static void roMix(byte[] blocks, int offset, int r, int n, int[] t, int[] x, int[] y, int[] v) {
+        int words = 32 * r;
+        for (int i = 0; i < words; i++) {
+            int j = offset + i * 4;
+            x[i] = (blocks[j] & 0xff) | (blocks[j + 1] & 0xff) << 8 | (blocks[j + 2] & 0xff) << 16 | (blocks[j + 3] & 0xff) << 24;
+        }
+        for (int i = 0; i < n; i++) {
+            System.arraycopy(x, 0, v, i * words, words);
+            blockMix(x, y, t, r);
+        }
+        for (int i = 0; i < n; i++) {
+            int j = x[(2 * r - 1) * 16] & (n - 1);
+            for (int k = 0; k < words; k++) {
+                x[k] ^= v[j * words + k];
+            }
+            blockMix(x, y, t, r);
+        }
+        for (int i = 0; i < words; i++) {
+            int j = offset + i * 4;
+            blocks[j] = (byte) x[i];
+            blocks[j + 1] = (byte) (x[i] >>> 8);
+            blocks[j + 2] = (byte) (x[i] >>> 16);
+            blocks[j + 3] = (byte) (x[i] >>> 24);
+        }
+    }
+
+    private static void blockMix(int[] b, int[] y, int[] t, int r) {
+        System.arraycopy(b, (2 * r - 1) * 16, t, 0, 16);
+        for (int i = 0; i < 2 * r; i++) {
+            for (int k = 0; k < 16; k++) {
+                t[k] ^= b[i * 16 + k];
+            }
+            salsa208(t);
+            System.arraycopy(t, 0, y, (i / 2 + (i % 2) * r) * 16, 16);
+        }
+        System.arraycopy(y, 0, b, 0, 32 * r);
+    }
+
+    private static void salsa208(int[] b) {
+        int x0 = b[0];
+        int x1 = b[1];
+        int x2 = b[2];
+        int x3 = b[3];
+        int x4 = b[4];
+        int x5 = b[5];
+        int x6 = b[6];
+        int x7 = b[7];
+        int x8 = b[8];
+        int x9 = b[9];
+        int x10 = b[10];
+        int x11 = b[11];
+        int x12 = b[12];
+        int x13 = b[13];
+        int x14 = b[14];
+        int x15 = b[15];
+        for (int i = 0; i < 8; i += 2) {
+            x4 ^= Integer.rotateLeft(x0 + x12, 7);
+            x8 ^= Integer.rotateLeft(x4 + x0, 9);
+            x12 ^= Integer.rotateLeft(x8 + x4, 13);
+            x0 ^= Integer.rotateLeft(x12 + x8, 18);
+            x9 ^= Integer.rotateLeft(x5 + x1, 7);
+            x13 ^= Integer.rotateLeft(x9 + x5, 9);
+            x1 ^= Integer.rotateLeft(x13 + x9, 13);
+            x5 ^= Integer.rotateLeft(x1 + x13, 18);
+            x14 ^= Integer.rotateLeft(x10 + x6, 7);
+            x2 ^= Integer.rotateLeft(x14 + x10, 9);
+            x6 ^= Integer.rotateLeft(x2 + x14, 13);
+            x10 ^= Integer.rotateLeft(x6 + x2, 18);
+            x3 ^= Integer.rotateLeft(x15 + x11, 7);
+            x7 ^= Integer.rotateLeft(x3 + x15, 9);
+            x11 ^= Integer.rotateLeft(x7 + x3, 13);
+            x15 ^= Integer.rotateLeft(x11 + x7, 18);
+            x1 ^= Integer.rotateLeft(x0 + x3, 7);
+            x2 ^= Integer.rotateLeft(x1 + x0, 9);
+            x3 ^= Integer.rotateLeft(x2 + x1, 13);
+            x0 ^= Integer.rotateLeft(x3 + x2, 18);
+            x6 ^= Integer.rotateLeft(x5 + x4, 7);
+            x7 ^= Integer.rotateLeft(x6 + x5, 9);
+            x4 ^= Integer.rotateLeft(x7 + x6, 13);
+            x5 ^= Integer.rotateLeft(x4 + x7, 18);
+            x11 ^= Integer.rotateLeft(x10 + x9, 7);
+            x8 ^= Integer.rotateLeft(x11 + x10, 9);
+            x9 ^= Integer.rotateLeft(x8 + x11, 13);
+            x10 ^= Integer.rotateLeft(x9 + x8, 18);
+            x12 ^= Integer.rotateLeft(x15 + x14, 7);
+            x13 ^= Integer.rotateLeft(x12 + x15, 9);
+            x14 ^= Integer.rotateLeft(x13 + x12, 13);
+            x15 ^= Integer.rotateLeft(x14 + x13, 18);
+        }
+        b[0] += x0;
+        b[1] += x1;
+        b[2] += x2;
+        b[3] += x3;
+        b[4] += x4;
+        b[5] += x5;
+        b[6] += x6;
+        b[7] += x7;
+        b[8] += x8;
+        b[9] += x9;
+        b[10] += x10;
+        b[11] += x11;
+        b[12] += x12;
+        b[13] += x13;
+        b[14] += x14;
+        b[15] += x15;
+    }
+}
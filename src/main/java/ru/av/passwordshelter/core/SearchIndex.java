@@ -0,0 +1,385 @@
+package ru.av.passwordshelter.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+class SearchIndex {
+
+    private static final int GRAM = 3;
+    private static final char START = '\u0002';
+    private static final char END = '\u0003';
+    private static final int EXACT = 1000;
+    private static final int PREFIX = 800;
+    private static final int SUBSTRING = 500;
+    private static final int FUZZY = 300;
+    private static final int FUZZY_STEP = 100;
+    private static final int LENGTH_PENALTY_LIMIT = 99;
+    private static final int SHORT_QUERY_SCAN_LIMIT = 50;
+    private static final int LONG_TOKEN = 8;
+    private static final SearchResult.Match[] MATCHES = SearchResult.Match.values();
+
+    private final String[] sources;
+    private final String[] accounts;
+    private final String[] terms;
+    private final int[][] termEntries;
+    private final GramTable grams;
+    private final int[][] postings;
+
+    private SearchIndex(String[] sources, String[] accounts, String[] terms, int[][] termEntries, GramTable grams, int[][] postings) {
+        this.sources = sources;
+        this.accounts = accounts;
+        this.terms = terms;
+        this.termEntries = termEntries;
+        this.grams = grams;
+        this.postings = postings;
+    }
+
+    static SearchIndex build(Map<String, List<String>> accountsMap) {
+        int size = 0;
+        for (List<String> accounts : accountsMap.values()) {
+            size += accounts.size();
+        }
+        String[] sources = new String[size];
+        String[] accounts = new String[size];
+        Map<String, IntList> termMap = new HashMap<>();
+        int entry = 0;
+        for (Map.Entry<String, List<String>> source : accountsMap.entrySet()) {
+            String sourceTerm = normalize(source.getKey());
+            IntList sourceEntries = termMap.computeIfAbsent(sourceTerm, t -> new IntList());
+            for (String account : source.getValue()) {
+                sources[entry] = source.getKey();
+                accounts[entry] = account;
+                sourceEntries.add(entry);
+                String accountTerm = normalize(account);
+                if (!accountTerm.equals(sourceTerm)) {
+                    termMap.computeIfAbsent(accountTerm, t -> new IntList()).add(entry);
+                }
+                entry++;
+            }
+        }
+        String[] terms = termMap.keySet().toArray(new String[0]);
+        Arrays.sort(terms);
+        int[][] termEntries = new int[terms.length][];
+        for (int term = 0; term < terms.length; term++) {
+            termEntries[term] = termMap.get(terms[term]).toArray();
+        }
+        GramTable grams = new GramTable(terms.length * 4);
+        IntList counts = new IntList();
+        long[][] termGrams = new long[terms.length][];
+        for (int term = 0; term < terms.length; term++) {
+            termGrams[term] = distinctGrams(terms[term]);
+            for (long gram : termGrams[term]) {
+                int slot = grams.add(gram);
+                if (slot == counts.size) {
+                    counts.add(0);
+                }
+                counts.values[slot]++;
+            }
+        }
+        int[][] postings = new int[counts.size][];
+        for (int slot = 0; slot < counts.size; slot++) {
+            postings[slot] = new int[counts.values[slot]];
+            counts.values[slot] = 0;
+        }
+        for (int term = 0; term < terms.length; term++) {
+            for (long gram : termGrams[term]) {
+                int slot = grams.get(gram);
+                postings[slot][counts.values[slot]++] = term;
+            }
+        }
+        return new SearchIndex(sources, accounts, terms, termEntries, grams, postings);
+    }
+
+    int size() {
+        return sources.length;
+    }
+
+    List<SearchResult> search(String query, int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Limit must be positive: " + limit);
+        }
+        List<String> tokens = new ArrayList<>();
+        for (String token : normalize(query).split("[\\s/]+")) {
+            if (!token.isEmpty()) {
+                tokens.add(token);
+            }
+        }
+        if (tokens.isEmpty()) {
+            return Collections.emptyList();
+        }
+        int[] scores = new int[sources.length];
+        int[] matches = new int[sources.length];
+        IntList found = matchEntries(tokens.get(0), limit, tokens.size() == 1, scores, matches);
+        for (int t = 1; t < tokens.size() && found.size > 0; t++) {
+            int[] tokenScores = new int[sources.length];
+            int[] tokenMatches = new int[sources.length];
+            matchEntries(tokens.get(t), limit, false, tokenScores, tokenMatches);
+            IntList both = new IntList();
+            for (int i = 0; i < found.size; i++) {
+                int entry = found.values[i];
+                if (tokenScores[entry] > 0) {
+                    scores[entry] += tokenScores[entry];
+                    matches[entry] = Math.max(matches[entry], tokenMatches[entry]);
+                    both.add(entry);
+                }
+            }
+            found = both;
+        }
+        long[] ranked = new long[found.size];
+        for (int i = 0; i < found.size; i++) {
+            int entry = found.values[i];
+            ranked[i] = (long) (Integer.MAX_VALUE - scores[entry]) << 32 | entry;
+        }
+        Arrays.sort(ranked);
+        List<SearchResult> results = new ArrayList<>(Math.min(limit, ranked.length));
+        for (int i = 0; i < ranked.length && i < limit; i++) {
+            int entry = (int) ranked[i];
+            results.add(new SearchResult(sources[entry], accounts[entry], MATCHES[matches[entry]], scores[entry]));
+        }
+        return results;
+    }
+
+    private IntList matchEntries(String token, int limit, boolean single, int[] scores, int[] matches) {
+        IntList found = new IntList();
+        int[] bounds = prefixRange(token);
+        for (int term = bounds[0]; term < bounds[1]; term++) {
+            if (terms[term].length() == token.length()) {
+                score(term, EXACT, SearchResult.Match.EXACT, scores, matches, found);
+            } else {
+                score(term, PREFIX - lengthPenalty(terms[term], token), SearchResult.Match.PREFIX, scores, matches, found);
+            }
+        }
+        if (single && found.size >= limit) {
+            return found;
+        }
+        if (token.length() < GRAM) {
+            int scanned = 0;
+            for (int term = 0; term < terms.length && scanned < Math.max(limit, SHORT_QUERY_SCAN_LIMIT); term++) {
+                if ((term < bounds[0] || term >= bounds[1]) && terms[term].contains(token)) {
+                    score(term, SUBSTRING - lengthPenalty(terms[term], token), SearchResult.Match.SUBSTRING, scores, matches, found);
+                    scanned++;
+                }
+            }
+            return found;
+        }
+        int[] candidates = rarestPostings(innerGrams(token), 1);
+        for (int term : candidates) {
+            if ((term < bounds[0] || term >= bounds[1]) && terms[term].contains(token)) {
+                score(term, SUBSTRING - lengthPenalty(terms[term], token), SearchResult.Match.SUBSTRING, scores, matches, found);
+            }
+        }
+        if (found.size < limit) {
+            matchFuzzy(token, bounds, scores, matches, found);
+        }
+        return found;
+    }
+
+    private void matchFuzzy(String token, int[] bounds, int[] scores, int[] matches, IntList found) {
+        int maxDistance = token.length() <= LONG_TOKEN ? 1 : 2;
+        boolean[] seen = new boolean[terms.length];
+        for (int term : rarestPostings(distinctGrams(token), (GRAM + 1) * maxDistance + 1)) {
+            if (seen[term]) {
+                continue;
+            }
+            seen[term] = true;
+            String candidate = terms[term];
+            if ((term >= bounds[0] && term < bounds[1]) || Math.abs(candidate.length() - token.length()) > maxDistance) {
+                continue;
+            }
+            int distance = distance(token, candidate, maxDistance);
+            if (distance <= maxDistance && !candidate.contains(token)) {
+                score(term, FUZZY - FUZZY_STEP * (distance - 1) - lengthPenalty(candidate, token), SearchResult.Match.FUZZY, scores, matches, found);
+            }
+        }
+    }
+
+    private int[] prefixRange(String token) {
+        int from = Arrays.binarySearch(terms, token);
+        if (from < 0) {
+            from = -from - 1;
+        }
+        int to = from;
+        while (to < terms.length && terms[to].startsWith(token)) {
+            to++;
+        }
+        return new int[]{from, to};
+    }
+
+    private int[] rarestPostings(long[] tokenGrams, int count) {
+        List<int[]> lists = new ArrayList<>(tokenGrams.length);
+        for (long gram : tokenGrams) {
+            int slot = grams.get(gram);
+            lists.add(slot < 0 ? new int[0] : postings[slot]);
+        }
+        lists.sort((a, b) -> Integer.compare(a.length, b.length));
+        if (count == 1) {
+            return lists.isEmpty() ? new int[0] : lists.get(0);
+        }
+        IntList union = new IntList();
+        for (int i = 0; i < count && i < lists.size(); i++) {
+            for (int term : lists.get(i)) {
+                union.add(term);
+            }
+        }
+        return union.toArray();
+    }
+
+    private void score(int term, int score, SearchResult.Match match, int[] scores, int[] matches, IntList found) {
+        for (int entry : termEntries[term]) {
+            if (scores[entry] == 0) {
+                found.add(entry);
+            }
+            if (scores[entry] < score) {
+                scores[entry] = score;
+                matches[entry] = match.ordinal();
+            }
+        }
+    }
+
+    static int distance(String a, String b, int maxDistance) {
+        int[] previousRow = new int[b.length() + 1];
+        int[] row = new int[b.length() + 1];
+        int[] nextRow = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            row[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            nextRow[0] = i;
+            int rowMin = nextRow[0];
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                int value = Math.min(Math.min(row[j] + 1, nextRow[j - 1] + 1), row[j - 1] + cost);
+                if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2) && a.charAt(i - 2) == b.charAt(j - 1)) {
+                    value = Math.min(value, previousRow[j - 2] + 1);
+                }
+                nextRow[j] = value;
+                rowMin = Math.min(rowMin, value);
+            }
+            if (rowMin > maxDistance) {
+                return maxDistance + 1;
+            }
+            int[] recycled = previousRow;
+            previousRow = row;
+            row = nextRow;
+            nextRow = recycled;
+        }
+        return row[b.length()];
+    }
+
+    private static int lengthPenalty(String term, String token) {
+        return Math.min(LENGTH_PENALTY_LIMIT, Math.abs(term.length() - token.length()));
+    }
+
+    private static long[] innerGrams(String token) {
+        long[] result = new long[token.length() - GRAM + 1];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = gram(token.charAt(i), token.charAt(i + 1), token.charAt(i + 2));
+        }
+        return result;
+    }
+
+    private static long[] distinctGrams(String term) {
+        String padded = "" + START + START + term + END;
+        long[] result = new long[padded.length() - GRAM + 1];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = gram(padded.charAt(i), padded.charAt(i + 1), padded.charAt(i + 2));
+        }
+        Arrays.sort(result);
+        int size = 0;
+        for (int i = 0; i < result.length; i++) {
+            if (i == 0 || result[i] != result[i - 1]) {
+                result[size++] = result[i];
+            }
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    private static long gram(char a, char b, char c) {
+        return (long) a << 32 | (long) b << 16 | c;
+    }
+
+    private static String normalize(String value) {
+        return value.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static class GramTable {
+
+        private static final long EMPTY = -1;
+
+        private long[] keys;
+        private int[] slots;
+        private int size = 0;
+
+        GramTable(int expected) {
+            int capacity = Integer.highestOneBit(Math.max(16, expected) * 2 - 1) << 1;
+            keys = new long[capacity];
+            slots = new int[capacity];
+            Arrays.fill(keys, EMPTY);
+        }
+
+        int add(long gram) {
+            int index = find(gram);
+            if (keys[index] == gram) {
+                return slots[index];
+            }
+            if ((size + 1) * 2 > keys.length) {
+                grow();
+                index = find(gram);
+            }
+            keys[index] = gram;
+            slots[index] = size;
+            return size++;
+        }
+
+        int get(long gram) {
+            int index = find(gram);
+            return keys[index] == gram ? slots[index] : -1;
+        }
+
+        private int find(long gram) {
+            int mask = keys.length - 1;
+            int index = (int) (gram * 0x9E3779B97F4A7C15L >>> 40) & mask;
+            while (keys[index] != EMPTY && keys[index] != gram) {
+                index = (index + 1) & mask;
+            }
+            return index;
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            int[] oldSlots = slots;
+            keys = new long[oldKeys.length * 2];
+            slots = new int[oldKeys.length * 2];
+            Arrays.fill(keys, EMPTY);
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != EMPTY) {
+                    int index = find(oldKeys[i]);
+                    keys[index] = oldKeys[i];
+                    slots[index] = oldSlots[i];
+                }
+            }
+        }
+    }
+
+    private static class IntList {
+
+        private int[] values = new int[4];
+        private int size = 0;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package ru.av.passwordshelter.core;
+
+public class SearchResult {
+
+    public enum Match {
+        EXACT,
+        PREFIX,
+        SUBSTRING,
+        FUZZY
+    }
+
+    private final String source;
+    private final String account;
+    private final Match match;
+    private final int score;
+
+    SearchResult(String source, String account, Match match, int score) {
+        this.source = source;
+        this.account = account;
+        this.match = match;
+        this.score = score;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public String getAccount() {
+        return account;
+    }
+
+    public Match getMatch() {
+        return match;
+    }
+
+    public int getScore() {
+        return score;
+    }
+
+    @Override
+    public String toString() {
+        return source + "/" + account;
+    }
+}
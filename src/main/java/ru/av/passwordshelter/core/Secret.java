@@ -0,0 +1,162 @@
+package ru.av.passwordshelter.core;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+public final class Secret implements AutoCloseable {
+
+    private static final int MAX_BYTES_PER_CHAR = 3;
+    private static final int WRITE_CHUNK = 256;
+
+    private ByteBuffer buffer;
+
+    Secret(ByteBuffer buffer) {
+        if (!buffer.isDirect()) {
+            throw new IllegalArgumentException("Secret must be backed by a direct buffer");
+        }
+        this.buffer = buffer;
+    }
+
+    public static Secret of(char[] chars) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(chars.length * MAX_BYTES_PER_CHAR);
+        CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        encoder.encode(CharBuffer.wrap(chars), buffer, true);
+        encoder.flush(buffer);
+        buffer.flip();
+        return new Secret(buffer);
+    }
+
+    public static Secret of(String string) {
+        char[] chars = string.toCharArray();
+        try {
+            return of(chars);
+        } finally {
+            Arrays.fill(chars, '\0');
+        }
+    }
+
+    public static Secret of(byte[] bytes, int offset, int length) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(length);
+        buffer.put(bytes, offset, length);
+        buffer.flip();
+        return new Secret(buffer);
+    }
+
+    public synchronized int length() {
+        return checkNotWiped().remaining();
+    }
+
+    public boolean isEmpty() {
+        return length() == 0;
+    }
+
+    public synchronized char[] toChars() {
+        ByteBuffer bytes = checkNotWiped().duplicate();
+        CharBuffer chars = CharBuffer.allocate(bytes.remaining());
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        decoder.decode(bytes, chars, true);
+        decoder.flush(chars);
+        char[] array = chars.array();
+        if (chars.position() == array.length) {
+            return array;
+        }
+        char[] result = Arrays.copyOf(array, chars.position());
+        Arrays.fill(array, '\0');
+        return result;
+    }
+
+    public synchronized byte[] toBytes() {
+        ByteBuffer bytes = checkNotWiped().duplicate();
+        byte[] result = new byte[bytes.remaining()];
+        bytes.get(result);
+        return result;
+    }
+
+    public synchronized void writeTo(OutputStream output) throws IOException {
+        ByteBuffer bytes = checkNotWiped().duplicate();
+        byte[] chunk = new byte[Math.min(WRITE_CHUNK, bytes.remaining())];
+        try {
+            while (bytes.hasRemaining()) {
+                int length = Math.min(chunk.length, bytes.remaining());
+                bytes.get(chunk, 0, length);
+                output.write(chunk, 0, length);
+            }
+        } finally {
+            Arrays.fill(chunk, (byte) 0);
+        }
+    }
+
+    public boolean contentEquals(Secret other) {
+        ByteBuffer bytes = buffer();
+        ByteBuffer otherBytes = other.buffer();
+        int length = Math.min(bytes.remaining(), otherBytes.remaining());
+        int difference = bytes.remaining() ^ otherBytes.remaining();
+        for (int i = 0; i < length; i++) {
+            difference |= bytes.get(i) ^ otherBytes.get(i);
+        }
+        return difference == 0;
+    }
+
+    public synchronized boolean isWiped() {
+        return buffer == null;
+    }
+
+    public synchronized void wipe() {
+        if (buffer == null) {
+            return;
+        }
+        buffer.clear();
+        while (buffer.hasRemaining()) {
+            buffer.put((byte) 0);
+        }
+        buffer = null;
+    }
+
+    @Override
+    public void close() {
+        wipe();
+    }
+
+    synchronized ByteBuffer buffer() {
+        return checkNotWiped().duplicate();
+    }
+
+    private ByteBuffer checkNotWiped() {
+        if (buffer == null) {
+            throw new IllegalStateException("Secret was wiped");
+        }
+        return buffer;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (!(o instanceof Secret) || isWiped() || ((Secret) o).isWiped()) {
+            return false;
+        }
+        return contentEquals((Secret) o);
+    }
+
+    @Override
+    public int hashCode() {
+        return isWiped() ? 0 : length();
+    }
+
+    @Override
+    public String toString() {
+        return isWiped() ? "Secret[wiped]" : "Secret[" + length() + " bytes]";
+    }
+}
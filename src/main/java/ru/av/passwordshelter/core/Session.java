@@ -0,0 +1,47 @@
+package ru.av.passwordshelter.core;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+public interface Session extends AutoCloseable {
+
+    List<String> getSourceList() throws IOException, CryptException, ManagerException;
+
+    Map<String, List<String>> getAllAccountsMap() throws IOException, CryptException, ManagerException;
+
+    List<String> getAccountList(String source) throws IOException, CryptException, ManagerException;
+
+    String getPassword(String source, String account) throws IOException, CryptException, ManagerException;
+
+    Secret getSecret(String source, String account) throws IOException, CryptException, ManagerException;
+
+    void add(String source, String account, String password) throws IOException, CryptException, ManagerException;
+
+    void add(String source, String account, Secret password) throws IOException, CryptException, ManagerException;
+
+    void changePassword(String source, String account, String newPassword) throws IOException, CryptException, ManagerException;
+
+    void changePassword(String source, String account, Secret newPassword) throws IOException, CryptException, ManagerException;
+
+    void delete(String source, String account) throws IOException, CryptException, ManagerException;
+
+    List<OperationResult> apply(List<Operation> operations) throws IOException, CryptException, ManagerException;
+
+    List<OperationResult> apply(List<Operation> operations, long expectedRevision) throws IOException, CryptException, ManagerException;
+
+    long getRevision() throws IOException, CryptException, ManagerException;
+
+    List<SearchResult> search(String query, int limit) throws IOException, CryptException, ManagerException;
+
+    long importEntries(EntryReader reader, ProgressListener listener) throws IOException, CryptException, ManagerException;
+
+    long exportEntries(EntryWriter writer, ProgressListener listener) throws IOException, CryptException, ManagerException;
+
+    boolean isLocked();
+
+    void lock();
+
+    @Override
+    void close();
+}
\ No newline at end of file
@@ -0,0 +1,114 @@
+package ru.av.passwordshelter.core;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+class StoreKey {
+
+    static final byte META = 0;
+    static final byte SOURCE = 1;
+    static final byte ACCOUNT = 2;
+
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final int MASTER_KEY_LENGTH = 32;
+    private static final int DIGEST_LENGTH = 16;
+    private static final ThreadLocal<Mac> MACS = new ThreadLocal<>();
+
+    private final CryptKey cryptKey;
+    private volatile SecretKeySpec macKey;
+
+    private StoreKey(CryptKey cryptKey, byte[] macKey) {
+        this.cryptKey = cryptKey;
+        this.macKey = new SecretKeySpec(macKey, ALGORITHM);
+        Arrays.fill(macKey, (byte) 0);
+    }
+
+    static StoreKey derive(Secret password, VaultHeader header) throws CryptException {
+        byte[] master = header.getKeyDerivation().derive(password, header.getSalt(), MASTER_KEY_LENGTH);
+        try {
+            SecretKeySpec masterKey = new SecretKeySpec(master, ALGORITHM);
+            byte[] encryptionKey = mac(masterKey, "encryption");
+            CryptKey cryptKey = header.getCipher() == VaultHeader.GCM ? new AESGCMKey(encryptionKey) : new AES256Key(encryptionKey);
+            return new StoreKey(cryptKey, mac(masterKey, "index"));
+        } finally {
+            Arrays.fill(master, (byte) 0);
+        }
+    }
+
+    CryptKey crypt() {
+        return cryptKey;
+    }
+
+    byte[] sourceKey(String source) throws CryptException {
+        return key(SOURCE, digest(SOURCE, source, null));
+    }
+
+    byte[] accountPrefix(String source) throws CryptException {
+        return key(ACCOUNT, digest(SOURCE, source, null));
+    }
+
+    byte[] accountKey(String source, String account) throws CryptException {
+        return key(ACCOUNT, digest(SOURCE, source, null), digest(ACCOUNT, source, account));
+    }
+
+    synchronized void wipe() {
+        cryptKey.wipe();
+        macKey = null;
+    }
+
+    private byte[] digest(byte type, String source, String account) throws CryptException {
+        SecretKeySpec key = macKey;
+        if (key == null) {
+            throw new CryptException("Key was wiped");
+        }
+        byte[] source8 = source.getBytes(StandardCharsets.UTF_8);
+        byte[] account8 = account == null ? new byte[0] : account.getBytes(StandardCharsets.UTF_8);
+        try {
+            Mac mac = mac(key);
+            mac.update(type);
+            mac.update((byte) (source8.length >>> 8));
+            mac.update((byte) source8.length);
+            mac.update(source8);
+            mac.update(account8);
+            return Arrays.copyOf(mac.doFinal(), DIGEST_LENGTH);
+        } catch (GeneralSecurityException e) {
+            throw new CryptException(e);
+        }
+    }
+
+    private static byte[] key(byte type, byte[]... parts) {
+        int length = 1;
+        for (byte[] part : parts) {
+            length += part.length;
+        }
+        byte[] key = new byte[length];
+        key[0] = type;
+        int position = 1;
+        for (byte[] part : parts) {
+            System.arraycopy(part, 0, key, position, part.length);
+            position += part.length;
+        }
+        return key;
+    }
+
+    private static byte[] mac(SecretKeySpec key, String label) throws CryptException {
+        try {
+            return mac(key).doFinal(label.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new CryptException(e);
+        }
+    }
+
+    private static Mac mac(SecretKeySpec key) throws GeneralSecurityException {
+        Mac mac = MACS.get();
+        if (mac == null) {
+            mac = Mac.getInstance(ALGORITHM);
+            MACS.set(mac);
+        }
+        mac.init(key);
+        return mac;
+    }
+}
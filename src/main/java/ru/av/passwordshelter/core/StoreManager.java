@@ -0,0 +1,758 @@
+package ru.av.passwordshelter.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+@SuppressWarnings("try")
+public class StoreManager implements Manager {
+
+    private static final byte[] META_KEY = {StoreKey.META};
+    private static final byte[] CHECK = "PSKV".getBytes(StandardCharsets.UTF_8);
+    private static final int MAX_LENGTH = 65535 / 3;
+    private static final String LOCK_SUFFIX = ".lock";
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private final VaultLock vaultLock;
+    private final String filename;
+    private FileWorker fileWorker = new TextFileWorker();
+    private long idleTimeout = TimeUnit.MINUTES.toMillis(5);
+    private long compactionThreshold = 1024 * 1024;
+    private int chunkSize = 10000;
+    private KeyDerivation keyDerivation = KeyDerivation.DEFAULT;
+
+    public StoreManager(String filename) {
+        this.filename = filename;
+        this.vaultLock = VaultLock.of(filename);
+    }
+
+    public static boolean isStore(String filename) {
+        try (InputStream input = new TextFileWorker().openInput(filename)) {
+            return KeyValueStore.isStore(input);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    public void setIdleTimeout(long idleTimeout, TimeUnit unit) {
+        this.idleTimeout = unit.toMillis(idleTimeout);
+    }
+
+    public void setCompactionThreshold(long compactionThreshold) {
+        this.compactionThreshold = compactionThreshold;
+    }
+
+    public void setKeyDerivation(KeyDerivation keyDerivation) {
+        this.keyDerivation = keyDerivation;
+    }
+
+    @Override
+    public void createFile(String masterPassword) throws IOException, CryptException {
+        try (Secret secret = Secret.of(masterPassword)) {
+            createFile(secret);
+        }
+    }
+
+    @Override
+    public void createFile(Secret masterPassword) throws IOException, CryptException {
+        try (Instrumentation.Timer timer = Instrumentation.operation("createFile")) {
+            if (fileWorker.exists(filename)) {
+                throw new IOException("File \"" + filename + "\" already exists!");
+            }
+            VaultHeader header = VaultHeader.create(keyDerivation);
+            StoreKey key = deriveKey(masterPassword, header);
+            try (Closeable lock = writeLock()) {
+                if (fileWorker.exists(filename)) {
+                    throw new IOException("File \"" + filename + "\" already exists!");
+                }
+                write(header, key, 0, null);
+            } catch (ManagerException e) {
+                throw new IOException(e);
+            } finally {
+                key.wipe();
+            }
+        }
+    }
+
+    public long migrate(Session source, Secret masterPassword, ProgressListener listener) throws IOException, CryptException, ManagerException {
+        try (Instrumentation.Timer timer = Instrumentation.operation("migrate")) {
+            if (fileWorker.exists(filename)) {
+                throw new IOException("File \"" + filename + "\" already exists!");
+            }
+            VaultHeader header = VaultHeader.create(keyDerivation);
+            StoreKey key = deriveKey(masterPassword, header);
+            try (Closeable lock = writeLock()) {
+                return write(header, key, 0, store -> {
+                    KeyValueStore.Batch batch = new KeyValueStore.Batch();
+                    long[] count = {0};
+                    try {
+                        source.exportEntries(new EntryWriter() {
+                            @Override
+                            public void write(String s, String account, String password) throws IOException {
+                                try {
+                                    stage(batch, Journal.ADD, s, account, encryptPassword(password, key), store, key);
+                                    if (batch.size() >= chunkSize) {
+                                        store.commit(batch);
+                                    }
+                                    count[0]++;
+                                } catch (CryptException | ManagerException e) {
+                                    throw new MigrationException(e);
+                                }
+                            }
+
+                            @Override
+                            public void close() {
+                            }
+                        }, listener);
+                    } catch (MigrationException e) {
+                        e.rethrow();
+                    }
+                    store.commit(batch);
+                    return count[0];
+                });
+            } finally {
+                key.wipe();
+            }
+        }
+    }
+
+    @Override
+    public void changeMasterPassword(String oldMasterPassword, String newMasterPassword) throws IOException, CryptException, ManagerException {
+        changeMasterPassword(oldMasterPassword, newMasterPassword, null);
+    }
+
+    @Override
+    public void changeMasterPassword(String oldMasterPassword, String newMasterPassword, ProgressListener listener) throws IOException, CryptException, ManagerException {
+        try (Secret oldSecret = Secret.of(oldMasterPassword); Secret newSecret = Secret.of(newMasterPassword)) {
+            changeMasterPassword(oldSecret, newSecret, listener);
+        }
+    }
+
+    @Override
+    public void changeMasterPassword(Secret oldMasterPassword, Secret newMasterPassword, ProgressListener listener) throws IOException, CryptException, ManagerException {
+        try (Instrumentation.Timer timer = Instrumentation.operation("changeMasterPassword");
+             StoreSession session = openSession(oldMasterPassword); Closeable lock = writeLock()) {
+            session.withKey(oldKey -> {
+                KeyValueStore oldStore = session.store();
+                refresh(oldStore, session.header());
+                VaultHeader header = VaultHeader.create(keyDerivation).withRevision(readHeader(oldStore).getRevision() + 1);
+                StoreKey key = deriveKey(newMasterPassword, header);
+                try {
+                    write(header, key, oldStore.getGeneration() + 1, store -> {
+                        KeyValueStore.Batch batch = new KeyValueStore.Batch();
+                        long total = oldStore.count(new byte[]{StoreKey.ACCOUNT});
+                        long done = 0;
+                        for (byte[] sourceRow : oldStore.scan(new byte[]{StoreKey.SOURCE})) {
+                            String source = decryptName(sourceRow, oldKey);
+                            batch.put(key.sourceKey(source), encryptName(source, key));
+                            for (byte[] accountRow : oldStore.scan(oldKey.accountPrefix(source))) {
+                                String account = readAccount(accountRow, oldKey);
+                                byte[] password = oldKey.crypt().decrypt(readPassword(accountRow));
+                                try {
+                                    batch.put(key.accountKey(source, account), accountRow(account, key.crypt().encrypt(password), key));
+                                } finally {
+                                    Arrays.fill(password, (byte) 0);
+                                }
+                                done++;
+                                if (batch.size() >= chunkSize) {
+                                    store.commit(batch);
+                                    if (listener != null) {
+                                        listener.progress(done, total);
+                                    }
+                                }
+                            }
+                        }
+                        store.commit(batch);
+                        if (listener != null) {
+                            listener.progress(total, total);
+                        }
+                        return done;
+                    });
+                } finally {
+                    key.wipe();
+                }
+                return null;
+            });
+        }
+    }
+
+    @Override
+    public Session unlock(String masterPassword) throws IOException, CryptException, ManagerException {
+        try (Secret secret = Secret.of(masterPassword)) {
+            return unlock(secret);
+        }
+    }
+
+    @Override
+    public Session unlock(Secret masterPassword) throws IOException, CryptException, ManagerException {
+        try (Instrumentation.Timer timer = Instrumentation.operation("unlock")) {
+            return openSession(masterPassword);
+        }
+    }
+
+    private StoreSession openSession(Secret masterPassword) throws IOException, CryptException, ManagerException {
+        KeyValueStore store;
+        try (Closeable lock = readLock()) {
+            store = KeyValueStore.open(filename);
+        }
+        StoreKey key = null;
+        try {
+            store.setCompactionThreshold(compactionThreshold);
+            VaultHeader header = readHeader(store);
+            key = deriveKey(masterPassword, header);
+            byte[] check;
+            try (Instrumentation.Timer timer = Instrumentation.phase(Phase.DECRYPT)) {
+                check = key.crypt().decrypt(readCheck(store));
+            }
+            if (!Arrays.equals(check, CHECK)) {
+                throw new CryptException("Wrong master password");
+            }
+            return new StoreSession(this, store, header, key, idleTimeout);
+        } catch (IOException | CryptException | ManagerException | RuntimeException e) {
+            if (key != null) {
+                key.wipe();
+            }
+            store.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public List<String> getSourceList(String masterPassword) throws IOException, CryptException, ManagerException {
+        try (Session session = unlock(masterPassword)) {
+            return session.getSourceList();
+        }
+    }
+
+    @Override
+    public Map<String, List<String>> getAllAccountsMap(String masterPassword) throws IOException, CryptException, ManagerException {
+        try (Session session = unlock(masterPassword)) {
+            return session.getAllAccountsMap();
+        }
+    }
+
+    @Override
+    public List<String> getAccountList(String source, String masterPassword) throws IOException, CryptException, ManagerException {
+        try (Session session = unlock(masterPassword)) {
+            return session.getAccountList(source);
+        }
+    }
+
+    @Override
+    public String getPassword(String source, String account, String masterPassword) throws IOException, CryptException, ManagerException {
+        try (Session session = unlock(masterPassword)) {
+            return session.getPassword(source, account);
+        }
+    }
+
+    @Override
+    public void add(String source, String account, String password, String masterPassword) throws IOException, CryptException, ManagerException {
+        try (Session session = unlock(masterPassword)) {
+            session.add(source, account, password);
+        }
+    }
+
+    @Override
+    public void changePassword(String source, String account, String newPassword, String masterPassword) throws IOException, CryptException, ManagerException {
+        try (Session session = unlock(masterPassword)) {
+            session.changePassword(source, account, newPassword);
+        }
+    }
+
+    @Override
+    public void delete(String source, String account, String masterPassword) throws IOException, CryptException, ManagerException {
+        try (Session session = unlock(masterPassword)) {
+            session.delete(source, account);
+        }
+    }
+
+    @Override
+    public List<OperationResult> apply(List<Operation> operations, String masterPassword) throws IOException, CryptException, ManagerException {
+        try (Session session = unlock(masterPassword)) {
+            return session.apply(operations);
+        }
+    }
+
+    @Override
+    public List<OperationResult> apply(List<Operation> operations, long expectedRevision, String masterPassword) throws IOException, CryptException, ManagerException {
+        try (Session session = unlock(masterPassword)) {
+            return session.apply(operations, expectedRevision);
+        }
+    }
+
+    @Override
+    public long getRevision(String masterPassword) throws IOException, CryptException, ManagerException {
+        try (Session session = unlock(masterPassword)) {
+            return session.getRevision();
+        }
+    }
+
+    @Override
+    public List<SearchResult> search(String query, int limit, String masterPassword) throws IOException, CryptException, ManagerException {
+        try (Session session = unlock(masterPassword)) {
+            return session.search(query, limit);
+        }
+    }
+
+    @Override
+    public long importEntries(EntryReader reader, ProgressListener listener, String masterPassword) throws IOException, CryptException, ManagerException {
+        try (Session session = unlock(masterPassword)) {
+            return session.importEntries(reader, listener);
+        }
+    }
+
+    @Override
+    public long exportEntries(EntryWriter writer, ProgressListener listener, String masterPassword) throws IOException, CryptException, ManagerException {
+        try (Session session = unlock(masterPassword)) {
+            return session.exportEntries(writer, listener);
+        }
+    }
+
+    List<String> getSourceList(KeyValueStore store, VaultHeader header, StoreKey key) throws IOException, CryptException, ManagerException {
+        try (Instrumentation.Timer timer = Instrumentation.operation("getSourceList"); Closeable lock = readLock()) {
+            refresh(store, header);
+            return sources(store, key);
+        }
+    }
+
+    Map<String, List<String>> getAllAccountsMap(KeyValueStore store, VaultHeader header, StoreKey key) throws IOException, CryptException, ManagerException {
+        try (Instrumentation.Timer timer = Instrumentation.operation("getAllAccountsMap"); Closeable lock = readLock()) {
+            refresh(store, header);
+            Map<String, List<String>> map = new TreeMap<>();
+            for (String source : sources(store, key)) {
+                map.put(source, accounts(source, store, key));
+            }
+            return map;
+        }
+    }
+
+    List<String> getAccountList(String source, KeyValueStore store, VaultHeader header, StoreKey key) throws IOException, CryptException, ManagerException {
+        try (Instrumentation.Timer timer = Instrumentation.operation("getAccountList"); Closeable lock = readLock()) {
+            refresh(store, header);
+            if (store.get(key.sourceKey(source)) == null) {
+                throw new ManagerException("Unknown source: " + source);
+            }
+            return accounts(source, store, key);
+        }
+    }
+
+    long getRevision(KeyValueStore store, VaultHeader header) throws IOException, CryptException, ManagerException {
+        try (Instrumentation.Timer timer = Instrumentation.operation("getRevision"); Closeable lock = readLock()) {
+            refresh(store, header);
+            return readHeader(store).getRevision();
+        }
+    }
+
+    SearchIndex buildSearchIndex(KeyValueStore store, VaultHeader header, StoreKey key) throws IOException, CryptException, ManagerException {
+        try (Instrumentation.Timer timer = Instrumentation.operation("buildSearchIndex")) {
+            Map<String, List<String>> accounts = getAllAccountsMap(store, header, key);
+            try (Instrumentation.Timer index = Instrumentation.phase(Phase.PARSE)) {
+                return SearchIndex.build(accounts);
+            }
+        }
+    }
+
+    String getPassword(String source, String account, KeyValueStore store, VaultHeader header, StoreKey key) throws IOException, CryptException, ManagerException {
+        try (Instrumentation.Timer timer = Instrumentation.operation("getPassword")) {
+            byte[] record = readRecord(source, account, store, header, key);
+            byte[] password;
+            try (Instrumentation.Timer decrypt = Instrumentation.phase(Phase.DECRYPT)) {
+                password = key.crypt().decrypt(record);
+            }
+            try {
+                return new String(password, StandardCharsets.UTF_8);
+            } finally {
+                Arrays.fill(password, (byte) 0);
+            }
+        }
+    }
+
+    Secret getSecret(String source, String account, KeyValueStore store, VaultHeader header, StoreKey key) throws IOException, CryptException, ManagerException {
+        try (Instrumentation.Timer timer = Instrumentation.operation("getSecret")) {
+            byte[] record = readRecord(source, account, store, header, key);
+            try (Instrumentation.Timer decrypt = Instrumentation.phase(Phase.DECRYPT)) {
+                return key.crypt().decryptSecret(record);
+            }
+        }
+    }
+
+    void add(String source, String account, byte[] record, KeyValueStore store, VaultHeader header, StoreKey key) throws IOException, CryptException, ManagerException {
+        try (Instrumentation.Timer timer = Instrumentation.operation("add")) {
+            commit(Journal.ADD, source, account, record, store, header, key);
+        }
+    }
+
+    void changePassword(String source, String account, byte[] record, KeyValueStore store, VaultHeader header, StoreKey key) throws IOException, CryptException, ManagerException {
+        try (Instrumentation.Timer timer = Instrumentation.operation("changePassword")) {
+            commit(Journal.CHANGE, source, account, record, store, header, key);
+        }
+    }
+
+    void delete(String source, String account, KeyValueStore store, VaultHeader header, StoreKey key) throws IOException, CryptException, ManagerException {
+        try (Instrumentation.Timer timer = Instrumentation.operation("delete")) {
+            commit(Journal.DELETE, source, account, null, store, header, key);
+        }
+    }
+
+    List<OperationResult> apply(List<Operation> operations, long expectedRevision, KeyValueStore store, VaultHeader header, StoreKey key) throws IOException, CryptException, ManagerException {
+        try (Instrumentation.Timer timer = Instrumentation.operation("apply"); Closeable lock = writeLock()) {
+            refresh(store, header);
+            long revision = readHeader(store).getRevision();
+            if (expectedRevision >= 0 && revision != expectedRevision) {
+                throw new RevisionConflictException(expectedRevision, revision);
+            }
+            KeyValueStore.Batch batch = new KeyValueStore.Batch();
+            List<String> errors = new ArrayList<>(operations.size());
+            boolean valid = true;
+            for (Operation operation : operations) {
+                byte[] record = encryptPassword(operation.getPassword(), key);
+                try {
+                    stage(batch, operation.getType().code(), operation.getSource(), operation.getAccount(), record, store, key);
+                    errors.add(null);
+                } catch (ManagerException e) {
+                    errors.add(e.getMessage());
+                    valid = false;
+                }
+            }
+            if (valid && !operations.isEmpty()) {
+                stageRevision(batch, store, revision + 1);
+                store.commit(batch);
+            }
+            List<OperationResult> results = new ArrayList<>(operations.size());
+            for (int i = 0; i < operations.size(); i++) {
+                String error = errors.get(i);
+                if (error == null && !valid) {
+                    error = "Not applied, another operation in the batch failed";
+                }
+                results.add(new OperationResult(operations.get(i), valid, error));
+            }
+            return results;
+        }
+    }
+
+    long importEntries(EntryReader reader, ProgressListener listener, KeyValueStore store, VaultHeader header, StoreKey key) throws IOException, CryptException, ManagerException {
+        try (Instrumentation.Timer timer = Instrumentation.operation("importEntries"); Closeable lock = writeLock()) {
+            refresh(store, header);
+            KeyValueStore.Batch batch = new KeyValueStore.Batch();
+            long count = 0;
+            Operation operation;
+            while ((operation = reader.next()) != null) {
+                byte[] record = encryptPassword(operation.getPassword(), key);
+                try {
+                    stage(batch, operation.getType().code(), operation.getSource(), operation.getAccount(), record, store, key);
+                } catch (ManagerException e) {
+                    throw new ManagerException("Entry " + (count + 1) + " (" + operation + "): " + e.getMessage());
+                }
+                count++;
+                if (listener != null) {
+                    listener.progress(count, -1);
+                }
+            }
+            if (count > 0) {
+                stageRevision(batch, store, readHeader(store).getRevision() + 1);
+                store.commit(batch);
+            }
+            return count;
+        }
+    }
+
+    long exportEntries(EntryWriter writer, ProgressListener listener, KeyValueStore store, VaultHeader header, StoreKey key) throws IOException, CryptException, ManagerException {
+        try (Instrumentation.Timer timer = Instrumentation.operation("exportEntries"); Closeable lock = readLock()) {
+            refresh(store, header);
+            long total = store.count(new byte[]{StoreKey.ACCOUNT});
+            long count = 0;
+            for (String source : sources(store, key)) {
+                TreeMap<String, byte[]> accounts = new TreeMap<>();
+                for (byte[] row : store.scan(key.accountPrefix(source))) {
+                    accounts.put(readAccount(row, key), readPassword(row));
+                }
+                for (Map.Entry<String, byte[]> account : accounts.entrySet()) {
+                    byte[] password;
+                    try (Instrumentation.Timer decrypt = Instrumentation.phase(Phase.DECRYPT)) {
+                        password = key.crypt().decrypt(account.getValue());
+                    }
+                    try {
+                        writer.write(source, account.getKey(), new String(password, StandardCharsets.UTF_8));
+                    } finally {
+                        Arrays.fill(password, (byte) 0);
+                    }
+                    count++;
+                    if (listener != null) {
+                        listener.progress(count, total);
+                    }
+                }
+            }
+            return count;
+        }
+    }
+
+    private byte[] readRecord(String source, String account, KeyValueStore store, VaultHeader header, StoreKey key) throws IOException, CryptException, ManagerException {
+        byte[] row;
+        try (Closeable lock = readLock()) {
+            refresh(store, header);
+            try (Instrumentation.Timer read = Instrumentation.phase(Phase.READ)) {
+                row = store.get(key.accountKey(source, account));
+            }
+            if (row == null) {
+                throw unknown(source, account, store, key, new KeyValueStore.Batch());
+            }
+        }
+        return readPassword(row);
+    }
+
+    private void commit(int operation, String source, String account, byte[] record, KeyValueStore store, VaultHeader header, StoreKey key) throws IOException, CryptException, ManagerException {
+        try (Closeable lock = writeLock()) {
+            refresh(store, header);
+            KeyValueStore.Batch batch = new KeyValueStore.Batch();
+            stage(batch, operation, source, account, record, store, key);
+            stageRevision(batch, store, readHeader(store).getRevision() + 1);
+            try (Instrumentation.Timer timer = Instrumentation.phase(Phase.WRITE)) {
+                store.commit(batch);
+            }
+        }
+    }
+
+    private static void stage(KeyValueStore.Batch batch, int operation, String source, String account, byte[] record,
+                              KeyValueStore store, StoreKey key) throws IOException, CryptException, ManagerException {
+        byte[] sourceKey = key.sourceKey(source);
+        byte[] accountKey = key.accountKey(source, account);
+        byte[] existing = store.get(accountKey, batch);
+        switch (operation) {
+            case Journal.ADD:
+                if (source.length() > MAX_LENGTH || account.length() > MAX_LENGTH) {
+                    throw new ManagerException("Value is too long");
+                }
+                if (existing != null) {
+                    throw new ManagerException("Account already exists");
+                }
+                if (store.get(sourceKey, batch) == null) {
+                    batch.put(sourceKey, encryptName(source, key));
+                }
+                batch.put(accountKey, accountRow(account, record, key));
+                break;
+            case Journal.CHANGE:
+                if (existing == null) {
+                    throw unknown(source, account, store, key, batch);
+                }
+                batch.put(accountKey, withPassword(existing, record));
+                break;
+            case Journal.DELETE:
+                if (existing == null) {
+                    throw unknown(source, account, store, key, batch);
+                }
+                batch.delete(accountKey);
+                if (!store.containsPrefix(key.accountPrefix(source), batch)) {
+                    batch.delete(sourceKey);
+                }
+                break;
+            default:
+                throw new ManagerException("Unknown operation: " + operation);
+        }
+    }
+
+    private static ManagerException unknown(String source, String account, KeyValueStore store, StoreKey key, KeyValueStore.Batch batch) throws IOException, CryptException, ManagerException {
+        if (store.get(key.sourceKey(source), batch) == null) {
+            return new ManagerException("Unknown source: " + source);
+        }
+        return new ManagerException("Unknown account: " + account);
+    }
+
+    private static void stageRevision(KeyValueStore.Batch batch, KeyValueStore store, long revision) throws IOException, ManagerException {
+        byte[] meta = store.get(META_KEY);
+        VaultHeader header = readHeader(meta);
+        byte[] headerBytes = header.withRevision(revision).toBytes();
+        byte[] updated = Arrays.copyOf(headerBytes, headerBytes.length + meta.length - header.length());
+        System.arraycopy(meta, header.length(), updated, headerBytes.length, meta.length - header.length());
+        batch.put(META_KEY, updated);
+    }
+
+    private long write(VaultHeader header, StoreKey key, long generation, Filler filler) throws IOException, CryptException, ManagerException {
+        String tmpFilename = filename + TMP_SUFFIX;
+        fileWorker.delete(tmpFilename);
+        long count;
+        try {
+            KeyValueStore.create(tmpFilename, generation);
+            try (KeyValueStore store = KeyValueStore.open(tmpFilename)) {
+                store.setCompactionThreshold(Long.MAX_VALUE);
+                count = filler == null ? 0 : filler.fill(store);
+                KeyValueStore.Batch batch = new KeyValueStore.Batch();
+                ByteArrayOutputStream meta = new ByteArrayOutputStream();
+                try (DataOutputStream data = new DataOutputStream(meta)) {
+                    data.write(header.toBytes());
+                    byte[] check = key.crypt().encrypt(CHECK);
+                    data.writeInt(check.length);
+                    data.write(check);
+                }
+                batch.put(META_KEY, meta.toByteArray());
+                store.commit(batch);
+            }
+            fileWorker.move(tmpFilename, filename);
+        } catch (IOException | CryptException | ManagerException | RuntimeException e) {
+            fileWorker.delete(tmpFilename);
+            throw e;
+        }
+        return count;
+    }
+
+    private void refresh(KeyValueStore store, VaultHeader header) throws IOException, CryptException, ManagerException {
+        long generation = store.getGeneration();
+        store.refresh();
+        if (store.getGeneration() != generation && !readHeader(store).sameKey(header)) {
+            throw new CryptException("Vault key was changed, unlock it again");
+        }
+    }
+
+    private static List<String> sources(KeyValueStore store, StoreKey key) throws IOException, CryptException, ManagerException {
+        List<String> sources = new ArrayList<>();
+        for (byte[] row : store.scan(new byte[]{StoreKey.SOURCE})) {
+            sources.add(decryptName(row, key));
+        }
+        Collections.sort(sources);
+        return sources;
+    }
+
+    private static List<String> accounts(String source, KeyValueStore store, StoreKey key) throws IOException, CryptException, ManagerException {
+        List<String> accounts = new ArrayList<>();
+        for (byte[] row : store.scan(key.accountPrefix(source))) {
+            accounts.add(readAccount(row, key));
+        }
+        Collections.sort(accounts);
+        return accounts;
+    }
+
+    private static VaultHeader readHeader(KeyValueStore store) throws IOException, ManagerException {
+        return readHeader(store.get(META_KEY));
+    }
+
+    private static VaultHeader readHeader(byte[] meta) throws IOException, ManagerException {
+        VaultHeader header = meta == null ? null : VaultHeader.read(new ByteArrayInputStream(meta));
+        if (header == null) {
+            throw new ManagerException("Store has no vault header");
+        }
+        return header;
+    }
+
+    private static byte[] readCheck(KeyValueStore store) throws IOException, ManagerException {
+        byte[] meta = store.get(META_KEY);
+        DataInputStream data = new DataInputStream(new ByteArrayInputStream(meta));
+        data.skipBytes(readHeader(meta).length());
+        byte[] check = new byte[data.readInt()];
+        data.readFully(check);
+        return check;
+    }
+
+    private static byte[] accountRow(String account, byte[] record, StoreKey key) throws CryptException {
+        byte[] name = encryptName(account, key);
+        byte[] row = new byte[4 + name.length + record.length];
+        writeInt(row, name.length);
+        System.arraycopy(name, 0, row, 4, name.length);
+        System.arraycopy(record, 0, row, 4 + name.length, record.length);
+        return row;
+    }
+
+    private static byte[] withPassword(byte[] row, byte[] record) {
+        int nameEnd = 4 + readInt(row);
+        byte[] updated = Arrays.copyOf(row, nameEnd + record.length);
+        System.arraycopy(record, 0, updated, nameEnd, record.length);
+        return updated;
+    }
+
+    private static String readAccount(byte[] row, StoreKey key) throws CryptException, ManagerException {
+        int length = readInt(row);
+        if (length < 0 || 4 + length > row.length) {
+            throw new ManagerException("Wrong account row");
+        }
+        return decryptName(Arrays.copyOfRange(row, 4, 4 + length), key);
+    }
+
+    private static byte[] readPassword(byte[] row) throws ManagerException {
+        int length = readInt(row);
+        if (length < 0 || 4 + length > row.length) {
+            throw new ManagerException("Wrong account row");
+        }
+        return Arrays.copyOfRange(row, 4 + length, row.length);
+    }
+
+    private static byte[] encryptName(String name, StoreKey key) throws CryptException {
+        return key.crypt().encrypt(name.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String decryptName(byte[] content, StoreKey key) throws CryptException {
+        return new String(key.crypt().decrypt(content), StandardCharsets.UTF_8);
+    }
+
+    private static int readInt(byte[] bytes) {
+        return (bytes[0] & 0xff) << 24 | (bytes[1] & 0xff) << 16 | (bytes[2] & 0xff) << 8 | bytes[3] & 0xff;
+    }
+
+    private static void writeInt(byte[] bytes, int value) {
+        bytes[0] = (byte) (value >>> 24);
+        bytes[1] = (byte) (value >>> 16);
+        bytes[2] = (byte) (value >>> 8);
+        bytes[3] = (byte) value;
+    }
+
+    static byte[] encryptPassword(String password, StoreKey key) throws CryptException {
+        if (password == null) {
+            return null;
+        }
+        try (Instrumentation.Timer timer = Instrumentation.phase(Phase.ENCRYPT)) {
+            return key.crypt().encrypt(password.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    static byte[] encryptPassword(Secret password, StoreKey key) throws CryptException {
+        try (Instrumentation.Timer timer = Instrumentation.phase(Phase.ENCRYPT)) {
+            return key.crypt().encrypt(password);
+        }
+    }
+
+    private StoreKey deriveKey(Secret masterPassword, VaultHeader header) throws CryptException {
+        try (Instrumentation.Timer timer = Instrumentation.phase(Phase.KEY_DERIVATION)) {
+            return StoreKey.derive(masterPassword, header);
+        }
+    }
+
+    private Closeable readLock() throws IOException {
+        try (Instrumentation.Timer timer = Instrumentation.phase(Phase.LOCK)) {
+            return vaultLock.read(fileWorker, filename + LOCK_SUFFIX);
+        }
+    }
+
+    private Closeable writeLock() throws IOException {
+        try (Instrumentation.Timer timer = Instrumentation.phase(Phase.LOCK)) {
+            return vaultLock.write(fileWorker, filename + LOCK_SUFFIX);
+        }
+    }
+
+    private interface Filler {
+
+        long fill(KeyValueStore store) throws IOException, CryptException, ManagerException;
+    }
+
+    private static class MigrationException extends RuntimeException {
+
+        MigrationException(Exception cause) {
+            super(cause);
+        }
+
+        void rethrow() throws CryptException, ManagerException {
+            if (getCause() instanceof CryptException) {
+                throw (CryptException) getCause();
+            }
+            throw (ManagerException) getCause();
+        }
+    }
+}
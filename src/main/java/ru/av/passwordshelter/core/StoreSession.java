@@ -0,0 +1,247 @@
+package ru.av.passwordshelter.core;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+@SuppressWarnings("try")
+class StoreSession implements Session {
+
+    private final StoreManager manager;
+    private final KeyValueStore store;
+    private final VaultHeader header;
+    private final long idleTimeout;
+    private final ReentrantReadWriteLock keyLock = new ReentrantReadWriteLock();
+    private StoreKey key;
+    private long lastAccess;
+    private ScheduledFuture<?> idleCheck;
+    private volatile SearchIndex searchIndex;
+
+    StoreSession(StoreManager manager, KeyValueStore store, VaultHeader header, StoreKey key, long idleTimeout) {
+        this.manager = manager;
+        this.store = store;
+        this.header = header;
+        this.key = key;
+        this.idleTimeout = idleTimeout;
+        this.lastAccess = System.nanoTime();
+        if (idleTimeout > 0) {
+            scheduleIdleCheck(idleTimeout);
+        }
+    }
+
+    @Override
+    public List<String> getSourceList() throws IOException, CryptException, ManagerException {
+        return withKey(key -> manager.getSourceList(store, header, key));
+    }
+
+    @Override
+    public Map<String, List<String>> getAllAccountsMap() throws IOException, CryptException, ManagerException {
+        return withKey(key -> manager.getAllAccountsMap(store, header, key));
+    }
+
+    @Override
+    public List<String> getAccountList(String source) throws IOException, CryptException, ManagerException {
+        return withKey(key -> manager.getAccountList(source, store, header, key));
+    }
+
+    @Override
+    public String getPassword(String source, String account) throws IOException, CryptException, ManagerException {
+        return withKey(key -> manager.getPassword(source, account, store, header, key));
+    }
+
+    @Override
+    public Secret getSecret(String source, String account) throws IOException, CryptException, ManagerException {
+        return withKey(key -> manager.getSecret(source, account, store, header, key));
+    }
+
+    @Override
+    public void add(String source, String account, String password) throws IOException, CryptException, ManagerException {
+        withKey(key -> {
+            manager.add(source, account, StoreManager.encryptPassword(password, key), store, header, key);
+            return null;
+        });
+        searchIndex = null;
+    }
+
+    @Override
+    public void add(String source, String account, Secret password) throws IOException, CryptException, ManagerException {
+        withKey(key -> {
+            manager.add(source, account, StoreManager.encryptPassword(password, key), store, header, key);
+            return null;
+        });
+        searchIndex = null;
+    }
+
+    @Override
+    public void changePassword(String source, String account, String newPassword) throws IOException, CryptException, ManagerException {
+        withKey(key -> {
+            manager.changePassword(source, account, StoreManager.encryptPassword(newPassword, key), store, header, key);
+            return null;
+        });
+    }
+
+    @Override
+    public void changePassword(String source, String account, Secret newPassword) throws IOException, CryptException, ManagerException {
+        withKey(key -> {
+            manager.changePassword(source, account, StoreManager.encryptPassword(newPassword, key), store, header, key);
+            return null;
+        });
+    }
+
+    @Override
+    public void delete(String source, String account) throws IOException, CryptException, ManagerException {
+        withKey(key -> {
+            manager.delete(source, account, store, header, key);
+            return null;
+        });
+        searchIndex = null;
+    }
+
+    @Override
+    public List<OperationResult> apply(List<Operation> operations) throws IOException, CryptException, ManagerException {
+        try {
+            return withKey(key -> manager.apply(operations, -1, store, header, key));
+        } finally {
+            searchIndex = null;
+        }
+    }
+
+    @Override
+    public List<OperationResult> apply(List<Operation> operations, long expectedRevision) throws IOException, CryptException, ManagerException {
+        if (expectedRevision < 0) {
+            throw new IllegalArgumentException("Revision must not be negative: " + expectedRevision);
+        }
+        try {
+            return withKey(key -> manager.apply(operations, expectedRevision, store, header, key));
+        } finally {
+            searchIndex = null;
+        }
+    }
+
+    @Override
+    public long getRevision() throws IOException, CryptException, ManagerException {
+        return withKey(key -> manager.getRevision(store, header));
+    }
+
+    @Override
+    public List<SearchResult> search(String query, int limit) throws IOException, CryptException, ManagerException {
+        SearchIndex index = searchIndex;
+        if (index == null) {
+            index = withKey(key -> manager.buildSearchIndex(store, header, key));
+            searchIndex = index;
+        }
+        try (Instrumentation.Timer timer = Instrumentation.operation("search")) {
+            return index.search(query, limit);
+        }
+    }
+
+    @Override
+    public long importEntries(EntryReader reader, ProgressListener listener) throws IOException, CryptException, ManagerException {
+        try {
+            return withKey(key -> manager.importEntries(reader, listener, store, header, key));
+        } finally {
+            searchIndex = null;
+        }
+    }
+
+    @Override
+    public long exportEntries(EntryWriter writer, ProgressListener listener) throws IOException, CryptException, ManagerException {
+        return withKey(key -> manager.exportEntries(writer, listener, store, header, key));
+    }
+
+    @Override
+    public synchronized boolean isLocked() {
+        return key == null;
+    }
+
+    @Override
+    public void lock() {
+        // waits for running operations, so the key and the store are never closed under them
+        keyLock.writeLock().lock();
+        try {
+            synchronized (this) {
+                if (idleCheck != null) {
+                    idleCheck.cancel(false);
+                    idleCheck = null;
+                }
+                searchIndex = null;
+                if (key != null) {
+                    key.wipe();
+                    key = null;
+                    store.close();
+                }
+            }
+        } finally {
+            keyLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        lock();
+    }
+
+    KeyValueStore store() {
+        return store;
+    }
+
+    VaultHeader header() {
+        return header;
+    }
+
+    <T> T withKey(KeyCall<T> call) throws IOException, CryptException, ManagerException {
+        keyLock.readLock().lock();
+        try {
+            return call.run(key());
+        } finally {
+            keyLock.readLock().unlock();
+        }
+    }
+
+    synchronized StoreKey key() throws CryptException {
+        if (key == null) {
+            throw new CryptException("Session is locked");
+        }
+        lastAccess = System.nanoTime();
+        return key;
+    }
+
+    private void checkIdle() {
+        if (!keyLock.writeLock().tryLock()) {
+            // an operation is running, so the session is not idle
+            synchronized (this) {
+                if (key != null) {
+                    scheduleIdleCheck(idleTimeout);
+                }
+            }
+            return;
+        }
+        try {
+            synchronized (this) {
+                if (key == null) {
+                    return;
+                }
+                long idle = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastAccess);
+                if (idle >= idleTimeout) {
+                    lock();
+                } else {
+                    scheduleIdleCheck(idleTimeout - idle);
+                }
+            }
+        } finally {
+            keyLock.writeLock().unlock();
+        }
+    }
+
+    private void scheduleIdleCheck(long delay) {
+        idleCheck = JsonSession.SCHEDULER.schedule(this::checkIdle, delay, TimeUnit.MILLISECONDS);
+    }
+
+    interface KeyCall<T> {
+
+        T run(StoreKey key) throws IOException, CryptException, ManagerException;
+    }
+}
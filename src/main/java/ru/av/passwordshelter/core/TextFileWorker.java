@@ -1,12 +1,39 @@
 package ru.av.passwordshelter.core;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 
 public class TextFileWorker implements FileWorker {
 
+    public enum Durability {
+        PLAIN,
+        ATOMIC,
+        FSYNC,
+        FSYNC_DIRECTORY
+    }
+
+    private final Durability durability;
+
+    public TextFileWorker() {
+        this(Durability.FSYNC);
+    }
+
+    public TextFileWorker(Durability durability) {
+        this.durability = durability;
+    }
+
     @Override
     public boolean exists(String filename) {
         return Files.exists(Paths.get(filename));
@@ -14,11 +41,149 @@ public class TextFileWorker implements FileWorker {
 
     @Override
     public String read(String filename) throws IOException {
-        return new String(Files.readAllBytes(Paths.get(filename)), StandardCharsets.UTF_8);
+        return new String(readBytes(filename), StandardCharsets.UTF_8);
     }
 
     @Override
     public void write(String content, String filename) throws IOException {
-        Files.write(Paths.get(filename), content.getBytes());
+        write(content.getBytes(StandardCharsets.UTF_8), filename);
+    }
+
+    @Override
+    public byte[] readBytes(String filename) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            return readAll(channel);
+        }
+    }
+
+    @Override
+    public void write(byte[] content, String filename) throws IOException {
+        Path path = Paths.get(filename);
+        if (durability == Durability.PLAIN) {
+            Files.write(path, content);
+            return;
+        }
+        Path directory = path.toAbsolutePath().getParent();
+        Path tmp = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                writeFully(channel, content);
+                if (durability != Durability.ATOMIC) {
+                    channel.force(true);
+                }
+            }
+            move(tmp, path);
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        if (durability == Durability.FSYNC_DIRECTORY) {
+            forceDirectory(directory);
+        }
+    }
+
+    @Override
+    public void append(byte[] content, String filename) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            writeFully(channel, content);
+            if (durability != Durability.PLAIN && durability != Durability.ATOMIC) {
+                channel.force(false);
+            }
+        }
+    }
+
+    @Override
+    public void truncate(String filename, long length) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.WRITE)) {
+            channel.truncate(length);
+            if (durability != Durability.PLAIN && durability != Durability.ATOMIC) {
+                channel.force(false);
+            }
+        }
+    }
+
+    @Override
+    public void move(String source, String target) throws IOException {
+        Path path = Paths.get(target);
+        if (durability != Durability.PLAIN && durability != Durability.ATOMIC) {
+            try (FileChannel channel = FileChannel.open(Paths.get(source), StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+        }
+        move(Paths.get(source), path);
+        if (durability == Durability.FSYNC_DIRECTORY) {
+            forceDirectory(path.toAbsolutePath().getParent());
+        }
+    }
+
+    @Override
+    public void delete(String filename) throws IOException {
+        Files.deleteIfExists(Paths.get(filename));
+    }
+
+    @Override
+    public InputStream openInput(String filename) throws IOException {
+        return Files.newInputStream(Paths.get(filename));
+    }
+
+    @Override
+    public OutputStream openOutput(String filename) throws IOException {
+        return Files.newOutputStream(Paths.get(filename));
+    }
+
+    @Override
+    public Closeable lock(String filename, boolean shared) throws IOException {
+        FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        FileLock lock;
+        try {
+            lock = channel.lock(0, Long.MAX_VALUE, shared);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        return () -> {
+            try {
+                lock.release();
+            } finally {
+                channel.close();
+            }
+        };
+    }
+
+    private static byte[] readAll(FileChannel channel) throws IOException {
+        long size = channel.size();
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("File is too large: " + size);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) size);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) == -1) {
+                throw new IOException("File was truncated while reading");
+            }
+        }
+        return buffer.array();
+    }
+
+    private static void writeFully(FileChannel channel, byte[] content) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(content);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static void forceDirectory(Path directory) throws IOException {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // some platforms (Windows) cannot open a directory as a channel, the rename is all we can do there
+        }
     }
 }
\ No newline at end of file
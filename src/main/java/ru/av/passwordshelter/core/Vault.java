@@ -0,0 +1,336 @@
+package ru.av.passwordshelter.core;
+
+import org.json.JSONObject;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+class Vault {
+
+    private static final int MAX_LENGTH = 65535 / 3;
+
+    private final TreeMap<String, TreeMap<String, Record>> sources = new TreeMap<>();
+    private long recordsLength = 0;
+    private long revision = 0;
+
+    static TreeMap<String, TreeMap<String, String>> parseJson(String content) throws ManagerException {
+        TreeMap<String, TreeMap<String, String>> plain = new TreeMap<>();
+        try {
+            JSONObject json = new JSONObject(content);
+            for (String source : names(json)) {
+                JSONObject accounts = json.getJSONObject(source);
+                TreeMap<String, String> map = new TreeMap<>();
+                for (String account : names(accounts)) {
+                    map.put(account, accounts.getString(account));
+                }
+                plain.put(source, map);
+            }
+        } catch (Exception e) {
+            throw new ManagerException(e);
+        }
+        return plain;
+    }
+
+    private static String[] names(JSONObject json) {
+        String[] names = JSONObject.getNames(json);
+        return names == null ? new String[0] : names;
+    }
+
+    static TreeMap<String, TreeMap<String, String>> parseBytes(byte[] content) throws ManagerException {
+        TreeMap<String, TreeMap<String, String>> plain = new TreeMap<>();
+        try (DataInputStream data = new DataInputStream(new ByteArrayInputStream(content))) {
+            int sourceCount = data.readInt();
+            for (int i = 0; i < sourceCount; i++) {
+                String source = data.readUTF();
+                int accountCount = data.readInt();
+                TreeMap<String, String> accounts = new TreeMap<>();
+                for (int j = 0; j < accountCount; j++) {
+                    accounts.put(data.readUTF(), data.readUTF());
+                }
+                plain.put(source, accounts);
+            }
+            if (data.read() != -1) {
+                throw new ManagerException("Unexpected data after the last record");
+            }
+        } catch (IOException e) {
+            throw new ManagerException(e);
+        }
+        return plain;
+    }
+
+    static Vault encrypt(Map<String, ? extends Map<String, String>> plain, CryptKey key) throws CryptException, ManagerException {
+        Vault vault = new Vault();
+        for (Map.Entry<String, ? extends Map<String, String>> source : plain.entrySet()) {
+            for (Map.Entry<String, String> account : source.getValue().entrySet()) {
+                vault.add(source.getKey(), account.getKey(), key.encrypt(account.getValue().getBytes(StandardCharsets.UTF_8)));
+            }
+        }
+        return vault;
+    }
+
+    static Vault fromIndex(byte[] index) throws ManagerException {
+        Vault vault = new Vault();
+        try (DataInputStream data = new DataInputStream(new ByteArrayInputStream(index))) {
+            int sourceCount = data.readInt();
+            for (int i = 0; i < sourceCount; i++) {
+                String source = data.readUTF();
+                int accountCount = data.readInt();
+                TreeMap<String, Record> accounts = new TreeMap<>();
+                for (int j = 0; j < accountCount; j++) {
+                    String account = data.readUTF();
+                    int offset = data.readInt();
+                    int length = data.readInt();
+                    if (offset < 0 || length < 0) {
+                        throw new ManagerException("Wrong record position");
+                    }
+                    accounts.put(account, new Record(offset, length));
+                    vault.recordsLength += length;
+                }
+                vault.sources.put(source, accounts);
+            }
+            if (data.read() != -1) {
+                throw new ManagerException("Unexpected data after the last index entry");
+            }
+        } catch (IOException e) {
+            throw new ManagerException(e);
+        }
+        return vault;
+    }
+
+    byte[] toIndex() {
+        List<Record> records = records();
+        int[] lengths = new int[records.size()];
+        for (int i = 0; i < lengths.length; i++) {
+            lengths[i] = records.get(i).getContent().length;
+        }
+        return toIndex(lengths);
+    }
+
+    byte[] toIndex(int[] lengths) {
+        ExactOutputStream bytes = new ExactOutputStream(indexLength());
+        try (DataOutputStream data = new DataOutputStream(bytes)) {
+            int offset = 0;
+            int record = 0;
+            data.writeInt(sources.size());
+            for (Map.Entry<String, TreeMap<String, Record>> source : sources.entrySet()) {
+                data.writeUTF(source.getKey());
+                data.writeInt(source.getValue().size());
+                for (String account : source.getValue().keySet()) {
+                    int length = lengths[record++];
+                    data.writeUTF(account);
+                    data.writeInt(offset);
+                    data.writeInt(length);
+                    offset += length;
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toExactArray();
+    }
+
+    void readRecords(InputStream input) throws IOException, ManagerException {
+        DataInputStream data = new DataInputStream(input);
+        long position = 0;
+        try {
+            for (TreeMap<String, Record> accounts : sources.values()) {
+                for (Record record : accounts.values()) {
+                    if (record.offset < position) {
+                        throw new ManagerException("Wrong record position");
+                    }
+                    while (position < record.offset) {
+                        int skipped = data.skipBytes((int) Math.min(Integer.MAX_VALUE, record.offset - position));
+                        if (skipped <= 0) {
+                            throw new ManagerException("Record is out of file bounds");
+                        }
+                        position += skipped;
+                    }
+                    record.content = new byte[record.length];
+                    data.readFully(record.content);
+                    position += record.length;
+                }
+            }
+        } catch (EOFException e) {
+            throw new ManagerException("Record is out of file bounds");
+        }
+    }
+
+    void writeRecords(OutputStream output) throws IOException {
+        for (TreeMap<String, Record> accounts : sources.values()) {
+            for (Record record : accounts.values()) {
+                output.write(record.getContent());
+            }
+        }
+    }
+
+    List<Record> records() {
+        List<Record> records = new ArrayList<>(size());
+        for (TreeMap<String, Record> accounts : sources.values()) {
+            records.addAll(accounts.values());
+        }
+        return records;
+    }
+
+    int size() {
+        int size = 0;
+        for (TreeMap<String, Record> accounts : sources.values()) {
+            size += accounts.size();
+        }
+        return size;
+    }
+
+    List<String> getSourceList() {
+        return new ArrayList<>(sources.keySet());
+    }
+
+    Map<String, List<String>> getAllAccountsMap() {
+        Map<String, List<String>> map = new TreeMap<>();
+        sources.forEach((source, accounts) -> map.put(source, new ArrayList<>(accounts.keySet())));
+        return map;
+    }
+
+    List<String> getAccountList(String source) throws ManagerException {
+        return new ArrayList<>(accounts(source).keySet());
+    }
+
+    long getRevision() {
+        return revision;
+    }
+
+    void setRevision(long revision) {
+        this.revision = revision;
+    }
+
+    long getRecordsLength() {
+        return recordsLength;
+    }
+
+    Record getRecord(String source, String account) throws ManagerException {
+        Record record = accounts(source).get(account);
+        if (record == null) {
+            throw new ManagerException("Unknown account: " + account);
+        }
+        return record;
+    }
+
+    Record findRecord(String source, String account) {
+        TreeMap<String, Record> accounts = sources.get(source);
+        return accounts == null ? null : accounts.get(account);
+    }
+
+    void add(String source, String account, byte[] record) throws ManagerException {
+        checkLength(source);
+        checkLength(account);
+        TreeMap<String, Record> accounts = sources.computeIfAbsent(source, s -> new TreeMap<>());
+        if (accounts.containsKey(account)) {
+            throw new ManagerException("Account already exists");
+        }
+        accounts.put(account, new Record(record));
+    }
+
+    void change(String source, String account, byte[] record) throws ManagerException {
+        TreeMap<String, Record> accounts = accounts(source);
+        if (!accounts.containsKey(account)) {
+            throw new ManagerException("Unknown account: " + account);
+        }
+        accounts.put(account, new Record(record));
+    }
+
+    void delete(String source, String account) throws ManagerException {
+        TreeMap<String, Record> accounts = accounts(source);
+        if (accounts.remove(account) == null) {
+            throw new ManagerException("Unknown account: " + account);
+        }
+        if (accounts.isEmpty()) {
+            sources.remove(source);
+        }
+    }
+
+    private int indexLength() {
+        int length = 4;
+        for (Map.Entry<String, TreeMap<String, Record>> source : sources.entrySet()) {
+            length += utfLength(source.getKey()) + 4;
+            for (String account : source.getValue().keySet()) {
+                length += utfLength(account) + 8;
+            }
+        }
+        return length;
+    }
+
+    private static int utfLength(String value) {
+        int length = 2;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            length += c >= 0x0001 && c <= 0x007F ? 1 : c > 0x07FF ? 3 : 2;
+        }
+        return length;
+    }
+
+    private static void checkLength(String value) throws ManagerException {
+        if (value.length() > MAX_LENGTH) {
+            throw new ManagerException("Value is too long");
+        }
+    }
+
+    private TreeMap<String, Record> accounts(String source) throws ManagerException {
+        TreeMap<String, Record> accounts = sources.get(source);
+        if (accounts == null) {
+            throw new ManagerException("Unknown source: " + source);
+        }
+        return accounts;
+    }
+
+    private static class ExactOutputStream extends ByteArrayOutputStream {
+
+        ExactOutputStream(int size) {
+            super(size);
+        }
+
+        byte[] toExactArray() {
+            return count == buf.length ? buf : toByteArray();
+        }
+    }
+
+    static class Record {
+
+        private final int offset;
+        private final int length;
+        private byte[] content;
+
+        Record(int offset, int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+
+        Record(byte[] content) {
+            this(-1, content.length);
+            this.content = content;
+        }
+
+        int getOffset() {
+            return offset;
+        }
+
+        int getLength() {
+            return length;
+        }
+
+        byte[] getContent() {
+            if (content == null) {
+                throw new IllegalStateException("Record was not read");
+            }
+            return content;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,173 @@
+package ru.av.passwordshelter.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+class VaultHeader {
+
+    static final byte[] MAGIC = {'P', 'S', 'V', 'F'};
+    static final int VERSION = 5;
+    static final int NO_COMPRESSION = 0;
+    static final int DEFLATE = 1;
+    static final int CBC = 0;
+    static final int GCM = 1;
+
+    private static final int SALT_LENGTH = 16;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final int version;
+    private final KeyDerivation keyDerivation;
+    private final byte[] salt;
+    private final long revision;
+    private final int compression;
+    private final int cipher;
+
+    VaultHeader(int version, KeyDerivation keyDerivation, byte[] salt) {
+        this(version, keyDerivation, salt, 0);
+    }
+
+    VaultHeader(int version, KeyDerivation keyDerivation, byte[] salt, long revision) {
+        this(version, keyDerivation, salt, revision, NO_COMPRESSION);
+    }
+
+    VaultHeader(int version, KeyDerivation keyDerivation, byte[] salt, long revision, int compression) {
+        this(version, keyDerivation, salt, revision, compression, version >= 5 ? GCM : CBC);
+    }
+
+    VaultHeader(int version, KeyDerivation keyDerivation, byte[] salt, long revision, int compression, int cipher) {
+        this.version = version;
+        this.keyDerivation = keyDerivation;
+        this.salt = salt;
+        this.revision = revision;
+        this.compression = compression;
+        this.cipher = cipher;
+    }
+
+    static VaultHeader create() {
+        return create(KeyDerivation.DEFAULT);
+    }
+
+    static VaultHeader create(KeyDerivation keyDerivation) {
+        byte[] salt = new byte[SALT_LENGTH];
+        RANDOM.nextBytes(salt);
+        return new VaultHeader(VERSION, keyDerivation, salt);
+    }
+
+    static VaultHeader read(InputStream input) throws IOException, ManagerException {
+        byte[] magic = new byte[MAGIC.length];
+        if (AES256Stream.readFully(input, magic, magic.length) < magic.length || !Arrays.equals(magic, MAGIC)) {
+            return null;
+        }
+        DataInputStream data = new DataInputStream(input);
+        try {
+            int version = data.readUnsignedByte();
+            if (version < 1 || version > VERSION) {
+                throw new ManagerException("Unsupported vault version: " + version);
+            }
+            int kdf = data.readUnsignedByte();
+            KeyDerivation keyDerivation = KeyDerivation.of(kdf, data.readInt());
+            byte[] salt = new byte[data.readUnsignedByte()];
+            data.readFully(salt);
+            long revision = version >= 3 ? data.readLong() : 0;
+            int compression = version >= 4 ? data.readUnsignedByte() : NO_COMPRESSION;
+            if (compression != NO_COMPRESSION && compression != DEFLATE) {
+                throw new ManagerException("Unsupported compression: " + compression);
+            }
+            int cipher = version >= 5 ? data.readUnsignedByte() : CBC;
+            if (cipher != CBC && cipher != GCM) {
+                throw new ManagerException("Unsupported cipher: " + cipher);
+            }
+            return new VaultHeader(version, keyDerivation, salt, revision, compression, cipher);
+        } catch (EOFException e) {
+            throw new ManagerException(e);
+        }
+    }
+
+    byte[] toBytes() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(length());
+        try (DataOutputStream data = new DataOutputStream(bytes)) {
+            data.write(MAGIC);
+            data.writeByte(version);
+            data.writeByte(keyDerivation.getId());
+            data.writeInt(keyDerivation.getParameters());
+            data.writeByte(salt.length);
+            data.write(salt);
+            if (version >= 3) {
+                data.writeLong(revision);
+            }
+            if (version >= 4) {
+                data.writeByte(compression);
+            }
+            if (version >= 5) {
+                data.writeByte(cipher);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    int length() {
+        return MAGIC.length + 1 + 1 + 4 + 1 + salt.length + (version >= 3 ? 8 : 0) + (version >= 4 ? 1 : 0) + (version >= 5 ? 1 : 0);
+    }
+
+    VaultHeader toCurrentVersion() {
+        return new VaultHeader(VERSION, keyDerivation, salt, revision, compression, cipher);
+    }
+
+    VaultHeader withRevision(long revision) {
+        return new VaultHeader(version, keyDerivation, salt, revision, compression, cipher);
+    }
+
+    VaultHeader withCompression(int compression) {
+        return new VaultHeader(version, keyDerivation, salt, revision, compression, cipher);
+    }
+
+    boolean sameKey(VaultHeader other) {
+        return cipher == other.cipher && keyDerivation.equals(other.keyDerivation) && Arrays.equals(salt, other.salt);
+    }
+
+    int getVersion() {
+        return version;
+    }
+
+    KeyDerivation getKeyDerivation() {
+        return keyDerivation;
+    }
+
+    byte[] getSalt() {
+        return salt.clone();
+    }
+
+    long getRevision() {
+        return revision;
+    }
+
+    int getCompression() {
+        return compression;
+    }
+
+    int getCipher() {
+        return cipher;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof VaultHeader)) {
+            return false;
+        }
+        VaultHeader other = (VaultHeader) o;
+        return version == other.version && revision == other.revision && compression == other.compression && sameKey(other);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(salt);
+    }
+}
\ No newline at end of file
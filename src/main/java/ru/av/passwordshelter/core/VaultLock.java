@@ -0,0 +1,73 @@
+package ru.av.passwordshelter.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+class VaultLock {
+
+    private static final ConcurrentMap<Path, VaultLock> LOCKS = new ConcurrentHashMap<>();
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private int readers = 0;
+    private Closeable sharedFileLock;
+
+    private VaultLock() {
+    }
+
+    static VaultLock of(String filename) {
+        return LOCKS.computeIfAbsent(Paths.get(filename).toAbsolutePath().normalize(), path -> new VaultLock());
+    }
+
+    Closeable read(FileWorker fileWorker, String lockFilename) throws IOException {
+        lock.readLock().lock();
+        try {
+            synchronized (this) {
+                if (readers == 0) {
+                    sharedFileLock = fileWorker.lock(lockFilename, true);
+                }
+                readers++;
+            }
+        } catch (IOException | RuntimeException e) {
+            lock.readLock().unlock();
+            throw e;
+        }
+        return this::releaseRead;
+    }
+
+    Closeable write(FileWorker fileWorker, String lockFilename) throws IOException {
+        lock.writeLock().lock();
+        Closeable fileLock;
+        try {
+            fileLock = fileWorker.lock(lockFilename, false);
+        } catch (IOException | RuntimeException e) {
+            lock.writeLock().unlock();
+            throw e;
+        }
+        return () -> {
+            try {
+                fileLock.close();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        };
+    }
+
+    private void releaseRead() throws IOException {
+        try {
+            synchronized (this) {
+                if (--readers == 0) {
+                    Closeable fileLock = sharedFileLock;
+                    sharedFileLock = null;
+                    fileLock.close();
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+}
\ No newline at end of file
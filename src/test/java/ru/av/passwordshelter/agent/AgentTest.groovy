@@ -0,0 +1,147 @@
+package ru.av.passwordshelter.agent
+
+import ru.av.passwordshelter.core.ManagerException
+import ru.av.passwordshelter.core.Session
+import spock.lang.Specification
+
+import java.nio.file.Files
+import java.nio.file.Path
+
+class AgentTest extends Specification {
+
+    Path directory = Files.createTempDirectory("agent")
+    Path agentFile = directory.resolve("agent")
+
+    def cleanup() {
+        directory.toFile().deleteDir()
+    }
+
+    def "serves session commands to a client holding the token"() {
+        given:
+        def session = Mock(Session)
+        def agent = new Agent(session, agentFile)
+        agent.start()
+
+        when:
+        def client = AgentClient.connect(agentFile)
+        def sources = client.call("sources")
+        def password = client.call("password", "github", "me")
+        def pairs = client.call("all-accounts")
+        client.call("add", "mail", "me", "secret")
+
+        then:
+        1 * session.getSourceList() >> ["github", "mail"]
+        1 * session.getPassword("github", "me") >> "p@ss"
+        1 * session.getAllAccountsMap() >> [github: ["me", "you"]]
+        1 * session.add("mail", "me", "secret")
+        sources == ["github", "mail"]
+        password == ["p@ss"]
+        pairs == ["github", "me", "github", "you"]
+
+        cleanup:
+        client?.close()
+        agent.stop()
+    }
+
+    def "reports manager errors and wrong commands"() {
+        given:
+        def session = Mock(Session)
+        def agent = new Agent(session, agentFile)
+        agent.start()
+        def client = AgentClient.connect(agentFile)
+
+        when:
+        client.call("accounts", "none")
+
+        then:
+        1 * session.getAccountList("none") >> { throw new ManagerException("No source") }
+        def e = thrown(AgentException)
+        e.message == "No source"
+
+        when:
+        client.call("password", "github")
+
+        then:
+        e = thrown(AgentException)
+        e.message == "Command password takes 2 arguments"
+
+        cleanup:
+        client?.close()
+        agent.stop()
+    }
+
+    def "rejects a client without the token"() {
+        given:
+        def agent = new Agent(Mock(Session), agentFile)
+        agent.start()
+        def forged = directory.resolve("forged")
+        forged.text = agent.port + "\nwrong\n"
+
+        when:
+        AgentClient.connect(forged)
+
+        then:
+        def e = thrown(AgentException)
+        e.message == "Wrong agent token"
+
+        cleanup:
+        agent.stop()
+    }
+
+    def "reports a corrupt agent file"() {
+        given:
+        agentFile.text = port + "\ntoken\n"
+
+        when:
+        AgentClient.connect(agentFile)
+
+        then:
+        def e = thrown(AgentException)
+        e.message == "Wrong agent file: " + agentFile
+
+        where:
+        port << ["not a port", "", "0", "70000", "-1"]
+    }
+
+    def "drops a client that never sends the token"() {
+        given:
+        def agent = new Agent(Mock(Session), agentFile)
+        agent.start()
+        def socket = new Socket(InetAddress.loopbackAddress, agent.port)
+        socket.soTimeout = 30_000
+
+        when: "the client stays silent"
+        def read = socket.inputStream.read()
+
+        then: "the agent closes the connection after the handshake timeout"
+        read == -1
+
+        cleanup:
+        socket?.close()
+        agent.stop()
+    }
+
+    def "stops and removes its file once the session locks"() {
+        given:
+        def session = Mock(Session)
+        def agent = new Agent(session, agentFile)
+        agent.start()
+
+        expect:
+        Files.exists(agentFile)
+        Files.getPosixFilePermissions(agentFile)*.toString().sort() == ["OWNER_READ", "OWNER_WRITE"]
+
+        when:
+        agent.stop()
+
+        then:
+        1 * session.lock()
+        !Files.exists(agentFile)
+
+        when:
+        AgentClient.connect(agentFile)
+
+        then:
+        thrown(AgentException)
+    }
+}
@@ -0,0 +1,104 @@
+package ru.av.passwordshelter.console
+
+import ru.av.passwordshelter.core.Secret
+import spock.lang.Specification
+
+import java.nio.charset.StandardCharsets
+
+class ClipboardTest extends Specification {
+
+    File directory = File.createTempDir()
+    PrintStream stdout = new PrintStream(new ByteArrayOutputStream())
+
+    def cleanup() {
+        directory.deleteDir()
+    }
+
+    def "check that osc52 sink writes base64 escape sequence"() {
+        given: "terminal buffer"
+        ByteArrayOutputStream terminal = new ByteArrayOutputStream()
+
+        when: "password is copied and cleared"
+        new Osc52ClipboardSink(terminal, tmux).copy(Secret.of("pässword"))
+        new Osc52ClipboardSink(terminal, tmux).clear()
+
+        then: "terminal gets the set and the empty sequence"
+        new String(terminal.toByteArray(), StandardCharsets.US_ASCII) == expected
+
+        where:
+        tmux  | expected
+        false | "\033]52;c;cMOkc3N3b3Jk\007\033]52;c;\007"
+        true  | "\033Ptmux;\033\033]52;c;cMOkc3N3b3Jk\007\033\\\033Ptmux;\033\033]52;c;\007\033\\"
+    }
+
+    def "check that clipboard clears the last copy after timeout"() {
+        given: "file sink with one second timeout"
+        File file = new File(directory, "clipboard")
+        Clipboard clipboard = new Clipboard(StreamClipboardSink.file(file.toPath()), 1)
+
+        when: "password is copied twice"
+        clipboard.copy(Secret.of("first"))
+        Thread.sleep(600)
+        clipboard.copy(Secret.of("second"))
+        Thread.sleep(600)
+
+        then: "the timer of the first copy does not clear the second one"
+        file.text == "second"
+
+        when: "timeout of the second copy passes"
+        Thread.sleep(1000)
+
+        then: "clipboard is cleared"
+        !file.exists()
+    }
+
+    def "check that pending clear runs at once on exit"() {
+        given: "file sink with long timeout"
+        File file = new File(directory, "clipboard")
+        Clipboard clipboard = new Clipboard(StreamClipboardSink.file(file.toPath()), 600)
+
+        when: "password is copied and pending clear is forced"
+        boolean scheduled = clipboard.copy(Secret.of("password"))
+        clipboard.clearPending()
+
+        then: "clipboard is cleared"
+        scheduled
+        !file.exists()
+    }
+
+    def "check that sink is detected from environment"() {
+        given: "directory with fake clipboard tools"
+        ["wl-copy", "xclip"].each {
+            File tool = new File(directory, it)
+            tool.text = "#!/bin/sh\n"
+            tool.setExecutable(true)
+        }
+
+        expect: "the lightest sink that works in the environment"
+        Clipboard.detect(env.collectEntries { key, value -> [key, value.replace("TOOLS", directory.path)] }, interactive, stdout).getName() == sink
+
+        where:
+        env                                                      | interactive | sink
+        [WAYLAND_DISPLAY: "wayland-0", PATH: "TOOLS"]            | true        | "wl-copy"
+        [DISPLAY: ":0", PATH: "TOOLS"]                           | true        | "xclip"
+        [SSH_TTY: "/dev/pts/0", TERM: "xterm", DISPLAY: ":0"]    | true        | "osc52"
+        [TERM: "xterm"]                                          | true        | "osc52"
+        [TERM: "dumb"]                                           | true        | "none"
+        [TERM: "xterm", SSH_CONNECTION: "1.2.3.4 22 5.6.7.8 22"] | false       | "none"
+    }
+
+    def "check that stdout is used only when it is named"() {
+        given: "environment without any clipboard"
+        Map<String, String> env = [:]
+
+        when: "password is copied to the detected sink"
+        new Clipboard(Clipboard.sink("auto", null, env, false, stdout), 30).copy(Secret.of("password"))
+
+        then: "it is refused"
+        IOException e = thrown()
+        e.message.startsWith("no clipboard available")
+
+        expect: "stdout is selected by name"
+        Clipboard.sink("stdout", null, env, false, stdout).getName() == "stdout"
+    }
+}
@@ -1,5 +1,6 @@
 package ru.av.passwordshelter.core
 
+import org.springframework.security.crypto.encrypt.Encryptors
 import spock.lang.Specification
 
 class AES256Test extends Specification{
@@ -44,4 +45,172 @@ class AES256Test extends Specification{
         then: "it throws CryptException"
         thrown(CryptException)
     }
+
+    def "check that derived key decrypts content encrypted with password"() {
+        given: "content encrypted with password"
+        String content = UUID.randomUUID().toString()
+        String password = UUID.randomUUID().toString()
+        String encrypted = new AES256().encrypt(content, password)
+
+        when: "key is derived and decrypt is called"
+        CryptKey key = new AES256().deriveKey(password)
+        String decrypted = key.decrypt(encrypted)
+
+        then: "result is correct"
+        content == decrypted
+
+        and: "content encrypted with the key is decrypted with password"
+        content == new AES256().decrypt(key.encrypt(content), password)
+    }
+
+    def "check that decrypt decrypts files written by Spring text encryptor"() {
+        given: "content encrypted by Encryptors.text with the same salt"
+        String content = UUID.randomUUID().toString()
+        String password = UUID.randomUUID().toString()
+        String encrypted = Encryptors.text(password, "b89f5ea2987e8e54").encrypt(content)
+
+        when: "decrypt is called"
+        String decrypted = new AES256().decrypt(encrypted, password)
+
+        then: "result is correct"
+        content == decrypted
+    }
+
+    def "check that wiped key throws CryptException"() {
+        given: "wiped key"
+        CryptKey key = new AES256().deriveKey(UUID.randomUUID().toString())
+        key.wipe()
+
+        when: "encrypt is called"
+        key.encrypt(UUID.randomUUID().toString())
+
+        then: "it throws CryptException"
+        thrown(CryptException)
+    }
+
+    def "check that wipe re-keys ciphers used by other threads"() {
+        given: "key used on another thread"
+        AES256Key key = (AES256Key) new AES256().deriveKey("password")
+        AES256Key other = (AES256Key) new AES256().deriveKey("password")
+        byte[] encrypted = null
+        Thread.start { encrypted = key.encrypt("content".bytes) }.join()
+
+        when: "key is wiped"
+        key.wipe()
+
+        then: "its ciphers are released and another key still works"
+        key.encryptors.created.isEmpty()
+        key.decryptors.created.isEmpty()
+        new String(other.decrypt(encrypted)) == "content"
+
+        when: "the wiped key is used on the other thread"
+        Throwable failure = null
+        Thread.start {
+            try {
+                key.decrypt(encrypted)
+            } catch (Throwable e) {
+                failure = e
+            }
+        }.join()
+
+        then: "it throws CryptException"
+        failure instanceof CryptException
+    }
+
+    def "check that stream decrypt restores stream encrypted content"() {
+        given: "content and password"
+        byte[] content = new byte[size]
+        new Random().nextBytes(content)
+        String password = UUID.randomUUID().toString()
+        ByteArrayOutputStream encrypted = new ByteArrayOutputStream()
+        ByteArrayOutputStream decrypted = new ByteArrayOutputStream()
+
+        when: "content is encrypted and decrypted by streams"
+        new AES256().encrypt(new ByteArrayInputStream(content), encrypted, password)
+        new AES256().decrypt(new ByteArrayInputStream(encrypted.toByteArray()), decrypted, password)
+
+        then: "result is correct"
+        decrypted.toByteArray() == content
+
+        where:
+        size << [0, 1, AES256Stream.CHUNK_SIZE, AES256Stream.CHUNK_SIZE + 1, 3 * AES256Stream.CHUNK_SIZE - 7]
+    }
+
+    def "check that stream decrypt throws CryptException for wrong password, truncated or modified stream"() {
+        given: "encrypted stream of several chunks"
+        byte[] content = new byte[2 * AES256Stream.CHUNK_SIZE + 10]
+        String password = UUID.randomUUID().toString()
+        ByteArrayOutputStream out = new ByteArrayOutputStream()
+        new AES256().encrypt(new ByteArrayInputStream(content), out, password)
+        byte[] encrypted = change(out.toByteArray())
+
+        when: "decrypt is called"
+        new AES256().decrypt(new ByteArrayInputStream(encrypted), new ByteArrayOutputStream(), usedPassword ?: password)
+
+        then: "it throws CryptException"
+        thrown(CryptException)
+
+        where:
+        usedPassword                  |  change
+        UUID.randomUUID().toString()  |  { byte[] b -> b }
+        null                          |  { byte[] b -> Arrays.copyOf(b, b.length - 1) }
+        null                          |  { byte[] b -> Arrays.copyOf(b, AES256Stream.CHUNK_SIZE + 100) }
+        null                          |  { byte[] b -> b[100] ^= 1; b }
+        null                          |  { byte[] b -> Arrays.copyOf(b, b.length + 1) }
+    }
+
+    def "check that stream decrypt decrypts text encrypted content"() {
+        given: "content encrypted as text"
+        String content = UUID.randomUUID().toString()
+        String password = UUID.randomUUID().toString()
+        byte[] encrypted = new AES256().encrypt(content, password).getBytes()
+        ByteArrayOutputStream decrypted = new ByteArrayOutputStream()
+
+        when: "stream decrypt is called"
+        new AES256().decrypt(new ByteArrayInputStream(encrypted), decrypted, password)
+
+        then: "result is correct"
+        new String(decrypted.toByteArray(), "UTF-8") == content
+    }
+
+    def "check that encrypting and decrypting streams are compatible with stream encrypt and decrypt"() {
+        given: "content written into encrypting stream in small pieces"
+        byte[] content = new byte[size]
+        new Random(size).nextBytes(content)
+        String password = UUID.randomUUID().toString()
+        AES256 aes = new AES256()
+        ByteArrayOutputStream out = new ByteArrayOutputStream()
+        OutputStream encrypting = aes.encryptingStream(out, password)
+        content.toList().collate(1000).each { encrypting.write(it as byte[]) }
+        encrypting.close()
+
+        when: "it is decrypted by decrypt and by decrypting stream"
+        ByteArrayOutputStream decrypted = new ByteArrayOutputStream()
+        aes.decrypt(new ByteArrayInputStream(out.toByteArray()), decrypted, password)
+        InputStream input = new BufferedInputStream(new ByteArrayInputStream(out.toByteArray()))
+        boolean encrypted = aes.isEncrypted(input)
+        byte[] read = aes.decryptingStream(input, password).bytes
+
+        then: "content is restored both times"
+        decrypted.toByteArray() == content
+        read == content
+        encrypted
+
+        where:
+        size << [0, 10, AES256Stream.CHUNK_SIZE, 2 * AES256Stream.CHUNK_SIZE + 10]
+    }
+
+    def "check that decrypting stream throws IOException caused by CryptException for wrong password"() {
+        given: "encrypted stream"
+        AES256 aes = new AES256()
+        ByteArrayOutputStream out = new ByteArrayOutputStream()
+        aes.encrypt(new ByteArrayInputStream(new byte[100]), out, "password")
+
+        when: "it is read with wrong password"
+        aes.decryptingStream(new ByteArrayInputStream(out.toByteArray()), "wrong").bytes
+
+        then: "it throws IOException caused by CryptException"
+        IOException e = thrown()
+        e.cause instanceof CryptException
+    }
 }
\ No newline at end of file
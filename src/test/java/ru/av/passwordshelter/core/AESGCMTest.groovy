@@ -0,0 +1,142 @@
+package ru.av.passwordshelter.core
+
+import spock.lang.Specification
+
+class AESGCMTest extends Specification {
+
+    byte[] salt = VaultHeader.create().salt
+    KeyDerivation keyDerivation = KeyDerivation.pbkdf2Sha256(1000)
+
+    def "check that derived key decrypts what it encrypted"() {
+        given: "GCM key and content"
+        CryptKey key = new AESGCM().deriveKey(Secret.of("master"), salt, keyDerivation)
+        byte[] content = new byte[3 * 1024 * 1024]
+        new Random(42).nextBytes(content)
+
+        when: "content is encrypted twice"
+        byte[] encrypted1 = key.encrypt(content)
+        byte[] encrypted2 = key.encrypt(content)
+
+        then: "results differ only by nonce and carry a 16 byte tag"
+        encrypted1 != encrypted2
+        encrypted1.length == content.length + 12 + 16
+
+        and: "both are decrypted by a key derived again"
+        CryptKey again = new AESGCM().deriveKey("master", salt, keyDerivation)
+        again.decrypt(encrypted1) == content
+        again.decrypt(encrypted2) == content
+        again.decryptSecret(key.encrypt(Secret.of("password"))) == Secret.of("password")
+        again.decrypt(key.encrypt("text")) == "text"
+    }
+
+    def "check that modified content, wrong password and CBC key are rejected"() {
+        given: "GCM encrypted content"
+        CryptKey key = new AESGCM().deriveKey(Secret.of("master"), salt, keyDerivation)
+        byte[] encrypted = key.encrypt("password".bytes)
+        byte[] modified = Arrays.copyOf(encrypted, encrypted.length)
+        modified[modified.length - 1] ^= 1
+
+        when: "modified content is decrypted"
+        key.decrypt(modified)
+
+        then: "authentication fails"
+        thrown(CryptException)
+
+        when: "content is decrypted with a key of another password"
+        new AESGCM().deriveKey(Secret.of("wrong"), salt, keyDerivation).decryptSecret(encrypted)
+
+        then: "authentication fails"
+        thrown(CryptException)
+
+        when: "content is decrypted with the CBC key of the same password"
+        byte[] decrypted
+        try {
+            decrypted = new AES256().deriveKey(Secret.of("master"), salt, keyDerivation).decrypt(encrypted)
+        } catch (CryptException ignored) {
+            decrypted = null
+        }
+
+        then: "it does not read back the password"
+        decrypted != "password".bytes
+    }
+
+    def "check that GCM refuses the unsalted legacy entry points and CBC text"() {
+        given: "GCM crypt"
+        AESGCM crypt = new AESGCM()
+
+        when: "an unsalted entry point is called"
+        call.call(crypt)
+
+        then: "it is refused"
+        thrown(CryptException)
+
+        where:
+        call << [
+                { AESGCM c -> c.encrypt("content", "master") },
+                { AESGCM c -> c.decrypt("content", "master") },
+                { AESGCM c -> c.deriveKey("master") },
+                { AESGCM c -> c.deriveKey(Secret.of("master")) },
+                { AESGCM c -> c.decrypt(new ByteArrayInputStream(new AES256().encrypt("content", "master").bytes), new ByteArrayOutputStream(), "master") }
+        ]
+    }
+
+    def "check that GCM reads back its own streams"() {
+        given: "stream encrypted by GCM crypt"
+        AESGCM crypt = new AESGCM()
+        crypt.keyDerivation = keyDerivation
+        ByteArrayOutputStream encrypted = new ByteArrayOutputStream()
+        crypt.encrypt(new ByteArrayInputStream("content".bytes), encrypted, "master")
+
+        when: "it is decrypted"
+        ByteArrayOutputStream decrypted = new ByteArrayOutputStream()
+        crypt.decrypt(new ByteArrayInputStream(encrypted.toByteArray()), decrypted, "master")
+
+        then: "content is restored"
+        decrypted.toString() == "content"
+    }
+
+    def "check that new vaults use GCM and vaults of the previous version stay on CBC"() {
+        given: "new vault and vault written by the previous version with the CBC cipher"
+        File directory = File.createTempDir()
+        File previous = new File(directory, "previous")
+        JsonManager gcm = new JsonManager(new File(directory, "vault").path)
+        gcm.keyDerivation = keyDerivation
+        gcm.createFile("master")
+        JsonManager writer = new JsonManager(previous.path)
+        writer.keyDerivation = keyDerivation
+        writer.crypt = new AES256()
+        writer.createFile("master")
+        writer.add("source", "account", "p2", "master")
+        byte[] content = previous.bytes
+        VaultHeader header = VaultHeader.read(new ByteArrayInputStream(content))
+        VaultHeader oldHeader = new VaultHeader(4, header.keyDerivation, header.salt, header.revision, header.compression)
+        previous.bytes = oldHeader.toBytes()
+        previous.append(Arrays.copyOfRange(content, header.length(), content.length))
+        JsonManager cbc = new JsonManager(previous.path)
+
+        when: "both vaults are used"
+        gcm.add("source", "account", "p1", "master")
+        cbc.add("source", "other", "p3", "master")
+
+        then: "each one is read with the cipher of its header"
+        cipher(gcm) == VaultHeader.GCM
+        cipher(cbc) == VaultHeader.CBC
+        gcm.getPassword("source", "account", "master") == "p1"
+        cbc.getAllAccountsMap("master") == [source: ["account", "other"]]
+        cbc.getPassword("source", "account", "master") == "p2"
+
+        when: "master password of the CBC vault is changed"
+        cbc.changeMasterPassword("master", "new")
+
+        then: "it is re-encrypted with GCM"
+        cipher(cbc) == VaultHeader.GCM
+        cbc.getPassword("source", "other", "new") == "p3"
+
+        cleanup:
+        directory.deleteDir()
+    }
+
+    private static int cipher(JsonManager manager) {
+        new FileInputStream(manager.filename).withCloseable { VaultHeader.read(it).cipher }
+    }
+}
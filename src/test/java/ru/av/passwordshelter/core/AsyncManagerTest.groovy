@@ -0,0 +1,129 @@
+package ru.av.passwordshelter.core
+
+import spock.lang.Specification
+
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executor
+import java.util.concurrent.Executors
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.TimeUnit
+
+class AsyncManagerTest extends Specification {
+
+    File directory = File.createTempDir()
+
+    def cleanup() {
+        directory.deleteDir()
+    }
+
+    def "check that vault is created, written and read through futures"() {
+        given: "async manager over json vault"
+        JsonManager json = new JsonManager(new File(directory, "vault").path)
+        json.keyDerivation = KeyDerivation.pbkdf2Sha256(1000)
+        AsyncManager manager = new AsyncManager(json)
+
+        when: "accounts are added through an async session"
+        manager.createFile(Secret.of("master")).get(10, TimeUnit.SECONDS)
+        AsyncSession session = manager.unlock(Secret.of("master")).get(10, TimeUnit.SECONDS)
+        session.add("github", "bob", Secret.of("p1")).get(10, TimeUnit.SECONDS)
+        session.apply([Operation.add("mail", "alice", "p2")]).get(10, TimeUnit.SECONDS)
+
+        then: "reads see them"
+        session.getAllAccountsMap().get(10, TimeUnit.SECONDS) == [github: ["bob"], mail: ["alice"]]
+        session.getPassword("github", "bob").get(10, TimeUnit.SECONDS) == "p1"
+        session.getSecret("mail", "alice").get(10, TimeUnit.SECONDS) == Secret.of("p2")
+
+        when: "wrong master password is used"
+        manager.unlock(Secret.of("wrong")).thenCompose { it.getSourceList() }.get(10, TimeUnit.SECONDS)
+
+        then: "the future fails with CryptException"
+        ExecutionException e = thrown()
+        e.cause instanceof CryptException
+
+        cleanup:
+        session?.close()
+        manager?.close()
+    }
+
+    def "check that identical reads waiting for a thread share one vault read"() {
+        given: "session on an executor that runs tasks on demand"
+        Session session = Mock()
+        List<Runnable> tasks = []
+        AsyncSession async = new AsyncSession(session, { throw new AssertionError() } as Executor, { tasks << it } as Executor)
+
+        when: "the same read is requested three times"
+        def futures = (1..3).collect { async.getAccountList("github") }
+        def other = async.getAccountList("mail")
+
+        then: "one task per distinct read is queued"
+        tasks.size() == 2
+        futures.every { !it.done }
+
+        when: "queued tasks run"
+        new ArrayList<>(tasks).each { it.run() }
+
+        then: "the vault is read once per distinct read and every caller gets its own copy"
+        1 * session.getAccountList("github") >> ["bob", "alice"]
+        1 * session.getAccountList("mail") >> ["carol"]
+        futures*.get() == [["bob", "alice"]] * 3
+        !futures[0].get().is(futures[1].get())
+        other.get() == ["carol"]
+
+        when: "the read is requested after the shared read has started"
+        async.getAccountList("github")
+
+        then: "a new read is queued"
+        tasks.size() == 3
+    }
+
+    def "check that session crypto runs on the bounded pool and lock on the io executor"() {
+        given: "session with separate recording executors"
+        Session session = Mock()
+        List<Runnable> io = []
+        List<Runnable> cpu = []
+        AsyncSession async = new AsyncSession(session, { io << it } as Executor, { cpu << it } as Executor)
+
+        when: "reads, writes and lock are requested"
+        async.getPassword("github", "bob")
+        async.getSecret("github", "bob")
+        async.add("github", "alice", Secret.of("p1"))
+        async.changePassword("github", "bob", Secret.of("p2"))
+        async.delete("github", "carol")
+        async.apply([Operation.add("mail", "alice", "p3")])
+        async.apply([Operation.add("mail", "bob", "p4")], 1)
+        async.lock()
+
+        then: "only lock is queued on the io executor"
+        cpu.size() == 7
+        io.size() == 1
+    }
+
+    def "check that a shut down executor fails futures instead of blocking the caller"() {
+        given: "session on a shut down executor"
+        Session session = Mock()
+        def executor = Executors.newSingleThreadExecutor()
+        executor.shutdown()
+        AsyncSession async = new AsyncSession(session, executor, executor)
+
+        when: "reads are requested"
+        def first = async.getSourceList()
+        def second = async.getSourceList()
+
+        then: "both fail at once"
+        first.completedExceptionally
+        second.completedExceptionally
+
+        when: "the result is awaited"
+        first.get()
+
+        then: "it reports the rejection"
+        ExecutionException e = thrown()
+        e.cause instanceof RejectedExecutionException
+
+        when: "session is closed"
+        async.close()
+
+        then: "it is locked on the caller thread"
+        1 * session.lock()
+    }
+}
@@ -0,0 +1,71 @@
+package ru.av.passwordshelter.core
+
+import spock.lang.Specification
+
+class EntryFormatTest extends Specification {
+
+    def "check that entries written by writer are read back by reader"() {
+        given: "entries with special characters"
+        List<List<String>> entries = [["a", "x", "plain"],
+                                      ["a", "y, z", "with \"quotes\""],
+                                      ["b \u0431", "line\nbreak", "\\\\ back\\slash\r\n"],
+                                      ["c", "", ""]]
+        StringWriter out = new StringWriter()
+
+        when: "entries are written and read"
+        EntryWriter writer = createWriter(out)
+        entries.each { writer.write(it[0], it[1], it[2]) }
+        writer.close()
+        EntryReader reader = createReader(new StringReader(out.toString()))
+        List<List<String>> read = []
+        Operation operation
+        while ((operation = reader.next()) != null) {
+            read << [operation.source, operation.account, operation.password]
+        }
+
+        then: "entries are the same and read as add operations"
+        read == entries
+
+        where:
+        createWriter                           |  createReader
+        { Writer w -> new CsvEntryWriter(w) }  |  { Reader r -> new CsvEntryReader(r) }
+        { Writer w -> new JsonEntryWriter(w) } |  { Reader r -> new JsonEntryReader(r) }
+    }
+
+    def "check that readers accept input of other tools"() {
+        when: "input is read"
+        EntryReader reader = createReader(new StringReader(input))
+        List<List<String>> read = []
+        Operation operation
+        while ((operation = reader.next()) != null) {
+            read << [operation.source, operation.account, operation.password]
+        }
+
+        then: "all entries are read"
+        read == result
+
+        where:
+        createReader                            |  input                                                         |  result
+        { Reader r -> new CsvEntryReader(r) }   |  "s,a,p\r\n\r\ns2,a2,\"p,2\"\r\n"                              |  [["s", "a", "p"], ["s2", "a2", "p,2"]]
+        { Reader r -> new JsonEntryReader(r) }  |  '{}'                                                          |  []
+        { Reader r -> new JsonEntryReader(r) }  |  '{"s": {}, "s2": {"a": "p", "b": 12}}'                        |  [["s2", "a", "p"], ["s2", "b", "12"]]
+    }
+
+    def "check that readers throw ManagerException for malformed input"() {
+        when: "input is read"
+        EntryReader reader = createReader(new StringReader(input))
+        while (reader.next() != null) {
+        }
+
+        then: "it throws ManagerException"
+        thrown(ManagerException)
+
+        where:
+        createReader                            |  input
+        { Reader r -> new CsvEntryReader(r) }   |  "s,a\n"
+        { Reader r -> new CsvEntryReader(r) }   |  "s,a,\"p\n"
+        { Reader r -> new JsonEntryReader(r) }  |  '{"s": {"a": "p"}'
+        { Reader r -> new JsonEntryReader(r) }  |  '{"s": {"a": ["p"]}}'
+        { Reader r -> new JsonEntryReader(r) }  |  '["s"]'
+    }
+}
\ No newline at end of file
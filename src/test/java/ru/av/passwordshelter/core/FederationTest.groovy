@@ -0,0 +1,124 @@
+package ru.av.passwordshelter.core
+
+import spock.lang.Specification
+
+class FederationTest extends Specification {
+
+    File directory = File.createTempDir()
+    Federation federation = new Federation()
+
+    def cleanup() {
+        federation.close()
+        directory.deleteDir()
+    }
+
+    def "mounts vaults in parallel and reports wrong passwords per vault"() {
+        given:
+        def managers = [work: vault("work", "w"), home: vault("home", "h"), spare: vault("spare", "s")]
+
+        when:
+        def failures = federation.mount(managers, [work: Secret.of("w"), home: Secret.of("h"), spare: Secret.of("wrong")])
+
+        then:
+        federation.names == ["home", "work"]
+        failures.keySet() == ["spare"] as Set
+        failures.spare instanceof CryptException
+
+        when:
+        federation.unmount("work")
+
+        then:
+        federation.names == ["home"]
+    }
+
+    def "sources and search fan out and prefix results with the vault name"() {
+        given:
+        federation.mount([work: vault("work", "w"), home: vault("home", "h")], [work: Secret.of("w"), home: Secret.of("h")])
+
+        expect:
+        federation.sourceList == ["home/github", "home/mail", "work/github", "work/jira"]
+        federation.allAccountsMap.keySet() as List == ["home/github", "home/mail", "work/github", "work/jira"]
+        federation.search("github", 10)*.toString() == ["home/github/alice", "work/github/bob"]
+        federation.search("git", 1).size() == 1
+    }
+
+    def "passwords are routed by vault prefix and ambiguous sources are rejected"() {
+        given:
+        federation.mount([work: vault("work", "w"), home: vault("home", "h")], [work: Secret.of("w"), home: Secret.of("h")])
+
+        expect:
+        federation.getPassword("work/github", "bob") == "work-github"
+        federation.getPassword("home/github", "alice") == "home-github"
+        federation.getPassword("jira", "bob") == "work-jira"
+        federation.getAccountList("mail") == ["alice"]
+        federation.getSecret("home/mail", "alice").toChars() == "home-mail".toCharArray()
+
+        when:
+        federation.getAccountList("github")
+
+        then:
+        thrown(ManagerException)
+
+        when:
+        federation.getPassword("gitlab", "bob")
+
+        then:
+        thrown(ManagerException)
+    }
+
+    def "rejects vault names with separators"() {
+        when:
+        federation.mount(["a/b": vault("ab", "x")], ["a/b": Secret.of("x")])
+
+        then:
+        thrown(IllegalArgumentException)
+        federation.empty
+    }
+
+    def "sources with a separator that is not a vault name are searched unchanged"() {
+        given:
+        def work = vault("work", "w")
+        work.add("github.com/org", "bob", "org-password", "w")
+        federation.mount([work: work, home: vault("home", "h")], [work: Secret.of("w"), home: Secret.of("h")])
+
+        expect:
+        federation.getPassword("github.com/org", "bob") == "org-password"
+        federation.getAccountList("work/github.com/org") == ["bob"]
+    }
+
+    def "secrets found in several vaults are wiped before the ambiguity is reported"() {
+        given:
+        List<Secret> secrets = []
+        def managers = [a: Mock(Manager), b: Mock(Manager)]
+        managers.each { name, manager ->
+            Session session = Mock()
+            manager.unlock(_ as Secret) >> session
+            session.getSecret("github", "bob") >> { Secret secret = Secret.of("p"); synchronized (secrets) { secrets << secret }; secret }
+        }
+        federation.mount(managers, [a: Secret.of("a"), b: Secret.of("b")])
+
+        when:
+        federation.getSecret("github", "bob")
+
+        then:
+        thrown(ManagerException)
+        secrets.size() == 2
+        secrets.every { it.wiped }
+    }
+
+    private JsonManager vault(String name, String masterPassword) {
+        def manager = new JsonManager(new File(directory, name).path)
+        manager.keyDerivation = KeyDerivation.pbkdf2Sha256(1000)
+        manager.createFile(masterPassword)
+        def session = manager.unlock(masterPassword)
+        if (name == "work") {
+            session.add("github", "bob", "work-github")
+            session.add("jira", "bob", "work-jira")
+        } else {
+            session.add("github", "alice", "home-github")
+            session.add("mail", "alice", "home-mail")
+        }
+        session.close()
+        manager
+    }
+}
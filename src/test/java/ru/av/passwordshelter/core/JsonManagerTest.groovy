@@ -3,6 +3,11 @@ package ru.av.passwordshelter.core
 import org.json.JSONObject
 import spock.lang.Specification
 
+import java.nio.ByteBuffer
+import java.nio.charset.StandardCharsets
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
 class JsonManagerTest extends Specification {
 
     def "check that constructor sets all fields correctly"() {
@@ -26,16 +31,20 @@ class JsonManagerTest extends Specification {
         String filename = UUID.randomUUID().toString()
         Manager manager = new JsonManager(filename)
         manager.crypt = Mock(Crypt)
-        manager.fileWorker = Mock(FileWorker)
-        String encryptedFile = UUID.randomUUID().toString()
+        manager.fileWorker = mockFileWorker()
+        CryptKey key = Mock(CryptKey)
 
         when: "createFile is called"
         manager.createFile(masterPassword)
 
-        then: "it creates encrypted empty json file"
-        1 * manager.fileWorker.exists(filename) >> false
-        1 * manager.crypt.encrypt("{}", masterPassword) >> encryptedFile
-        1 * manager.fileWorker.write(encryptedFile, filename)
+        then: "it creates encrypted empty vault file"
+        2 * manager.fileWorker.exists(filename) >> false
+        1 * manager.crypt.deriveKey(Secret.of(masterPassword), _ as byte[], KeyDerivation.DEFAULT) >> key
+        1 * key.encrypt(_ as byte[]) >> { it[0] }
+        1 * manager.fileWorker.write({ byte[] content -> readFile(content) == [:] }, filename)
+
+        and: "wipes the key"
+        1 * key.wipe()
     }
 
     def "check that createFile throws IOException for existent filename"() {
@@ -44,64 +53,178 @@ class JsonManagerTest extends Specification {
         String filename = UUID.randomUUID().toString()
         Manager manager = new JsonManager(filename)
         manager.crypt = Mock(Crypt)
-        manager.fileWorker = Mock(FileWorker)
+        manager.fileWorker = mockFileWorker()
 
         when: "createFile is called"
         manager.createFile(masterPassword)
 
         then: "it does not create file"
         1 * manager.fileWorker.exists(filename) >> true
-        0 * manager.fileWorker.write(_ as String, _ as String)
+        0 * manager.fileWorker.write(_, _)
 
         and: "throws IOException"
         thrown(IOException)
     }
 
-    def "check that changeMasterPassword changes master password correctly"() {
-        given: "JsonManager object and new masterPassword"
+    def "check that changeMasterPassword re-encrypts every record into a new file with the new key"() {
+        given: "vault with records in the snapshot and in the journal"
+        File directory = File.createTempDir()
+        String filename = new File(directory, "vault").path
+        JsonManager manager = new JsonManager(filename)
+        manager.keyDerivation = KeyDerivation.pbkdf2Sha256(1000)
+        manager.rotationChunkSize = 3
+        manager.createFile("old")
+        manager.apply([Operation.add("source1", "account1", "password1"), Operation.add("source1", "account2", "password2"),
+                       Operation.add("source2", "account3", "password3")], "old")
+        (0..<7).each { manager.add("source" + it, "account", "password" + it, "old") }
+        manager.delete("source2", "account3", "old")
+        long revision = manager.getRevision("old")
+        Map<String, List<String>> accounts = manager.getAllAccountsMap("old")
+        List<List<Long>> progress = []
+
+        when: "changeMasterPassword is called"
+        manager.changeMasterPassword("old", "new", { done, total -> progress << [done, total] } as ProgressListener)
+
+        then: "every account keeps its password under the new master password"
+        manager.getAllAccountsMap("new") == accounts
+        manager.getPassword("source1", "account1", "new") == "password1"
+        (0..<7).every { manager.getPassword("source" + it, "account", "new") == "password" + it }
+        manager.getRevision("new") == revision + 1
+
+        and: "progress is reported per chunk"
+        progress == [[3L, 9L], [6L, 9L], [9L, 9L]]
+
+        and: "the rotation file is removed"
+        !new File(filename + Rotation.SUFFIX).exists()
+
+        when: "the old master password is used"
+        manager.getSourceList("old")
+
+        then: "it is rejected"
+        thrown(CryptException)
+
+        cleanup:
+        directory.deleteDir()
+    }
+
+    def "check that changeMasterPassword resumes an interrupted rotation"() {
+        given: "vault with several chunks of records"
+        File directory = File.createTempDir()
+        String filename = new File(directory, "vault").path
+        JsonManager manager = new JsonManager(filename)
+        manager.keyDerivation = KeyDerivation.pbkdf2Sha256(1000)
+        manager.rotationChunkSize = 2
+        manager.createFile("old")
+        manager.apply((0..<7).collect { Operation.add("source", "account" + it, "password" + it) }, "old")
+
+        when: "the rotation stops after the first chunk"
+        manager.changeMasterPassword("old", "new", { done, total -> throw new IllegalStateException("stop") } as ProgressListener)
+
+        then: "the vault is untouched and the rotation file keeps the done chunk"
+        thrown(IllegalStateException)
+        manager.getPassword("source", "account6", "old") == "password6"
+        new File(filename + Rotation.SUFFIX).exists()
+
+        when: "the rotation is repeated after a torn write"
+        new File(filename + Rotation.SUFFIX) << ([0, 0, 0, 2, 0, 0] as byte[])
+        List<Long> progress = []
+        manager.changeMasterPassword("old", "new", { done, total -> progress << done } as ProgressListener)
+
+        then: "it continues after the done chunk"
+        progress == [2L, 4L, 6L, 7L]
+        (0..<7).every { manager.getPassword("source", "account" + it, "new") == "password" + it }
+        !new File(filename + Rotation.SUFFIX).exists()
+
+        cleanup:
+        directory.deleteDir()
+    }
+
+    def "check that unlock upgrades text file to the binary format"() {
+        given: "JsonManager object and text file"
         String filename = UUID.randomUUID().toString()
         Manager manager = new JsonManager(filename)
         manager.crypt = Mock(Crypt)
-        manager.fileWorker = Mock(FileWorker)
-        String oldMasterPassword = UUID.randomUUID().toString()
-        String newMasterPassword = UUID.randomUUID().toString()
-        String encryptedContent = UUID.randomUUID().toString()
-        String decryptedContent = UUID.randomUUID().toString()
-        String newEncryptedContent = UUID.randomUUID().toString()
+        manager.legacyCrypt = Mock(Crypt)
+        manager.fileWorker = mockFileWorker()
+        CryptKey legacyKey = Mock(CryptKey)
+        CryptKey key = Mock(CryptKey)
+        String masterPassword = UUID.randomUUID().toString()
+        String encryptedContent = "ab12" + UUID.randomUUID().toString()
 
-        when: "changeMasterPassword is called"
-        manager.changeMasterPassword(oldMasterPassword, newMasterPassword)
+        when: "unlock is called"
+        Session session = manager.unlock(masterPassword)
 
-        then: "it changes master password"
+        then: "it decrypts the text file"
+        1 * manager.fileWorker.openInput(filename) >> new ByteArrayInputStream(encryptedContent.bytes)
+        1 * manager.legacyCrypt.deriveKey(Secret.of(masterPassword)) >> legacyKey
         1 * manager.fileWorker.read(filename) >> encryptedContent
-        1 * manager.crypt.decrypt(encryptedContent, oldMasterPassword) >> decryptedContent
-        1 * manager.crypt.encrypt(decryptedContent, newMasterPassword) >> newEncryptedContent
-        1 * manager.fileWorker.write(newEncryptedContent, filename)
+        1 * legacyKey.decrypt(encryptedContent) >> createJson().toString()
+        1 * legacyKey.wipe()
+
+        and: "writes it in the binary format"
+        1 * manager.crypt.deriveKey(Secret.of(masterPassword), _ as byte[], KeyDerivation.DEFAULT) >> key
+        _ * key.encrypt(_ as byte[]) >> { it[0] }
+        1 * manager.fileWorker.write({ byte[] content -> readFile(content) == toMap(createJson()) }, filename)
+
+        cleanup:
+        session?.close()
+    }
+
+    def "check that unlock upgrades first binary version to the indexed format"() {
+        given: "JsonManager object and file of the first binary version"
+        String filename = UUID.randomUUID().toString()
+        Manager manager = new JsonManager(filename)
+        manager.crypt = Mock(Crypt)
+        manager.legacyCrypt = Mock(Crypt)
+        manager.fileWorker = mockFileWorker()
+        CryptKey key = Mock(CryptKey)
+        String masterPassword = UUID.randomUUID().toString()
+        VaultHeader header = new VaultHeader(1, KeyDerivation.pbkdf2Sha1(1024), VaultHeader.create().salt)
+        byte[] fileContent = concat(header.toBytes(), firstVersionPayload(createJson()))
+
+        when: "unlock is called"
+        Session session = manager.unlock(masterPassword)
+
+        then: "it keeps the salt and the CBC cipher and writes the indexed format"
+        1 * manager.fileWorker.openInput(filename) >> new ByteArrayInputStream(fileContent)
+        0 * manager.crypt.deriveKey(*_)
+        1 * manager.legacyCrypt.deriveKey(Secret.of(masterPassword), header.salt, header.keyDerivation) >> key
+        1 * manager.fileWorker.readBytes(filename) >> fileContent
+        1 * key.decrypt(_ as byte[]) >> { it[0] }
+        _ * key.encrypt(_ as byte[]) >> { it[0] }
+        1 * manager.fileWorker.write({ byte[] content -> readFile(content) == toMap(createJson()) && VaultHeader.read(new ByteArrayInputStream(content)).cipher == VaultHeader.CBC }, filename)
+
+        cleanup:
+        session?.close()
     }
 
     def "check that getSourceList returns correct source list"() {
-        given: "JsonManager object and json file"
+        given: "JsonManager object and vault file"
         String filename = UUID.randomUUID().toString()
         Manager manager = new JsonManager(filename)
         manager.crypt = Mock(Crypt)
-        manager.fileWorker = Mock(FileWorker)
+        manager.fileWorker = mockFileWorker()
+        CryptKey key = Mock(CryptKey)
         String masterPassword = UUID.randomUUID().toString()
-        String encryptedContent = UUID.randomUUID().toString()
+        VaultHeader header = VaultHeader.create()
+        byte[] fileContent = toFile(header, file)
 
         when: "getSourceList is called"
         List<String> sources = manager.getSourceList(masterPassword)
 
-        then: "it reads and decrypts file"
-        1 * manager.fileWorker.read(filename) >> encryptedContent
-        1 * manager.crypt.decrypt(encryptedContent, masterPassword) >> file
+        then: "it reads and decrypts the index only"
+        2 * manager.fileWorker.openInput(filename) >> { new ByteArrayInputStream(fileContent) }
+        1 * manager.crypt.deriveKey(Secret.of(masterPassword), header.salt, header.keyDerivation) >> key
+        1 * key.decrypt(_ as byte[]) >> { it[0] }
+        0 * manager.fileWorker.readBytes(_)
 
         and: "returns correct list"
         sources == result.asList()
 
         where:
-        file          |  result
-        createJson()  |  ["source1", "source2"]
-        "{}"          |  []
+        file              |  result
+        createJson()      |  ["source1", "source2"]
+        new JSONObject()  |  []
     }
 
     def "check that getSourceList throws ManagerException for wrong file"() {
@@ -109,44 +232,50 @@ class JsonManagerTest extends Specification {
         String filename = UUID.randomUUID().toString()
         Manager manager = new JsonManager(filename)
         manager.crypt = Mock(Crypt)
-        manager.fileWorker = Mock(FileWorker)
+        manager.fileWorker = mockFileWorker()
+        CryptKey key = Mock(CryptKey)
         String masterPassword = UUID.randomUUID().toString()
-        String encryptedContent = UUID.randomUUID().toString()
+        VaultHeader header = VaultHeader.create()
+        byte[] fileContent = toFile(header, UUID.randomUUID().toString())
 
         when: "getSourceList is called"
         manager.getSourceList(masterPassword)
 
         then: "it reads and decrypts file"
-        1 * manager.fileWorker.read(filename) >> encryptedContent
-        1 * manager.crypt.decrypt(encryptedContent, masterPassword) >> UUID.randomUUID().toString()
+        2 * manager.fileWorker.openInput(filename) >> { new ByteArrayInputStream(fileContent) }
+        1 * manager.crypt.deriveKey(Secret.of(masterPassword), header.salt, header.keyDerivation) >> key
+        _ * key.decrypt(_ as byte[]) >> { it[0] }
 
         and: "throws ManagerException"
         thrown(ManagerException)
     }
 
     def "check that getAllAccountsMap returns correct map"() {
-        given: "JsonManager object and json file"
+        given: "JsonManager object and vault file"
         String filename = UUID.randomUUID().toString()
         Manager manager = new JsonManager(filename)
         manager.crypt = Mock(Crypt)
-        manager.fileWorker = Mock(FileWorker)
+        manager.fileWorker = mockFileWorker()
+        CryptKey key = Mock(CryptKey)
         String masterPassword = UUID.randomUUID().toString()
-        String encryptedContent = UUID.randomUUID().toString()
+        VaultHeader header = VaultHeader.create()
+        byte[] fileContent = toFile(header, file)
 
         when: "getAllAccountsMap is called"
         Map<String, List<String>> map = manager.getAllAccountsMap(masterPassword)
 
-        then: "it reads and decrypts file"
-        1 * manager.fileWorker.read(filename) >> encryptedContent
-        1 * manager.crypt.decrypt(encryptedContent, masterPassword) >> file
+        then: "it reads and decrypts the index only"
+        2 * manager.fileWorker.openInput(filename) >> { new ByteArrayInputStream(fileContent) }
+        1 * manager.crypt.deriveKey(Secret.of(masterPassword), header.salt, header.keyDerivation) >> key
+        1 * key.decrypt(_ as byte[]) >> { it[0] }
 
         and: "returns correct map"
         map == result
 
         where:
-        file          |  result
-        createJson()  |  ["source1":["account1", "account2"], "source2":["account3"]]
-        "{}"          |  [:]
+        file              |  result
+        createJson()      |  ["source1":["account1", "account2"], "source2":["account3"]]
+        new JSONObject()  |  [:]
     }
 
     def "check that getAllAccountsMap throws ManagerException for wrong file"() {
@@ -154,36 +283,42 @@ class JsonManagerTest extends Specification {
         String filename = UUID.randomUUID().toString()
         Manager manager = new JsonManager(filename)
         manager.crypt = Mock(Crypt)
-        manager.fileWorker = Mock(FileWorker)
+        manager.fileWorker = mockFileWorker()
+        CryptKey key = Mock(CryptKey)
         String masterPassword = UUID.randomUUID().toString()
-        String encryptedContent = UUID.randomUUID().toString()
+        VaultHeader header = VaultHeader.create()
+        byte[] fileContent = toFile(header, UUID.randomUUID().toString())
 
         when: "getAllAccountsMap is called"
         manager.getAllAccountsMap(masterPassword)
 
         then: "it reads and decrypts file"
-        1 * manager.fileWorker.read(filename) >> encryptedContent
-        1 * manager.crypt.decrypt(encryptedContent, masterPassword) >> UUID.randomUUID().toString()
+        2 * manager.fileWorker.openInput(filename) >> { new ByteArrayInputStream(fileContent) }
+        1 * manager.crypt.deriveKey(Secret.of(masterPassword), header.salt, header.keyDerivation) >> key
+        _ * key.decrypt(_ as byte[]) >> { it[0] }
 
         and: "throws ManagerException"
         thrown(ManagerException)
     }
 
     def "check that getAccountList returns correct account list"() {
-        given: "JsonManager object and json file"
+        given: "JsonManager object and vault file"
         String filename = UUID.randomUUID().toString()
         Manager manager = new JsonManager(filename)
         manager.crypt = Mock(Crypt)
-        manager.fileWorker = Mock(FileWorker)
+        manager.fileWorker = mockFileWorker()
+        CryptKey key = Mock(CryptKey)
         String masterPassword = UUID.randomUUID().toString()
-        String encryptedContent = UUID.randomUUID().toString()
+        VaultHeader header = VaultHeader.create()
+        byte[] fileContent = toFile(header, createJson())
 
         when: "getAccountList is called"
         List<String> accounts = manager.getAccountList("source1", masterPassword)
 
-        then: "it reads and decrypts file"
-        1 * manager.fileWorker.read(filename) >> encryptedContent
-        1 * manager.crypt.decrypt(encryptedContent, masterPassword) >> createJson()
+        then: "it reads and decrypts the index only"
+        2 * manager.fileWorker.openInput(filename) >> { new ByteArrayInputStream(fileContent) }
+        1 * manager.crypt.deriveKey(Secret.of(masterPassword), header.salt, header.keyDerivation) >> key
+        1 * key.decrypt(_ as byte[]) >> { it[0] }
 
         and: "returns correct list"
         accounts == ["account1", "account2"].asList()
@@ -194,16 +329,19 @@ class JsonManagerTest extends Specification {
         String filename = UUID.randomUUID().toString()
         Manager manager = new JsonManager(filename)
         manager.crypt = Mock(Crypt)
-        manager.fileWorker = Mock(FileWorker)
+        manager.fileWorker = mockFileWorker()
+        CryptKey key = Mock(CryptKey)
         String masterPassword = UUID.randomUUID().toString()
-        String encryptedContent = UUID.randomUUID().toString()
+        VaultHeader header = VaultHeader.create()
+        byte[] fileContent = toFile(header, file)
 
         when: "getAccountList is called"
         manager.getAccountList(source, masterPassword)
 
         then: "it reads and decrypts file"
-        1 * manager.fileWorker.read(filename) >> encryptedContent
-        1 * manager.crypt.decrypt(encryptedContent, masterPassword) >> file
+        2 * manager.fileWorker.openInput(filename) >> { new ByteArrayInputStream(fileContent) }
+        1 * manager.crypt.deriveKey(Secret.of(masterPassword), header.salt, header.keyDerivation) >> key
+        _ * key.decrypt(_ as byte[]) >> { it[0] }
 
         and: "throws ManagerException"
         thrown(ManagerException)
@@ -215,23 +353,33 @@ class JsonManagerTest extends Specification {
     }
 
     def "check that getPassword returns correct password"() {
-        given: "JsonManager object and json file"
+        given: "JsonManager object and vault file"
         String filename = UUID.randomUUID().toString()
         Manager manager = new JsonManager(filename)
         manager.crypt = Mock(Crypt)
-        manager.fileWorker = Mock(FileWorker)
+        manager.fileWorker = mockFileWorker()
+        CryptKey key = Mock(CryptKey)
         String masterPassword = UUID.randomUUID().toString()
-        String encryptedContent = UUID.randomUUID().toString()
+        VaultHeader header = VaultHeader.create()
+        byte[] fileContent = toFile(header, createJson())
 
-        when: "getAccountList is called"
-        String password = manager.getPassword("source1", "account1", masterPassword)
+        when: "getPassword is called"
+        String password = manager.getPassword(source, account, masterPassword)
 
-        then: "it reads and decrypts file"
-        1 * manager.fileWorker.read(filename) >> encryptedContent
-        1 * manager.crypt.decrypt(encryptedContent, masterPassword) >> createJson()
+        then: "it decrypts the index and a single record"
+        2 * manager.fileWorker.openInput(filename) >> { new ByteArrayInputStream(fileContent) }
+        1 * manager.crypt.deriveKey(Secret.of(masterPassword), header.salt, header.keyDerivation) >> key
+        2 * key.decrypt(_ as byte[]) >> { it[0] }
+        0 * manager.fileWorker.readBytes(_)
 
-        and: "returns correct list"
-        password == "password1"
+        and: "returns correct password"
+        password == result
+
+        where:
+        source     |  account     |  result
+        "source1"  |  "account1"  |  "password1"
+        "source1"  |  "account2"  |  "password2"
+        "source2"  |  "account3"  |  "password3"
     }
 
     def "check that getPassword throws ManagerException for wrong source, account or file"() {
@@ -239,16 +387,19 @@ class JsonManagerTest extends Specification {
         String filename = UUID.randomUUID().toString()
         Manager manager = new JsonManager(filename)
         manager.crypt = Mock(Crypt)
-        manager.fileWorker = Mock(FileWorker)
+        manager.fileWorker = mockFileWorker()
+        CryptKey key = Mock(CryptKey)
         String masterPassword = UUID.randomUUID().toString()
-        String encryptedContent = UUID.randomUUID().toString()
+        VaultHeader header = VaultHeader.create()
+        byte[] fileContent = toFile(header, file)
 
-        when: "getAccountList is called"
+        when: "getPassword is called"
         manager.getPassword(source, account, masterPassword)
 
         then: "it reads and decrypts file"
-        1 * manager.fileWorker.read(filename) >> encryptedContent
-        1 * manager.crypt.decrypt(encryptedContent, masterPassword) >> file
+        2 * manager.fileWorker.openInput(filename) >> { new ByteArrayInputStream(fileContent) }
+        1 * manager.crypt.deriveKey(Secret.of(masterPassword), header.salt, header.keyDerivation) >> key
+        _ * key.decrypt(_ as byte[]) >> { it[0] }
 
         and: "throws ManagerException"
         thrown(ManagerException)
@@ -261,23 +412,29 @@ class JsonManagerTest extends Specification {
     }
 
     def "check that add adds new account to the file"() {
-        given: "JsonManager object, json file and account (source, account, password)"
+        given: "JsonManager object, vault file and account (source, account, password)"
         String filename = UUID.randomUUID().toString()
         Manager manager = new JsonManager(filename)
         manager.crypt = Mock(Crypt)
-        manager.fileWorker = Mock(FileWorker)
+        manager.fileWorker = mockFileWorker()
+        CryptKey key = Mock(CryptKey)
         String masterPassword = UUID.randomUUID().toString()
-        String encryptedContent = UUID.randomUUID().toString()
-        String newEncryptedContent = UUID.randomUUID().toString()
+        VaultHeader header = VaultHeader.create()
+        byte[] fileContent = toFile(header, file)
 
         when: "add is called"
         manager.add(source, account, password, masterPassword)
 
-        then: "it adds account to the file"
-        1 * manager.fileWorker.read(filename) >> encryptedContent
-        1 * manager.crypt.decrypt(encryptedContent, masterPassword) >> file
-        1 * manager.crypt.encrypt(result.toString(), masterPassword) >> newEncryptedContent
-        1 * manager.fileWorker.write(newEncryptedContent, filename)
+        then: "it reads only the index and encrypts the new record and its journal entry"
+        2 * manager.fileWorker.openInput(filename) >> { new ByteArrayInputStream(fileContent) }
+        1 * manager.crypt.deriveKey(Secret.of(masterPassword), header.salt, header.keyDerivation) >> key
+        0 * manager.fileWorker.readBytes(_)
+        1 * key.decrypt(_ as byte[]) >> { it[0] }
+        2 * key.encrypt(_ as byte[]) >> { it[0] }
+
+        and: "appends account to the journal"
+        1 * manager.fileWorker.append({ byte[] entry -> readFile(concat(fileContent, entry)) == toMap(result) }, filename)
+        0 * manager.fileWorker.write(_, _)
 
         where:
         file          |  source     |  account  |  password  |  result
@@ -286,20 +443,27 @@ class JsonManagerTest extends Specification {
     }
 
     def "check that add throws ManagerException for existent account or wrong file"() {
-        given: "JsonManager object, json file and account (source, account, password)"
+        given: "JsonManager object, vault file and account (source, account, password)"
         String filename = UUID.randomUUID().toString()
         Manager manager = new JsonManager(filename)
         manager.crypt = Mock(Crypt)
-        manager.fileWorker = Mock(FileWorker)
+        manager.fileWorker = mockFileWorker()
+        CryptKey key = Mock(CryptKey)
         String masterPassword = UUID.randomUUID().toString()
-        String encryptedContent = UUID.randomUUID().toString()
+        VaultHeader header = VaultHeader.create()
+        byte[] fileContent = toFile(header, file)
 
         when: "add is called"
         manager.add(source, account, password, masterPassword)
 
         then: "it reads and decrypts the file"
-        1 * manager.fileWorker.read(filename) >> encryptedContent
-        1 * manager.crypt.decrypt(encryptedContent, masterPassword) >> file
+        2 * manager.fileWorker.openInput(filename) >> { new ByteArrayInputStream(fileContent) }
+        1 * manager.crypt.deriveKey(Secret.of(masterPassword), header.salt, header.keyDerivation) >> key
+        0 * manager.fileWorker.readBytes(_)
+        _ * key.decrypt(_ as byte[]) >> { it[0] }
+        _ * key.encrypt(_ as byte[]) >> { it[0] }
+        0 * manager.fileWorker.append(_, _)
+        0 * manager.fileWorker.write(_, _)
 
         and: "throws ManagerException"
         thrown(ManagerException)
@@ -311,44 +475,55 @@ class JsonManagerTest extends Specification {
     }
 
     def "check that changePassword changes passwordfor existent account"() {
-        given: "JsonManager object, json file, account and new password"
+        given: "JsonManager object, vault file, account and new password"
         String filename = UUID.randomUUID().toString()
         Manager manager = new JsonManager(filename)
         manager.crypt = Mock(Crypt)
-        manager.fileWorker = Mock(FileWorker)
+        manager.fileWorker = mockFileWorker()
+        CryptKey key = Mock(CryptKey)
         String masterPassword = UUID.randomUUID().toString()
-        String encryptedContent = UUID.randomUUID().toString()
-        String newEncryptedContent = UUID.randomUUID().toString()
+        VaultHeader header = VaultHeader.create()
+        byte[] fileContent = toFile(header, createJson())
         String source = "source1"
         String account = "account1"
         String newPassword = "new_password1"
-        String newJson = createJson().put(source, createJson().getJSONObject(source).put(account, newPassword))
+        JSONObject newJson = createJson().put(source, createJson().getJSONObject(source).put(account, newPassword))
 
         when: "changePassword is called"
         manager.changePassword(source, account, newPassword, masterPassword)
 
         then: "it changes account password"
-        1 * manager.fileWorker.read(filename) >> encryptedContent
-        1 * manager.crypt.decrypt(encryptedContent, masterPassword) >> createJson()
-        1 * manager.crypt.encrypt(newJson, masterPassword) >> newEncryptedContent
-        1 * manager.fileWorker.write(newEncryptedContent, filename)
+        2 * manager.fileWorker.openInput(filename) >> { new ByteArrayInputStream(fileContent) }
+        1 * manager.crypt.deriveKey(Secret.of(masterPassword), header.salt, header.keyDerivation) >> key
+        0 * manager.fileWorker.readBytes(_)
+        1 * key.decrypt(_ as byte[]) >> { it[0] }
+        2 * key.encrypt(_ as byte[]) >> { it[0] }
+        1 * manager.fileWorker.append({ byte[] entry -> readFile(concat(fileContent, entry)) == toMap(newJson) }, filename)
+        0 * manager.fileWorker.write(_, _)
     }
 
     def "check that changePassword throws ManagerException for nonexistent account or wrong file"() {
-        given: "JsonManager object, json file, account and new password"
+        given: "JsonManager object, vault file, account and new password"
         String filename = UUID.randomUUID().toString()
         Manager manager = new JsonManager(filename)
         manager.crypt = Mock(Crypt)
-        manager.fileWorker = Mock(FileWorker)
+        manager.fileWorker = mockFileWorker()
+        CryptKey key = Mock(CryptKey)
         String masterPassword = UUID.randomUUID().toString()
-        String encryptedContent = UUID.randomUUID().toString()
+        VaultHeader header = VaultHeader.create()
+        byte[] fileContent = toFile(header, file)
 
         when: "changePassword is called"
         manager.changePassword(source, account, newPassword, masterPassword)
 
         then: "it reads and decrypts the file"
-        1 * manager.fileWorker.read(filename) >> encryptedContent
-        1 * manager.crypt.decrypt(encryptedContent, masterPassword) >> file
+        2 * manager.fileWorker.openInput(filename) >> { new ByteArrayInputStream(fileContent) }
+        1 * manager.crypt.deriveKey(Secret.of(masterPassword), header.salt, header.keyDerivation) >> key
+        0 * manager.fileWorker.readBytes(_)
+        _ * key.decrypt(_ as byte[]) >> { it[0] }
+        _ * key.encrypt(_ as byte[]) >> { it[0] }
+        0 * manager.fileWorker.append(_, _)
+        0 * manager.fileWorker.write(_, _)
 
         and: "throws ManagerException"
         thrown(ManagerException)
@@ -361,23 +536,27 @@ class JsonManagerTest extends Specification {
     }
 
     def "check that delete deletes account from the file"() {
-        given: "JsonManager object, json file and account"
+        given: "JsonManager object, vault file and account"
         String filename = UUID.randomUUID().toString()
         Manager manager = new JsonManager(filename)
         manager.crypt = Mock(Crypt)
-        manager.fileWorker = Mock(FileWorker)
+        manager.fileWorker = mockFileWorker()
+        CryptKey key = Mock(CryptKey)
         String masterPassword = UUID.randomUUID().toString()
-        String encryptedContent = UUID.randomUUID().toString()
-        String newEncryptedContent = UUID.randomUUID().toString()
+        VaultHeader header = VaultHeader.create()
+        byte[] fileContent = toFile(header, file)
 
         when: "delete is called"
         manager.delete(source, account, masterPassword)
 
-        then: "it adds account to the file"
-        1 * manager.fileWorker.read(filename) >> encryptedContent
-        1 * manager.crypt.decrypt(encryptedContent, masterPassword) >> file
-        1 * manager.crypt.encrypt(result.toString(), masterPassword) >> newEncryptedContent
-        1 * manager.fileWorker.write(newEncryptedContent, filename)
+        then: "it deletes account from the file"
+        2 * manager.fileWorker.openInput(filename) >> { new ByteArrayInputStream(fileContent) }
+        1 * manager.crypt.deriveKey(Secret.of(masterPassword), header.salt, header.keyDerivation) >> key
+        0 * manager.fileWorker.readBytes(_)
+        1 * key.decrypt(_ as byte[]) >> { it[0] }
+        1 * key.encrypt(_ as byte[]) >> { it[0] }
+        1 * manager.fileWorker.append({ byte[] entry -> readFile(concat(fileContent, entry)) == toMap(result) }, filename)
+        0 * manager.fileWorker.write(_, _)
 
         where:
         file          |  source     |  account     |  result
@@ -386,20 +565,26 @@ class JsonManagerTest extends Specification {
     }
 
     def "check that delete throws ManagerException for nonexistent account or wrong file"() {
-        given: "JsonManager object, json file and account"
+        given: "JsonManager object, vault file and account"
         String filename = UUID.randomUUID().toString()
         Manager manager = new JsonManager(filename)
         manager.crypt = Mock(Crypt)
-        manager.fileWorker = Mock(FileWorker)
+        manager.fileWorker = mockFileWorker()
+        CryptKey key = Mock(CryptKey)
         String masterPassword = UUID.randomUUID().toString()
-        String encryptedContent = UUID.randomUUID().toString()
+        VaultHeader header = VaultHeader.create()
+        byte[] fileContent = toFile(header, file)
 
         when: "delete is called"
         manager.delete(source, account, masterPassword)
 
         then: "it reads and decrypts the file"
-        1 * manager.fileWorker.read(filename) >> encryptedContent
-        1 * manager.crypt.decrypt(encryptedContent, masterPassword) >> file
+        2 * manager.fileWorker.openInput(filename) >> { new ByteArrayInputStream(fileContent) }
+        1 * manager.crypt.deriveKey(Secret.of(masterPassword), header.salt, header.keyDerivation) >> key
+        0 * manager.fileWorker.readBytes(_)
+        _ * key.decrypt(_ as byte[]) >> { it[0] }
+        0 * manager.fileWorker.append(_, _)
+        0 * manager.fileWorker.write(_, _)
 
         and: "throws ManagerException"
         thrown(ManagerException)
@@ -411,6 +596,664 @@ class JsonManagerTest extends Specification {
         UUID.randomUUID().toString()  |  "source1"       |  "account1"
     }
 
+    def "check that read operations replay the journal over the snapshot"() {
+        given: "JsonManager object and vault file with journal entries"
+        String filename = UUID.randomUUID().toString()
+        Manager manager = new JsonManager(filename)
+        manager.crypt = Mock(Crypt)
+        manager.fileWorker = mockFileWorker()
+        CryptKey key = Mock(CryptKey)
+        String masterPassword = UUID.randomUUID().toString()
+        VaultHeader header = VaultHeader.create()
+        byte[] fileContent = [entry(Journal.CHANGE, "source1", "account1", "new_password1"),
+                              entry(Journal.DELETE, "source2", "account3", null),
+                              entry(Journal.ADD, "source3", "account4", "password4")]
+                .inject(toFile(header, createJson())) { content, entry -> concat(content, entry) }
+
+        when: "read operations are called"
+        Session session = manager.unlock(masterPassword)
+        Map<String, List<String>> map = session.getAllAccountsMap()
+        String changed = session.getPassword("source1", "account1")
+        String added = session.getPassword("source3", "account4")
+        String stored = session.getPassword("source1", "account2")
+
+        then: "it decrypts the index and the journal on every read"
+        5 * manager.fileWorker.openInput(filename) >> { new ByteArrayInputStream(fileContent) }
+        1 * manager.crypt.deriveKey(Secret.of(masterPassword), header.salt, header.keyDerivation) >> key
+        19 * key.decrypt(_ as byte[]) >> { it[0] }
+        0 * manager.fileWorker.readBytes(_)
+
+        and: "returns the journaled state"
+        map == ["source1":["account1", "account2"], "source3":["account4"]]
+        changed == "new_password1"
+        added == "password4"
+        stored == "password2"
+
+        cleanup:
+        session?.close()
+    }
+
+    def "check that add compacts the journal when it passes the threshold"() {
+        given: "JsonManager object with zero compaction threshold"
+        String filename = UUID.randomUUID().toString()
+        Manager manager = new JsonManager(filename)
+        manager.crypt = Mock(Crypt)
+        manager.fileWorker = mockFileWorker()
+        manager.setCompactionThreshold(0)
+        CryptKey key = Mock(CryptKey)
+        String masterPassword = UUID.randomUUID().toString()
+        VaultHeader header = VaultHeader.create()
+        byte[] fileContent = concat(toFile(header, createJson()), entry(Journal.DELETE, "source2", "account3", null))
+        byte[] appended = null
+        JSONObject newJson = createJson().put("source2", new JSONObject().put("a1", "p1"))
+
+        when: "add is called"
+        manager.add("source2", "a1", "p1", masterPassword)
+
+        then: "it appends the journal entry"
+        2 * manager.fileWorker.openInput(filename) >> { new ByteArrayInputStream(fileContent) }
+        1 * manager.crypt.deriveKey(Secret.of(masterPassword), header.salt, header.keyDerivation) >> key
+        _ * key.decrypt(_ as byte[]) >> { it[0] }
+        _ * key.encrypt(_ as byte[]) >> { it[0] }
+        1 * manager.fileWorker.append(_ as byte[], filename) >> { appended = it[0] }
+
+        and: "folds the journal into a new snapshot before the key is wiped"
+        1 * manager.fileWorker.openInput(filename) >> { new ByteArrayInputStream(concat(fileContent, appended)) }
+        1 * manager.fileWorker.write({ byte[] content -> content == toFile(header.withRevision(2), newJson) }, filename)
+
+        then:
+        1 * key.wipe()
+    }
+
+    def "check that add rewrites the snapshot after an interrupted append"() {
+        given: "JsonManager object and vault file with a torn journal entry"
+        String filename = UUID.randomUUID().toString()
+        Manager manager = new JsonManager(filename)
+        manager.crypt = Mock(Crypt)
+        manager.fileWorker = mockFileWorker()
+        CryptKey key = Mock(CryptKey)
+        String masterPassword = UUID.randomUUID().toString()
+        VaultHeader header = VaultHeader.create()
+        byte[] torn = entry(Journal.DELETE, "source2", "account3", null)
+        byte[] fileContent = concat(toFile(header, createJson()), Arrays.copyOf(torn, torn.length - 1))
+        JSONObject newJson = createJson().put("s1", new JSONObject().put("a1", "p1"))
+
+        when: "add is called"
+        manager.add("s1", "a1", "p1", masterPassword)
+
+        then: "it ignores the torn entry and writes a new snapshot"
+        3 * manager.fileWorker.openInput(filename) >> { new ByteArrayInputStream(fileContent) }
+        1 * manager.crypt.deriveKey(Secret.of(masterPassword), header.salt, header.keyDerivation) >> key
+        0 * manager.fileWorker.readBytes(_)
+        _ * key.decrypt(_ as byte[]) >> { it[0] }
+        _ * key.encrypt(_ as byte[]) >> { it[0] }
+        0 * manager.fileWorker.append(_, _)
+        1 * manager.fileWorker.write({ byte[] content -> content == toFile(header.withRevision(1), newJson) }, filename)
+    }
+
+    def "check that apply applies all operations with one read and one write"() {
+        given: "JsonManager object, vault file with journal and operations"
+        String filename = UUID.randomUUID().toString()
+        Manager manager = new JsonManager(filename)
+        manager.crypt = Mock(Crypt)
+        manager.fileWorker = mockFileWorker()
+        CryptKey key = Mock(CryptKey)
+        String masterPassword = UUID.randomUUID().toString()
+        VaultHeader header = VaultHeader.create()
+        byte[] fileContent = concat(toFile(header, createJson()), entry(Journal.DELETE, "source2", "account3", null))
+        List<Operation> operations = [Operation.add("s1", "a1", "p1"),
+                                      Operation.change("s1", "a1", "p2"),
+                                      Operation.change("source1", "account1", "new_password1"),
+                                      Operation.delete("source1", "account2")]
+        JSONObject newJson = new JSONObject()
+                .put("s1", new JSONObject().put("a1", "p2"))
+                .put("source1", new JSONObject().put("account1", "new_password1"))
+
+        when: "apply is called"
+        List<OperationResult> results = manager.apply(operations, masterPassword)
+
+        then: "it reads the file once"
+        2 * manager.fileWorker.openInput(filename) >> { new ByteArrayInputStream(fileContent) }
+        1 * manager.crypt.deriveKey(Secret.of(masterPassword), header.salt, header.keyDerivation) >> key
+        0 * manager.fileWorker.readBytes(_)
+        _ * key.decrypt(_ as byte[]) >> { it[0] }
+        4 * key.encrypt(_ as byte[]) >> { it[0] }
+
+        and: "writes one snapshot with all operations"
+        1 * manager.fileWorker.write({ byte[] content -> content == toFile(header.withRevision(2), newJson) }, filename)
+        0 * manager.fileWorker.append(_, _)
+
+        and: "reports every operation as applied"
+        results*.applied == [true, true, true, true]
+        results*.error == [null, null, null, null]
+        results*.operation == operations
+    }
+
+    def "check that apply applies nothing when any operation is invalid"() {
+        given: "JsonManager object, vault file and operations with invalid ones"
+        String filename = UUID.randomUUID().toString()
+        Manager manager = new JsonManager(filename)
+        manager.crypt = Mock(Crypt)
+        manager.fileWorker = mockFileWorker()
+        CryptKey key = Mock(CryptKey)
+        String masterPassword = UUID.randomUUID().toString()
+        VaultHeader header = VaultHeader.create()
+        byte[] fileContent = toFile(header, createJson())
+        List<Operation> operations = [Operation.add("s1", "a1", "p1"),
+                                      Operation.add("source1", "account1", "p1"),
+                                      Operation.delete("source2", "a1")]
+
+        when: "apply is called"
+        List<OperationResult> results = manager.apply(operations, masterPassword)
+
+        then: "it does not touch the file"
+        2 * manager.fileWorker.openInput(filename) >> { new ByteArrayInputStream(fileContent) }
+        1 * manager.crypt.deriveKey(Secret.of(masterPassword), header.salt, header.keyDerivation) >> key
+        0 * manager.fileWorker.readBytes(_)
+        _ * key.decrypt(_ as byte[]) >> { it[0] }
+        _ * key.encrypt(_ as byte[]) >> { it[0] }
+        0 * manager.fileWorker.write(_, _)
+        0 * manager.fileWorker.append(_, _)
+
+        and: "reports the reason for every operation"
+        results*.applied == [false, false, false]
+        results*.error == ["Not applied, another operation in the batch failed", "Account already exists", "Unknown account: a1"]
+    }
+
+    def "check that importEntries adds all entries with one read and one write"() {
+        given: "JsonManager object, vault file and csv input"
+        String filename = UUID.randomUUID().toString()
+        Manager manager = new JsonManager(filename)
+        manager.crypt = Mock(Crypt)
+        manager.fileWorker = mockFileWorker()
+        CryptKey key = Mock(CryptKey)
+        String masterPassword = UUID.randomUUID().toString()
+        VaultHeader header = VaultHeader.create()
+        byte[] fileContent = toFile(header, createJson())
+        EntryReader reader = new CsvEntryReader(new StringReader(input))
+        List<Long> progress = []
+
+        when: "importEntries is called"
+        long count = manager.importEntries(reader, { done, total -> progress << done } as ProgressListener, masterPassword)
+
+        then: "it reads the file once"
+        2 * manager.fileWorker.openInput(filename) >> { new ByteArrayInputStream(fileContent) }
+        1 * manager.crypt.deriveKey(Secret.of(masterPassword), header.salt, header.keyDerivation) >> key
+        0 * manager.fileWorker.readBytes(_)
+        _ * key.decrypt(_ as byte[]) >> { it[0] }
+        _ * key.encrypt(_ as byte[]) >> { it[0] }
+
+        and: "writes one snapshot with imported entries"
+        1 * manager.fileWorker.write({ byte[] content -> readFile(content) == toMap(result) }, filename)
+
+        and: "reports progress"
+        count == 2
+        progress == [1L, 2L]
+
+        where:
+        input                                               |  result
+        "source,account,password\ns1,a1,p1\ns1,a2,p2\n"  |  createJson().put("s1", new JSONObject().put("a1", "p1").put("a2", "p2"))
+    }
+
+    def "check that importEntries imports nothing when an entry is invalid"() {
+        given: "JsonManager object, vault file and csv input with existent account"
+        String filename = UUID.randomUUID().toString()
+        Manager manager = new JsonManager(filename)
+        manager.crypt = Mock(Crypt)
+        manager.fileWorker = mockFileWorker()
+        CryptKey key = Mock(CryptKey)
+        String masterPassword = UUID.randomUUID().toString()
+        VaultHeader header = VaultHeader.create()
+        byte[] fileContent = toFile(header, createJson())
+        EntryReader reader = new CsvEntryReader(new StringReader("s1,a1,p1\nsource1,account1,p2\n"))
+
+        when: "importEntries is called"
+        manager.importEntries(reader, null, masterPassword)
+
+        then: "it does not write the file"
+        2 * manager.fileWorker.openInput(filename) >> { new ByteArrayInputStream(fileContent) }
+        1 * manager.crypt.deriveKey(Secret.of(masterPassword), header.salt, header.keyDerivation) >> key
+        0 * manager.fileWorker.readBytes(_)
+        _ * key.decrypt(_ as byte[]) >> { it[0] }
+        _ * key.encrypt(_ as byte[]) >> { it[0] }
+        0 * manager.fileWorker.write(_, _)
+
+        and: "throws ManagerException with the entry number"
+        ManagerException e = thrown()
+        e.message.startsWith("Entry 2")
+    }
+
+    def "check that importEntries of an empty input keeps the vault and its revision"() {
+        given: "JsonManager object, vault file and csv input without entries"
+        String filename = UUID.randomUUID().toString()
+        Manager manager = new JsonManager(filename)
+        manager.crypt = Mock(Crypt)
+        manager.fileWorker = mockFileWorker()
+        CryptKey key = Mock(CryptKey)
+        String masterPassword = UUID.randomUUID().toString()
+        VaultHeader header = VaultHeader.create()
+        byte[] fileContent = toFile(header, createJson())
+        EntryReader reader = new CsvEntryReader(new StringReader("source,account,password\n"))
+
+        when: "importEntries is called"
+        long count = manager.importEntries(reader, null, masterPassword)
+
+        then: "it does not write the file"
+        2 * manager.fileWorker.openInput(filename) >> { new ByteArrayInputStream(fileContent) }
+        1 * manager.crypt.deriveKey(Secret.of(masterPassword), header.salt, header.keyDerivation) >> key
+        _ * key.decrypt(_ as byte[]) >> { it[0] }
+        0 * manager.fileWorker.write(_, _)
+        0 * manager.fileWorker.openOutput(_)
+
+        and: "reports nothing imported"
+        count == 0
+    }
+
+    def "check that exportEntries writes every account with its password"() {
+        given: "JsonManager object and vault file with journal"
+        String filename = UUID.randomUUID().toString()
+        Manager manager = new JsonManager(filename)
+        manager.crypt = Mock(Crypt)
+        manager.fileWorker = mockFileWorker()
+        CryptKey key = Mock(CryptKey)
+        String masterPassword = UUID.randomUUID().toString()
+        VaultHeader header = VaultHeader.create()
+        byte[] fileContent = [entry(Journal.CHANGE, "source2", "account3", "new_password3"),
+                              entry(Journal.DELETE, "source1", "account1", null),
+                              entry(Journal.ADD, "source3", "account4", "password4")]
+                .inject(toFile(header, createJson())) { content, entry -> concat(content, entry) }
+        StringWriter out = new StringWriter()
+        List<List<Long>> progress = []
+
+        when: "exportEntries is called"
+        EntryWriter writer = new CsvEntryWriter(out)
+        long count = manager.exportEntries(writer, { done, total -> progress << [done, total] } as ProgressListener, masterPassword)
+        writer.close()
+
+        then: "it decrypts the index once and streams stored records from a second pass"
+        3 * manager.fileWorker.openInput(filename) >> { new ByteArrayInputStream(fileContent) }
+        1 * manager.crypt.deriveKey(Secret.of(masterPassword), header.salt, header.keyDerivation) >> key
+        0 * manager.fileWorker.readBytes(_)
+        7 * key.decrypt(_ as byte[]) >> { it[0] }
+        0 * manager.fileWorker.write(_, _)
+
+        and: "writes all accounts"
+        count == 3
+        out.toString() == "source,account,password\nsource1,account2,password2\nsource2,account3,new_password3\nsource3,account4,password4\n"
+        progress == [[1L, 3L], [2L, 3L], [3L, 3L]]
+    }
+
+    def "check that apply with expected revision throws RevisionConflictException for stale revision"() {
+        given: "JsonManager object and vault file with two journal entries"
+        String filename = UUID.randomUUID().toString()
+        Manager manager = new JsonManager(filename)
+        manager.crypt = Mock(Crypt)
+        manager.fileWorker = mockFileWorker()
+        CryptKey key = Mock(CryptKey)
+        String masterPassword = UUID.randomUUID().toString()
+        VaultHeader header = VaultHeader.create().withRevision(5)
+        byte[] fileContent = concat(concat(toFile(header, createJson()),
+                entry(Journal.DELETE, "source2", "account3", null)),
+                entry(Journal.ADD, "s1", "a1", "p1"))
+
+        when: "revision is read and apply is called with stale revision"
+        Session session = manager.unlock(masterPassword)
+        long revision = session.getRevision()
+        session.apply([Operation.delete("s1", "a1")], revision - 1)
+
+        then: "it reads the file"
+        _ * manager.fileWorker.openInput(filename) >> { new ByteArrayInputStream(fileContent) }
+        1 * manager.crypt.deriveKey(Secret.of(masterPassword), header.salt, header.keyDerivation) >> key
+        0 * manager.fileWorker.readBytes(_)
+        _ * key.decrypt(_ as byte[]) >> { it[0] }
+        _ * key.encrypt(_ as byte[]) >> { it[0] }
+
+        and: "revision counts journal entries"
+        revision == 7
+
+        and: "it does not write the file and throws RevisionConflictException"
+        0 * manager.fileWorker.write(_, _)
+        RevisionConflictException e = thrown()
+        e.expectedRevision == 6
+        e.actualRevision == 7
+
+        cleanup:
+        session?.close()
+    }
+
+    def "check that concurrent writers through separate managers do not lose updates"() {
+        given: "vault file on disk"
+        File directory = File.createTempDir()
+        String filename = new File(directory, "vault").path
+        String masterPassword = UUID.randomUUID().toString()
+        new JsonManager(filename).createFile(masterPassword)
+        int threads = 4
+        int writes = 25
+
+        when: "several threads add accounts at the same time"
+        List<Thread> workers = (0..<threads).collect { int t ->
+            Thread.start {
+                JsonManager manager = new JsonManager(filename)
+                manager.setCompactionThreshold(1024)
+                manager.unlock(masterPassword).withCloseable { Session session ->
+                    (0..<writes).each { session.add("source" + t, "account" + it, "password" + it) }
+                }
+            }
+        }
+        workers*.join()
+
+        then: "all accounts are in the vault"
+        JsonManager manager = new JsonManager(filename)
+        manager.getAllAccountsMap(masterPassword).collectEntries { [(it.key): it.value.size()] } ==
+                (0..<threads).collectEntries { [("source" + it): writes] }
+        manager.getRevision(masterPassword) == threads * writes
+
+        cleanup:
+        directory.deleteDir()
+    }
+
+    def "check that the index is deflated above the compression threshold"() {
+        given: "vault with repetitive source names"
+        File directory = File.createTempDir()
+        String filename = new File(directory, "vault").path
+        JsonManager manager = new JsonManager(filename)
+        manager.keyDerivation = KeyDerivation.pbkdf2Sha256(1000)
+        manager.compressionThreshold = threshold
+        manager.createFile("master")
+        manager.apply((0..<500).collect { Operation.add("source" + it % 20, "account" + it + "@example.com", "password" + it) }, "master")
+
+        when: "the header is read back"
+        VaultHeader header = new File(filename).withInputStream { VaultHeader.read(it) }
+
+        then: "compression is recorded and the data reads back"
+        header.compression == compression
+        manager.getPassword("source7", "account7@example.com", "master") == "password7"
+        manager.getAccountList("source0", "master").size() == 25
+
+        when: "the master password is changed"
+        manager.changeMasterPassword("master", "other")
+
+        then: "the rotated file keeps the same compression"
+        new File(filename).withInputStream { VaultHeader.read(it) }.compression == compression
+        manager.getPassword("source7", "account7@example.com", "other") == "password7"
+
+        cleanup:
+        directory.deleteDir()
+
+        where:
+        threshold         | compression
+        1024              | VaultHeader.DEFLATE
+        Integer.MAX_VALUE | VaultHeader.NO_COMPRESSION
+    }
+
+    def "check that secrets are stored and read back without String passwords"() {
+        given: "vault file on disk unlocked with a secret"
+        File directory = File.createTempDir()
+        String filename = new File(directory, "vault").path
+        JsonManager manager = new JsonManager(filename)
+        manager.setKeyDerivation(KeyDerivation.pbkdf2Sha256(1000))
+        Secret masterPassword = Secret.of("master".toCharArray())
+        manager.createFile(masterPassword)
+        Session session = manager.unlock(masterPassword)
+
+        when: "accounts are added and changed with secrets"
+        session.add("github", "alice", Secret.of("пароль1".toCharArray()))
+        session.add("github", "bob", "password2")
+        session.changePassword("github", "bob", Secret.of("password3".toCharArray()))
+        Secret alice = session.getSecret("github", "alice")
+        Secret bob = session.getSecret("github", "bob")
+
+        then: "secrets round trip through String and Secret readers"
+        new String(alice.toChars()) == "пароль1"
+        session.getPassword("github", "alice") == "пароль1"
+        bob.contentEquals(Secret.of("password3"))
+        manager.getPassword("github", "bob", "master") == "password3"
+
+        when: "a secret is wiped"
+        alice.wipe()
+        alice.toBytes()
+
+        then: "it can not be read anymore"
+        thrown(IllegalStateException)
+
+        cleanup:
+        session?.close()
+        masterPassword?.wipe()
+        directory.deleteDir()
+    }
+
+    def "check that lock waits for running operations before wiping the key"() {
+        given: "session with an operation holding the key"
+        File directory = File.createTempDir()
+        JsonManager manager = new JsonManager(new File(directory, "vault").path)
+        manager.setKeyDerivation(KeyDerivation.pbkdf2Sha256(1000))
+        manager.createFile("master")
+        JsonSession session = (JsonSession) manager.unlock("master")
+        CountDownLatch started = new CountDownLatch(1)
+        CountDownLatch release = new CountDownLatch(1)
+        byte[] encrypted = null
+        Thread operation = Thread.start {
+            encrypted = session.withKey({ CryptKey key ->
+                started.countDown()
+                release.await()
+                key.encrypt("password".bytes)
+            } as JsonSession.KeyCall)
+        }
+        started.await()
+
+        when: "session is locked while the operation runs"
+        Thread locker = Thread.start { session.lock() }
+        locker.join(300)
+
+        then: "lock waits"
+        locker.alive
+        !session.locked
+
+        when: "the operation finishes"
+        release.countDown()
+        operation.join()
+        locker.join()
+
+        then: "it used the key before it was wiped"
+        encrypted != null
+        session.locked
+
+        cleanup:
+        directory.deleteDir()
+    }
+
+    def "check that unlock derives the key once for all session operations"() {
+        given: "JsonManager object and vault file"
+        String filename = UUID.randomUUID().toString()
+        Manager manager = new JsonManager(filename)
+        manager.crypt = Mock(Crypt)
+        manager.fileWorker = mockFileWorker()
+        CryptKey key = Mock(CryptKey)
+        String masterPassword = UUID.randomUUID().toString()
+        VaultHeader header = VaultHeader.create()
+        byte[] fileContent = toFile(header, createJson())
+
+        when: "several operations are called on one session"
+        Session session = manager.unlock(masterPassword)
+        List<String> sources = session.getSourceList()
+        String password = session.getPassword("source1", "account1")
+
+        then: "key is derived only once"
+        3 * manager.fileWorker.openInput(filename) >> { new ByteArrayInputStream(fileContent) }
+        1 * manager.crypt.deriveKey(Secret.of(masterPassword), header.salt, header.keyDerivation) >> key
+        3 * key.decrypt(_ as byte[]) >> { it[0] }
+
+        and: "results are correct"
+        sources == ["source1", "source2"]
+        password == "password1"
+
+        cleanup:
+        session?.close()
+    }
+
+    def "check that lock wipes the key and locked session throws CryptException"() {
+        given: "unlocked session"
+        String filename = UUID.randomUUID().toString()
+        Manager manager = new JsonManager(filename)
+        manager.crypt = Mock(Crypt)
+        manager.fileWorker = mockFileWorker()
+        CryptKey key = Mock(CryptKey)
+        manager.fileWorker.openInput(filename) >> new ByteArrayInputStream(VaultHeader.create().toBytes())
+        manager.crypt.deriveKey(_ as Secret, _ as byte[], _ as KeyDerivation) >> key
+        Session session = manager.unlock(UUID.randomUUID().toString())
+
+        when: "session is locked"
+        session.lock()
+
+        then: "key is wiped"
+        1 * key.wipe()
+        session.isLocked()
+
+        when: "operation is called"
+        session.getSourceList()
+
+        then: "it does not touch the file"
+        0 * manager.fileWorker.openInput(_ as String)
+
+        and: "throws CryptException"
+        thrown(CryptException)
+    }
+
+    def "check that session is locked after idle timeout"() {
+        given: "JsonManager object with short idle timeout"
+        Manager manager = new JsonManager(UUID.randomUUID().toString())
+        manager.crypt = Mock(Crypt)
+        manager.fileWorker = mockFileWorker()
+        CryptKey key = Mock(CryptKey)
+        manager.fileWorker.openInput(_ as String) >> new ByteArrayInputStream(VaultHeader.create().toBytes())
+        manager.crypt.deriveKey(_ as Secret, _ as byte[], _ as KeyDerivation) >> key
+        manager.setIdleTimeout(50, TimeUnit.MILLISECONDS)
+
+        when: "session is idle longer than timeout"
+        Session session = manager.unlock(UUID.randomUUID().toString())
+        Thread.sleep(300)
+
+        then: "it is locked and the key is wiped"
+        session.isLocked()
+        1 * key.wipe()
+    }
+
+    def "check that journal entries with impossible lengths are treated as a torn tail"() {
+        given: "vault with one journal entry followed by a corrupt frame"
+        Vault vault = Vault.encrypt(toMap(createJson()), identityKey())
+        byte[] added = entry(Journal.ADD, "s1", "a1", "p1")
+        byte[] corrupt = new byte[8]
+        ByteBuffer.wrap(corrupt).putInt(length)
+
+        when: "journal is read"
+        Journal journal = Journal.read(new ByteArrayInputStream(concat(added, corrupt)), vault, identityKey())
+
+        then: "the valid entry is applied and the rest is ignored without allocating it"
+        !journal.complete
+        journal.length == added.length
+        vault.getAccountList("s1") == ["a1"]
+
+        where:
+        length << [Integer.MAX_VALUE, 64 * 1024 * 1024, -1, 100]
+    }
+
+    def "check that journal record length beyond its entry is reported as corrupt"() {
+        given: "journal entry whose record length is larger than the entry"
+        ByteArrayOutputStream plain = new ByteArrayOutputStream()
+        new DataOutputStream(plain).with {
+            writeByte(Journal.ADD)
+            writeUTF("s1")
+            writeUTF("a1")
+            writeInt(Integer.MAX_VALUE)
+        }
+        ByteArrayOutputStream frame = new ByteArrayOutputStream()
+        new DataOutputStream(frame).with {
+            writeInt(plain.size())
+            write(plain.toByteArray())
+        }
+
+        when: "journal is read"
+        Journal.read(new ByteArrayInputStream(frame.toByteArray()), Vault.encrypt(toMap(createJson()), identityKey()), identityKey())
+
+        then: "it throws ManagerException"
+        ManagerException e = thrown()
+        e.message == "Wrong journal record length: 2147483647"
+    }
+
+    FileWorker mockFileWorker() {
+        Map<String, ByteArrayOutputStream> outputs = [:]
+        FileWorker fileWorker
+        fileWorker = Mock(FileWorker) {
+            lock(_ as String, _ as Boolean) >> Stub(Closeable)
+            openOutput(_ as String) >> { String name -> outputs[name] = new ByteArrayOutputStream() }
+            move(_ as String, _ as String) >> { String source, String target -> fileWorker.write(outputs.remove(source).toByteArray(), target) }
+        }
+        return fileWorker
+    }
+
+    byte[] toFile(VaultHeader header, Object file) {
+        if (!(file instanceof JSONObject)) {
+            return concat(header.toBytes(), file.toString().bytes)
+        }
+        Vault vault = Vault.encrypt(Vault.parseJson(file.toString()), identityKey())
+        ByteArrayOutputStream content = new ByteArrayOutputStream()
+        DataOutputStream data = new DataOutputStream(content)
+        byte[] index = vault.toIndex()
+        data.write(header.toBytes())
+        data.writeInt(index.length)
+        data.write(index)
+        vault.writeRecords(data)
+        return content.toByteArray()
+    }
+
+    Map<String, Map<String, String>> readFile(byte[] content) {
+        ByteArrayInputStream input = new ByteArrayInputStream(content)
+        assert VaultHeader.read(input) != null
+        DataInputStream data = new DataInputStream(input)
+        byte[] index = new byte[data.readInt()]
+        data.readFully(index)
+        Vault vault = Vault.fromIndex(index)
+        vault.readRecords(input)
+        Journal.read(input, vault, identityKey())
+        return vault.getAllAccountsMap().collectEntries { source, accounts ->
+            [(source): accounts.collectEntries { [(it): new String(vault.getRecord(source, it).content, StandardCharsets.UTF_8)] }]
+        }
+    }
+
+    Map<String, Map<String, String>> toMap(JSONObject json) {
+        return Vault.parseJson(json.toString())
+    }
+
+    byte[] firstVersionPayload(JSONObject json) {
+        ByteArrayOutputStream content = new ByteArrayOutputStream()
+        DataOutputStream data = new DataOutputStream(content)
+        Map<String, Map<String, String>> map = toMap(json)
+        data.writeInt(map.size())
+        map.each { source, accounts ->
+            data.writeUTF(source)
+            data.writeInt(accounts.size())
+            accounts.each { account, password ->
+                data.writeUTF(account)
+                data.writeUTF(password)
+            }
+        }
+        return content.toByteArray()
+    }
+
+    CryptKey identityKey() {
+        return [encrypt: { it }, decrypt: { it }, wipe: {}] as CryptKey
+    }
+
+    byte[] entry(int operation, String source, String account, String password) {
+        return Journal.entry(operation, source, account, password?.getBytes(StandardCharsets.UTF_8), identityKey())
+    }
+
+    byte[] concat(byte[] first, byte[] second) {
+        byte[] content = Arrays.copyOf(first, first.length + second.length)
+        System.arraycopy(second, 0, content, first.length, second.length)
+        return content
+    }
+
     JSONObject createJson() {
         return new JSONObject()
                 .put("source1", new JSONObject()
@@ -0,0 +1,116 @@
+package ru.av.passwordshelter.core
+
+import org.springframework.security.crypto.codec.Hex
+import spock.lang.Specification
+
+import java.nio.charset.StandardCharsets
+
+class KeyDerivationTest extends Specification {
+
+    def "scrypt matches the RFC 7914 test vectors"() {
+        expect:
+        new String(Hex.encode(Scrypt.derive(password.toCharArray(), salt.getBytes(StandardCharsets.UTF_8), n, r, p, 64))) == expected
+
+        where:
+        password        | salt             | n     | r | p  | expected
+        "password"      | "NaCl"           | 1024  | 8 | 16 | "fdbabe1c9d3472007856e7190d01e9fe7c6ad7cbc8237830e77376634b3731622eaf30d92e22a3886ff109279d9830dac727afb94a83ee6d8360cbdfa2cc0640"
+        "pleaseletmein" | "SodiumChloride" | 16384 | 8 | 1  | "7023bdcb3afd7348461c06cd81fd38ebfda8fbba904f8e3ea9b543f6545da1f2d5432955613f0fcf62d49705242a9af9e61e85dc0d651e40dfcf017b45575887"
+    }
+
+    def "PBKDF2-SHA256 matches the RFC 7914 test vector"() {
+        expect:
+        new String(Hex.encode(KeyDerivation.pbkdf2Sha256(1).derive("passwd", "salt".getBytes(StandardCharsets.UTF_8), 64))) ==
+                "55ac046e56e3089fec1691c22544b605f94185216dde0465e68b9d57c20dacbc49ca9cccf179b645991664b39d77ef317c71b845b1e30bd509112041d3a19783"
+    }
+
+    def "vault header keeps the key derivation parameters"() {
+        given:
+        VaultHeader header = VaultHeader.create(keyDerivation)
+
+        when:
+        VaultHeader read = VaultHeader.read(new ByteArrayInputStream(header.toBytes()))
+
+        then:
+        read == header
+        read.keyDerivation == keyDerivation
+        read.keyDerivation.toString() == description
+
+        where:
+        keyDerivation                     | description
+        KeyDerivation.pbkdf2Sha1(1024)    | "PBKDF2-SHA1, 1024 iterations"
+        KeyDerivation.pbkdf2Sha256(50000) | "PBKDF2-SHA256, 50000 iterations"
+        KeyDerivation.scrypt(15, 8, 1)    | "scrypt, N=2^15, r=8, p=1"
+    }
+
+    def "unknown key derivation is rejected"() {
+        given:
+        byte[] bytes = VaultHeader.create().toBytes()
+        bytes[VaultHeader.MAGIC.length + 1] = 9
+
+        when:
+        VaultHeader.read(new ByteArrayInputStream(bytes))
+
+        then:
+        def e = thrown(ManagerException)
+        e.message == "Unsupported key derivation: 9"
+    }
+
+    def "key derivation costs above the limits are rejected before deriving"() {
+        when:
+        KeyDerivation.of(id, parameters)
+
+        then:
+        def e = thrown(ManagerException)
+        e.message.startsWith("Unsupported key derivation")
+
+        where:
+        id | parameters
+        2  | Integer.MAX_VALUE
+        1  | 10_000_001
+        3  | (24 << 16) + (255 << 8) + 255
+        3  | (10 << 16) + (255 << 8) + 255
+    }
+
+    def "calibration scales the cost to the target time"() {
+        when:
+        KeyDerivation fast = KeyDerivation.calibrate(algorithm, 20)
+        KeyDerivation slow = KeyDerivation.calibrate(algorithm, 160)
+
+        then:
+        fast.algorithm == algorithm
+        slow.parameters > fast.parameters
+        slow.measure() < 1_000_000_000L
+
+        where:
+        algorithm << [KeyDerivation.Algorithm.PBKDF2_SHA256, KeyDerivation.Algorithm.SCRYPT]
+    }
+
+    def "streams record their key derivation and legacy streams still decrypt"() {
+        given:
+        AES256 crypt = new AES256()
+        crypt.keyDerivation = KeyDerivation.scrypt(10, 8, 1)
+        byte[] content = "secret".getBytes(StandardCharsets.UTF_8)
+        def encrypted = new ByteArrayOutputStream()
+        crypt.encrypt(new ByteArrayInputStream(content), encrypted, "password")
+        byte[] salt = new byte[16]
+        byte[] noncePrefix = AES256Stream.newNoncePrefix()
+        def legacy = new ByteArrayOutputStream()
+        legacy.write([0x50, 0x53, 0x45, 1] as byte[])
+        legacy.write(salt)
+        legacy.write(noncePrefix)
+        AES256Stream.encrypt(new ByteArrayInputStream(content), legacy, KeyDerivation.LEGACY.derive("password", salt, 32), noncePrefix)
+
+        when:
+        def decrypted = new ByteArrayOutputStream()
+        new AES256().decrypt(new ByteArrayInputStream(encrypted.toByteArray()), decrypted, "password")
+        def legacyDecrypted = new ByteArrayOutputStream()
+        new AES256().decrypt(new ByteArrayInputStream(legacy.toByteArray()), legacyDecrypted, "password")
+
+        then:
+        encrypted.toByteArray()[3] == 2
+        encrypted.toByteArray()[4] == 3
+        decrypted.toByteArray() == content
+        legacyDecrypted.toByteArray() == content
+        new AES256().isEncrypted(new BufferedInputStream(new ByteArrayInputStream(legacy.toByteArray())))
+    }
+}
@@ -0,0 +1,95 @@
+package ru.av.passwordshelter.core
+
+import spock.lang.Specification
+
+import java.nio.charset.StandardCharsets
+
+class KeyValueStoreTest extends Specification {
+
+    File directory = File.createTempDir()
+    String filename = new File(directory, "store").path
+
+    def cleanup() {
+        directory.deleteDir()
+    }
+
+    def "check that committed rows are found by key and by prefix"() {
+        given: "store with rows under two prefixes"
+        KeyValueStore.create(filename, 0)
+        KeyValueStore store = KeyValueStore.open(filename)
+        commit(store, [a1: "1", a2: "2", b1: "3"])
+        commit(store, [a2: null, a3: "4"])
+
+        expect: "point lookups and range scans see the last committed values"
+        text(store.get(bytes("a1"))) == "1"
+        store.get(bytes("a2")) == null
+        store.scan(bytes("a")).collect { text(it) } == ["1", "4"]
+        store.count(bytes("b")) == 1
+
+        and: "a reopened store replays the same state"
+        KeyValueStore reopened = KeyValueStore.open(filename)
+        reopened.scan(bytes("")).collect { text(it) } == ["1", "4", "3"]
+
+        cleanup:
+        store?.close()
+        reopened?.close()
+    }
+
+    def "check that a torn transaction is ignored and overwritten by the next commit"() {
+        given: "store with a committed row and a broken tail"
+        KeyValueStore.create(filename, 0)
+        KeyValueStore store = KeyValueStore.open(filename)
+        commit(store, [a: "1"])
+        store.close()
+        long committed = new File(filename).length()
+        new File(filename).append([1, 1, 'b' as char, 0, 0] as byte[])
+
+        when: "store is opened"
+        store = KeyValueStore.open(filename)
+
+        then: "only the committed row is visible"
+        store.scan(bytes("")).collect { text(it) } == ["1"]
+
+        when: "next transaction is committed"
+        commit(store, [c: "2"])
+
+        then: "it replaces the broken tail"
+        KeyValueStore.open(filename).withCloseable { it.scan(bytes("")).collect { text(it) } } == ["1", "2"]
+        new File(filename).length() > committed
+
+        cleanup:
+        store?.close()
+    }
+
+    def "check that compaction keeps live rows and drops overwritten ones"() {
+        given: "store with a low compaction threshold"
+        KeyValueStore.create(filename, 0)
+        KeyValueStore store = KeyValueStore.open(filename)
+        store.compactionThreshold = 100
+
+        when: "the same row is overwritten many times"
+        (0..<100).each { commit(store, [a: "value" + it, b: "keep"]) }
+
+        then: "the file holds little more than the live rows"
+        store.generation > 0
+        new File(filename).length() < 500
+        KeyValueStore.open(filename).withCloseable { it.scan(bytes("")).collect { text(it) } } == ["value99", "keep"]
+
+        cleanup:
+        store?.close()
+    }
+
+    private static void commit(KeyValueStore store, Map<String, String> rows) {
+        KeyValueStore.Batch batch = new KeyValueStore.Batch()
+        rows.each { key, value -> value == null ? batch.delete(bytes(key)) : batch.put(bytes(key), bytes(value)) }
+        store.commit(batch)
+    }
+
+    private static byte[] bytes(String value) {
+        value.getBytes(StandardCharsets.UTF_8)
+    }
+
+    private static String text(byte[] value) {
+        new String(value, StandardCharsets.UTF_8)
+    }
+}
@@ -0,0 +1,99 @@
+package ru.av.passwordshelter.core
+
+import spock.lang.Requires
+import spock.lang.Specification
+
+import java.nio.file.Files
+
+class MetricsTest extends Specification {
+
+    def directory = Files.createTempDirectory("metrics")
+    def filename = directory.resolve("vault").toString()
+
+    def setup() {
+        Metrics.registry.reset()
+    }
+
+    def cleanup() {
+        Metrics.enabled = false
+        Metrics.registry.reset()
+        directory.toFile().deleteDir()
+    }
+
+    def "histogram percentiles stay within one sub-bucket"() {
+        given:
+        def histogram = new LatencyHistogram()
+
+        when:
+        (1..1000).each { histogram.record(it * 1000L) }
+
+        then:
+        histogram.count == 1000
+        histogram.maxNanos == 1_000_000
+        Math.abs(histogram.percentile(50) - 500_000) <= 500_000 / 8
+        Math.abs(histogram.percentile(99) - 990_000) <= 990_000 / 8
+        histogram.percentile(100) == 1_000_000
+        new LatencyHistogram().percentile(99) == 0
+    }
+
+    def "records nothing while disabled"() {
+        given:
+        def manager = new JsonManager(filename)
+        manager.createFile("master")
+
+        when:
+        manager.add("github", "me", "secret", "master")
+
+        then:
+        Metrics.registry.histograms.isEmpty()
+    }
+
+    def "records operations and their phases"() {
+        given:
+        def manager = new JsonManager(filename)
+        manager.createFile("master")
+        Metrics.enabled = true
+
+        when:
+        manager.add("github", "me", "secret", "master")
+        manager.getPassword("github", "me", "master")
+
+        then:
+        def registry = Metrics.registry
+        registry.getHistogram("unlock", null).count == 2
+        registry.getHistogram("unlock", Phase.KEY_DERIVATION).count == 2
+        registry.getHistogram("add", null).count == 1
+        registry.getHistogram("add", Phase.LOCK).count == 1
+        registry.getHistogram("add", Phase.ENCRYPT).count == 2
+        registry.getHistogram("add", Phase.WRITE).count == 1
+        registry.getHistogram("getPassword", null).count == 1
+        [Phase.READ, Phase.DECRYPT, Phase.PARSE, Phase.JOURNAL].every { registry.getHistogram("getPassword", it).count > 0 }
+        registry.histograms.keySet().containsAll(["add", "add.write", "getPassword", "getPassword.decrypt"])
+    }
+
+    @Requires({ jvm.java11Compatible })
+    def "emits flight recorder events"() {
+        given:
+        def manager = new JsonManager(filename)
+        manager.createFile("master")
+        Metrics.enabled = true
+        def recording = Class.forName("jdk.jfr.Recording").newInstance()
+        recording.enable("ru.av.passwordshelter.Operation")
+        recording.enable("ru.av.passwordshelter.Phase")
+        recording.start()
+
+        when:
+        manager.getSourceList("master")
+        recording.stop()
+        def dump = directory.resolve("recording.jfr")
+        recording.dump(dump)
+        def events = Class.forName("jdk.jfr.consumer.RecordingFile").readAllEvents(dump)
+
+        then:
+        events.any { it.eventType.name == "ru.av.passwordshelter.Operation" && it.getString("operation") == "getSourceList" }
+        events.any { it.eventType.name == "ru.av.passwordshelter.Phase" && it.getString("operation") == "getSourceList" && it.getString("phase") == "READ" }
+
+        cleanup:
+        recording?.close()
+    }
+}
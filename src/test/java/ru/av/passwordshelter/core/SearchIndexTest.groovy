@@ -0,0 +1,74 @@
+package ru.av.passwordshelter.core
+
+import spock.lang.Specification
+
+class SearchIndexTest extends Specification {
+
+    SearchIndex index = SearchIndex.build(new TreeMap([
+            "github"       : ["alice", "bob"],
+            "gitlab"       : ["alice"],
+            "mail.google"  : ["alice@gmail.com"],
+            "bank"         : ["alice.smith"],
+            "git"          : ["root"],
+    ]))
+
+    def "ranks exact, prefix, substring and fuzzy matches"() {
+        when:
+        def results = index.search(query, 10)
+
+        then:
+        results*.toString() == expected
+        results*.match == matches
+
+        where:
+        query    | expected                                     | matches
+        "git"    | ["git/root", "github/alice", "github/bob", "gitlab/alice"] | [SearchResult.Match.EXACT] + [SearchResult.Match.PREFIX] * 3
+        "google" | ["mail.google/alice@gmail.com"]              | [SearchResult.Match.SUBSTRING]
+        "githb"  | ["github/alice", "github/bob"]               | [SearchResult.Match.FUZZY] * 2
+        "gtihub" | ["github/alice", "github/bob"]               | [SearchResult.Match.FUZZY] * 2
+        "zzz"    | []                                           | []
+    }
+
+    def "every token must match the source or the account"() {
+        expect:
+        index.search("git alice", 10)*.toString() == ["github/alice", "gitlab/alice"]
+        index.search("github/bob", 10)*.toString() == ["github/bob"]
+        index.search("ALICE", 1)*.toString() == ["github/alice"]
+    }
+
+    def "short queries fall back to substring scan"() {
+        expect:
+        index.search("ob", 10)*.toString() == ["github/bob"]
+        index.search("ob", 10)*.match == [SearchResult.Match.SUBSTRING]
+    }
+
+    def "session builds the index once and rebuilds it after its own writes"() {
+        given:
+        def directory = File.createTempDir()
+        def manager = new JsonManager(new File(directory, "vault").path)
+        manager.keyDerivation = KeyDerivation.pbkdf2Sha256(1000)
+        manager.createFile("master")
+        def session = manager.unlock("master")
+        session.add("github", "alice", "secret")
+
+        expect:
+        session.search("github", 10)*.toString() == ["github/alice"]
+
+        when:
+        Metrics.enabled = true
+        session.search("alice", 10)
+        session.add("github", "bob", "secret")
+        def found = session.search("bob", 10)
+
+        then:
+        found*.toString() == ["github/bob"]
+        Metrics.registry.getHistogram("buildSearchIndex", null).count == 1
+        Metrics.registry.getHistogram("search", null).count == 2
+
+        cleanup:
+        Metrics.enabled = false
+        Metrics.registry.reset()
+        session?.close()
+        directory.deleteDir()
+    }
+}
@@ -0,0 +1,90 @@
+package ru.av.passwordshelter.core
+
+import spock.lang.Specification
+
+import java.nio.charset.StandardCharsets
+
+class SecretTest extends Specification {
+
+    def "secret keeps UTF-8 bytes off heap and decodes them back"() {
+        given:
+        Secret secret = Secret.of(password.toCharArray())
+
+        expect:
+        secret.buffer().isDirect()
+        secret.length() == password.getBytes(StandardCharsets.UTF_8).length
+        secret.toBytes() == password.getBytes(StandardCharsets.UTF_8)
+        new String(secret.toChars()) == password
+        secret.isEmpty() == password.isEmpty()
+
+        where:
+        password << ["", "password", "пароль", "密码🔑"]
+    }
+
+    def "secrets are compared by content and never printed"() {
+        expect:
+        Secret.of("password") == Secret.of("password".toCharArray())
+        Secret.of("password") != Secret.of("passwore")
+        Secret.of("password") != Secret.of("password1")
+        Secret.of("password").toString() == "Secret[8 bytes]"
+    }
+
+    def "writeTo streams the bytes"() {
+        given:
+        byte[] bytes = new byte[1000]
+        new Random(1).nextBytes(bytes)
+        ByteArrayOutputStream output = new ByteArrayOutputStream()
+
+        when:
+        Secret.of(bytes, 0, bytes.length).writeTo(output)
+
+        then:
+        output.toByteArray() == bytes
+    }
+
+    def "wipe zeroes the buffer and makes the secret unusable"() {
+        given:
+        Secret secret = Secret.of("password")
+        def buffer = secret.buffer()
+
+        when:
+        secret.close()
+
+        then:
+        secret.isWiped()
+        (0..<buffer.clear().capacity()).every { buffer.get(it) == 0 as byte }
+        secret != Secret.of("password")
+        secret.toString() == "Secret[wiped]"
+
+        when:
+        secret.toChars()
+
+        then:
+        thrown(IllegalStateException)
+
+        when:
+        secret.wipe()
+
+        then:
+        noExceptionThrown()
+    }
+
+    def "derived key encrypts and decrypts secrets"() {
+        given:
+        CryptKey key = new AES256().deriveKey(Secret.of("master"), new byte[16], KeyDerivation.pbkdf2Sha256(1000))
+
+        when:
+        byte[] encrypted = key.encrypt(Secret.of("пароль"))
+
+        then:
+        key.decryptSecret(encrypted) == Secret.of("пароль")
+        new String(key.decrypt(encrypted), StandardCharsets.UTF_8) == "пароль"
+        key.decryptSecret(key.encrypt("plain".getBytes(StandardCharsets.UTF_8))) == Secret.of("plain")
+
+        when:
+        key.decryptSecret(new byte[8])
+
+        then:
+        thrown(CryptException)
+    }
+}
@@ -0,0 +1,185 @@
+package ru.av.passwordshelter.core
+
+import spock.lang.Specification
+
+class StoreManagerTest extends Specification {
+
+    File directory = File.createTempDir()
+    String filename = new File(directory, "store").path
+
+    def cleanup() {
+        directory.deleteDir()
+    }
+
+    def "check that store keeps sources, accounts and passwords like the json vault"() {
+        given: "new store"
+        StoreManager manager = manager()
+        manager.createFile("master")
+
+        when: "accounts are added, changed and deleted"
+        manager.unlock("master").withCloseable { Session session ->
+            session.add("github", "bob", "p1")
+            session.add("github", "alice", "p2")
+            session.add("mail", "alice", Secret.of("p3"))
+            session.changePassword("github", "bob", "p4")
+            session.delete("mail", "alice")
+        }
+
+        then: "listings are sorted and passwords read back"
+        StoreManager.isStore(filename)
+        manager.getSourceList("master") == ["github"]
+        manager.getAllAccountsMap("master") == [github: ["alice", "bob"]]
+        manager.getAccountList("github", "master") == ["alice", "bob"]
+        manager.getPassword("github", "bob", "master") == "p4"
+        manager.search("alic", 10, "master")*.toString() == ["github/alice"]
+        manager.getRevision("master") == 5
+
+        when: "an unknown source is requested"
+        manager.getAccountList("mail", "master")
+
+        then: "it is rejected"
+        ManagerException e = thrown()
+        e.message == "Unknown source: mail"
+    }
+
+    def "check that apply applies nothing when any operation is invalid"() {
+        given: "store with one account"
+        StoreManager manager = manager()
+        manager.createFile("master")
+        manager.add("source1", "account1", "p1", "master")
+
+        when: "apply is called with invalid operations"
+        List<OperationResult> results = manager.apply([Operation.add("s1", "a1", "p1"),
+                                                       Operation.add("source1", "account1", "p1"),
+                                                       Operation.delete("source2", "a1")], "master")
+
+        then: "it reports the reason for every operation and keeps the store"
+        results*.applied == [false, false, false]
+        results*.error == ["Not applied, another operation in the batch failed", "Account already exists", "Unknown source: source2"]
+        manager.getSourceList("master") == ["source1"]
+        manager.getRevision("master") == 1
+
+        when: "operations in one batch depend on each other"
+        results = manager.apply([Operation.add("s1", "a1", "p1"), Operation.change("s1", "a1", "p2"),
+                                 Operation.delete("source1", "account1")], 1, "master")
+
+        then: "they see the earlier operations"
+        results*.applied == [true, true, true]
+        manager.getAllAccountsMap("master") == [s1: ["a1"]]
+        manager.getPassword("s1", "a1", "master") == "p2"
+
+        when: "the revision is stale"
+        manager.apply([Operation.add("s2", "a2", "p")], 1, "master")
+
+        then: "it is rejected"
+        thrown(RevisionConflictException)
+    }
+
+    def "check that importEntries of an empty input keeps the revision"() {
+        given: "store with one account"
+        StoreManager manager = manager()
+        manager.createFile("master")
+        manager.add("source1", "account1", "p1", "master")
+        long revision = manager.getRevision("master")
+
+        when: "an input without entries is imported"
+        long count = manager.importEntries(new CsvEntryReader(new StringReader("source,account,password\n")), null, "master")
+
+        then: "nothing is committed"
+        count == 0
+        manager.getRevision("master") == revision
+    }
+
+    def "check that wrong master password is rejected on unlock"() {
+        given: "store"
+        manager().createFile("master")
+
+        when: "unlock is called with wrong password"
+        manager().unlock("wrong")
+
+        then: "it throws CryptException"
+        thrown(CryptException)
+    }
+
+    def "check that changeMasterPassword re-encrypts every row under the new key"() {
+        given: "store with accounts"
+        StoreManager manager = manager()
+        manager.createFile("old")
+        manager.apply((0..<5).collect { Operation.add("source" + it % 2, "account" + it, "password" + it) }, "old")
+        Session stale = manager.unlock("old")
+        List<List<Long>> progress = []
+
+        when: "changeMasterPassword is called"
+        manager.changeMasterPassword("old", "new", { done, total -> progress << [done, total] } as ProgressListener)
+
+        then: "passwords are readable with the new master password only"
+        manager.getAllAccountsMap("new") == [source0: ["account0", "account2", "account4"], source1: ["account1", "account3"]]
+        (0..<5).every { manager.getPassword("source" + it % 2, "account" + it, "new") == "password" + it }
+        manager.getRevision("new") == 2
+        progress.last() == [5L, 5L]
+
+        when: "session opened with the old key is used"
+        stale.getSourceList()
+
+        then: "it has to unlock again"
+        thrown(CryptException)
+
+        when: "the old master password is used"
+        manager.unlock("old")
+
+        then: "it is rejected"
+        thrown(CryptException)
+
+        cleanup:
+        stale?.close()
+    }
+
+    def "check that migrate copies every account from the json vault"() {
+        given: "json vault"
+        JsonManager json = new JsonManager(new File(directory, "vault").path)
+        json.keyDerivation = KeyDerivation.pbkdf2Sha256(1000)
+        json.createFile("master")
+        json.apply((0..<25).collect { Operation.add("source" + it % 3, "account" + it, "password" + it) }, "master")
+        StoreManager manager = manager()
+        manager.chunkSize = 10
+
+        when: "migrate is called"
+        long count = json.unlock("master").withCloseable { Session session ->
+            manager.migrate(session, Secret.of("master"), null)
+        }
+
+        then: "store has the same accounts and passwords"
+        count == 25
+        manager.getAllAccountsMap("master") == json.getAllAccountsMap("master")
+        (0..<25).every { manager.getPassword("source" + it % 3, "account" + it, "master") == "password" + it }
+        !new File(filename + ".tmp").exists()
+    }
+
+    def "check that sessions see writes of other managers and survive compaction"() {
+        given: "store opened by two managers"
+        manager().createFile("master")
+        StoreManager writer = manager()
+        writer.compactionThreshold = 256
+        Session reader = manager().unlock("master")
+
+        when: "one manager overwrites the same account many times"
+        writer.add("source", "account", "p0", "master")
+        writer.unlock("master").withCloseable { Session session ->
+            (1..50).each { session.changePassword("source", "account", "p" + it) }
+        }
+
+        then: "the other session reads the latest value and the file stays small"
+        reader.getPassword("source", "account") == "p50"
+        reader.getRevision() == 51
+        new File(filename).length() < 4096
+
+        cleanup:
+        reader?.close()
+    }
+
+    private StoreManager manager() {
+        StoreManager manager = new StoreManager(filename)
+        manager.keyDerivation = KeyDerivation.pbkdf2Sha256(1000)
+        manager
+    }
+}
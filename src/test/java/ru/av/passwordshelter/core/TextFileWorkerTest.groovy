@@ -0,0 +1,72 @@
+package ru.av.passwordshelter.core
+
+import spock.lang.Specification
+
+import java.nio.file.Files
+import java.nio.file.Path
+
+class TextFileWorkerTest extends Specification {
+
+    Path directory = Files.createTempDirectory("file-worker")
+
+    def cleanup() {
+        directory.toFile().deleteDir()
+    }
+
+    def "check that write replaces the file and leaves no temporary files"() {
+        given: "existing file and worker with durability mode"
+        String filename = directory.resolve("vault").toString()
+        TextFileWorker fileWorker = new TextFileWorker(durability)
+        fileWorker.write("old content that is longer than the new one", filename)
+
+        when: "write is called"
+        fileWorker.write("new content", filename)
+
+        then: "file has the new content only"
+        fileWorker.read(filename) == "new content"
+
+        and: "temporary file is renamed"
+        directory.toFile().list() as List == ["vault"]
+
+        where:
+        durability << TextFileWorker.Durability.values()
+    }
+
+    def "check that append adds content to the end of the file"() {
+        given: "existing file"
+        String filename = directory.resolve("vault").toString()
+        TextFileWorker fileWorker = new TextFileWorker()
+        fileWorker.write([1, 2] as byte[], filename)
+
+        when: "append is called"
+        fileWorker.append([3] as byte[], filename)
+
+        then: "content is appended"
+        fileWorker.readBytes(filename) == [1, 2, 3] as byte[]
+    }
+
+    def "check that truncate cuts the file in place"() {
+        given: "existing file"
+        String filename = directory.resolve("vault").toString()
+        TextFileWorker fileWorker = new TextFileWorker()
+        fileWorker.write([1, 2, 3, 4] as byte[], filename)
+
+        when: "truncate is called"
+        fileWorker.truncate(filename, 2)
+
+        then: "only the head is kept"
+        fileWorker.readBytes(filename) == [1, 2] as byte[]
+    }
+
+    def "check that text and bytes are read back whole"() {
+        given: "file with multi-byte characters"
+        String filename = directory.resolve("vault").toString()
+        TextFileWorker fileWorker = new TextFileWorker()
+        String content = "\u043a\u0438\u0440\u0438\u043b\u043b\u0438\u0446\u0430 and latin " * 100
+        fileWorker.write(content, filename)
+
+        expect: "content is read correctly"
+        fileWorker.read(filename) == content
+        fileWorker.readBytes(filename) == content.getBytes("UTF-8")
+    }
+}
\ No newline at end of file
@@ -0,0 +1,120 @@
+package ru.av.passwordshelter.core
+
+import spock.lang.Specification
+
+class VaultTest extends Specification {
+
+    def "check that index keeps sorted sources and accounts with record positions"() {
+        given: "vault with unsorted sources and accounts"
+        Vault vault = new Vault()
+        vault.add("b", "y", [1, 2, 3] as byte[])
+        vault.add("a", "z", [4, 5] as byte[])
+        vault.add("a", "x", [6] as byte[])
+
+        when: "index is written and read back"
+        Vault index = Vault.fromIndex(vault.toIndex())
+
+        then: "sources and accounts are sorted"
+        index.getAllAccountsMap() == ["a": ["x", "z"], "b": ["y"]]
+
+        and: "records follow each other in index order"
+        [["a", "x"], ["a", "z"], ["b", "y"]].collect {
+            Vault.Record record = index.getRecord(it[0], it[1])
+            [record.offset, record.length]
+        } == [[0, 1], [1, 2], [3, 3]]
+    }
+
+    def "check that readRecords reads records written by writeRecords"() {
+        given: "vault with records"
+        Vault vault = new Vault()
+        vault.add("source", "account1", [1, 2, 3] as byte[])
+        vault.add("source", "account2", [4, 5] as byte[])
+        ByteArrayOutputStream records = new ByteArrayOutputStream()
+        vault.writeRecords(records)
+        records.write([9, 9] as byte[])
+        ByteArrayInputStream input = new ByteArrayInputStream(records.toByteArray())
+
+        when: "records are read from the index"
+        Vault read = Vault.fromIndex(vault.toIndex())
+        read.readRecords(input)
+
+        then: "record contents are correct and the stream stops after the last record"
+        read.getRecord("source", "account1").content == [1, 2, 3] as byte[]
+        read.getRecord("source", "account2").content == [4, 5] as byte[]
+        input.available() == 2
+    }
+
+    def "check that readRecords throws ManagerException for truncated records"() {
+        given: "index with records and a shorter records region"
+        Vault vault = new Vault()
+        vault.add("source", "account1", [1, 2, 3] as byte[])
+        vault.add("source", "account2", [4, 5] as byte[])
+
+        when: "records are read from the index"
+        Vault.fromIndex(vault.toIndex()).readRecords(new ByteArrayInputStream([1, 2, 3, 4] as byte[]))
+
+        then: "it throws ManagerException"
+        thrown(ManagerException)
+    }
+
+    def "check that deflated index inflates back and corrupted index is rejected"() {
+        given: "index of a vault with repetitive names"
+        Vault vault = new Vault()
+        (0..<200).each { Journal.apply(vault, Journal.ADD, "source" + it % 10, "account" + it, new byte[32]) }
+        byte[] index = vault.toIndex()
+
+        when: "index is deflated"
+        byte[] compressed = Deflate.compress(index, level)
+
+        then: "it is smaller and inflates to the same bytes"
+        compressed.length < index.length / 2
+        Deflate.decompress(compressed) == index
+
+        when: "compressed bytes are truncated"
+        Deflate.decompress(Arrays.copyOf(compressed, compressed.length - 8))
+
+        then: "ManagerException is thrown"
+        thrown(ManagerException)
+
+        where:
+        level << [1, 9]
+    }
+
+    def "check that fromIndex and parseJson throw ManagerException for wrong structure"() {
+        when: "parse is called"
+        parse.call()
+
+        then: "it throws ManagerException"
+        thrown(ManagerException)
+
+        where:
+        parse << [
+                { Vault.fromIndex(UUID.randomUUID().toString().bytes) },
+                { Vault.parseJson(UUID.randomUUID().toString()) },
+                { Vault.parseJson('{"source":"password"}') }
+        ]
+    }
+
+    def "check that parseJson reads sources and accounts including empty ones"() {
+        expect: "parsed maps match the json"
+        Vault.parseJson(json) == expected
+
+        where:
+        json                                                  | expected
+        '{}'                                                  | [:]
+        '{"empty":{}}'                                        | [empty: [:]]
+        '{"b":{"y":"2","x":"1"},"a":{"z":"3"}}'               | [a: [z: '3'], b: [x: '1', y: '2']]
+    }
+
+    def "check that delete removes empty source"() {
+        given: "vault with one account"
+        Vault vault = new Vault()
+        vault.add("source", "account", [1] as byte[])
+
+        when: "delete is called"
+        vault.delete("source", "account")
+
+        then: "source is removed"
+        vault.getSourceList().isEmpty()
+    }
+}
\ No newline at end of file